@@ -0,0 +1,165 @@
+package com.experis.dbmanager.blob;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+
+/**
+ * Blob store content-addressed su filesystem per il pattern claim check.
+ * <p>
+ * Il riferimento di un contenuto è {@code sha256:<hash esadecimale>} e il file è salvato in
+ * {@code <root>/<hash[0..2]>/<hash[2..4]>/<hash>}: contenuti identici occupano un solo file e il riferimento
+ * permette di verificarne l'integrità. La scrittura passa da un file temporaneo spostato atomicamente,
+ * così un lettore non vede mai un file parziale. Le letture usano file mappati in memoria
+ * o {@link FileChannel#transferTo} per evitare copie nello heap.
+ * <p>
+ * La directory radice deve essere condivisa tra i servizi che si scambiano i riferimenti (volume docker).
+ */
+public class FileSystemBlobStore {
+
+    public static final String REF_PREFIX = "sha256:";
+    private static final Pattern REF_PATTERN = Pattern.compile("sha256:[0-9a-f]{64}");
+
+    private final Path root;
+
+    public FileSystemBlobStore(Path root) throws IOException {
+        this.root = Files.createDirectories(root);
+    }
+
+    public static boolean isRef(String value) {
+        return value != null && REF_PATTERN.matcher(value).matches();
+    }
+
+    /**
+     * Salva il testo in UTF-8.
+     *
+     * @return il riferimento al contenuto
+     */
+    public String put(String content) throws IOException {
+        return put(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Salva il contenuto se non è già presente.
+     *
+     * @return il riferimento al contenuto
+     */
+    public String put(byte[] content) throws IOException {
+        String hash = sha256(ByteBuffer.wrap(content));
+        Path target = pathOf(hash);
+        if (Files.exists(target)) {
+            return REF_PREFIX + hash;
+        }
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), hash, ".tmp");
+        try {
+            Files.write(temp, content);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Scritto in parallelo da un'altra richiesta con lo stesso contenuto
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return REF_PREFIX + hash;
+    }
+
+    public boolean exists(String ref) {
+        return Files.exists(resolve(ref));
+    }
+
+    public long size(String ref) throws IOException {
+        return Files.size(resolve(ref));
+    }
+
+    /**
+     * Legge l'intero contenuto come testo UTF-8, decodificando direttamente dal file mappato.
+     */
+    public String read(String ref) throws IOException {
+        try (FileChannel channel = FileChannel.open(resolve(ref), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return StandardCharsets.UTF_8.decode(buffer).toString();
+        }
+    }
+
+    /**
+     * Legge al massimo {@code maxChars} caratteri iniziali, mappando solo i byte necessari.
+     */
+    public String readPrefix(String ref, int maxChars) throws IOException {
+        try (FileChannel channel = FileChannel.open(resolve(ref), StandardOpenOption.READ)) {
+            // Un carattere UTF-8 occupa al massimo 4 byte
+            long length = Math.min(channel.size(), (long) maxChars * 4);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer chars = CharBuffer.allocate(maxChars);
+            decoder.decode(buffer, chars, length == channel.size());
+            return chars.flip().toString();
+        }
+    }
+
+    /**
+     * Copia il contenuto sul canale indicato senza passare dallo heap (sendfile dove supportato).
+     *
+     * @return numero di byte trasferiti
+     */
+    public long transferTo(String ref, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(resolve(ref), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            return position;
+        }
+    }
+
+    /**
+     * Ricalcola l'hash del file e lo confronta con il riferimento.
+     */
+    public boolean verify(String ref) throws IOException {
+        try (FileChannel channel = FileChannel.open(resolve(ref), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return ref.equals(REF_PREFIX + sha256(buffer));
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException se il riferimento non è nel formato atteso
+     */
+    public Path resolve(String ref) {
+        if (!isRef(ref)) {
+            throw new IllegalArgumentException("Riferimento blob non valido: " + ref);
+        }
+        return pathOf(ref.substring(REF_PREFIX.length()));
+    }
+
+    private Path pathOf(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private static String sha256(ByteBuffer content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+}
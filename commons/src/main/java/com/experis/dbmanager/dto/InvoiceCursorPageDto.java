@@ -0,0 +1,27 @@
+package com.experis.dbmanager.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Schema(
+        name = "InvoiceCursorPage",
+        description = "Schema to hold a page of invoices read with keyset (cursor) pagination"
+)
+@Data @AllArgsConstructor @NoArgsConstructor
+public class InvoiceCursorPageDto {
+
+    @Schema(
+            description = "Invoices of the page, ordered by the seek key"
+    )
+    private List<InvoiceDto> content;
+
+    @Schema(
+            description = "Opaque cursor to pass as 'cursor' to fetch the next page; null on the last page"
+    )
+    private String nextCursor;
+
+}
@@ -19,11 +19,14 @@ public class InvoiceDto extends BaseDto implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
-    private int invoiceNumber;
+    private long invoiceNumber;
     private InvoiceStatus invoiceStatus;
     private String invoice;
+    // Claim check: riferimento al corpo XML nel blob store condiviso (sha256:<hash>), in alternativa a invoice
+    private String invoiceRef;
     private CustomerDto customer;
     private String callback;
     private LocalDateTime statusLastUpdatedAt;
     private String correlationId;
+    private String replyTo;
 }
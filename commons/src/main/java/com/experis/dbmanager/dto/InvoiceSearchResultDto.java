@@ -0,0 +1,30 @@
+package com.experis.dbmanager.dto;
+
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// Fattura trovata dalla ricerca: intestazione e campi estratti dal corpo FatturaPA, senza il corpo XML
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InvoiceSearchResultDto {
+
+    private long invoiceNumber;
+    private InvoiceStatus invoiceStatus;
+    private int customerId;
+    private LocalDateTime createdAt;
+    private String supplierVat;
+    private String supplierName;
+    private String customerVat;
+    private String customerTaxCode;
+    private String customerName;
+    private String documentNumber;
+    private LocalDate documentDate;
+    private BigDecimal totalAmount;
+}
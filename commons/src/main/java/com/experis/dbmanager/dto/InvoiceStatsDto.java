@@ -0,0 +1,38 @@
+package com.experis.dbmanager.dto;
+
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+@Schema(
+        name = "InvoiceStats",
+        description = "Schema to hold the number of invoices for a group of creation day, customer and status"
+)
+@Data @AllArgsConstructor @NoArgsConstructor
+public class InvoiceStatsDto {
+
+    @Schema(
+            description = "Creation day of the invoices; null when the result is not grouped by day"
+    )
+    private LocalDate day;
+
+    @Schema(
+            description = "Customer of the invoices; null when the result is not grouped by customer"
+    )
+    private Integer customerId;
+
+    @Schema(
+            description = "Current status of the invoices; null when the result is not grouped by status"
+    )
+    private InvoiceStatus invoiceStatus;
+
+    @Schema(
+            description = "Number of invoices in the group"
+    )
+    private long invoiceCount;
+
+}
@@ -0,0 +1,30 @@
+package com.experis.dbmanager.dto;
+
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+// Intestazione della fattura per le liste (view=summary): niente corpo XML e dal cliente solo username ed email
+@EqualsAndHashCode(callSuper = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InvoiceSummaryDto extends BaseDto implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private long invoiceNumber;
+    private InvoiceStatus invoiceStatus;
+    private int customerId;
+    private String customerUsername;
+    private String customerEmail;
+    private LocalDateTime statusLastUpdatedAt;
+    private String correlationId;
+}
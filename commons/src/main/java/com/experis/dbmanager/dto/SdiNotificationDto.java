@@ -14,7 +14,8 @@ import java.io.Serializable;
 @NoArgsConstructor
 public class SdiNotificationDto extends BaseDto implements Serializable {
     private Integer customerId;
-    private Integer invoiceNumber;
+    private Long invoiceNumber;
     private InvoiceStatus status;
     private String correlationId;
+    private String replyTo;
 }
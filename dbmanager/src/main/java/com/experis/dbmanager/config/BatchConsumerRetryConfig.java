@@ -0,0 +1,41 @@
+package com.experis.dbmanager.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.config.ListenerContainerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.util.backoff.ExponentialBackOff;
+
+import java.util.List;
+
+/**
+ * Retry dei binding in batch-mode, dove retry e DLQ del binder non si applicano: se la funzione rilancia
+ * (errori transitori del database, vedi KafkaConsumerService) l'intero poll è riconsegnato con back-off esponenziale,
+ * senza limite di tentativi. Un database non raggiungibile ferma il consumo invece di mandare le fatture in DLT;
+ * durante il back-off il consumer resta nel gruppo (il container mette in pausa le partizioni).
+ * Vale anche per le funzioni *Keyed (update-invoice e invoice-sent), il cui poll fallisce se l'invio in DLQ non riesce.
+ */
+@Configuration
+@Slf4j
+public class BatchConsumerRetryConfig {
+
+    @Bean
+    public ListenerContainerCustomizer<AbstractMessageListenerContainer<?, ?>> batchConsumerRetryCustomizer(
+            @Value("${app.consumer.batch-retry.destinations:save-invoice,update-invoice,invoice-sent}") List<String> destinations,
+            @Value("${app.consumer.batch-retry.back-off-initial-ms:1000}") long backOffInitialMs,
+            @Value("${app.consumer.batch-retry.back-off-max-ms:10000}") long backOffMaxMs,
+            @Value("${app.consumer.batch-retry.back-off-multiplier:2.0}") double backOffMultiplier) {
+        return (container, destination, group) -> {
+            if (!destinations.contains(destination)) {
+                return;
+            }
+            ExponentialBackOff backOff = new ExponentialBackOff(backOffInitialMs, backOffMultiplier);
+            backOff.setMaxInterval(backOffMaxMs);
+            container.setCommonErrorHandler(new DefaultErrorHandler(backOff));
+            log.info("Retry with back-off enabled for batch consumer of {} ({})", destination, group);
+        };
+    }
+}
@@ -0,0 +1,77 @@
+package com.experis.dbmanager.config;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Metriche Hikari standard (hikaricp.*) più l'attesa della connessione attribuita al metodo di repository in corso.
+ * Hikari registra l'acquisizione sul thread che chiede la connessione, quindi basta un ThreadLocal aperto da
+ * {@link RepositoryObservationInterceptor} attorno all'invocazione; fuori da un repository non viene registrato niente.
+ */
+public class ConnectionAcquireTrackerFactory implements MetricsTrackerFactory {
+
+    private static final ThreadLocal<long[]> ACQUIRE_NANOS = new ThreadLocal<>();
+
+    private final MetricsTrackerFactory delegate;
+
+    public ConnectionAcquireTrackerFactory(MeterRegistry meterRegistry) {
+        this.delegate = new MicrometerMetricsTrackerFactory(meterRegistry);
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        IMetricsTracker tracker = delegate.create(poolName, poolStats);
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+                tracker.recordConnectionCreatedMillis(connectionCreatedMillis);
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                tracker.recordConnectionAcquiredNanos(elapsedAcquiredNanos);
+                long[] current = ACQUIRE_NANOS.get();
+                if (current != null) {
+                    current[0] += elapsedAcquiredNanos;
+                }
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                tracker.recordConnectionUsageMillis(elapsedBorrowedMillis);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                tracker.recordConnectionTimeout();
+            }
+
+            @Override
+            public void close() {
+                tracker.close();
+            }
+        };
+    }
+
+    /**
+     * Inizia a sommare le attese di connessione del thread corrente.
+     * Restituisce false se un'invocazione più esterna le sta già sommando (repository chiamato da un altro repository).
+     */
+    static boolean begin() {
+        if (ACQUIRE_NANOS.get() != null) {
+            return false;
+        }
+        ACQUIRE_NANOS.set(new long[1]);
+        return true;
+    }
+
+    /** Nanosecondi di attesa sommati da {@link #begin()}; 0 se la connessione era già della transazione in corso. */
+    static long end() {
+        long[] current = ACQUIRE_NANOS.get();
+        ACQUIRE_NANOS.remove();
+        return current == null ? 0 : current[0];
+    }
+}
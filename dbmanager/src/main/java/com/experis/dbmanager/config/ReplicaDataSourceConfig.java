@@ -0,0 +1,73 @@
+package com.experis.dbmanager.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Letture sulle repliche Postgres: le transazioni read-only (repository con {@code @Transactional(readOnly = true)},
+ * export, ...) usano {@link ReplicaRoutingDataSource}, tutto il resto il primario.
+ * La connessione è presa solo al primo statement ({@link LazyConnectionDataSourceProxy}), quando il flag read-only
+ * della transazione è già impostato. Pool Hikari con le stesse impostazioni spring.datasource.hikari e metriche per pool
+ * (con l'attesa della connessione attribuita ai repository, vedi {@link ConnectionAcquireTrackerFactory}).
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.datasource.replicas.enabled", havingValue = "true")
+public class ReplicaDataSourceConfig {
+
+    @Bean
+    public HikariDataSource primaryDataSource(DataSourceProperties properties, Environment environment, MeterRegistry meterRegistry) {
+        return pool("primary", properties.determineUrl(), properties, environment, meterRegistry);
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaDataSource(@Qualifier("primaryDataSource") HikariDataSource primaryDataSource,
+                                                      DataSourceProperties properties,
+                                                      Environment environment,
+                                                      MeterRegistry meterRegistry,
+                                                      @Value("${app.datasource.replicas.urls}") List<String> urls,
+                                                      @Value("${app.datasource.replicas.max-lag-ms:5000}") long maxLagMs,
+                                                      @Value("${app.datasource.replicas.connection-timeout-ms:3000}") long connectionTimeoutMs) {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (int i = 0; i < urls.size(); i++) {
+            HikariDataSource replica = pool("replica-" + (i + 1), urls.get(i).trim(), properties, environment, meterRegistry);
+            replica.setReadOnly(true);
+            // Una replica irraggiungibile va esclusa in fretta, non dopo il timeout del primario
+            replica.setConnectionTimeout(connectionTimeoutMs);
+            replicas.put(replica.getPoolName(), replica);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, maxLagMs, meterRegistry);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") HikariDataSource primaryDataSource,
+                                 ReplicaRoutingDataSource replicaDataSource) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primaryDataSource);
+        dataSource.setReadOnlyDataSource(replicaDataSource);
+        return dataSource;
+    }
+
+    static HikariDataSource pool(String name, String url, DataSourceProperties properties, Environment environment, MeterRegistry meterRegistry) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).url(url).build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(dataSource));
+        dataSource.setPoolName(name);
+        dataSource.setMetricsTrackerFactory(new ConnectionAcquireTrackerFactory(meterRegistry));
+        return dataSource;
+    }
+}
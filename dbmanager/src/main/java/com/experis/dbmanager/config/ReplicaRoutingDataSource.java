@@ -0,0 +1,129 @@
+package com.experis.dbmanager.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DataSource delle transazioni read-only: distribuisce le connessioni a rotazione tra le repliche in linea
+ * e con ritardo di replica entro {@code max-lag-ms}; se nessuna replica è utilizzabile usa il primario.
+ * Il ritardo di ogni replica è misurato periodicamente da {@link #checkReplicas()}; all'avvio le repliche
+ * sono considerate non utilizzabili fino al primo controllo.
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    static final String PRIMARY = "primary";
+
+    // Ritardo 0 se non è una replica o se ha già applicato tutto il WAL ricevuto (primario senza scritture)
+    private static final String LAG_QUERY = "SELECT CASE WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0"
+            + " ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END";
+
+    private record Replica(String name, JdbcTemplate jdbcTemplate, AtomicLong lagMillis, AtomicBoolean usable, Counter routed) {
+    }
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final long maxLagMs;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Counter routedToPrimary;
+
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicaDataSources, long maxLagMs, MeterRegistry meterRegistry) {
+        this.maxLagMs = maxLagMs;
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        replicaDataSources.forEach((name, dataSource) -> {
+            targets.put(name, dataSource);
+            Replica replica = new Replica(name, new JdbcTemplate(dataSource), new AtomicLong(), new AtomicBoolean(),
+                    routedCounter(meterRegistry, name));
+            replicas.add(replica);
+            Gauge.builder("dbmanager.datasource.replica.lag", replica.lagMillis(), lag -> lag.get() / 1000.0)
+                    .description("Ritardo di replica misurato")
+                    .baseUnit("seconds")
+                    .tag("replica", name)
+                    .register(meterRegistry);
+            Gauge.builder("dbmanager.datasource.replica.usable", replica.usable(), usable -> usable.get() ? 1 : 0)
+                    .description("1 se la replica riceve le letture")
+                    .tag("replica", name)
+                    .register(meterRegistry);
+        });
+        this.routedToPrimary = routedCounter(meterRegistry, PRIMARY);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        super.afterPropertiesSet();
+        checkReplicas();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        int start = next.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+            if (replica.usable().get()) {
+                replica.routed().increment();
+                return replica.name();
+            }
+        }
+        routedToPrimary.increment();
+        return PRIMARY;
+    }
+
+    @Scheduled(fixedDelayString = "${app.datasource.replicas.check-interval-ms:2000}")
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            Long lag;
+            try {
+                lag = replica.jdbcTemplate().queryForObject(LAG_QUERY, Long.class);
+            } catch (DataAccessException e) {
+                lag = null;
+                if (replica.usable().get()) {
+                    log.warn("Replica {} non raggiungibile, letture sul primario: {}", replica.name(), e.getMessage());
+                }
+            }
+            updateReplica(replica.name(), lag);
+        }
+    }
+
+    /**
+     * @param lagMillis ritardo misurato, null se la replica non ha risposto
+     */
+    void updateReplica(String name, Long lagMillis) {
+        for (Replica replica : replicas) {
+            if (!replica.name().equals(name)) {
+                continue;
+            }
+            boolean usable = lagMillis != null && lagMillis <= maxLagMs;
+            if (lagMillis != null) {
+                replica.lagMillis().set(lagMillis);
+            }
+            if (replica.usable().getAndSet(usable) != usable) {
+                log.info("Replica {} {} (ritardo {} ms, massimo {} ms)", name, usable ? "in uso per le letture" : "esclusa dalle letture",
+                        lagMillis, maxLagMs);
+            }
+        }
+    }
+
+    private static Counter routedCounter(MeterRegistry meterRegistry, String target) {
+        return Counter.builder("dbmanager.datasource.read.routed")
+                .description("Connessioni read-only assegnate per destinazione")
+                .tag("target", target)
+                .register(meterRegistry);
+    }
+}
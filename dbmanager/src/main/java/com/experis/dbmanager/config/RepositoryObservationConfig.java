@@ -0,0 +1,58 @@
+package com.experis.dbmanager.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+
+/**
+ * Osservazione dei repository Spring Data e del pool Hikari (vedi {@link RepositoryObservationInterceptor}).
+ * L'interceptor è il primo advice del proxy di ogni repository, quindi la durata comprende anche la transazione
+ * aperta dal repository e l'attesa della connessione. Le metriche Spring Data equivalenti
+ * (management.metrics.data.repository) sono disattivate per non averle doppie.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.observability.repository.enabled", havingValue = "true", matchIfMissing = true)
+public class RepositoryObservationConfig {
+
+    @Bean
+    public static BeanPostProcessor repositoryObservationPostProcessor(ObjectProvider<MeterRegistry> meterRegistry, Environment environment) {
+        long slowThresholdMs = environment.getProperty("app.observability.slow-query.threshold-ms", Long.class, 200L);
+        long sampleIntervalMs = environment.getProperty("app.observability.slow-query.sample-interval-ms", Long.class, 10000L);
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> factoryBean) {
+                    factoryBean.addRepositoryFactoryCustomizer(factory -> factory.addRepositoryProxyPostProcessor((proxyFactory, information) ->
+                            proxyFactory.addAdvice(0, new RepositoryObservationInterceptor(
+                                    information.getRepositoryInterface().getSimpleName(), meterRegistry::getObject,
+                                    slowThresholdMs, sampleIntervalMs))));
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * Il pool creato da Spring Boot riceve il tracker che attribuisce l'attesa della connessione al repository;
+     * i pool di {@link ReplicaDataSourceConfig} lo impostano già alla creazione.
+     */
+    @Bean
+    public static BeanPostProcessor connectionAcquirePostProcessor(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof HikariDataSource dataSource && dataSource.getMetricsTrackerFactory() == null
+                        && dataSource.getMetricRegistry() == null) {
+                    dataSource.setMetricsTrackerFactory(new ConnectionAcquireTrackerFactory(meterRegistry.getObject()));
+                }
+                return bean;
+            }
+        };
+    }
+}
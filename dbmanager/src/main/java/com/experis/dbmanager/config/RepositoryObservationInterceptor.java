@@ -0,0 +1,209 @@
+package com.experis.dbmanager.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.time.temporal.Temporal;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Osservazione dei metodi di un repository Spring Data: durata (istogramma per i percentili in Prometheus),
+ * righe restituite, attesa della connessione dal pool e, oltre la soglia, un record di query lenta con i parametri.
+ * Il record è campionato: al più uno per metodo ogni {@code sampleIntervalMs}, con il numero di quelli saltati.
+ * I parametri sono riassunti (stringhe troncate, collezioni e entity ridotte a tipo e dimensione), mai il corpo XML.
+ */
+@Slf4j
+public class RepositoryObservationInterceptor implements MethodInterceptor {
+
+    static final int MAX_ARG_LENGTH = 64;
+
+    private final String repository;
+    private final Supplier<MeterRegistry> meterRegistry;
+    private final long slowThresholdNanos;
+    private final long sampleIntervalNanos;
+    private final Map<Method, MethodMeters> meters = new ConcurrentHashMap<>();
+
+    /** Il registry è risolto alla prima invocazione: i repository sono creati presto, prima dei binder di Micrometer. */
+    public RepositoryObservationInterceptor(String repository, Supplier<MeterRegistry> meterRegistry, long slowThresholdMs, long sampleIntervalMs) {
+        this.repository = repository;
+        this.meterRegistry = meterRegistry;
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMs);
+        this.sampleIntervalNanos = TimeUnit.MILLISECONDS.toNanos(sampleIntervalMs);
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Method method = invocation.getMethod();
+        if (method.getDeclaringClass() == Object.class) {
+            return invocation.proceed();
+        }
+        boolean outermost = ConnectionAcquireTrackerFactory.begin();
+        long start = System.nanoTime();
+        Object result = null;
+        boolean success = false;
+        try {
+            result = invocation.proceed();
+            success = true;
+            return result;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            long acquireNanos = outermost ? ConnectionAcquireTrackerFactory.end() : 0;
+            record(method, invocation.getArguments(), result, success, elapsed, acquireNanos);
+        }
+    }
+
+    private void record(Method method, Object[] args, Object result, boolean success, long elapsed, long acquireNanos) {
+        MethodMeters methodMeters = meters.computeIfAbsent(method, this::register);
+        (success ? methodMeters.success : methodMeters.failure).record(elapsed, TimeUnit.NANOSECONDS);
+        long rows = success && method.getReturnType() != void.class ? countRows(result) : -1;
+        if (rows >= 0) {
+            methodMeters.rows.record(rows);
+        }
+        if (acquireNanos > 0) {
+            methodMeters.acquire.record(acquireNanos, TimeUnit.NANOSECONDS);
+        }
+        if (elapsed >= slowThresholdNanos) {
+            methodMeters.slow.increment();
+            long skipped = methodMeters.sample(System.nanoTime(), sampleIntervalNanos);
+            if (skipped >= 0) {
+                log.warn("Query lenta {}.{}: {} ms (attesa connessione {} ms), esito {}, righe {}, parametri {}{}",
+                        repository, method.getName(),
+                        TimeUnit.NANOSECONDS.toMillis(elapsed), TimeUnit.NANOSECONDS.toMillis(acquireNanos),
+                        success ? "ok" : "errore", rows < 0 ? "-" : rows, describeArgs(args),
+                        skipped > 0 ? " (+" + skipped + " query lente non registrate)" : "");
+            }
+        }
+    }
+
+    private MethodMeters register(Method method) {
+        String name = method.getName();
+        return new MethodMeters(
+                timer(name, "success"),
+                timer(name, "error"),
+                DistributionSummary.builder("dbmanager.repository.rows")
+                        .description("Righe restituite dai metodi dei repository")
+                        .tags("repository", repository, "method", name)
+                        .serviceLevelObjectives(0, 1, 10, 100, 1000, 10000)
+                        .register(meterRegistry.get()),
+                Timer.builder("dbmanager.repository.connection.acquire")
+                        .description("Attesa della connessione dal pool durante i metodi dei repository")
+                        .tags("repository", repository, "method", name)
+                        .publishPercentileHistogram()
+                        .minimumExpectedValue(Duration.ofNanos(10_000))
+                        .maximumExpectedValue(Duration.ofSeconds(30))
+                        .register(meterRegistry.get()),
+                Counter.builder("dbmanager.repository.slow")
+                        .description("Invocazioni dei repository oltre la soglia di query lenta")
+                        .tags("repository", repository, "method", name)
+                        .register(meterRegistry.get()));
+    }
+
+    private Timer timer(String method, String outcome) {
+        return Timer.builder("dbmanager.repository.invocations")
+                .description("Durata dei metodi dei repository")
+                .tags("repository", repository, "method", method, "outcome", outcome)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(meterRegistry.get());
+    }
+
+    /** Righe di un risultato: dimensione di collezioni e pagine, 0/1 per Optional ed entity, -1 se non si sa (void, stream). */
+    static long countRows(Object result) {
+        if (result == null) {
+            return 0;
+        }
+        if (result instanceof Collection<?> collection) {
+            return collection.size();
+        }
+        if (result instanceof Slice<?> slice) {
+            return slice.getNumberOfElements();
+        }
+        if (result instanceof Optional<?> optional) {
+            return optional.isPresent() ? 1 : 0;
+        }
+        if (result instanceof Number || result instanceof Boolean || result instanceof AutoCloseable) {
+            // Conteggi, exists, update modifying e stream non sono righe lette
+            return -1;
+        }
+        return 1;
+    }
+
+    static String describeArgs(Object[] args) {
+        StringJoiner joiner = new StringJoiner(", ", "[", "]");
+        if (args != null) {
+            for (Object arg : args) {
+                joiner.add(describe(arg));
+            }
+        }
+        return joiner.toString();
+    }
+
+    private static String describe(Object arg) {
+        if (arg == null) {
+            return "null";
+        }
+        if (arg instanceof CharSequence text) {
+            String value = text.length() > MAX_ARG_LENGTH ? text.subSequence(0, MAX_ARG_LENGTH) + "...(" + text.length() + ")" : text.toString();
+            return "'" + value + "'";
+        }
+        if (arg instanceof Number || arg instanceof Boolean || arg instanceof Enum<?> || arg instanceof Temporal) {
+            return arg.toString();
+        }
+        if (arg instanceof Pageable pageable) {
+            return pageable.isPaged()
+                    ? "page " + pageable.getPageNumber() + " size " + pageable.getPageSize() + " sort " + pageable.getSort()
+                    : "unpaged";
+        }
+        if (arg instanceof Collection<?> collection) {
+            return arg.getClass().getSimpleName() + "(" + collection.size() + ")";
+        }
+        // Entity e altri oggetti: solo il tipo, niente dati personali o corpi XML nei log
+        return arg.getClass().getSimpleName();
+    }
+
+    private static final class MethodMeters {
+
+        private final Timer success;
+        private final Timer failure;
+        private final DistributionSummary rows;
+        private final Timer acquire;
+        private final Counter slow;
+        private final AtomicLong lastLogged = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong skipped = new AtomicLong();
+
+        private MethodMeters(Timer success, Timer failure, DistributionSummary rows, Timer acquire, Counter slow) {
+            this.success = success;
+            this.failure = failure;
+            this.rows = rows;
+            this.acquire = acquire;
+            this.slow = slow;
+        }
+
+        /** Query lente saltate dall'ultimo record se questa va registrata, -1 se va saltata. */
+        private long sample(long now, long intervalNanos) {
+            long last = lastLogged.get();
+            if ((last == Long.MIN_VALUE || now - last >= intervalNanos) && lastLogged.compareAndSet(last, now)) {
+                return skipped.getAndSet(0);
+            }
+            skipped.incrementAndGet();
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.experis.dbmanager.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fatture distribuite su più database Postgres: lo shard 0 è spring.datasource.url (clienti e fatture già salvate),
+ * gli altri sono {@code app.sharding.shard-urls}. Un pool Hikari per shard, con le impostazioni spring.datasource.hikari
+ * e le metriche per pool ({@code shard-0}, {@code shard-1}, ...). Non si combina con le repliche in lettura.
+ * Le migrazioni Flyway sono applicate a tutti gli shard, ognuno con la propria tabella di storico.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.sharding.enabled", havingValue = "true")
+public class ShardDataSourceConfig {
+
+    @Bean
+    @Primary
+    public ShardRoutingDataSource dataSource(DataSourceProperties properties,
+                                             Environment environment,
+                                             MeterRegistry meterRegistry,
+                                             @Value("${app.sharding.shard-urls}") List<String> shardUrls,
+                                             @Value("${app.datasource.replicas.enabled:false}") boolean replicasEnabled) {
+        if (replicasEnabled) {
+            throw new IllegalStateException("app.sharding e app.datasource.replicas non possono essere attivi insieme");
+        }
+        List<HikariDataSource> shards = new ArrayList<>();
+        shards.add(ReplicaDataSourceConfig.pool("shard-0", properties.determineUrl(), properties, environment, meterRegistry));
+        for (String url : shardUrls) {
+            shards.add(ReplicaDataSourceConfig.pool("shard-" + shards.size(), url.trim(), properties, environment, meterRegistry));
+        }
+        return new ShardRoutingDataSource(shards);
+    }
+
+    @Bean
+    public FlywayMigrationStrategy shardMigrationStrategy(ShardRoutingDataSource dataSource) {
+        return flyway -> {
+            // Fuori da ShardRouter il DataSource di Flyway punta allo shard globale
+            flyway.migrate();
+            for (HikariDataSource shard : dataSource.shards().subList(1, dataSource.shards().size())) {
+                Flyway.configure()
+                        .configuration(flyway.getConfiguration())
+                        .dataSource(shard)
+                        .load()
+                        .migrate();
+            }
+        };
+    }
+}
@@ -0,0 +1,48 @@
+package com.experis.dbmanager.config;
+
+import com.experis.dbmanager.shard.ShardContext;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DataSource dello sharding: la connessione è presa dal pool dello shard di {@link ShardContext} del thread.
+ * Lo shard è fissato quando la transazione prende la connessione, quindi {@link com.experis.dbmanager.shard.ShardRouter}
+ * lo imposta prima di aprirla; fuori dallo shard impostato si usa lo shard globale.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+
+    private final List<HikariDataSource> shards;
+
+    public ShardRoutingDataSource(List<HikariDataSource> shards) {
+        this.shards = List.copyOf(shards);
+        Map<Object, Object> targets = new HashMap<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            targets.put(shard, shards.get(shard));
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(shards.get(ShardContext.GLOBAL));
+        // Uno shard non configurato è un errore, non il ritorno silenzioso allo shard globale
+        setLenientFallback(false);
+    }
+
+    /**
+     * Pool degli shard, nell'ordine degli shard (0 = globale).
+     */
+    public List<HikariDataSource> shards() {
+        return shards;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return ShardContext.current();
+    }
+
+    @Override
+    public void close() {
+        shards.forEach(HikariDataSource::close);
+    }
+}
@@ -2,28 +2,47 @@ package com.experis.dbmanager.controller;
 
 import com.experis.dbmanager.constants.DbManagerConstants;
 import com.experis.dbmanager.dto.CustomerDto;
+import com.experis.dbmanager.dto.InvoiceCursorPageDto;
 import com.experis.dbmanager.dto.InvoiceDto;
+import com.experis.dbmanager.dto.InvoiceSearchResultDto;
+import com.experis.dbmanager.dto.InvoiceStatsDto;
+import com.experis.dbmanager.dto.InvoiceSummaryDto;
 import com.experis.dbmanager.dto.ResponseDto;
 import com.experis.dbmanager.enumerations.CustomerType;
 import com.experis.dbmanager.enumerations.InvoiceStatus;
 import com.experis.dbmanager.service.IDbManagerService;
+import com.experis.dbmanager.service.export.InvoiceExportColumn;
+import com.experis.dbmanager.service.export.InvoiceExportFormat;
+import com.experis.dbmanager.service.export.InvoiceExportService;
+import com.experis.dbmanager.service.search.InvoiceSearchCriteria;
+import com.experis.dbmanager.service.search.InvoiceSearchService;
+import com.experis.dbmanager.service.stats.InvoiceStatsDimension;
+import com.experis.dbmanager.service.stats.InvoiceStatsService;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import lombok.AllArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Tag(
     name = "CRUD REST APIs for DB Manager",
@@ -35,6 +54,9 @@ import java.time.LocalDateTime;
 public class DbManagerController {
 
     private final IDbManagerService dbManagerService;
+    private final InvoiceExportService invoiceExportService;
+    private final InvoiceStatsService invoiceStatsService;
+    private final InvoiceSearchService invoiceSearchService;
 
     // --- Customer Read Endpoints ---
 
@@ -189,7 +211,7 @@ public class DbManagerController {
     })
     @PutMapping("/invoices/{invoiceNumber}")
     public ResponseEntity<InvoiceDto> updateInvoice(
-            @Parameter(description = "Unique number of the invoice to update") @PathVariable int invoiceNumber,
+            @Parameter(description = "Unique number of the invoice to update") @PathVariable long invoiceNumber,
             @Validated @RequestBody InvoiceDto invoiceDto) {
         InvoiceDto updatedInvoice = dbManagerService.updateInvoice(invoiceNumber, invoiceDto);
         return ResponseEntity.ok(updatedInvoice);
@@ -206,7 +228,7 @@ public class DbManagerController {
     })
     @DeleteMapping("/invoices/{invoiceNumber}")
     public ResponseEntity<ResponseDto> deleteInvoice(
-            @Parameter(description = "Unique number of the invoice to delete") @PathVariable int invoiceNumber) {
+            @Parameter(description = "Unique number of the invoice to delete") @PathVariable long invoiceNumber) {
         boolean isDeleted = dbManagerService.deleteInvoice(invoiceNumber);
         if (isDeleted) {
             return ResponseEntity.status(HttpStatus.OK)
@@ -227,27 +249,40 @@ public class DbManagerController {
         @ApiResponse(responseCode = "500", description = "HTTP Status Internal Server Error")
     })
     @GetMapping("/invoices/{invoiceNumber}")
-    public ResponseEntity<InvoiceDto> findInvoiceByNumber(@PathVariable int invoiceNumber) {
-        return dbManagerService.findInvoiceByNumber(invoiceNumber)
+    public ResponseEntity<InvoiceDto> findInvoiceByNumber(@PathVariable long invoiceNumber) {
+        return dbManagerService.findInvoiceWithBodyByNumber(invoiceNumber)
                 .map(ResponseEntity::ok)
                 .orElse(ResponseEntity.notFound().build());
     }
 
     @Operation(
         summary = "Fetch Invoices with Pagination REST API",
-        description = "REST API to fetch invoices with pagination. Can filter by status or a creation date range. If no filters are provided, it returns all invoices paginated."
+        description = "REST API to fetch invoices with pagination. Can filter by status or a creation date range. If no filters are provided, it returns all invoices paginated. " +
+                "With view=summary only the invoice header and customer username/email are returned."
     )
     @ApiResponses({
         @ApiResponse(responseCode = "200", description = "HTTP Status OK"),
         @ApiResponse(responseCode = "500", description = "HTTP Status Internal Server Error")
     })
     @GetMapping("/invoices")
-    public ResponseEntity<Page<InvoiceDto>> findInvoices(
+    public ResponseEntity<Page<?>> findInvoices(
             @Parameter(description = "Filter by invoice status") @RequestParam(required = false) InvoiceStatus status,
             @Parameter(description = "Start date for creation date range (YYYY-MM-DD)") @RequestParam(required = false) LocalDateTime startDate,
             @Parameter(description = "End date for creation date range (YYYY-MM-DD). Defaults to today if empty.") @RequestParam(required = false) LocalDateTime endDate,
+            @Parameter(description = "'full' (default) or 'summary': header columns only, without XML body and customer details") @RequestParam(defaultValue = "full") String view,
             Pageable pageable
     ) {
+        if ("summary".equalsIgnoreCase(view)) {
+            Page<InvoiceSummaryDto> summaryPage;
+            if (status != null) {
+                summaryPage = dbManagerService.findInvoiceSummariesByStatus(status, pageable);
+            } else if (startDate != null) {
+                summaryPage = dbManagerService.findInvoiceSummariesByCreationDate(startDate, endDate, pageable);
+            } else {
+                summaryPage = dbManagerService.findAllInvoiceSummaries(pageable);
+            }
+            return ResponseEntity.ok(summaryPage);
+        }
         Page<InvoiceDto> invoicePage;
         if (status != null) {
             invoicePage = dbManagerService.findInvoicesByStatus(status, pageable);
@@ -259,6 +294,105 @@ public class DbManagerController {
         return ResponseEntity.ok(invoicePage);
     }
 
+    @Operation(
+        summary = "Fetch Invoices with Cursor Pagination REST API",
+        description = "REST API to fetch invoices with keyset (cursor) pagination, with the same filters as /invoices. " +
+                "No total count is computed: pass the returned nextCursor to fetch the following page, deep pages cost the same as the first one."
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "HTTP Status OK"),
+        @ApiResponse(responseCode = "400", description = "Invalid cursor"),
+        @ApiResponse(responseCode = "500", description = "HTTP Status Internal Server Error")
+    })
+    @GetMapping("/invoices/cursor")
+    public ResponseEntity<InvoiceCursorPageDto> findInvoicesByCursor(
+            @Parameter(description = "Filter by invoice status") @RequestParam(required = false) InvoiceStatus status,
+            @Parameter(description = "Start date for creation date range (YYYY-MM-DD)") @RequestParam(required = false) LocalDateTime startDate,
+            @Parameter(description = "End date for creation date range (YYYY-MM-DD). Defaults to today if empty.") @RequestParam(required = false) LocalDateTime endDate,
+            @Parameter(description = "Cursor returned by the previous page; empty for the first page") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (1-1000)") @RequestParam(defaultValue = "20") @Min(1) @Max(1000) int size
+    ) {
+        return ResponseEntity.ok(dbManagerService.findInvoicesByCursor(status, startDate, endDate, cursor, size));
+    }
+
+    @Operation(
+        summary = "Search Invoices REST API",
+        description = "REST API to find invoices by content: fields extracted from the FatturaPA body when the invoice is saved " +
+                "(VAT numbers, names, document number, date and total amount) and full-text search over the body values. " +
+                "All filters are optional and combined with AND; results are newest first, without the XML body."
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "HTTP Status OK"),
+        @ApiResponse(responseCode = "500", description = "HTTP Status Internal Server Error")
+    })
+    @GetMapping("/invoices/search")
+    public ResponseEntity<Slice<InvoiceSearchResultDto>> searchInvoices(
+            @Parameter(description = "Words to look for in the invoice body, matched as prefixes (e.g. 'rossi consul')") @RequestParam(required = false) String q,
+            @Parameter(description = "Supplier VAT number, with or without country code (IT assumed)") @RequestParam(required = false) String supplierVat,
+            @Parameter(description = "Customer VAT number, with or without country code (IT assumed)") @RequestParam(required = false) String customerVat,
+            @Parameter(description = "Customer tax code (codice fiscale)") @RequestParam(required = false) String customerTaxCode,
+            @Parameter(description = "Document number (Numero)") @RequestParam(required = false) String documentNumber,
+            @Parameter(description = "First document date, inclusive (YYYY-MM-DD)") @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate documentDateFrom,
+            @Parameter(description = "Last document date, inclusive (YYYY-MM-DD)") @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate documentDateTo,
+            @Parameter(description = "Minimum total amount") @RequestParam(required = false) BigDecimal minAmount,
+            @Parameter(description = "Maximum total amount") @RequestParam(required = false) BigDecimal maxAmount,
+            @Parameter(description = "Filter by customer") @RequestParam(required = false) Integer customerId,
+            @Parameter(description = "Filter by invoice status") @RequestParam(required = false) InvoiceStatus status,
+            @Parameter(description = "Page number, from 0") @RequestParam(defaultValue = "0") @Min(0) int page,
+            @Parameter(description = "Page size (1-100)") @RequestParam(defaultValue = "20") @Min(1) @Max(100) int size
+    ) {
+        InvoiceSearchCriteria criteria = new InvoiceSearchCriteria(q, supplierVat, customerVat, customerTaxCode, documentNumber,
+                documentDateFrom, documentDateTo, minAmount, maxAmount, customerId, status);
+        return ResponseEntity.ok(invoiceSearchService.search(criteria, page, size));
+    }
+
+    @Operation(
+        summary = "Invoice Statistics REST API",
+        description = "REST API to count invoices by creation day, customer and status without scanning the invoice table. " +
+                "Counters are maintained incrementally and served from memory; they follow writes with a delay of a few seconds."
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "HTTP Status OK"),
+        @ApiResponse(responseCode = "500", description = "HTTP Status Internal Server Error")
+    })
+    @GetMapping("/invoices/stats")
+    public ResponseEntity<List<InvoiceStatsDto>> findInvoiceStats(
+            @Parameter(description = "First creation day, inclusive (YYYY-MM-DD). Defaults to 30 days before 'to'.") @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @Parameter(description = "Last creation day, inclusive (YYYY-MM-DD). Defaults to today.") @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @Parameter(description = "Filter by customer") @RequestParam(required = false) Integer customerId,
+            @Parameter(description = "Filter by invoice status") @RequestParam(required = false) InvoiceStatus status,
+            @Parameter(description = "Comma separated dimensions to group by (DAY, CUSTOMER, STATUS); none for a single total") @RequestParam(defaultValue = "STATUS") List<InvoiceStatsDimension> groupBy
+    ) {
+        LocalDate toDay = to != null ? to : LocalDate.now();
+        LocalDate fromDay = from != null ? from : toDay.minusDays(30);
+        return ResponseEntity.ok(invoiceStatsService.findStats(fromDay, toDay, customerId, status, InvoiceStatsService.dimensions(groupBy)));
+    }
+
+    @Operation(
+        summary = "Export Invoices REST API",
+        description = "REST API to stream invoices as NDJSON or CSV with constant memory, with the same filters as /invoices. " +
+                "Columns are InvoiceDto field names; by default every column except the XML body is exported."
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "HTTP Status OK (chunked stream)"),
+        @ApiResponse(responseCode = "400", description = "Unknown export column"),
+        @ApiResponse(responseCode = "500", description = "HTTP Status Internal Server Error")
+    })
+    @GetMapping(path = "/invoices/export", produces = {"application/x-ndjson", "text/csv"})
+    public ResponseEntity<StreamingResponseBody> exportInvoices(
+            @Parameter(description = "Output format") @RequestParam(defaultValue = "NDJSON") InvoiceExportFormat format,
+            @Parameter(description = "Comma separated columns, e.g. invoiceNumber,invoiceStatus,createdAt") @RequestParam(required = false) List<String> columns,
+            @Parameter(description = "Filter by invoice status") @RequestParam(required = false) InvoiceStatus status,
+            @Parameter(description = "Start date for creation date range (YYYY-MM-DD)") @RequestParam(required = false) LocalDateTime startDate,
+            @Parameter(description = "End date for creation date range (YYYY-MM-DD). Defaults to today if empty.") @RequestParam(required = false) LocalDateTime endDate
+    ) {
+        List<InvoiceExportColumn> exportColumns = InvoiceExportColumn.resolve(columns);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.contentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"invoices." + format.extension() + "\"")
+                .body(invoiceExportService.export(format, exportColumns, status, startDate, endDate));
+    }
+
     // Endpoint needed to change invoice status to SdI sent invoices
     @Operation(
             summary = "Update Invoice Status REST API",
@@ -270,7 +404,7 @@ public class DbManagerController {
             @ApiResponse(responseCode = "500", description = "HTTP Status Internal Server Error")
     })
     @PutMapping("/invoices/{invoiceNumber}/status")
-    public ResponseEntity<InvoiceDto> updateInvoiceStatus(@PathVariable int invoiceNumber, @RequestBody InvoiceDto invoiceDto) {
+    public ResponseEntity<InvoiceDto> updateInvoiceStatus(@PathVariable long invoiceNumber, @RequestBody InvoiceDto invoiceDto) {
         InvoiceDto updatedInvoice = dbManagerService.updateInvoice(invoiceNumber, invoiceDto);
         return ResponseEntity.ok(updatedInvoice);
     }
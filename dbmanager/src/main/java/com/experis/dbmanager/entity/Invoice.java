@@ -1,6 +1,7 @@
 package com.experis.dbmanager.entity;
 
 import com.experis.dbmanager.enumerations.InvoiceStatus;
+import com.experis.dbmanager.shard.ShardedInvoiceNumber;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
@@ -9,14 +10,17 @@ import lombok.ToString;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "invoice")
+@Table(name = "invoice", uniqueConstraints = @UniqueConstraint(name = "UQ_INVOICE_CUSTOMER_CORRELATION",
+        columnNames = {"customer_id", "correlation_id"}))
 @Getter @Setter @ToString
 public class Invoice extends BaseEntity {
 
+    // Sequenza con allocazione a blocchi: l'id è noto prima dell'insert, così Hibernate può raggruppare gli insert in batch JDBC.
+    // Nei bit alti c'è lo shard in cui è salvata la fattura (vedi InvoiceNumbers)
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @ShardedInvoiceNumber
     @Column(name = "invoice_number")
-    private int invoiceNumber;
+    private long invoiceNumber;
 
     @Column(name = "customer_id")
     private int customerId;
@@ -29,6 +33,14 @@ public class Invoice extends BaseEntity {
     @Column(name = "invoice", columnDefinition = "TEXT")
     private String invoice;
 
+    // Riferimento al corpo XML nel blob store quando non è salvato nella colonna invoice
+    @Column(name = "invoice_ref")
+    private String invoiceRef;
+
+    // Codec del corpo compresso in invoice_body; null se il corpo è nella colonna invoice o nel blob store
+    @Column(name = "body_codec")
+    private String bodyCodec;
+
     @Column(name="status_last_updated_at", insertable = false)
     private LocalDateTime statusLastUpdatedAt;
 
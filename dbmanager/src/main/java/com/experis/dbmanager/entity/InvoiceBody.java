@@ -0,0 +1,48 @@
+package com.experis.dbmanager.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.data.domain.Persistable;
+
+// Corpo XML compresso della fattura, in tabella separata: letto solo quando il corpo viene richiesto
+@Entity
+@Table(name = "invoice_body")
+@Getter @Setter @ToString(exclude = "body")
+public class InvoiceBody implements Persistable<Long> {
+
+    @Id
+    @Column(name = "invoice_number")
+    private long invoiceNumber;
+
+    @Column(name = "codec")
+    private String codec;
+
+    // Lunghezza in byte del corpo non compresso
+    @Column(name = "original_length")
+    private int originalLength;
+
+    @Column(name = "body", length = 16_777_216)
+    private byte[] body;
+
+    // L'id è quello della fattura: senza questo flag save() farebbe una SELECT per ogni nuovo corpo
+    @Transient
+    private boolean isNew = true;
+
+    @Override
+    public Long getId() {
+        return invoiceNumber;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+}
@@ -0,0 +1,13 @@
+package com.experis.dbmanager.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.BAD_REQUEST)
+public class InvalidCursorException extends RuntimeException {
+
+    public InvalidCursorException(String cursor){
+        super(String.format("Invalid pagination cursor : '%s'", cursor));
+    }
+
+}
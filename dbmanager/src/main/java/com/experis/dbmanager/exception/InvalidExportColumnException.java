@@ -0,0 +1,13 @@
+package com.experis.dbmanager.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.BAD_REQUEST)
+public class InvalidExportColumnException extends RuntimeException {
+
+    public InvalidExportColumnException(String column){
+        super(String.format("Unknown export column : '%s'", column));
+    }
+
+}
@@ -2,12 +2,17 @@ package com.experis.dbmanager.functions;
 
 import com.experis.dbmanager.dto.InvoiceDto;
 import com.experis.dbmanager.dto.SdiNotificationDto;
+import com.experis.dbmanager.service.cache.CustomerCache;
 import com.experis.dbmanager.service.consumer.KafkaConsumerService;
+import com.experis.dbmanager.service.consumer.KeyOrderedProcessor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
 
+import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 @Configuration
@@ -16,6 +21,8 @@ import java.util.function.Function;
 public class DbManagerFunctions {
 
     private final KafkaConsumerService kafkaConsumerService;
+    private final CustomerCache customerCache;
+    private final KeyOrderedProcessor keyOrderedProcessor;
 
     @Bean
     public Function<InvoiceDto,InvoiceDto> incomingInvoice() {
@@ -31,6 +38,20 @@ public class DbManagerFunctions {
         };
     }
 
+    // Modalità batch (binding incomingInvoiceBatch-in-0 con batch-mode): riceve tutti i record di un poll
+    @Bean
+    public Consumer<List<InvoiceDto>> incomingInvoiceBatch() {
+        return invoices -> {
+            try {
+                kafkaConsumerService.processIncomingInvoices(invoices);
+            } catch (Exception e) {
+                String msg = "Error processing incoming invoice batch of size " + invoices.size();
+                log.error(msg, e);
+                throw new RuntimeException(msg, e);
+            }
+        };
+    }
+
     @Bean
     public Function<SdiNotificationDto,SdiNotificationDto> sdiNotification() {
         return notification -> {
@@ -58,4 +79,44 @@ public class DbManagerFunctions {
             }
         };
     }
+
+    // Modalità con ordine per chiave (binding *Keyed-in-0 in batch-mode, vedi KeyOrderedProcessor): chiavi diverse
+    // in parallelo, i messaggi della stessa chiave in ordine. Le fatture nuove sono salvate a blocchi per cliente;
+    // se un cliente fallisce il poll è riconsegnato e le fatture già salvate degli altri clienti sono saltate
+    @Bean
+    public Consumer<Message<List<InvoiceDto>>> incomingInvoiceKeyed() {
+        return poll -> keyOrderedProcessor.processGroups("incomingInvoiceKeyed", poll,
+                DbManagerFunctions::customerKey, kafkaConsumerService::processIncomingInvoices);
+    }
+
+    @Bean
+    public Consumer<Message<List<SdiNotificationDto>>> sdiNotificationKeyed() {
+        return poll -> keyOrderedProcessor.process("sdiNotificationKeyed", poll,
+                DbManagerFunctions::notificationKey, kafkaConsumerService::processSdiNotification, "sdi-notification.DLT");
+    }
+
+    @Bean
+    public Consumer<Message<List<InvoiceDto>>> sentInvoiceKeyed() {
+        return poll -> keyOrderedProcessor.process("sentInvoiceKeyed", poll,
+                invoice -> String.valueOf(invoice.getInvoiceNumber()),
+                kafkaConsumerService::processSentInvoice, "sent-invoice.DLT");
+    }
+
+    // Chiavi usate dai producer, per i messaggi pubblicati senza chiave
+    private static String customerKey(InvoiceDto invoice) {
+        return invoice.getCustomer() != null ? String.valueOf(invoice.getCustomer().getCustomerId()) : null;
+    }
+
+    private static String notificationKey(SdiNotificationDto notification) {
+        if (notification.getInvoiceNumber() != null) {
+            return String.valueOf(notification.getInvoiceNumber());
+        }
+        return notification.getCustomerId() != null ? String.valueOf(notification.getCustomerId()) : null;
+    }
+
+    // Invalidazioni della cache clienti pubblicate dalle altre istanze (gruppo anonimo: ogni istanza riceve tutto)
+    @Bean
+    public Consumer<Integer> customerInvalidation() {
+        return customerCache::evictLocal;
+    }
 }
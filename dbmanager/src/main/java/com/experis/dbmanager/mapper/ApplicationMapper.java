@@ -2,10 +2,12 @@ package com.experis.dbmanager.mapper;
 
 import com.experis.dbmanager.dto.CustomerDto;
 import com.experis.dbmanager.dto.InvoiceDto;
+import com.experis.dbmanager.dto.InvoiceSummaryDto;
 import com.experis.dbmanager.dto.SdiNotificationDto;
 import com.experis.dbmanager.entity.Customer;
 import com.experis.dbmanager.enumerations.CustomerType;
 import com.experis.dbmanager.entity.Invoice;
+import com.experis.dbmanager.repository.projection.InvoiceSummary;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -53,6 +55,7 @@ public class ApplicationMapper {
         invoiceDto.setInvoiceNumber(invoice.getInvoiceNumber());
         invoiceDto.setInvoiceStatus(invoice.getInvoiceStatus());
         invoiceDto.setInvoice(invoice.getInvoice());
+        invoiceDto.setInvoiceRef(invoice.getInvoiceRef());
         invoiceDto.setCreatedAt(invoice.getCreatedAt());
         invoiceDto.setCreatedBy(invoice.getCreatedBy());
         invoiceDto.setUpdatedAt(invoice.getUpdatedAt());
@@ -64,6 +67,25 @@ public class ApplicationMapper {
         return invoiceDto;
     }
 
+    public InvoiceSummaryDto toInvoiceSummaryDto(InvoiceSummary summary) {
+        if (summary == null) {
+            return null;
+        }
+        InvoiceSummaryDto summaryDto = new InvoiceSummaryDto();
+        summaryDto.setInvoiceNumber(summary.getInvoiceNumber());
+        summaryDto.setInvoiceStatus(summary.getInvoiceStatus());
+        summaryDto.setCustomerId(summary.getCustomerId());
+        summaryDto.setCustomerUsername(summary.getCustomerUsername());
+        summaryDto.setCustomerEmail(summary.getCustomerEmail());
+        summaryDto.setCreatedAt(summary.getCreatedAt());
+        summaryDto.setCreatedBy(summary.getCreatedBy());
+        summaryDto.setUpdatedAt(summary.getUpdatedAt());
+        summaryDto.setUpdatedBy(summary.getUpdatedBy());
+        summaryDto.setStatusLastUpdatedAt(summary.getStatusLastUpdatedAt());
+        summaryDto.setCorrelationId(summary.getCorrelationId());
+        return summaryDto;
+    }
+
     public Invoice toInvoice(InvoiceDto invoiceDto) {
         if (invoiceDto == null) {
             return null;
@@ -72,6 +94,7 @@ public class ApplicationMapper {
         invoice.setInvoiceNumber(invoiceDto.getInvoiceNumber());
         invoice.setInvoiceStatus(invoiceDto.getInvoiceStatus());
         invoice.setInvoice(invoiceDto.getInvoice());
+        invoice.setInvoiceRef(invoiceDto.getInvoiceRef());
         invoice.setCreatedAt(invoiceDto.getCreatedAt());
         invoice.setCreatedBy(invoiceDto.getCreatedBy());
         invoice.setUpdatedAt(invoiceDto.getUpdatedAt());
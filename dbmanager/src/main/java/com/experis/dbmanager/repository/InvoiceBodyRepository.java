@@ -0,0 +1,9 @@
+package com.experis.dbmanager.repository;
+
+import com.experis.dbmanager.entity.InvoiceBody;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface InvoiceBodyRepository extends JpaRepository<InvoiceBody, Integer> {
+}
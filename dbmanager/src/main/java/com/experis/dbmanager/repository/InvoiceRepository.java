@@ -2,22 +2,33 @@ package com.experis.dbmanager.repository;
 
 import com.experis.dbmanager.entity.Invoice;
 import com.experis.dbmanager.enumerations.InvoiceStatus;
+import com.experis.dbmanager.repository.projection.InvoiceCorrelation;
+import com.experis.dbmanager.repository.projection.InvoiceSummary;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface InvoiceRepository extends JpaRepository<Invoice, Integer> {
+public interface InvoiceRepository extends JpaRepository<Invoice, Long> {
 
     @Transactional(readOnly = true)
-    Optional<Invoice> findByInvoiceNumber(int invoiceNumber);
+    Optional<Invoice> findByInvoiceNumber(long invoiceNumber);
+
+    // Fatture già salvate con uno dei correlation id (indice IDX_CORRELATION_ID), senza leggere il corpo XML
+    @Transactional(readOnly = true)
+    @Query("SELECT i.customerId AS customerId, i.correlationId AS correlationId FROM Invoice i WHERE i.correlationId IN :correlationIds")
+    List<InvoiceCorrelation> findCorrelations(@Param("correlationIds") Collection<String> correlationIds);
 
     @Transactional(readOnly = true)
     Page<Invoice> findByInvoiceStatus(InvoiceStatus invoiceStatus, Pageable pageable);
@@ -28,10 +39,55 @@ public interface InvoiceRepository extends JpaRepository<Invoice, Integer> {
     @Transactional(readOnly = true)
     Page<Invoice> findAll(Pageable pageable);
 
+    // Liste in versione summary: solo colonne di intestazione, il cliente in join (niente N+1 né corpo XML)
+    String SUMMARY_SELECT = "SELECT i.invoiceNumber AS invoiceNumber, i.invoiceStatus AS invoiceStatus, i.customerId AS customerId, " +
+            "c.username AS customerUsername, c.email AS customerEmail, i.createdAt AS createdAt, i.createdBy AS createdBy, " +
+            "i.updatedAt AS updatedAt, i.updatedBy AS updatedBy, i.statusLastUpdatedAt AS statusLastUpdatedAt, " +
+            "i.correlationId AS correlationId FROM Invoice i LEFT JOIN Customer c ON c.customerId = i.customerId";
+
+    @Transactional(readOnly = true)
+    @Query(value = SUMMARY_SELECT + " WHERE i.invoiceStatus = :invoiceStatus",
+            countQuery = "SELECT COUNT(i) FROM Invoice i WHERE i.invoiceStatus = :invoiceStatus")
+    Page<InvoiceSummary> findSummariesByInvoiceStatus(@Param("invoiceStatus") InvoiceStatus invoiceStatus, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query(value = SUMMARY_SELECT + " WHERE i.createdAt BETWEEN :startDate AND :endDate",
+            countQuery = "SELECT COUNT(i) FROM Invoice i WHERE i.createdAt BETWEEN :startDate AND :endDate")
+    Page<InvoiceSummary> findSummariesByCreatedAtBetween(@Param("startDate") LocalDateTime startDate, @Param("endDate") LocalDateTime endDate, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query(value = SUMMARY_SELECT, countQuery = "SELECT COUNT(i) FROM Invoice i")
+    Page<InvoiceSummary> findAllSummaries(Pageable pageable);
+
     @Transactional
-    void deleteByInvoiceNumber(int invoiceNumber);
+    void deleteByInvoiceNumber(long invoiceNumber);
 
+    // Paginazione a cursore: seek sugli indici (invoice_status, invoice_number) e (created_at, invoice_number), senza COUNT
     @Transactional(readOnly = true)
-    List<Invoice> findByInvoiceStatusAndStatusLastUpdatedAtBefore(InvoiceStatus invoiceStatus, LocalDateTime timeoutThreshold);
+    List<Invoice> findByInvoiceStatusAndInvoiceNumberGreaterThanOrderByInvoiceNumber(InvoiceStatus invoiceStatus, long invoiceNumber, Limit limit);
+
+    @Transactional(readOnly = true)
+    List<Invoice> findByInvoiceNumberGreaterThanOrderByInvoiceNumber(long invoiceNumber, Limit limit);
+
+    @Transactional(readOnly = true)
+    @Query("SELECT i FROM Invoice i WHERE i.createdAt <= :endDate " +
+            "AND (i.createdAt > :createdAt OR (i.createdAt = :createdAt AND i.invoiceNumber > :invoiceNumber)) " +
+            "ORDER BY i.createdAt, i.invoiceNumber")
+    List<Invoice> findCreatedAfter(@Param("createdAt") LocalDateTime createdAt, @Param("invoiceNumber") long invoiceNumber,
+                                   @Param("endDate") LocalDateTime endDate, Limit limit);
+
+    // Cambio di stato condizionato in un solo statement: aggiorna solo se lo stato attuale è tra quelli ammessi
+    // e restituisce la riga aggiornata (vuoto se la fattura non esiste o la transizione non è ammessa)
+    @Transactional
+    @Query(value = "WITH upd AS (UPDATE invoice SET invoice_status = :target, status_last_updated_at = :now, updated_at = :now, " +
+            "updated_by = 'DBMANAGER_MS' WHERE invoice_number = :invoiceNumber AND invoice_status IN (:sources) RETURNING *) " +
+            "SELECT * FROM upd", nativeQuery = true)
+    Optional<Invoice> transitionStatus(@Param("invoiceNumber") long invoiceNumber, @Param("target") String target,
+                                       @Param("sources") List<String> sources, @Param("now") LocalDateTime now);
+
+    // Stato attuale con lock sulla riga fino al termine della transazione: nessun cambio di stato concorrente
+    @Transactional
+    @Query(value = "SELECT invoice_status FROM invoice WHERE invoice_number = :invoiceNumber FOR UPDATE", nativeQuery = true)
+    Optional<String> lockStatusByInvoiceNumber(@Param("invoiceNumber") long invoiceNumber);
 
 }
@@ -0,0 +1,11 @@
+package com.experis.dbmanager.repository.projection;
+
+/**
+ * Cliente e correlation id di una fattura salvata: la coppia identifica la fattura ricevuta dal receiver.
+ */
+public interface InvoiceCorrelation {
+
+    int getCustomerId();
+
+    String getCorrelationId();
+}
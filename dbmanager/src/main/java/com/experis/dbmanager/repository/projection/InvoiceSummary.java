@@ -0,0 +1,34 @@
+package com.experis.dbmanager.repository.projection;
+
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+
+import java.time.LocalDateTime;
+
+/**
+ * Proiezione delle sole colonne di intestazione di invoice, con username ed email del cliente.
+ * La colonna invoice (TEXT) non viene mai letta.
+ */
+public interface InvoiceSummary {
+
+    long getInvoiceNumber();
+
+    InvoiceStatus getInvoiceStatus();
+
+    int getCustomerId();
+
+    String getCustomerUsername();
+
+    String getCustomerEmail();
+
+    LocalDateTime getCreatedAt();
+
+    String getCreatedBy();
+
+    LocalDateTime getUpdatedAt();
+
+    String getUpdatedBy();
+
+    LocalDateTime getStatusLastUpdatedAt();
+
+    String getCorrelationId();
+}
@@ -1,7 +1,9 @@
 package com.experis.dbmanager.service;
 
 import com.experis.dbmanager.dto.CustomerDto;
+import com.experis.dbmanager.dto.InvoiceCursorPageDto;
 import com.experis.dbmanager.dto.InvoiceDto;
+import com.experis.dbmanager.dto.InvoiceSummaryDto;
 import com.experis.dbmanager.enumerations.CustomerType;
 import com.experis.dbmanager.enumerations.InvoiceStatus;
 import org.springframework.data.domain.Page;
@@ -9,6 +11,7 @@ import org.springframework.data.domain.Pageable;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 public interface IDbManagerService {
@@ -27,11 +30,23 @@ public interface IDbManagerService {
     // Invoice
 
     InvoiceDto createInvoice(int customerId, InvoiceDto invoiceDto);
-    Optional<InvoiceDto> findInvoiceByNumber(int invoiceNumber);
+    // Salvataggio di un batch in un'unica transazione; le fatture di clienti inesistenti sono salvate come INTERNAL_INVOICE_INVALID
+    List<InvoiceDto> createInvoices(List<InvoiceDto> invoiceDtos);
+    // Fatture del batch non ancora salvate (stesso cliente e correlation id), una sola per coppia, nell'ordine ricevuto
+    List<InvoiceDto> findUnsavedInvoices(List<InvoiceDto> invoiceDtos);
+    Optional<InvoiceDto> findInvoiceByNumber(long invoiceNumber);
+    // Come findInvoiceByNumber, caricando dal blob store il corpo XML salvato in claim check
+    Optional<InvoiceDto> findInvoiceWithBodyByNumber(long invoiceNumber);
     Page<InvoiceDto> findInvoicesByStatus(InvoiceStatus status, Pageable pageable);
     Page<InvoiceDto> findInvoicesByCreationDate(LocalDateTime startDate, LocalDateTime endDate, Pageable pageable);
     Page<InvoiceDto> findAllInvoices(Pageable pageable);
-    InvoiceDto updateInvoice(int invoiceNumber, InvoiceDto invoiceDto);
-    boolean deleteInvoice(int invoiceNumber);
+    // Come le liste precedenti, senza corpo XML e con i soli dati cliente essenziali (view=summary)
+    Page<InvoiceSummaryDto> findInvoiceSummariesByStatus(InvoiceStatus status, Pageable pageable);
+    Page<InvoiceSummaryDto> findInvoiceSummariesByCreationDate(LocalDateTime startDate, LocalDateTime endDate, Pageable pageable);
+    Page<InvoiceSummaryDto> findAllInvoiceSummaries(Pageable pageable);
+    // Paginazione a cursore con gli stessi filtri di findInvoicesByStatus/findInvoicesByCreationDate/findAllInvoices
+    InvoiceCursorPageDto findInvoicesByCursor(InvoiceStatus status, LocalDateTime startDate, LocalDateTime endDate, String cursor, int size);
+    InvoiceDto updateInvoice(long invoiceNumber, InvoiceDto invoiceDto);
+    boolean deleteInvoice(long invoiceNumber);
 
 }
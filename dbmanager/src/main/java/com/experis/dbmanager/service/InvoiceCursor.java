@@ -0,0 +1,42 @@
+package com.experis.dbmanager.service;
+
+import com.experis.dbmanager.entity.Invoice;
+import com.experis.dbmanager.exception.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Chiave di seek della paginazione a cursore: ultima fattura restituita (created_at, invoice_number).
+ * Verso il client viaggia come stringa opaca base64url.
+ *
+ * @param createdAt     data di creazione dell'ultima fattura (null se l'ordinamento è solo per numero)
+ * @param invoiceNumber numero dell'ultima fattura
+ */
+public record InvoiceCursor(LocalDateTime createdAt, long invoiceNumber) {
+
+    public static InvoiceCursor after(Invoice invoice, boolean byCreationDate) {
+        return new InvoiceCursor(byCreationDate ? invoice.getCreatedAt() : null, invoice.getInvoiceNumber());
+    }
+
+    public String encode() {
+        String raw = (createdAt != null ? createdAt.toString() : "") + "|" + invoiceNumber;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static InvoiceCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf('|');
+            if (separator < 0) {
+                throw new InvalidCursorException(cursor);
+            }
+            LocalDateTime createdAt = separator == 0 ? null : LocalDateTime.parse(raw.substring(0, separator));
+            return new InvoiceCursor(createdAt, Long.parseLong(raw.substring(separator + 1)));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new InvalidCursorException(cursor);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.experis.dbmanager.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.stream.config.BindingServiceProperties;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.stereotype.Service;
+
+/**
+ * Instrada le risposte della SAGA verso la replica del receiver che ha originato la richiesta.
+ * Se il messaggio in ingresso contiene un replyTo, la risposta viene pubblicata su
+ * {@code <destination del binding>.<replyTo>} invece che sul topic condiviso.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ReplyRouter {
+
+    private final StreamBridge streamBridge;
+    private final BindingServiceProperties bindingServiceProperties;
+
+    public boolean send(String bindingName, String replyTo, Object payload) {
+        if (replyTo == null || replyTo.isBlank()) {
+            return streamBridge.send(bindingName, payload);
+        }
+        String destination = bindingServiceProperties.getBindingDestination(bindingName) + "." + replyTo;
+        log.debug("Risposta per {} instradata su {}", bindingName, destination);
+        return streamBridge.send(destination, payload);
+    }
+
+    /**
+     * Topic su cui {@link #send} pubblicherebbe: usato dall'outbox, che salva la destinazione già risolta.
+     */
+    public String destinationOf(String bindingName, String replyTo) {
+        String destination = bindingServiceProperties.getBindingDestination(bindingName);
+        return replyTo == null || replyTo.isBlank() ? destination : destination + "." + replyTo;
+    }
+}
@@ -1,58 +1,163 @@
-// Crea un nuovo file, es. TimeoutService.java
-
 package com.experis.dbmanager.service;
 
-import com.experis.dbmanager.entity.Invoice;
+import com.experis.dbmanager.dto.CustomerDto;
+import com.experis.dbmanager.dto.InvoiceDto;
+import com.experis.dbmanager.entity.InvoiceBody;
 import com.experis.dbmanager.enumerations.InvoiceStatus;
-import com.experis.dbmanager.repository.InvoiceRepository;
-import lombok.AllArgsConstructor;
+import com.experis.dbmanager.service.body.InvoiceBodyStore;
+import com.experis.dbmanager.service.outbox.OutboxEvent;
+import com.experis.dbmanager.service.outbox.OutboxPublisher;
+import com.experis.dbmanager.service.stats.InvoiceStatsRecorder;
+import com.experis.dbmanager.service.transition.InvoiceStatusTransitions;
+import com.experis.dbmanager.shard.ShardRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Sweeper delle fatture rimaste troppo a lungo in uno stato di attesa: passano a INVOICE_ERROR e vanno nel business DLT.
+ * Lavora a blocchi di {@code batch-size}: ogni blocco è preso con FOR UPDATE SKIP LOCKED e aggiornato con un solo
+ * statement, quindi più repliche di dbmanager si dividono il lavoro senza toccare le stesse fatture e la memoria
+ * usata non dipende dal numero di fatture scadute. Gli eventi per il DLT passano dall'outbox, nella stessa transazione,
+ * con il corpo XML letto nella stessa query (decompresso da invoice_body se salvato compresso); i delta delle
+ * statistiche sono registrati da {@link InvoiceStatsRecorder}, sempre nella stessa transazione.
+ * Il tempo massimo di attesa è configurabile per stato ({@code app.timeout.minutes-by-status}); con lo sharding
+ * ogni giro passa gli shard uno dopo l'altro.
+ */
 @Service
 @Slf4j
-@AllArgsConstructor
 public class TimeoutService {
 
-    private final InvoiceRepository invoiceRepository;
-    private final StreamBridge streamBridge;
-    private static final long TIMEOUT_MINUTES = 5;
+    private static final String EXPIRE_BATCH = "WITH claimed AS ("
+            + " SELECT invoice_number FROM invoice WHERE invoice_status = ? AND status_last_updated_at < ?"
+            + " ORDER BY status_last_updated_at LIMIT ? FOR UPDATE SKIP LOCKED)"
+            + ", expired AS (UPDATE invoice i SET invoice_status = ?, status_last_updated_at = ?, updated_at = ?, updated_by = 'DBMANAGER_MS'"
+            + " FROM claimed WHERE i.invoice_number = claimed.invoice_number"
+            + " RETURNING i.invoice_number, i.customer_id, i.correlation_id, i.callback, i.invoice_ref, i.created_at, i.invoice)"
+            + " SELECT e.invoice_number, e.customer_id, e.correlation_id, e.callback, e.invoice_ref, e.created_at, e.invoice,"
+            + " b.codec, b.original_length, b.body FROM expired e LEFT JOIN invoice_body b ON b.invoice_number = e.invoice_number";
 
-    @Scheduled(fixedRate = 60000) // Esegui ogni 60 secondi
-    public void checkForTimedOutInvoices() {
-        log.info("Running scheduled check for timed-out invoices...");
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final OutboxPublisher outboxPublisher;
+    private final InvoiceBodyStore invoiceBodyStore;
+    private final InvoiceStatsRecorder invoiceStatsRecorder;
+    private final ShardRouter shardRouter;
+    private final Map<InvoiceStatus, Long> timeoutMinutes = new EnumMap<>(InvoiceStatus.class);
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+
+    private final MeterRegistry meterRegistry;
+    private final Timer sweepTimer;
 
-        LocalDateTime timeoutThreshold = LocalDateTime.now().minusMinutes(TIMEOUT_MINUTES);
+    public TimeoutService(JdbcTemplate jdbcTemplate,
+                          TransactionTemplate transactionTemplate,
+                          OutboxPublisher outboxPublisher,
+                          InvoiceBodyStore invoiceBodyStore,
+                          InvoiceStatsRecorder invoiceStatsRecorder,
+                          ShardRouter shardRouter,
+                          MeterRegistry meterRegistry,
+                          @Value("#{${app.timeout.minutes-by-status:{INTERNAL_INVOICE_TOBE_SENT: 5}}}") Map<String, Long> minutesByStatus,
+                          @Value("${app.timeout.batch-size:500}") int batchSize,
+                          @Value("${app.timeout.max-batches-per-run:200}") int maxBatchesPerRun) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.outboxPublisher = outboxPublisher;
+        this.invoiceBodyStore = invoiceBodyStore;
+        this.invoiceStatsRecorder = invoiceStatsRecorder;
+        this.shardRouter = shardRouter;
+        this.meterRegistry = meterRegistry;
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        minutesByStatus.forEach((name, minutes) -> {
+            InvoiceStatus status = InvoiceStatus.valueOf(name);
+            if (!InvoiceStatusTransitions.isAllowed(status, InvoiceStatus.INVOICE_ERROR)) {
+                throw new IllegalStateException("Timeout non ammesso per lo stato " + status + ": transizione verso INVOICE_ERROR non prevista");
+            }
+            timeoutMinutes.put(status, minutes);
+        });
+        this.sweepTimer = Timer.builder("dbmanager.timeout.sweep")
+                .description("Durata di un giro dello sweeper dei timeout")
+                .register(meterRegistry);
+        log.info("Timeout delle fatture configurati (minuti): {}", timeoutMinutes);
+    }
 
-        // Cerca le fatture che sono in attesa di una risposta da troppo tempo
-        List<Invoice> timedOutInvoices = invoiceRepository.findByInvoiceStatusAndStatusLastUpdatedAtBefore(
-                InvoiceStatus.INTERNAL_INVOICE_TOBE_SENT,
-                timeoutThreshold
-        );
+    @Scheduled(fixedDelayString = "${app.timeout.sweep-interval-ms:60000}")
+    public void checkForTimedOutInvoices() {
+        sweepTimer.record(() -> shardRouter.forEachShard(shard -> timeoutMinutes.forEach(this::sweep)));
+    }
 
-        if (timedOutInvoices.isEmpty()) {
-            log.info("No timed-out invoices found.");
-            return;
+    private void sweep(InvoiceStatus status, long minutes) {
+        LocalDateTime timeoutThreshold = LocalDateTime.now().minusMinutes(minutes);
+        long expired = 0;
+        for (int i = 0; i < maxBatchesPerRun; i++) {
+            Integer count = transactionTemplate.execute(tx -> expireBatch(status, timeoutThreshold));
+            expired += count == null ? 0 : count;
+            if (count == null || count < batchSize) {
+                break;
+            }
         }
+        if (expired > 0) {
+            log.warn("{} invoices in status {} timed out after {} minutes. Moved to INVOICE_ERROR and sent to business DLT.", expired, status, minutes);
+            Counter.builder("dbmanager.timeout.expired")
+                    .description("Fatture scadute e passate a INVOICE_ERROR")
+                    .tag("status", status.name())
+                    .register(meterRegistry)
+                    .increment(expired);
+        }
+    }
 
-        log.warn("Found {} timed-out invoices. Moving them to DLT.", timedOutInvoices.size());
+    private int expireBatch(InvoiceStatus status, LocalDateTime timeoutThreshold) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<InvoiceDto> expired = jdbcTemplate.query(EXPIRE_BATCH, (rs, rowNum) -> {
+            InvoiceDto invoice = new InvoiceDto();
+            invoice.setInvoiceNumber(rs.getLong(1));
+            CustomerDto customer = new CustomerDto();
+            customer.setCustomerId(rs.getInt(2));
+            invoice.setCustomer(customer);
+            invoice.setCorrelationId(rs.getString(3));
+            invoice.setCallback(rs.getString(4));
+            invoice.setInvoiceRef(rs.getString(5));
+            invoice.setCreatedAt(rs.getTimestamp(6).toLocalDateTime());
+            invoice.setInvoice(body(rs));
+            invoice.setInvoiceStatus(InvoiceStatus.INVOICE_ERROR);
+            invoice.setStatusLastUpdatedAt(now.toLocalDateTime());
+            return invoice;
+        }, status.name(), Timestamp.valueOf(timeoutThreshold), batchSize, InvoiceStatus.INVOICE_ERROR.name(), now, now);
 
-        for (Invoice invoice : timedOutInvoices) {
-            log.warn("Invoice {} has timed out. Current status: {}", invoice.getInvoiceNumber(), invoice.getInvoiceStatus());
+        invoiceStatsRecorder.recordStatusChanges(expired, status);
 
-            //Aggiorna lo stato della fattura a uno stato di errore/timeout
-            invoice.setInvoiceStatus(InvoiceStatus.INVOICE_ERROR);
-            invoiceRepository.save(invoice);
+        outboxPublisher.publish(expired.stream()
+                .map(invoice -> new OutboxEvent("business-dlt-out-0", null, String.valueOf(invoice.getInvoiceNumber()), invoice))
+                .toList());
+        return expired.size();
+    }
 
-            // Invia ESPLICITAMENTE la fattura a un topic DLT dedicato
-            // Usiamo un topic DLT specifico per i timeout di business
-            streamBridge.send("business-dlt-out-0", invoice);
-            log.info("Invoice {} sent to business DLT.", invoice.getInvoiceNumber());
+    // Corpo dalla colonna invoice o, se salvato compresso, da invoice_body; null per i corpi in claim check (invoice_ref)
+    private String body(ResultSet rs) throws SQLException {
+        byte[] compressed = rs.getBytes(10);
+        if (compressed == null) {
+            return rs.getString(7);
         }
+        InvoiceBody row = new InvoiceBody();
+        row.setInvoiceNumber(rs.getLong(1));
+        row.setCodec(rs.getString(8));
+        row.setOriginalLength(rs.getInt(9));
+        row.setBody(compressed);
+        return invoiceBodyStore.decompress(row);
     }
-}
\ No newline at end of file
+}
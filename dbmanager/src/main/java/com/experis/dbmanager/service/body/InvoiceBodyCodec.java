@@ -0,0 +1,106 @@
+package com.experis.dbmanager.service.body;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressione dei corpi XML: deflate (zlib) con dizionario predefinito costruito sul vocabolario FatturaPA.
+ * Il dizionario rende efficace la compressione anche sulle fatture piccole, dove i tag ripetuti
+ * sono la maggior parte del documento. L'id del codec è salvato con ogni corpo: un nuovo dizionario
+ * richiede un nuovo id, quelli vecchi restano leggibili finché il loro dizionario è registrato.
+ */
+public final class InvoiceBodyCodec {
+
+    public static final String DEFLATE_FATTURAPA_V1 = "deflate-fpa-v1";
+    private static final String DICTIONARY_RESOURCE = "/compression/fatturapa-v1.dict";
+
+    private final String id;
+    private final byte[] dictionary;
+    private final int level;
+
+    public InvoiceBodyCodec(String id, byte[] dictionary, int level) {
+        this.id = id;
+        this.dictionary = dictionary;
+        this.level = level;
+    }
+
+    public static InvoiceBodyCodec fatturaPa(int level) {
+        try (InputStream in = InvoiceBodyCodec.class.getResourceAsStream(DICTIONARY_RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException("Dizionario di compressione non trovato: " + DICTIONARY_RESOURCE);
+            }
+            return new InvoiceBodyCodec(DEFLATE_FATTURAPA_V1, in.readAllBytes(), level);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public byte[] compress(byte[] input) {
+        Deflater deflater = new Deflater(level);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, input.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public byte[] compress(String body) {
+        return compress(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param originalLength lunghezza in byte del corpo non compresso (dimensiona il buffer di uscita)
+     */
+    public String decompress(byte[] compressed, int originalLength) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] out = new byte[Math.max(originalLength, 64)];
+            int offset = 0;
+            while (!inflater.finished()) {
+                if (offset == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                int length = inflater.inflate(out, offset, out.length - offset);
+                offset += length;
+                if (length == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (dictionary == null) {
+                            throw new IllegalStateException("Corpo compresso con dizionario, codec " + id + " senza dizionario");
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput()) {
+                        throw new IllegalStateException("Corpo compresso troncato (codec " + id + ")");
+                    }
+                }
+            }
+            return new String(out, 0, offset, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corpo compresso non valido (codec " + id + ")", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.experis.dbmanager.service.body;
+
+import com.experis.dbmanager.entity.InvoiceBody;
+import com.experis.dbmanager.shard.ShardRouter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Migrazione una tantum dei corpi salvati come testo nella colonna invoice verso invoice_body compresso.
+ * Si attiva con {@code app.invoice-body.migration.enabled=true}: le righe sono lette a blocchi di
+ * {@code batch-size} per numero fattura crescente, ogni blocco in una propria transazione con lock delle righe,
+ * quindi la migrazione può essere interrotta e ripresa; con lo sharding gli shard sono migrati uno dopo l'altro.
+ * Terminata la migrazione conviene un VACUUM FULL (o pg_repack) di invoice per restituire lo spazio al sistema.
+ */
+@Component
+@ConditionalOnProperty(name = "app.invoice-body.migration.enabled", havingValue = "true")
+@Slf4j
+public class InvoiceBodyMigration implements ApplicationRunner {
+
+    private static final String SELECT_BATCH = "SELECT invoice_number, invoice FROM invoice"
+            + " WHERE invoice_number > ? AND invoice IS NOT NULL AND body_codec IS NULL"
+            + " ORDER BY invoice_number LIMIT ? FOR UPDATE";
+    private static final String INSERT_BODY = "INSERT INTO invoice_body (invoice_number, codec, original_length, body)"
+            + " VALUES (?, ?, ?, ?) ON CONFLICT (invoice_number) DO UPDATE"
+            + " SET codec = EXCLUDED.codec, original_length = EXCLUDED.original_length, body = EXCLUDED.body";
+    private static final String CLEAR_TEXT = "UPDATE invoice SET invoice = NULL, body_codec = ? WHERE invoice_number = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final InvoiceBodyStore invoiceBodyStore;
+    private final ShardRouter shardRouter;
+    private final int batchSize;
+
+    public InvoiceBodyMigration(DataSource dataSource,
+                                PlatformTransactionManager transactionManager,
+                                InvoiceBodyStore invoiceBodyStore,
+                                ShardRouter shardRouter,
+                                @Value("${app.invoice-body.migration.batch-size:500}") int batchSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.invoiceBodyStore = invoiceBodyStore;
+        this.shardRouter = shardRouter;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        log.info("Migrazione dei corpi fattura verso invoice_body avviata (batch di {})", batchSize);
+        long start = System.nanoTime();
+        long[] totals = new long[3]; // fatture, byte originali, byte compressi
+        shardRouter.forEachShard(shard -> {
+            long lastNumber = 0;
+            while (true) {
+                Long next = migrateBatch(lastNumber, totals);
+                if (next == null) {
+                    break;
+                }
+                lastNumber = next;
+                log.info("Migrate {} fatture, ultima {}", totals[0], lastNumber);
+            }
+        });
+        log.info("Migrazione completata: {} fatture in {} ms, {} byte -> {} byte ({}% risparmiato)",
+                totals[0], (System.nanoTime() - start) / 1_000_000, totals[1], totals[2],
+                totals[1] == 0 ? 0 : 100 - totals[2] * 100 / totals[1]);
+    }
+
+    /**
+     * @return ultimo numero fattura migrato, null se non ci sono più righe da migrare
+     */
+    private Long migrateBatch(long afterNumber, long[] totals) {
+        return transactionTemplate.execute(tx -> {
+            List<InvoiceBody> rows = new ArrayList<>(batchSize);
+            jdbcTemplate.query(SELECT_BATCH, rs -> {
+                rows.add(invoiceBodyStore.compress(rs.getLong(1), rs.getString(2)));
+            }, afterNumber, batchSize);
+            if (rows.isEmpty()) {
+                return null;
+            }
+            jdbcTemplate.batchUpdate(INSERT_BODY, rows, rows.size(), (ps, row) -> {
+                ps.setLong(1, row.getInvoiceNumber());
+                ps.setString(2, row.getCodec());
+                ps.setInt(3, row.getOriginalLength());
+                ps.setBytes(4, row.getBody());
+            });
+            jdbcTemplate.batchUpdate(CLEAR_TEXT, rows, rows.size(), (ps, row) -> {
+                ps.setString(1, row.getCodec());
+                ps.setLong(2, row.getInvoiceNumber());
+            });
+            for (InvoiceBody row : rows) {
+                totals[0]++;
+                totals[1] += row.getOriginalLength();
+                totals[2] += row.getBody().length;
+            }
+            return rows.get(rows.size() - 1).getInvoiceNumber();
+        });
+    }
+}
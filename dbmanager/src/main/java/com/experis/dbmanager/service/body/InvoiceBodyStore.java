@@ -0,0 +1,111 @@
+package com.experis.dbmanager.service.body;
+
+import com.experis.dbmanager.entity.Invoice;
+import com.experis.dbmanager.entity.InvoiceBody;
+import com.experis.dbmanager.repository.InvoiceBodyRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memorizzazione del corpo XML delle fatture secondo {@code app.invoice-body.storage}:
+ * <ul>
+ *     <li>{@code text}: nella colonna invoice, come in origine</li>
+ *     <li>{@code compressed}: compresso in invoice_body, la colonna invoice resta null e body_codec indica il codec</li>
+ * </ul>
+ * La lettura segue sempre quanto salvato sulla riga, quindi le due modalità possono convivere.
+ */
+@Component
+@Slf4j
+public class InvoiceBodyStore {
+
+    private final InvoiceBodyRepository invoiceBodyRepository;
+    private final InvoiceBodyCodec codec;
+    private final boolean compressed;
+
+    public InvoiceBodyStore(InvoiceBodyRepository invoiceBodyRepository,
+                            @Value("${app.invoice-body.storage:text}") String storage,
+                            @Value("${app.invoice-body.compression-level:6}") int compressionLevel) {
+        this.invoiceBodyRepository = invoiceBodyRepository;
+        this.codec = InvoiceBodyCodec.fatturaPa(compressionLevel);
+        this.compressed = "compressed".equalsIgnoreCase(storage);
+        log.info("Corpo delle fatture salvato in modalità {}", compressed ? "compressed (" + codec.id() + ")" : "text");
+    }
+
+    /**
+     * Da chiamare prima di salvare una nuova fattura: imposta colonna invoice e body_codec.
+     * Il corpo compresso va poi salvato con {@link #saveBodies} quando il numero fattura è assegnato.
+     */
+    public void prepare(Invoice invoice, String body) {
+        if (compressed && body != null) {
+            invoice.setInvoice(null);
+            invoice.setBodyCodec(codec.id());
+        } else {
+            invoice.setInvoice(body);
+            invoice.setBodyCodec(null);
+        }
+    }
+
+    /**
+     * Salva i corpi compressi delle fatture appena inserite; bodies è allineata a invoices.
+     */
+    public void saveBodies(List<Invoice> invoices, List<String> bodies) {
+        List<InvoiceBody> rows = new ArrayList<>();
+        for (int i = 0; i < invoices.size(); i++) {
+            if (invoices.get(i).getBodyCodec() != null) {
+                rows.add(compress(invoices.get(i).getInvoiceNumber(), bodies.get(i)));
+            }
+        }
+        if (!rows.isEmpty()) {
+            invoiceBodyRepository.saveAll(rows);
+        }
+    }
+
+    /**
+     * Sostituisce il corpo di una fattura già salvata.
+     */
+    public void replace(Invoice invoice, String body) {
+        boolean wasCompressed = invoice.getBodyCodec() != null;
+        prepare(invoice, body);
+        if (invoice.getBodyCodec() != null) {
+            InvoiceBody row = compress(invoice.getInvoiceNumber(), body);
+            row.setNew(!wasCompressed);
+            invoiceBodyRepository.save(row);
+        } else if (wasCompressed) {
+            invoiceBodyRepository.deleteById(invoice.getInvoiceNumber());
+        }
+    }
+
+    /**
+     * Corpo XML della fattura: dalla colonna invoice o decompresso da invoice_body (una query solo in questo caso).
+     */
+    public String read(Invoice invoice) {
+        if (invoice.getBodyCodec() == null) {
+            return invoice.getInvoice();
+        }
+        return invoiceBodyRepository.findById(invoice.getInvoiceNumber())
+                .map(this::decompress)
+                .orElse(null);
+    }
+
+    public String decompress(InvoiceBody row) {
+        if (!codec.id().equals(row.getCodec())) {
+            throw new IllegalStateException("Codec " + row.getCodec() + " non supportato per la fattura " + row.getInvoiceNumber());
+        }
+        return codec.decompress(row.getBody(), row.getOriginalLength());
+    }
+
+    public InvoiceBody compress(long invoiceNumber, String body) {
+        byte[] raw = body.getBytes(StandardCharsets.UTF_8);
+        InvoiceBody row = new InvoiceBody();
+        row.setInvoiceNumber(invoiceNumber);
+        row.setCodec(codec.id());
+        row.setOriginalLength(raw.length);
+        row.setBody(codec.compress(raw));
+        return row;
+    }
+}
@@ -0,0 +1,197 @@
+package com.experis.dbmanager.service.cache;
+
+import com.experis.dbmanager.entity.Customer;
+import com.experis.dbmanager.repository.CustomerRepository;
+import com.experis.dbmanager.shard.ShardRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Near-cache dei clienti davanti a {@link CustomerRepository}, usata sul percorso caldo delle fatture.
+ * LRU limitata con scadenza (TTL) per voce; non vengono memorizzati i clienti inesistenti.
+ * {@link #invalidate} rimuove la voce locale e, se abilitato, pubblica l'id su customer-invalidation
+ * così che anche le altre istanze di dbmanager la rimuovano ({@link #evictLocal}).
+ * Le entity restituite sono condivise: vanno solo lette. I clienti sono sempre letti dallo shard globale,
+ * anche quando la cache è usata dentro una transazione su un altro shard.
+ */
+@Component
+@Slf4j
+public class CustomerCache {
+
+    private record Entry(Customer customer, long expiresAt) {
+    }
+
+    private final CustomerRepository customerRepository;
+    private final StreamBridge streamBridge;
+    private final ShardRouter shardRouter;
+    private final boolean enabled;
+    private final boolean broadcastInvalidation;
+    private final long ttlNanos;
+    private final Map<Integer, Entry> entries;
+    // Incrementato a ogni invalidazione: un caricamento iniziato prima non viene memorizzato
+    private long invalidations;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter sizeEvictions;
+    private final Counter expiredEvictions;
+    private final Counter invalidatedEvictions;
+
+    public CustomerCache(CustomerRepository customerRepository,
+                         StreamBridge streamBridge,
+                         ShardRouter shardRouter,
+                         @Value("${app.customer-cache.enabled:true}") boolean enabled,
+                         @Value("${app.customer-cache.max-size:10000}") int maxSize,
+                         @Value("${app.customer-cache.ttl-ms:300000}") long ttlMs,
+                         @Value("${app.customer-cache.broadcast-invalidation:false}") boolean broadcastInvalidation,
+                         MeterRegistry meterRegistry) {
+        this.customerRepository = customerRepository;
+        this.streamBridge = streamBridge;
+        this.shardRouter = shardRouter;
+        this.enabled = enabled;
+        this.broadcastInvalidation = broadcastInvalidation;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+
+        this.sizeEvictions = evictionCounter(meterRegistry, "size");
+        this.expiredEvictions = evictionCounter(meterRegistry, "expired");
+        this.invalidatedEvictions = evictionCounter(meterRegistry, "invalidated");
+        this.entries = new LinkedHashMap<>(Math.min(maxSize, 1 << 12), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                if (size() > maxSize) {
+                    sizeEvictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.hits = Counter.builder("dbmanager.customer.cache.hits")
+                .description("Letture clienti servite dalla cache")
+                .register(meterRegistry);
+        this.misses = Counter.builder("dbmanager.customer.cache.misses")
+                .description("Letture clienti andate sul database")
+                .register(meterRegistry);
+        Gauge.builder("dbmanager.customer.cache.size", this, CustomerCache::size)
+                .description("Clienti in cache")
+                .register(meterRegistry);
+    }
+
+    public Optional<Customer> get(int customerId) {
+        if (!enabled) {
+            return shardRouter.readGlobal(() -> customerRepository.findById(customerId));
+        }
+        long version;
+        synchronized (entries) {
+            Customer cached = lookup(customerId);
+            if (cached != null) {
+                hits.increment();
+                return Optional.of(cached);
+            }
+            version = invalidations;
+        }
+        misses.increment();
+        Optional<Customer> loaded = shardRouter.readGlobal(() -> customerRepository.findById(customerId));
+        loaded.ifPresent(customer -> store(customer, version));
+        return loaded;
+    }
+
+    /**
+     * Clienti per id; quelli non in cache sono letti con una sola query. Gli id inesistenti non compaiono nella mappa.
+     */
+    public Map<Integer, Customer> getAll(Collection<Integer> customerIds) {
+        Map<Integer, Customer> result = new HashMap<>();
+        if (!enabled) {
+            shardRouter.readGlobal(() -> customerRepository.findAllById(customerIds)).forEach(customer -> result.put(customer.getCustomerId(), customer));
+            return result;
+        }
+        List<Integer> missing = new ArrayList<>();
+        long version;
+        synchronized (entries) {
+            for (Integer customerId : customerIds) {
+                Customer cached = lookup(customerId);
+                if (cached != null) {
+                    result.put(customerId, cached);
+                } else {
+                    missing.add(customerId);
+                }
+            }
+            version = invalidations;
+        }
+        hits.increment(result.size());
+        if (missing.isEmpty()) {
+            return result;
+        }
+        misses.increment(missing.size());
+        for (Customer customer : shardRouter.readGlobal(() -> customerRepository.findAllById(missing))) {
+            result.put(customer.getCustomerId(), customer);
+            store(customer, version);
+        }
+        return result;
+    }
+
+    /**
+     * Da chiamare dopo ogni modifica o cancellazione del cliente.
+     */
+    public void invalidate(int customerId) {
+        evictLocal(customerId);
+        if (broadcastInvalidation) {
+            streamBridge.send("customerInvalidation-out-0", customerId);
+        }
+    }
+
+    public void evictLocal(int customerId) {
+        synchronized (entries) {
+            invalidations++;
+            if (entries.remove(customerId) != null) {
+                invalidatedEvictions.increment();
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private Customer lookup(int customerId) {
+        Entry entry = entries.get(customerId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt() - System.nanoTime() <= 0) {
+            entries.remove(customerId);
+            expiredEvictions.increment();
+            return null;
+        }
+        return entry.customer();
+    }
+
+    private void store(Customer customer, long version) {
+        synchronized (entries) {
+            if (version == invalidations) {
+                entries.put(customer.getCustomerId(), new Entry(customer, System.nanoTime() + ttlNanos));
+            }
+        }
+    }
+
+    private static Counter evictionCounter(MeterRegistry meterRegistry, String cause) {
+        return Counter.builder("dbmanager.customer.cache.evictions").tag("cause", cause)
+                .description("Clienti rimossi dalla cache")
+                .register(meterRegistry);
+    }
+}
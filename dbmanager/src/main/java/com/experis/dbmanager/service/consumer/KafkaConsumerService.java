@@ -4,11 +4,30 @@ import com.experis.dbmanager.dto.InvoiceDto;
 import com.experis.dbmanager.dto.SdiNotificationDto;
 import com.experis.dbmanager.enumerations.InvoiceStatus;
 import com.experis.dbmanager.service.IDbManagerService;
+import com.experis.dbmanager.service.outbox.OutboxEvent;
+import com.experis.dbmanager.service.outbox.OutboxPublisher;
+import com.experis.dbmanager.service.transition.InvoiceStatusTransitionService;
+import com.experis.dbmanager.service.transition.InvoiceTransitionResult;
+import com.experis.dbmanager.shard.ShardRouter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
 import org.springframework.stereotype.Service;
-
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Elaborazione dei messaggi Kafka della SAGA. Salvataggi e relativi eventi (savedInvoice, outgoingInvoice)
+ * avvengono nella stessa transazione: gli eventi passano dall'outbox ({@link OutboxPublisher}).
+ * Con lo sharding la transazione è aperta sullo shard della fattura, dove sono scritti anche gli eventi.
+ */
 @Service
 @Slf4j
 @RequiredArgsConstructor
@@ -16,6 +35,10 @@ public class KafkaConsumerService {
 
     private final IDbManagerService dbManagerService;
     private final StreamBridge streamBridge;
+    private final OutboxPublisher outboxPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final InvoiceStatusTransitionService transitionService;
+    private final ShardRouter shardRouter;
 
     public void processIncomingInvoice(InvoiceDto invoiceDto) {
         if (invoiceDto.getCustomer() == null) {
@@ -26,34 +49,140 @@ public class KafkaConsumerService {
         log.info("Received invoice {} for customer {}", invoiceDto.getInvoiceNumber(), invoiceDto.getCustomer().getCustomerId());
 
         boolean customerExists = dbManagerService.findCustomerById(invoiceDto.getCustomer().getCustomerId()).isPresent();
+        int shard = shardRouter.shardOfCustomer(invoiceDto.getCustomer().getCustomerId());
 
-        InvoiceDto savedInvoice;
         if (customerExists) {
             log.info("Customer {} exists. Processing invoice with status {}.", invoiceDto.getCustomer().getCustomerId(), invoiceDto.getInvoiceStatus());
             if (!isInternalInvoice(invoiceDto)) {
                 dbManagerService.createInvoice(invoiceDto.getCustomer().getCustomerId(), invoiceDto);
-            }else {
+            } else {
                 invoiceDto.setInvoiceStatus(InvoiceStatus.INTERNAL_INVOICE_TOBE_SENT);
-                savedInvoice = dbManagerService.createInvoice(invoiceDto.getCustomer().getCustomerId(), invoiceDto);
-
-                streamBridge.send("publishSavedInvoice-out-0", savedInvoice);
-                log.info("Invoice {} sent to SAVED topic.", savedInvoice.getInvoiceNumber());
-
-                // Send to outgoing topic only if it's an internal invoice
-                if (isInternalInvoice(savedInvoice)) {
-                    streamBridge.send("publishOutgoingInvoice-out-0", savedInvoice);
-                    log.info("Internal invoice {} sent to OUTGOING topic.", savedInvoice.getInvoiceNumber());
-                }
+                shardRouter.run(shard, () -> transactionTemplate.executeWithoutResult(tx -> {
+                    InvoiceDto savedInvoice = dbManagerService.createInvoice(invoiceDto.getCustomer().getCustomerId(), invoiceDto);
+                    savedInvoice.setReplyTo(invoiceDto.getReplyTo());
+                    outboxPublisher.publish(sagaEvents(savedInvoice));
+                    log.info("Invoice {} saved, events sent to SAVED and OUTGOING topics through the outbox.", savedInvoice.getInvoiceNumber());
+                }));
             }
 
         } else {
             log.warn("Customer {} does not exist. Marking invoice as invalid.", invoiceDto.getCustomer().getCustomerId());
             invoiceDto.setInvoiceStatus(InvoiceStatus.INTERNAL_INVOICE_INVALID);
-            savedInvoice = dbManagerService.createInvoice(invoiceDto.getCustomer().getCustomerId(), invoiceDto);
+            shardRouter.run(shard, () -> transactionTemplate.executeWithoutResult(tx -> {
+                InvoiceDto savedInvoice = dbManagerService.createInvoice(invoiceDto.getCustomer().getCustomerId(), invoiceDto);
+                savedInvoice.setReplyTo(invoiceDto.getReplyTo());
+                outboxPublisher.publish(sagaEvents(savedInvoice));
+                log.info("Invoice {} saved as invalid, event sent to SAVED topic through the outbox.", savedInvoice.getInvoiceNumber());
+            }));
+        }
+    }
+
+    /**
+     * Versione batch di {@link #processIncomingInvoice}: un solo salvataggio per l'intero poll Kafka.
+     * Se il salvataggio del batch fallisce le fatture vengono salvate una alla volta
+     * e quelle che falliscono ancora finiscono in DLT. Con lo sharding il poll è diviso per shard del cliente:
+     * un salvataggio (e il suo eventuale ripiego) per shard.
+     * Gli errori transitori del database (connessione, failover, lock) non riguardano la singola fattura: sono rilanciati
+     * e il poll è riconsegnato con back-off (BatchConsumerRetryConfig). Ogni shard, e nel ripiego ogni fattura, è salvato
+     * nella propria transazione: alla riconsegna le fatture già salvate (stesso cliente e correlation id) vengono saltate,
+     * i loro eventi sono già nell'outbox. Il vincolo UQ_INVOICE_CUSTOMER_CORRELATION esclude i duplicati concorrenti.
+     */
+    public void processIncomingInvoices(List<InvoiceDto> invoiceDtos) {
+        List<InvoiceDto> accepted = new ArrayList<>(invoiceDtos.size());
+        for (InvoiceDto invoiceDto : invoiceDtos) {
+            if (invoiceDto.getCustomer() == null) {
+                log.error("Received invoice with missing customer information. Discarding.");
+                continue;
+            }
+            if (isInternalInvoice(invoiceDto)) {
+                invoiceDto.setInvoiceStatus(InvoiceStatus.INTERNAL_INVOICE_TOBE_SENT);
+            }
+            accepted.add(invoiceDto);
+        }
+        if (accepted.isEmpty()) {
+            return;
+        }
+        log.info("Received batch of {} invoices", accepted.size());
 
-            streamBridge.send("publishSavedInvoice-out-0", savedInvoice);
-            log.info("Invoice {} sent to SAVED topic as invalid.", savedInvoice.getInvoiceNumber());
+        Map<Integer, List<InvoiceDto>> byShard = new TreeMap<>();
+        for (InvoiceDto invoiceDto : accepted) {
+            byShard.computeIfAbsent(shardRouter.shardOfCustomer(invoiceDto.getCustomer().getCustomerId()), s -> new ArrayList<>())
+                    .add(invoiceDto);
         }
+        byShard.forEach((shard, invoices) -> shardRouter.run(shard, () -> {
+            try {
+                transactionTemplate.executeWithoutResult(tx -> saveAndPublish(invoices));
+            } catch (RuntimeException e) {
+                if (isTransient(e)) {
+                    log.warn("Batch save of {} invoices failed with a transient error, the poll will be redelivered.", invoices.size(), e);
+                    throw e;
+                }
+                log.error("Batch save of {} invoices failed, saving one by one.", invoices.size(), e);
+                saveAndPublishOneByOne(invoices);
+            }
+        }));
+        log.info("Batch of {} invoices saved.", accepted.size());
+    }
+
+    private void saveAndPublish(List<InvoiceDto> received) {
+        List<InvoiceDto> invoiceDtos = dbManagerService.findUnsavedInvoices(received);
+        if (invoiceDtos.size() < received.size()) {
+            log.warn("Skipping {} invoices already saved by a previous delivery of the poll.", received.size() - invoiceDtos.size());
+        }
+        if (invoiceDtos.isEmpty()) {
+            return;
+        }
+        List<InvoiceDto> savedInvoices = dbManagerService.createInvoices(invoiceDtos);
+        List<OutboxEvent> events = new ArrayList<>(savedInvoices.size() * 2);
+        for (int i = 0; i < savedInvoices.size(); i++) {
+            InvoiceDto savedInvoice = savedInvoices.get(i);
+            if (!isInternalInvoice(savedInvoice)) {
+                continue;
+            }
+            savedInvoice.setReplyTo(invoiceDtos.get(i).getReplyTo());
+            events.addAll(sagaEvents(savedInvoice));
+        }
+        outboxPublisher.publish(events);
+    }
+
+    private void saveAndPublishOneByOne(List<InvoiceDto> invoiceDtos) {
+        for (InvoiceDto invoiceDto : invoiceDtos) {
+            try {
+                transactionTemplate.executeWithoutResult(tx -> saveAndPublish(List.of(invoiceDto)));
+            } catch (RuntimeException e) {
+                if (isTransient(e)) {
+                    log.warn("Invoice {} for customer {} could not be saved because of a transient error, the poll will be redelivered.",
+                            invoiceDto.getCorrelationId(), invoiceDto.getCustomer().getCustomerId(), e);
+                    throw e;
+                }
+                log.error("Invoice {} for customer {} could not be saved. Sending to DLT.", invoiceDto.getCorrelationId(), invoiceDto.getCustomer().getCustomerId(), e);
+                if (!streamBridge.send("publishIncomingInvoiceDlt-out-0", invoiceDto)) {
+                    throw new IllegalStateException("Invio in DLT fallito per la fattura " + invoiceDto.getCorrelationId()
+                            + " del cliente " + invoiceDto.getCustomer().getCustomerId());
+                }
+            }
+        }
+    }
+
+    // Database non raggiungibile o contesa momentanea: un nuovo tentativo può riuscire, la fattura non va in DLT
+    static boolean isTransient(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof TransientDataAccessException || t instanceof DataAccessResourceFailureException
+                    || t instanceof CannotCreateTransactionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Risposta al receiver e, per le fatture da spedire, invio al sender
+    private static List<OutboxEvent> sagaEvents(InvoiceDto savedInvoice) {
+        String key = String.valueOf(savedInvoice.getInvoiceNumber());
+        OutboxEvent saved = new OutboxEvent("publishSavedInvoice-out-0", savedInvoice.getReplyTo(), key, savedInvoice);
+        if (InvoiceStatus.INTERNAL_INVOICE_TOBE_SENT.equals(savedInvoice.getInvoiceStatus())) {
+            return List.of(saved, new OutboxEvent("publishOutgoingInvoice-out-0", null, key, savedInvoice));
+        }
+        return List.of(saved);
     }
 
     private boolean isInternalInvoice(InvoiceDto invoice) {
@@ -66,31 +195,44 @@ public class KafkaConsumerService {
     public void processSdiNotification(SdiNotificationDto notification) {
         log.info("Received SDI notification for invoice {} with status {}", notification.getInvoiceNumber(), notification.getStatus());
 
-        dbManagerService.findInvoiceByNumber(notification.getInvoiceNumber()).ifPresentOrElse(invoice -> {
-            log.info("Found invoice {}. Updating status to {}", invoice.getInvoiceNumber(), notification.getStatus());
-            invoice.setInvoiceStatus(notification.getStatus());
-            InvoiceDto updatedInvoice = dbManagerService.updateInvoice(invoice.getInvoiceNumber(), invoice);
-
-            streamBridge.send("publishSavedInvoice-out-0", updatedInvoice);
-            log.info("Updated invoice {} sent to SAVED topic.", updatedInvoice.getInvoiceNumber());
-        }, () -> {
-            log.error("Invoice {} not found for SDI notification. Marking as invalid.", notification.getInvoiceNumber());
-            InvoiceDto invalidInvoice = new InvoiceDto();
-            invalidInvoice.setInvoiceNumber(notification.getInvoiceNumber());
-            invalidInvoice.setInvoiceStatus(InvoiceStatus.INTERNAL_INVOICE_INVALID);
-            streamBridge.send("publishSavedInvoice-out-0", invalidInvoice);
-        });
+        // Cambio di stato ed evento nella stessa transazione, sullo shard della fattura
+        int shard = shardRouter.shardOfInvoice(notification.getInvoiceNumber());
+        InvoiceTransitionResult result = shardRouter.call(shard, () -> transactionTemplate.execute(tx -> {
+            InvoiceTransitionResult transition = transitionService.transition(notification.getInvoiceNumber(), notification.getStatus(), true);
+            if (transition.isApplied()) {
+                InvoiceDto updatedInvoice = transition.invoice();
+                updatedInvoice.setReplyTo(notification.getReplyTo());
+                outboxPublisher.publish(new OutboxEvent("publishSavedInvoice-out-0", updatedInvoice.getReplyTo(),
+                        String.valueOf(updatedInvoice.getInvoiceNumber()), updatedInvoice));
+            }
+            return transition;
+        }));
+        switch (result.outcome()) {
+            case APPLIED -> log.info("Invoice {} moved to {}. Sent to SAVED topic through the outbox.", notification.getInvoiceNumber(), notification.getStatus());
+            case NOT_FOUND -> {
+                log.error("Invoice {} not found for SDI notification. Marking as invalid.", notification.getInvoiceNumber());
+                InvoiceDto invalidInvoice = new InvoiceDto();
+                invalidInvoice.setInvoiceNumber(notification.getInvoiceNumber());
+                invalidInvoice.setInvoiceStatus(InvoiceStatus.INTERNAL_INVOICE_INVALID);
+                invalidInvoice.setReplyTo(notification.getReplyTo());
+                shardRouter.run(shard, () -> transactionTemplate.executeWithoutResult(tx -> outboxPublisher.publish(
+                        new OutboxEvent("publishSavedInvoice-out-0", invalidInvoice.getReplyTo(), String.valueOf(invalidInvoice.getInvoiceNumber()), invalidInvoice))));
+            }
+            // Duplicati e notifiche fuori ordine non cambiano lo stato: nessuna nuova pubblicazione né callback
+            default -> log.warn("SDI notification {} for invoice {} ignored ({}): current status is {}.",
+                    notification.getStatus(), notification.getInvoiceNumber(), result.outcome(), result.currentStatus());
+        }
     }
 
     public void processSentInvoice(InvoiceDto sentInvoice) {
         log.info("Received sent confirmation for invoice {} with status {}", sentInvoice.getInvoiceNumber(), sentInvoice.getInvoiceStatus());
 
-        dbManagerService.findInvoiceByNumber(sentInvoice.getInvoiceNumber()).ifPresentOrElse(invoice -> {
-            log.info("Found invoice {}. Updating status to {}", invoice.getInvoiceNumber(), sentInvoice.getInvoiceStatus());
-            invoice.setInvoiceStatus(sentInvoice.getInvoiceStatus());
-            dbManagerService.updateInvoice(invoice.getInvoiceNumber(), invoice);
-        }, () -> {
-            log.error("Invoice {} not found for SENT confirmation. This may indicate a data consistency issue.", sentInvoice.getInvoiceNumber());
-        });
+        InvoiceTransitionResult result = transitionService.transition(sentInvoice.getInvoiceNumber(), sentInvoice.getInvoiceStatus(), false);
+        switch (result.outcome()) {
+            case APPLIED -> log.info("Invoice {} moved to {}.", sentInvoice.getInvoiceNumber(), sentInvoice.getInvoiceStatus());
+            case NOT_FOUND -> log.error("Invoice {} not found for SENT confirmation. This may indicate a data consistency issue.", sentInvoice.getInvoiceNumber());
+            default -> log.warn("SENT confirmation {} for invoice {} ignored ({}): current status is {}.",
+                    sentInvoice.getInvoiceStatus(), sentInvoice.getInvoiceNumber(), result.outcome(), result.currentStatus());
+        }
     }
 }
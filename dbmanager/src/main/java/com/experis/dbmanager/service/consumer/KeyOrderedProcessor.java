@@ -0,0 +1,282 @@
+package com.experis.dbmanager.service.consumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Elaborazione parallela dei record di un poll Kafka (binding in batch-mode) con ordine garantito per chiave.
+ * I record sono raggruppati per chiave del messaggio (o, per i messaggi senza chiave, per la chiave ricavata dal
+ * payload): chiavi diverse sono elaborate in parallelo su virtual thread, al più {@code concurrency} alla volta,
+ * i record di una stessa chiave uno dopo l'altro nell'ordine della partizione. Il poll è completato (e i suoi offset
+ * confermati) solo quando tutte le chiavi sono state elaborate, quindi l'ordine vale anche tra poll successivi.
+ * Il parallelismo non è più limitato dal numero di partizioni ma dal numero di chiavi distinte.
+ */
+@Component
+@Slf4j
+public class KeyOrderedProcessor {
+
+    private static final class Backlog {
+        private final AtomicInteger records = new AtomicInteger();
+        private final AtomicInteger keys = new AtomicInteger();
+        private final AtomicInteger maxKeyRecords = new AtomicInteger();
+        private DistributionSummary keyRecords;
+        private Timer keyTimer;
+        private Counter succeeded;
+        private Counter deadLettered;
+    }
+
+    private final StreamBridge streamBridge;
+    private final MeterRegistry meterRegistry;
+    private final Semaphore permits;
+    private final int maxAttempts;
+    private final long backOffInitialMs;
+    private final long backOffMaxMs;
+    private final double backOffMultiplier;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Backlog> backlogs = new ConcurrentHashMap<>();
+
+    public KeyOrderedProcessor(StreamBridge streamBridge,
+                               MeterRegistry meterRegistry,
+                               @Value("${app.consumer.keyed.concurrency:32}") int concurrency,
+                               @Value("${app.consumer.keyed.max-attempts:3}") int maxAttempts,
+                               @Value("${app.consumer.keyed.back-off-initial-ms:1000}") long backOffInitialMs,
+                               @Value("${app.consumer.keyed.back-off-max-ms:10000}") long backOffMaxMs,
+                               @Value("${app.consumer.keyed.back-off-multiplier:2.0}") double backOffMultiplier) {
+        this.streamBridge = streamBridge;
+        this.meterRegistry = meterRegistry;
+        this.permits = new Semaphore(concurrency);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backOffInitialMs = backOffInitialMs;
+        this.backOffMaxMs = backOffMaxMs;
+        this.backOffMultiplier = backOffMultiplier;
+    }
+
+    /**
+     * Elabora i record uno per volta per chiave. Come con la DLQ del binder, un record che fallisce è ritentato
+     * con back-off esponenziale fino a {@code max-attempts} volte e poi inviato a {@code dlqDestination}; i record
+     * successivi della stessa chiave aspettano l'esito. Se l'invio in DLQ fallisce la chiave si ferma e il poll fallisce,
+     * dopo che le altre chiavi sono state elaborate.
+     */
+    public <T> void process(String name, Message<List<T>> poll, Function<T, String> keyOf, Consumer<T> handler, String dlqDestination) {
+        Backlog backlog = backlog(name);
+        dispatch(name, poll, keyOf, records -> {
+            for (T record : records) {
+                if (processWithRetry(name, record, handler)) {
+                    backlog.succeeded.increment();
+                } else {
+                    // Se l'invio in DLQ fallisce il poll non deve essere confermato: viene riconsegnato
+                    if (!streamBridge.send(dlqDestination, MessageBuilder.withPayload(record)
+                            .setHeader(KafkaHeaders.KEY, keyOf.apply(record))
+                            .build())) {
+                        throw new IllegalStateException("Invio in DLQ " + dlqDestination + " fallito per un record di " + name);
+                    }
+                    backlog.deadLettered.increment();
+                }
+            }
+        });
+    }
+
+    /**
+     * Passa al gestore tutti i record di una chiave insieme (es. salvataggio a blocchi delle fatture di un cliente).
+     * Il gestore è responsabile dei fallimenti dei singoli record; un'eccezione fa fallire l'intero poll,
+     * dopo che le altre chiavi sono state elaborate: alla riconsegna il gestore riceve di nuovo anche le chiavi
+     * già completate e deve essere idempotente.
+     */
+    public <T> void processGroups(String name, Message<List<T>> poll, Function<T, String> keyOf, Consumer<List<T>> handler) {
+        Backlog backlog = backlog(name);
+        dispatch(name, poll, keyOf, records -> {
+            handler.accept(records);
+            backlog.succeeded.increment(records.size());
+        });
+    }
+
+    private <T> void dispatch(String name, Message<List<T>> poll, Function<T, String> keyOf, Consumer<List<T>> work) {
+        List<T> records = poll.getPayload();
+        if (records.isEmpty()) {
+            return;
+        }
+        Map<String, List<T>> byKey = groupByKey(records, receivedKeys(poll), keyOf);
+        Backlog backlog = backlog(name);
+        backlog.records.addAndGet(records.size());
+        backlog.keys.addAndGet(byKey.size());
+        int maxKeyRecords = 0;
+        for (List<T> keyRecords : byKey.values()) {
+            backlog.keyRecords.record(keyRecords.size());
+            maxKeyRecords = Math.max(maxKeyRecords, keyRecords.size());
+        }
+        backlog.maxKeyRecords.set(maxKeyRecords);
+        log.debug("Poll {}: {} records over {} keys", name, records.size(), byKey.size());
+
+        List<Future<?>> futures = new ArrayList<>(byKey.size());
+        int submittedKeys = 0;
+        int submittedRecords = 0;
+        try {
+            for (List<T> keyRecords : byKey.values()) {
+                // Il thread del consumer aspetta un permesso: backpressure verso il poll successivo
+                permits.acquire();
+                try {
+                    futures.add(executor.submit(() -> {
+                        try {
+                            backlog.keyTimer.record(() -> work.accept(keyRecords));
+                        } finally {
+                            backlog.keys.decrementAndGet();
+                            backlog.records.addAndGet(-keyRecords.size());
+                            permits.release();
+                        }
+                    }));
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+                submittedKeys++;
+                submittedRecords += keyRecords.size();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Elaborazione del poll " + name + " interrotta", e);
+        } finally {
+            // Le chiavi non avviate non restano nell'arretrato
+            backlog.keys.addAndGet(submittedKeys - byKey.size());
+            backlog.records.addAndGet(submittedRecords - records.size());
+        }
+        awaitAll(name, futures);
+    }
+
+    private void awaitAll(String name, List<Future<?>> futures) {
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException runtime ? runtime : new IllegalStateException(e.getCause());
+                } else {
+                    failure.addSuppressed(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Elaborazione del poll " + name + " interrotta", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private <T> boolean processWithRetry(String name, T record, Consumer<T> handler) {
+        long backOff = backOffInitialMs;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                handler.accept(record);
+                return true;
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts) {
+                    log.error("Record of {} failed after {} attempts, sending to DLQ.", name, attempt, e);
+                    return false;
+                }
+                log.warn("Record of {} failed (attempt {}/{}), retrying in {} ms: {}", name, attempt, maxAttempts, backOff, e.getMessage());
+                try {
+                    Thread.sleep(backOff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Ritentativo interrotto", interrupted);
+                }
+                backOff = Math.min(backOffMaxMs, (long) (backOff * backOffMultiplier));
+            }
+        }
+    }
+
+    /**
+     * Raggruppa i record per chiave mantenendo l'ordine del poll; i record senza chiave sono indipendenti.
+     */
+    static <T> Map<String, List<T>> groupByKey(List<T> records, List<?> receivedKeys, Function<T, String> keyOf) {
+        Map<String, List<T>> byKey = new LinkedHashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            T record = records.get(i);
+            String key = i < receivedKeys.size() ? keyToString(receivedKeys.get(i)) : null;
+            if (key == null) {
+                key = keyOf.apply(record);
+            }
+            // Chiave interna per i record senza chiave: non collide con le chiavi dei messaggi
+            byKey.computeIfAbsent(key != null ? "k:" + key : "#" + i, k -> new ArrayList<>()).add(record);
+        }
+        return byKey;
+    }
+
+    private static List<?> receivedKeys(Message<?> poll) {
+        Object keys = poll.getHeaders().get(KafkaHeaders.RECEIVED_KEY);
+        return keys instanceof List<?> list ? list : List.of();
+    }
+
+    private static String keyToString(Object key) {
+        if (key instanceof byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        return key != null ? key.toString() : null;
+    }
+
+    private Backlog backlog(String name) {
+        return backlogs.computeIfAbsent(name, n -> {
+            Backlog backlog = new Backlog();
+            Gauge.builder("dbmanager.consumer.keyed.backlog.records", backlog.records, AtomicInteger::get)
+                    .description("Record in attesa o in elaborazione, per chiavi non ancora completate")
+                    .tag("binding", n)
+                    .register(meterRegistry);
+            Gauge.builder("dbmanager.consumer.keyed.backlog.keys", backlog.keys, AtomicInteger::get)
+                    .description("Chiavi in attesa o in elaborazione")
+                    .tag("binding", n)
+                    .register(meterRegistry);
+            Gauge.builder("dbmanager.consumer.keyed.backlog.max-key-records", backlog.maxKeyRecords, AtomicInteger::get)
+                    .description("Record della chiave più carica nell'ultimo poll")
+                    .tag("binding", n)
+                    .register(meterRegistry);
+            backlog.keyRecords = DistributionSummary.builder("dbmanager.consumer.keyed.key.records")
+                    .description("Record per chiave in ogni poll")
+                    .tag("binding", n)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+            backlog.keyTimer = Timer.builder("dbmanager.consumer.keyed.key.duration")
+                    .description("Durata dell'elaborazione dei record di una chiave")
+                    .tag("binding", n)
+                    .register(meterRegistry);
+            backlog.succeeded = Counter.builder("dbmanager.consumer.keyed.records")
+                    .tag("binding", n).tag("outcome", "success")
+                    .register(meterRegistry);
+            backlog.deadLettered = Counter.builder("dbmanager.consumer.keyed.records")
+                    .tag("binding", n).tag("outcome", "dlq")
+                    .register(meterRegistry);
+            return backlog;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,63 @@
+package com.experis.dbmanager.service.export;
+
+import com.experis.dbmanager.exception.InvalidExportColumnException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Colonne esportabili della tabella invoice: il nome esposto è quello del campo di InvoiceDto.
+ * Solo queste colonne possono finire nella query di export.
+ */
+public enum InvoiceExportColumn {
+
+    INVOICE_NUMBER("invoiceNumber", "invoice_number", true),
+    CUSTOMER_ID("customerId", "customer_id", true),
+    INVOICE_STATUS("invoiceStatus", "invoice_status", true),
+    INVOICE("invoice", "invoice", false),
+    INVOICE_REF("invoiceRef", "invoice_ref", true),
+    CREATED_AT("createdAt", "created_at", true),
+    CREATED_BY("createdBy", "created_by", false),
+    UPDATED_AT("updatedAt", "updated_at", true),
+    UPDATED_BY("updatedBy", "updated_by", false),
+    STATUS_LAST_UPDATED_AT("statusLastUpdatedAt", "status_last_updated_at", true),
+    CALLBACK("callback", "callback", true),
+    CORRELATION_ID("correlationId", "correlation_id", true);
+
+    private final String property;
+    private final String column;
+    // Colonne esportate quando non viene indicata una selezione (il corpo XML va richiesto esplicitamente)
+    private final boolean defaultColumn;
+
+    InvoiceExportColumn(String property, String column, boolean defaultColumn) {
+        this.property = property;
+        this.column = column;
+        this.defaultColumn = defaultColumn;
+    }
+
+    public String property() {
+        return property;
+    }
+
+    public String column() {
+        return column;
+    }
+
+    public static List<InvoiceExportColumn> resolve(List<String> properties) {
+        if (properties == null || properties.isEmpty()) {
+            return Arrays.stream(values()).filter(c -> c.defaultColumn).toList();
+        }
+        List<InvoiceExportColumn> columns = new ArrayList<>(properties.size());
+        for (String property : properties) {
+            InvoiceExportColumn column = Arrays.stream(values())
+                    .filter(c -> c.property.equalsIgnoreCase(property.trim()))
+                    .findFirst()
+                    .orElseThrow(() -> new InvalidExportColumnException(property));
+            if (!columns.contains(column)) {
+                columns.add(column);
+            }
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,215 @@
+package com.experis.dbmanager.service.export;
+
+import com.experis.dbmanager.entity.InvoiceBody;
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+import com.experis.dbmanager.service.body.InvoiceBodyStore;
+import com.experis.dbmanager.shard.ShardRouter;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Export delle fatture in streaming, a memoria costante.
+ * Le righe sono lette con JDBC da un cursore lato server (fetch size, in transazione read-only perché il driver
+ * Postgres usi il cursore) e scritte una alla volta sulla risposta, senza passare da entity o DTO.
+ * Con lo sharding gli shard sono letti uno dopo l'altro, ognuno nella propria transazione: lo shard è nei bit alti
+ * del numero fattura, quindi l'ordine per numero fattura resta quello di un solo database.
+ */
+@Service
+@Slf4j
+public class InvoiceExportService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final InvoiceBodyStore invoiceBodyStore;
+    private final ShardRouter shardRouter;
+    private final int flushRows;
+
+    public InvoiceExportService(DataSource dataSource,
+                                PlatformTransactionManager transactionManager,
+                                ObjectMapper objectMapper,
+                                InvoiceBodyStore invoiceBodyStore,
+                                ShardRouter shardRouter,
+                                @Value("${app.export.fetch-size:1000}") int fetchSize,
+                                @Value("${app.export.flush-rows:1000}") int flushRows) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.objectMapper = objectMapper;
+        this.invoiceBodyStore = invoiceBodyStore;
+        this.shardRouter = shardRouter;
+        this.flushRows = flushRows;
+    }
+
+    /**
+     * Prepara l'export con gli stessi filtri di /api/invoices (stato, oppure intervallo di creazione).
+     * La query viene eseguita solo quando il corpo della risposta viene scritto.
+     */
+    public StreamingResponseBody export(InvoiceExportFormat format, List<InvoiceExportColumn> columns,
+                                        InvoiceStatus status, LocalDateTime startDate, LocalDateTime endDate) {
+        List<Object> args = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT ")
+                .append(columns.stream().map(c -> "i." + c.column()).collect(Collectors.joining(", ")));
+        // Il corpo può essere salvato compresso in invoice_body: in coda le colonne per decomprimerlo
+        if (columns.contains(InvoiceExportColumn.INVOICE)) {
+            sql.append(", b.codec, b.original_length, b.body, b.invoice_number FROM invoice i LEFT JOIN invoice_body b ON b.invoice_number = i.invoice_number");
+        } else {
+            sql.append(" FROM invoice i");
+        }
+        if (status != null) {
+            sql.append(" WHERE i.invoice_status = ?");
+            args.add(status.name());
+        } else if (startDate != null) {
+            sql.append(" WHERE i.created_at BETWEEN ? AND ?");
+            args.add(Timestamp.valueOf(startDate));
+            args.add(Timestamp.valueOf(endDate == null ? LocalDateTime.now() : endDate));
+        }
+        sql.append(" ORDER BY i.invoice_number");
+        String query = sql.toString();
+
+        return outputStream -> {
+            long start = System.nanoTime();
+            long rows = format == InvoiceExportFormat.CSV
+                    ? writeCsv(query, args, columns, outputStream)
+                    : writeNdjson(query, args, columns, outputStream);
+            log.info("Export {} completato: {} fatture in {} ms", format, rows, (System.nanoTime() - start) / 1_000_000);
+        };
+    }
+
+    private long writeNdjson(String query, List<Object> args, List<InvoiceExportColumn> columns, OutputStream outputStream) {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream, JsonEncoding.UTF8)) {
+            generator.setRootValueSeparator(null);
+            long[] rows = {0};
+            queryShards(query, args, rs -> {
+                try {
+                    generator.writeStartObject();
+                    for (int i = 0; i < columns.size(); i++) {
+                        Object value = value(rs, columns, i);
+                        generator.writeFieldName(columns.get(i).property());
+                        if (value instanceof Number number) {
+                            generator.writeNumber(number.longValue());
+                        } else if (value == null) {
+                            generator.writeNull();
+                        } else {
+                            generator.writeString(value.toString());
+                        }
+                    }
+                    generator.writeEndObject();
+                    generator.writeRaw('\n');
+                    if (++rows[0] % flushRows == 0) {
+                        generator.flush();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            return rows[0];
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long writeCsv(String query, List<Object> args, List<InvoiceExportColumn> columns, OutputStream outputStream) {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 1 << 16)) {
+            writer.write(columns.stream().map(InvoiceExportColumn::property).collect(Collectors.joining(",")));
+            writer.write("\r\n");
+            long[] rows = {0};
+            queryShards(query, args, rs -> {
+                try {
+                    for (int i = 0; i < columns.size(); i++) {
+                        if (i > 0) {
+                            writer.write(',');
+                        }
+                        Object value = value(rs, columns, i);
+                        if (value != null) {
+                            writeCsvField(writer, value.toString());
+                        }
+                    }
+                    writer.write("\r\n");
+                    if (++rows[0] % flushRows == 0) {
+                        writer.flush();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            return rows[0];
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void queryShards(String query, List<Object> args, RowCallbackHandler handler) {
+        shardRouter.forEachShard(shard -> transactionTemplate.executeWithoutResult(tx -> jdbcTemplate.query(query, handler, args.toArray())));
+    }
+
+    // RFC 4180: virgolette solo se il campo contiene separatori, virgolette o a capo
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private Object value(ResultSet rs, List<InvoiceExportColumn> columns, int i) throws SQLException {
+        Object value = rs.getObject(i + 1);
+        if (value == null && columns.get(i) == InvoiceExportColumn.INVOICE) {
+            return compressedBody(rs, columns.size());
+        }
+        if (value instanceof Timestamp timestamp) {
+            return timestamp.toLocalDateTime();
+        }
+        if (value instanceof Date date) {
+            return date.toLocalDate();
+        }
+        return value;
+    }
+
+    private String compressedBody(ResultSet rs, int offset) throws SQLException {
+        byte[] body = rs.getBytes(offset + 3);
+        if (body == null) {
+            return null;
+        }
+        InvoiceBody row = new InvoiceBody();
+        row.setInvoiceNumber(rs.getLong(offset + 4));
+        row.setCodec(rs.getString(offset + 1));
+        row.setOriginalLength(rs.getInt(offset + 2));
+        row.setBody(body);
+        return invoiceBodyStore.decompress(row);
+    }
+}
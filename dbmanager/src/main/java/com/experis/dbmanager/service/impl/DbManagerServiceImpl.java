@@ -1,28 +1,48 @@
 package com.experis.dbmanager.service.impl;
 
+import com.experis.dbmanager.blob.FileSystemBlobStore;
 import com.experis.dbmanager.dto.CustomerDto;
+import com.experis.dbmanager.dto.InvoiceCursorPageDto;
 import com.experis.dbmanager.dto.InvoiceDto;
+import com.experis.dbmanager.dto.InvoiceSummaryDto;
 import com.experis.dbmanager.entity.Customer;
 import com.experis.dbmanager.entity.Invoice;
 import com.experis.dbmanager.enumerations.CustomerType;
 import com.experis.dbmanager.enumerations.InvoiceStatus;
 import com.experis.dbmanager.exception.DbManagerAlreadyExistsException;
+import com.experis.dbmanager.exception.InvalidCursorException;
 import com.experis.dbmanager.exception.ResourceNotFoundException;
 import com.experis.dbmanager.mapper.ApplicationMapper;
 import com.experis.dbmanager.repository.CustomerRepository;
 import com.experis.dbmanager.repository.InvoiceRepository;
 import com.experis.dbmanager.service.IDbManagerService;
+import com.experis.dbmanager.service.InvoiceCursor;
+import com.experis.dbmanager.service.body.InvoiceBodyStore;
+import com.experis.dbmanager.service.cache.CustomerCache;
+import com.experis.dbmanager.service.search.InvoiceSearchIndexer;
+import com.experis.dbmanager.service.stats.InvoiceStatsRecorder;
+import com.experis.dbmanager.shard.ShardRouter;
 import lombok.AllArgsConstructor;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.function.Function;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 @Service
@@ -32,6 +52,12 @@ public class DbManagerServiceImpl implements IDbManagerService {
     private final CustomerRepository customerRepository;
     private final InvoiceRepository invoiceRepository;
     private final ApplicationMapper mapper;
+    private final FileSystemBlobStore invoiceBlobStore;
+    private final CustomerCache customerCache;
+    private final InvoiceBodyStore invoiceBodyStore;
+    private final InvoiceStatsRecorder invoiceStatsRecorder;
+    private final InvoiceSearchIndexer invoiceSearchIndexer;
+    private final ShardRouter shardRouter;
 
     // ... (Customer methods remain the same)
     @Override
@@ -80,6 +106,7 @@ public class DbManagerServiceImpl implements IDbManagerService {
         customer.setCustomerType(CustomerType.valueOf(customerDto.getCustomerType()));
         customer.setUpdatedAt(LocalDateTime.now());
         Customer updatedCustomer = customerRepository.save(customer);
+        customerCache.invalidate(customerId);
         return mapper.toCustomerDto(updatedCustomer);
     }
 
@@ -89,12 +116,13 @@ public class DbManagerServiceImpl implements IDbManagerService {
             throw new ResourceNotFoundException("Customer", "customerId", String.valueOf(customerId));
         }
         customerRepository.deleteById(customerId);
+        customerCache.invalidate(customerId);
         return true;
     }
 
     @Override
     public Optional<CustomerDto> findCustomerById(int customerId) {
-        Optional<Customer> result = customerRepository.findById(customerId);
+        Optional<Customer> result = customerCache.get(customerId);
         if (result.isEmpty()) {
             throw new ResourceNotFoundException("Customer", "customerId", String.valueOf(customerId));
         }
@@ -103,31 +131,173 @@ public class DbManagerServiceImpl implements IDbManagerService {
 
     // --- Invoice Operations ---
 
+    /**
+     * La fattura è salvata nello shard del cliente, nella transazione già aperta su quello shard se c'è.
+     */
     @Override
     public InvoiceDto createInvoice(int customerId, InvoiceDto invoiceDto) {
-        Customer customer = customerRepository.findById(customerId).orElseThrow(
+        Customer customer = customerCache.get(customerId).orElseThrow(
                 () -> new ResourceNotFoundException("Customer", "customerId", String.valueOf(customerId))
         );
+        return shardRouter.inTransaction(shardRouter.shardOfCustomer(customerId), () -> saveInvoice(customerId, customer, invoiceDto));
+    }
+
+    private InvoiceDto saveInvoice(int customerId, Customer customer, InvoiceDto invoiceDto) {
         Invoice invoice = mapper.toInvoice(invoiceDto);
         invoice.setCustomerId(customerId);
         invoice.setCreatedAt(LocalDateTime.now());
+        invoiceBodyStore.prepare(invoice, invoiceDto.getInvoice());
         Invoice savedInvoice = invoiceRepository.save(invoice);
-        return mapper.toInvoiceDto(savedInvoice, customer);
+        invoiceBodyStore.saveBodies(List.of(savedInvoice), Collections.singletonList(invoiceDto.getInvoice()));
+        invoiceStatsRecorder.recordCreated(List.of(savedInvoice));
+        // invoice_search referenzia invoice: gli insert in batch di Hibernate vanno eseguiti prima
+        invoiceRepository.flush();
+        invoiceSearchIndexer.index(List.of(savedInvoice.getInvoiceNumber()), Collections.singletonList(invoiceDto.getInvoice()));
+        InvoiceDto savedDto = mapper.toInvoiceDto(savedInvoice, customer);
+        // Il corpo prosegue verso sender e callback anche se salvato compresso
+        savedDto.setInvoice(invoiceDto.getInvoice());
+        return savedDto;
     }
 
+    /**
+     * I clienti del batch sono letti con una sola query e le fatture sono inserite in un'unica transazione:
+     * con gli id presi dalla sequenza a blocchi, Hibernate invia gli insert in batch JDBC (hibernate.jdbc.batch_size).
+     * Le fatture restituite sono nello stesso ordine di quelle ricevute. Con lo sharding le fatture sono divise per
+     * shard del cliente e ogni shard è salvato nella propria transazione: per un salvataggio atomico il batch deve
+     * contenere fatture di un solo shard.
+     */
     @Override
-    public Optional<InvoiceDto> findInvoiceByNumber(int invoiceNumber) {
-        return invoiceRepository.findByInvoiceNumber(invoiceNumber).map(invoice -> {
-            Customer customer = customerRepository.findById(invoice.getCustomerId()).orElseThrow(
-                    () -> new ResourceNotFoundException("Customer", "customerId", " for invoice " + invoice.getInvoiceNumber())
-            );
-            return mapper.toInvoiceDto(invoice, customer);
+    public List<InvoiceDto> createInvoices(List<InvoiceDto> invoiceDtos) {
+        if (invoiceDtos.isEmpty()) {
+            return List.of();
+        }
+        Set<Integer> customerIds = invoiceDtos.stream()
+                .map(invoiceDto -> invoiceDto.getCustomer().getCustomerId())
+                .collect(Collectors.toSet());
+        Map<Integer, Customer> customerMap = customerCache.getAll(customerIds);
+
+        Map<Integer, List<Integer>> positionsByShard = new TreeMap<>();
+        for (int i = 0; i < invoiceDtos.size(); i++) {
+            int shard = shardRouter.shardOfCustomer(invoiceDtos.get(i).getCustomer().getCustomerId());
+            positionsByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(i);
+        }
+        InvoiceDto[] result = new InvoiceDto[invoiceDtos.size()];
+        positionsByShard.forEach((shard, positions) -> {
+            List<InvoiceDto> shardDtos = positions.stream().map(invoiceDtos::get).toList();
+            List<InvoiceDto> saved = shardRouter.inTransaction(shard, () -> saveInvoices(shardDtos, customerMap));
+            for (int i = 0; i < positions.size(); i++) {
+                result[positions.get(i)] = saved.get(i);
+            }
         });
+        return Arrays.asList(result);
+    }
+
+    @Override
+    public List<InvoiceDto> findUnsavedInvoices(List<InvoiceDto> invoiceDtos) {
+        Map<Integer, Set<String>> correlationIdsByShard = new TreeMap<>();
+        for (InvoiceDto invoiceDto : invoiceDtos) {
+            if (invoiceDto.getCorrelationId() != null) {
+                correlationIdsByShard.computeIfAbsent(shardRouter.shardOfCustomer(invoiceDto.getCustomer().getCustomerId()), s -> new HashSet<>())
+                        .add(invoiceDto.getCorrelationId());
+            }
+        }
+        Set<String> seen = new HashSet<>();
+        correlationIdsByShard.forEach((shard, correlationIds) -> shardRouter.call(shard, () -> invoiceRepository.findCorrelations(correlationIds))
+                .forEach(saved -> seen.add(correlationKey(saved.getCustomerId(), saved.getCorrelationId()))));
+
+        List<InvoiceDto> unsaved = new ArrayList<>(invoiceDtos.size());
+        for (InvoiceDto invoiceDto : invoiceDtos) {
+            if (invoiceDto.getCorrelationId() == null
+                    || seen.add(correlationKey(invoiceDto.getCustomer().getCustomerId(), invoiceDto.getCorrelationId()))) {
+                unsaved.add(invoiceDto);
+            }
+        }
+        return unsaved;
+    }
+
+    private static String correlationKey(int customerId, String correlationId) {
+        return customerId + ":" + correlationId;
+    }
+
+    private List<InvoiceDto> saveInvoices(List<InvoiceDto> invoiceDtos, Map<Integer, Customer> customerMap) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Invoice> invoices = new ArrayList<>(invoiceDtos.size());
+        for (InvoiceDto invoiceDto : invoiceDtos) {
+            Invoice invoice = mapper.toInvoice(invoiceDto);
+            int customerId = invoiceDto.getCustomer().getCustomerId();
+            if (!customerMap.containsKey(customerId)) {
+                invoice.setInvoiceStatus(InvoiceStatus.INTERNAL_INVOICE_INVALID);
+            }
+            invoice.setCustomerId(customerId);
+            invoice.setCreatedAt(now);
+            invoiceBodyStore.prepare(invoice, invoiceDto.getInvoice());
+            invoices.add(invoice);
+        }
+        List<Invoice> savedInvoices = invoiceRepository.saveAll(invoices);
+        List<String> bodies = invoiceDtos.stream().map(InvoiceDto::getInvoice).collect(Collectors.toList());
+        invoiceBodyStore.saveBodies(savedInvoices, bodies);
+        invoiceStatsRecorder.recordCreated(savedInvoices);
+        invoiceRepository.flush();
+        invoiceSearchIndexer.index(savedInvoices.stream().map(Invoice::getInvoiceNumber).toList(), bodies);
+
+        List<InvoiceDto> result = new ArrayList<>(savedInvoices.size());
+        for (int i = 0; i < savedInvoices.size(); i++) {
+            Invoice savedInvoice = savedInvoices.get(i);
+            Customer customer = customerMap.get(savedInvoice.getCustomerId());
+            InvoiceDto savedDto = mapper.toInvoiceDto(savedInvoice, customer);
+            savedDto.setInvoice(bodies.get(i));
+            if (customer == null) {
+                // Cliente inesistente: restituiamo i dati cliente ricevuti nel messaggio
+                savedDto.setCustomer(invoiceDtos.get(i).getCustomer());
+            }
+            result.add(savedDto);
+        }
+        return result;
+    }
+
+    @Override
+    public Optional<InvoiceDto> findInvoiceByNumber(long invoiceNumber) {
+        return shardRouter.call(shardRouter.shardOfInvoice(invoiceNumber), () -> invoiceRepository.findByInvoiceNumber(invoiceNumber))
+                .map(this::toInvoiceDto);
+    }
+
+    @Override
+    public Optional<InvoiceDto> findInvoiceWithBodyByNumber(long invoiceNumber) {
+        return shardRouter.inReadOnlyTransaction(shardRouter.shardOfInvoice(invoiceNumber), () ->
+                invoiceRepository.findByInvoiceNumber(invoiceNumber).map(invoice -> {
+                    InvoiceDto invoiceDto = toInvoiceDto(invoice);
+                    // Corpo compresso: letto e decompresso solo qui, quando viene richiesto
+                    invoiceDto.setInvoice(invoiceBodyStore.read(invoice));
+                    return resolveInvoiceBody(invoiceDto);
+                }));
+    }
+
+    private InvoiceDto toInvoiceDto(Invoice invoice) {
+        Customer customer = customerCache.get(invoice.getCustomerId()).orElseThrow(
+                () -> new ResourceNotFoundException("Customer", "customerId", " for invoice " + invoice.getInvoiceNumber())
+        );
+        return mapper.toInvoiceDto(invoice, customer);
+    }
+
+    private InvoiceDto resolveInvoiceBody(InvoiceDto invoiceDto) {
+        if (invoiceDto.getInvoice() != null || invoiceDto.getInvoiceRef() == null) {
+            return invoiceDto;
+        }
+        try {
+            invoiceDto.setInvoice(invoiceBlobStore.read(invoiceDto.getInvoiceRef()));
+        } catch (NoSuchFileException e) {
+            throw new ResourceNotFoundException("InvoiceBody", "invoiceRef", invoiceDto.getInvoiceRef());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lettura del corpo fattura " + invoiceDto.getInvoiceNumber() + " fallita", e);
+        }
+        return invoiceDto;
     }
 
+    // Pagine lette da tutti gli shard e unite secondo l'ordinamento richiesto (ShardRouter#mergePages)
     @Override
     public Page<InvoiceDto> findInvoicesByStatus(InvoiceStatus status, Pageable pageable) {
-        Page<Invoice> invoicePage = invoiceRepository.findByInvoiceStatus(status, pageable);
+        Page<Invoice> invoicePage = shardRouter.mergePages(pageable, ShardRouter.comparator(pageable.getSort()),
+                (shard, shardPageable) -> invoiceRepository.findByInvoiceStatus(status, shardPageable));
         List<InvoiceDto> dtos = mapInvoicesToDtos(invoicePage.getContent());
         return new PageImpl<>(dtos, pageable, invoicePage.getTotalElements());
     }
@@ -135,40 +305,135 @@ public class DbManagerServiceImpl implements IDbManagerService {
     @Override
     public Page<InvoiceDto> findInvoicesByCreationDate(LocalDateTime startDate, LocalDateTime endDate, Pageable pageable) {
         LocalDateTime effectiveEndDate = (endDate == null) ? LocalDateTime.now() : endDate;
-        Page<Invoice> invoicePage = invoiceRepository.findByCreatedAtBetween(startDate, effectiveEndDate, pageable);
+        Page<Invoice> invoicePage = shardRouter.mergePages(pageable, ShardRouter.comparator(pageable.getSort()),
+                (shard, shardPageable) -> invoiceRepository.findByCreatedAtBetween(startDate, effectiveEndDate, shardPageable));
         List<InvoiceDto> dtos = mapInvoicesToDtos(invoicePage.getContent());
         return new PageImpl<>(dtos, pageable, invoicePage.getTotalElements());
     }
 
     @Override
     public Page<InvoiceDto> findAllInvoices(Pageable pageable) {
-        Page<Invoice> invoicePage = invoiceRepository.findAll(pageable);
+        Page<Invoice> invoicePage = shardRouter.mergePages(pageable, ShardRouter.comparator(pageable.getSort()),
+                (shard, shardPageable) -> invoiceRepository.findAll(shardPageable));
         List<InvoiceDto> dtos = mapInvoicesToDtos(invoicePage.getContent());
         return new PageImpl<>(dtos, pageable, invoicePage.getTotalElements());
     }
 
     @Override
-    public InvoiceDto updateInvoice(int invoiceNumber, InvoiceDto invoiceDto) {
+    public Page<InvoiceSummaryDto> findInvoiceSummariesByStatus(InvoiceStatus status, Pageable pageable) {
+        return withCustomers(shardRouter.mergePages(pageable, ShardRouter.comparator(pageable.getSort()),
+                (shard, shardPageable) -> invoiceRepository.findSummariesByInvoiceStatus(status, shardPageable).map(mapper::toInvoiceSummaryDto)));
+    }
+
+    @Override
+    public Page<InvoiceSummaryDto> findInvoiceSummariesByCreationDate(LocalDateTime startDate, LocalDateTime endDate, Pageable pageable) {
+        LocalDateTime effectiveEndDate = (endDate == null) ? LocalDateTime.now() : endDate;
+        return withCustomers(shardRouter.mergePages(pageable, ShardRouter.comparator(pageable.getSort()),
+                (shard, shardPageable) -> invoiceRepository.findSummariesByCreatedAtBetween(startDate, effectiveEndDate, shardPageable)
+                        .map(mapper::toInvoiceSummaryDto)));
+    }
+
+    @Override
+    public Page<InvoiceSummaryDto> findAllInvoiceSummaries(Pageable pageable) {
+        return withCustomers(shardRouter.mergePages(pageable, ShardRouter.comparator(pageable.getSort()),
+                (shard, shardPageable) -> invoiceRepository.findAllSummaries(shardPageable).map(mapper::toInvoiceSummaryDto)));
+    }
+
+    /**
+     * Con lo sharding i clienti sono solo nello shard globale: la join delle summary sugli altri shard non li trova,
+     * username ed email vengono dalla cache dei clienti.
+     */
+    private Page<InvoiceSummaryDto> withCustomers(Page<InvoiceSummaryDto> page) {
+        if (!shardRouter.isSharded() || page.isEmpty()) {
+            return page;
+        }
+        Map<Integer, Customer> customerMap = customerCache.getAll(page.stream().map(InvoiceSummaryDto::getCustomerId).distinct().toList());
+        page.forEach(summary -> {
+            Customer customer = customerMap.get(summary.getCustomerId());
+            summary.setCustomerUsername(customer != null ? customer.getUsername() : null);
+            summary.setCustomerEmail(customer != null ? customer.getEmail() : null);
+        });
+        return page;
+    }
+
+    /**
+     * Seek sull'ultima chiave restituita invece di OFFSET, senza query di COUNT:
+     * ogni pagina costa come la prima. Si legge una riga in più per sapere se esiste la pagina successiva.
+     * Con lo sharding ogni shard restituisce le sue prime size + 1 righe dopo il cursore e si tengono le prime
+     * nell'ordine della chiave, che è unica su tutti gli shard.
+     */
+    @Override
+    public InvoiceCursorPageDto findInvoicesByCursor(InvoiceStatus status, LocalDateTime startDate, LocalDateTime endDate, String cursor, int size) {
+        boolean byCreationDate = status == null && startDate != null;
+        InvoiceCursor after = cursor == null || cursor.isBlank() ? null : InvoiceCursor.decode(cursor);
+        long afterNumber = after != null ? after.invoiceNumber() : 0;
+        Limit limit = Limit.of(size + 1);
+
+        List<List<Invoice>> perShard;
+        Comparator<Invoice> order = Comparator.comparingLong(Invoice::getInvoiceNumber);
+        if (status != null) {
+            perShard = shardRouter.fanOut(shard ->
+                    invoiceRepository.findByInvoiceStatusAndInvoiceNumberGreaterThanOrderByInvoiceNumber(status, afterNumber, limit));
+        } else if (byCreationDate) {
+            LocalDateTime effectiveEndDate = (endDate == null) ? LocalDateTime.now() : endDate;
+            if (after != null && after.createdAt() == null) {
+                throw new InvalidCursorException(cursor);
+            }
+            // Senza cursore si parte da startDate: gli invoice_number sono sempre > 0
+            LocalDateTime afterCreatedAt = after != null ? after.createdAt() : startDate;
+            perShard = shardRouter.fanOut(shard -> invoiceRepository.findCreatedAfter(afterCreatedAt, afterNumber, effectiveEndDate, limit));
+            order = Comparator.comparing(Invoice::getCreatedAt).thenComparing(order);
+        } else {
+            perShard = shardRouter.fanOut(shard -> invoiceRepository.findByInvoiceNumberGreaterThanOrderByInvoiceNumber(afterNumber, limit));
+        }
+        List<Invoice> invoices = perShard.size() == 1 ? perShard.get(0) : ShardRouter.mergeSorted(perShard, order, size + 1);
+
+        String nextCursor = null;
+        if (invoices.size() > size) {
+            invoices = invoices.subList(0, size);
+            nextCursor = InvoiceCursor.after(invoices.get(size - 1), byCreationDate).encode();
+        }
+        return new InvoiceCursorPageDto(mapInvoicesToDtos(invoices), nextCursor);
+    }
+
+    @Override
+    public InvoiceDto updateInvoice(long invoiceNumber, InvoiceDto invoiceDto) {
+        return shardRouter.inTransaction(shardRouter.shardOfInvoice(invoiceNumber), () -> update(invoiceNumber, invoiceDto));
+    }
+
+    private InvoiceDto update(long invoiceNumber, InvoiceDto invoiceDto) {
         Invoice invoice = invoiceRepository.findByInvoiceNumber(invoiceNumber).orElseThrow(
                 () -> new ResourceNotFoundException("Invoice", "invoiceNumber", String.valueOf(invoiceNumber))
         );
+        InvoiceStatus previousStatus = invoice.getInvoiceStatus();
         invoice.setInvoiceStatus(invoiceDto.getInvoiceStatus());
-        invoice.setInvoice(invoiceDto.getInvoice());
+        // Senza corpo nel DTO (es. fattura letta senza corpo) quello salvato resta invariato
+        if (invoiceDto.getInvoice() != null) {
+            invoiceBodyStore.replace(invoice, invoiceDto.getInvoice());
+            invoiceSearchIndexer.index(List.of(invoiceNumber), List.of(invoiceDto.getInvoice()));
+        }
+        invoice.setInvoiceRef(invoiceDto.getInvoiceRef());
         invoice.setUpdatedAt(LocalDateTime.now());
         Invoice updatedInvoice = invoiceRepository.save(invoice);
-        Customer customer = customerRepository.findById(updatedInvoice.getCustomerId()).orElseThrow(
-                () -> new ResourceNotFoundException("Customer", "customerId", " for invoice " + updatedInvoice.getInvoiceNumber())
-        );
-        return mapper.toInvoiceDto(updatedInvoice, customer);
+        invoiceStatsRecorder.recordStatusChange(updatedInvoice, previousStatus);
+        InvoiceDto updatedDto = toInvoiceDto(updatedInvoice);
+        // La risposta arriva fino alla callback del cliente: il corpo viene incluso come prima
+        if (updatedDto.getInvoice() == null) {
+            updatedDto.setInvoice(invoiceDto.getInvoice() != null ? invoiceDto.getInvoice() : invoiceBodyStore.read(updatedInvoice));
+        }
+        return updatedDto;
     }
 
     @Override
-    public boolean deleteInvoice(int invoiceNumber) {
-        if (!invoiceRepository.findByInvoiceNumber(invoiceNumber).isPresent()) {
-            throw new ResourceNotFoundException("Invoice", "invoiceNumber", String.valueOf(invoiceNumber));
-        }
-        invoiceRepository.deleteByInvoiceNumber(invoiceNumber);
-        return true;
+    public boolean deleteInvoice(long invoiceNumber) {
+        return shardRouter.inTransaction(shardRouter.shardOfInvoice(invoiceNumber), () -> {
+            Invoice invoice = invoiceRepository.findByInvoiceNumber(invoiceNumber).orElseThrow(
+                    () -> new ResourceNotFoundException("Invoice", "invoiceNumber", String.valueOf(invoiceNumber))
+            );
+            invoiceRepository.deleteByInvoiceNumber(invoiceNumber);
+            invoiceStatsRecorder.recordDeleted(invoice);
+            return true;
+        });
     }
 
     private List<InvoiceDto> mapInvoicesToDtos(List<Invoice> invoices) {
@@ -179,8 +444,7 @@ public class DbManagerServiceImpl implements IDbManagerService {
                 .map(Invoice::getCustomerId)
                 .distinct()
                 .toList();
-        Map<Integer, Customer> customerMap = customerRepository.findAllById(customerIds).stream()
-                .collect(Collectors.toMap(Customer::getCustomerId, Function.identity()));
+        Map<Integer, Customer> customerMap = customerCache.getAll(customerIds);
         return invoices.stream()
                 .map(invoice -> {
                     Customer customer = customerMap.get(invoice.getCustomerId());
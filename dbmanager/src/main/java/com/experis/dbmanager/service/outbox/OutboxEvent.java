@@ -0,0 +1,11 @@
+package com.experis.dbmanager.service.outbox;
+
+/**
+ * Messaggio da pubblicare tramite outbox.
+ *
+ * @param bindingName binding di output di Spring Cloud Stream da cui ricavare il topic
+ * @param replyTo     istanza del receiver a cui instradare la risposta (vedi ReplyRouter), può essere null
+ * @param key         chiave del record Kafka, può essere null
+ */
+public record OutboxEvent(String bindingName, String replyTo, String key, Object payload) {
+}
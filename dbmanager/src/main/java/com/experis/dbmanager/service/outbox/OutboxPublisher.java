@@ -0,0 +1,91 @@
+package com.experis.dbmanager.service.outbox;
+
+import com.experis.dbmanager.service.ReplyRouter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Pubblicazione degli eventi della SAGA tramite transactional outbox.
+ * Gli eventi sono scritti in outbox_event nella stessa transazione che salva la fattura e inviati a Kafka
+ * da {@link OutboxRelay} dopo il commit: una fattura salvata ha sempre i suoi eventi, un rollback li annulla.
+ * Con {@code app.outbox.enabled=false} gli eventi vengono inviati subito con StreamBridge, come in origine.
+ */
+@Component
+@Slf4j
+public class OutboxPublisher {
+
+    private static final String INSERT = "INSERT INTO outbox_event (destination, message_key, payload, created_at, bucket) VALUES (?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ReplyRouter replyRouter;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final int buckets;
+
+    public OutboxPublisher(JdbcTemplate jdbcTemplate,
+                           ReplyRouter replyRouter,
+                           ObjectMapper objectMapper,
+                           @Value("${app.outbox.enabled:true}") boolean enabled,
+                           @Value("${app.outbox.buckets:16}") int buckets) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.replyRouter = replyRouter;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.buckets = buckets;
+    }
+
+    public void publish(OutboxEvent event) {
+        publish(List.of(event));
+    }
+
+    /**
+     * Scrive gli eventi in outbox con un solo batch JDBC. Va chiamato dentro la transazione che salva i dati.
+     */
+    public void publish(List<OutboxEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        if (!enabled) {
+            events.forEach(event -> replyRouter.send(event.bindingName(), event.replyTo(), event.payload()));
+            return;
+        }
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("La scrittura in outbox richiede una transazione attiva");
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(INSERT, events, events.size(), (ps, event) -> {
+            ps.setString(1, replyRouter.destinationOf(event.bindingName(), event.replyTo()));
+            ps.setString(2, event.key());
+            ps.setString(3, toJson(event.payload()));
+            ps.setTimestamp(4, now);
+            ps.setInt(5, bucketOf(event.key(), buckets));
+        });
+        log.debug("{} eventi scritti in outbox", events.size());
+    }
+
+    /**
+     * Bucket dell'outbox della chiave: gli eventi di una chiave stanno tutti nello stesso bucket, che il relay
+     * pubblica da una sola istanza alla volta. Gli eventi senza chiave non hanno un ordine e sono distribuiti a caso.
+     */
+    static int bucketOf(String key, int buckets) {
+        return key != null ? Math.floorMod(key.hashCode(), buckets) : ThreadLocalRandom.current().nextInt(buckets);
+    }
+
+    private String toJson(Object payload) {
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Evento non serializzabile: " + payload.getClass().getSimpleName(), e);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.experis.dbmanager.service.outbox;
+
+import com.experis.dbmanager.shard.ShardRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Svuota outbox_event pubblicando gli eventi su Kafka a blocchi.
+ * Gli eventi sono divisi in bucket per chiave (vedi {@link OutboxPublisher#bucketOf}); ogni bucket è preso da una
+ * sola istanza alla volta con pg_try_advisory_xact_lock, così più istanze di dbmanager lavorano su bucket diversi
+ * e gli eventi di una chiave sono pubblicati nell'ordine di scrittura.
+ * I record del blocco sono inviati insieme (batching del producer) e cancellati dopo l'ack del broker, atteso al più
+ * {@code ack-timeout-ms} per blocco per non tenere aperta a lungo la transazione.
+ * Le righe non confermate restano in outbox e vengono ritentate al giro successivo: la consegna è at-least-once.
+ * Con lo sharding ogni shard ha il proprio outbox (scritto nella transazione della fattura) e il relay li svuota in sequenza.
+ */
+@Component
+@ConditionalOnProperty(name = "app.outbox.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class OutboxRelay {
+
+    // Prima chiave dei lock advisory dell'outbox, la seconda è il bucket
+    private static final int LOCK_CLASS = 0x0B0C;
+    private static final String TRY_LOCK_BUCKET = "SELECT pg_try_advisory_xact_lock(?, ?)";
+    private static final String SELECT_BATCH = "SELECT id, destination, message_key, payload, created_at FROM outbox_event"
+            + " WHERE bucket = ? ORDER BY id LIMIT ?";
+    private static final String SELECT_OLDEST = "SELECT created_at FROM outbox_event ORDER BY id LIMIT 1";
+    private static final String DELETE = "DELETE FROM outbox_event WHERE id = ?";
+    private static final byte[] JSON_CONTENT_TYPE = "application/json".getBytes(StandardCharsets.UTF_8);
+
+    private record Row(long id, String destination, String key, String payload, Timestamp createdAt) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ShardRouter shardRouter;
+    private final DefaultKafkaProducerFactory<String, byte[]> producerFactory;
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final int buckets;
+    private final long ackTimeoutMs;
+
+    // Età dell'evento più vecchio in attesa all'ultimo giro del relay, per shard
+    private final AtomicLongArray lagMillis;
+    private final Counter published;
+    private final Counter failed;
+    private final Timer batchTimer;
+    private final Timer delayTimer;
+
+    public OutboxRelay(JdbcTemplate jdbcTemplate,
+                       PlatformTransactionManager transactionManager,
+                       ShardRouter shardRouter,
+                       KafkaProperties kafkaProperties,
+                       MeterRegistry meterRegistry,
+                       @Value("${app.outbox.relay.batch-size:500}") int batchSize,
+                       @Value("${app.outbox.relay.max-batches-per-run:20}") int maxBatchesPerRun,
+                       @Value("${app.outbox.buckets:16}") int buckets,
+                       @Value("${app.outbox.relay.ack-timeout-ms:5000}") long ackTimeoutMs,
+                       @Value("${app.outbox.relay.linger-ms:5}") int lingerMs,
+                       @Value("${app.outbox.relay.batch-bytes:262144}") int batchBytes) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.shardRouter = shardRouter;
+        this.lagMillis = new AtomicLongArray(shardRouter.shardCount());
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        this.buckets = buckets;
+        this.ackTimeoutMs = ackTimeoutMs;
+
+        // Producer dedicato: il payload in outbox è già JSON, viene inviato così com'è
+        Map<String, Object> producerProperties = kafkaProperties.buildProducerProperties(null);
+        producerProperties.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        producerProperties.put(ProducerConfig.BATCH_SIZE_CONFIG, batchBytes);
+        producerProperties.put(ProducerConfig.ACKS_CONFIG, "all");
+        producerProperties.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        this.producerFactory = new DefaultKafkaProducerFactory<>(producerProperties, new StringSerializer(), new ByteArraySerializer());
+        this.kafkaTemplate = new KafkaTemplate<>(producerFactory);
+
+        Gauge.builder("dbmanager.outbox.lag", lagMillis, OutboxRelay::maxLagSeconds)
+                .description("Età dell'evento più vecchio in attesa in outbox")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        this.published = Counter.builder("dbmanager.outbox.published")
+                .description("Eventi dell'outbox pubblicati su Kafka")
+                .register(meterRegistry);
+        this.failed = Counter.builder("dbmanager.outbox.failed")
+                .description("Invii dell'outbox falliti, ritentati al giro successivo")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("dbmanager.outbox.relay.batch")
+                .description("Durata di un blocco del relay (lettura, invio, cancellazione)")
+                .register(meterRegistry);
+        this.delayTimer = Timer.builder("dbmanager.outbox.delay")
+                .description("Tempo tra scrittura in outbox e ack del broker")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${app.outbox.relay.poll-interval-ms:200}")
+    public void drain() {
+        shardRouter.forEachShard(this::drain);
+    }
+
+    private void drain(int shard) {
+        List<Timestamp> oldest = jdbcTemplate.query(SELECT_OLDEST, (rs, rowNum) -> rs.getTimestamp(1));
+        lagMillis.set(shard, oldest.isEmpty() ? 0 : System.currentTimeMillis() - oldest.get(0).getTime());
+        if (oldest.isEmpty()) {
+            return;
+        }
+        // Partenza casuale: le istanze non si contendono sempre gli stessi bucket
+        int first = ThreadLocalRandom.current().nextInt(buckets);
+        for (int i = 0; i < buckets; i++) {
+            int bucket = (first + i) % buckets;
+            for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+                Integer relayed = transactionTemplate.execute(tx -> relayBatch(bucket));
+                // Bucket di un'altra istanza, blocco non pieno (bucket svuotato) o con errori: si riprende al prossimo giro
+                if (relayed == null || relayed < batchSize) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private static double maxLagSeconds(AtomicLongArray lagMillis) {
+        long max = 0;
+        for (int shard = 0; shard < lagMillis.length(); shard++) {
+            max = Math.max(max, lagMillis.get(shard));
+        }
+        return max / 1000.0;
+    }
+
+    /**
+     * @return righe pubblicate e cancellate, 0 se il bucket è di un'altra istanza o il blocco ha avuto errori
+     */
+    private int relayBatch(int bucket) {
+        // Il lock è rilasciato con la transazione
+        if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject(TRY_LOCK_BUCKET, Boolean.class, LOCK_CLASS, bucket))) {
+            return 0;
+        }
+        List<Row> rows = jdbcTemplate.query(SELECT_BATCH, (rs, rowNum) -> new Row(rs.getLong(1), rs.getString(2),
+                rs.getString(3), rs.getString(4), rs.getTimestamp(5)), bucket, batchSize);
+        if (rows.isEmpty()) {
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        List<CompletableFuture<SendResult<String, byte[]>>> futures = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            futures.add(send(row));
+        }
+        // La transazione resta aperta fino agli ack (il bucket resta di questa istanza), ma al più ack-timeout-ms
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ackTimeoutMs);
+        List<Object[]> acked = new ArrayList<>(rows.size());
+        // Dopo un evento non confermato gli eventi successivi della chiave restano in outbox e sono ripubblicati dopo di lui
+        Set<String> failedKeys = new HashSet<>();
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            if (row.key() != null && failedKeys.contains(row.key())) {
+                continue;
+            }
+            try {
+                futures.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                acked.add(new Object[]{row.id()});
+                delayTimer.record(System.currentTimeMillis() - row.createdAt().getTime(), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                log.warn("Evento {} dell'outbox non pubblicato su {}: {}", row.id(), row.destination(), e.getMessage());
+                if (row.key() != null) {
+                    failedKeys.add(row.key());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (!acked.isEmpty()) {
+            jdbcTemplate.batchUpdate(DELETE, acked);
+        }
+        published.increment(acked.size());
+        failed.increment(rows.size() - acked.size());
+        batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        log.debug("Outbox: {} eventi pubblicati su {}", acked.size(), rows.size());
+        return acked.size() == rows.size() ? rows.size() : 0;
+    }
+
+    private CompletableFuture<SendResult<String, byte[]>> send(Row row) {
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(row.destination(), row.key(), row.payload().getBytes(StandardCharsets.UTF_8));
+        // Header letto da Spring Cloud Stream per la conversione del messaggio
+        record.headers().add("contentType", JSON_CONTENT_TYPE);
+        try {
+            return kafkaTemplate.send(record);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        producerFactory.destroy();
+    }
+}
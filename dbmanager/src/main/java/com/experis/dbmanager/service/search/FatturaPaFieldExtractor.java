@@ -0,0 +1,221 @@
+package com.experis.dbmanager.service.search;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Estrae i campi di ricerca da un corpo FatturaPA con un solo passaggio StAX, senza costruire il DOM.
+ * Corpi non XML o incompleti non sono un errore: i campi mancanti restano null.
+ * DTD ed entità esterne sono disabilitate (XXE).
+ */
+@Slf4j
+public class FatturaPaFieldExtractor {
+
+    private final XMLInputFactory xmlInputFactory;
+    private final int maxTextLength;
+
+    public FatturaPaFieldExtractor(int maxTextLength) {
+        this.maxTextLength = maxTextLength;
+        this.xmlInputFactory = XMLInputFactory.newFactory();
+        this.xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        this.xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        this.xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    public FatturaPaFields extract(String body) {
+        if (body == null || body.isBlank()) {
+            return FatturaPaFields.EMPTY;
+        }
+        Parser parser = new Parser();
+        try {
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(new StringReader(body));
+            try {
+                parser.parse(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            log.debug("Corpo fattura non analizzabile per la ricerca: {}", e.getMessage());
+        }
+        return parser.fields();
+    }
+
+    /**
+     * Stato di un'analisi: percorso degli elementi aperti e valori trovati.
+     */
+    private final class Parser {
+
+        private final Deque<String> path = new ArrayDeque<>();
+        private final StringBuilder value = new StringBuilder();
+        private final StringBuilder text = new StringBuilder();
+        private int bodies;
+
+        private final Party supplier = new Party();
+        private final Party customer = new Party();
+        private String documentNumber;
+        private LocalDate documentDate;
+        private BigDecimal totalAmount;
+        private BigDecimal summaryAmount;
+
+        void parse(XMLStreamReader reader) throws XMLStreamException {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        path.push(reader.getLocalName());
+                        if ("FatturaElettronicaBody".equals(reader.getLocalName())) {
+                            bodies++;
+                        }
+                        value.setLength(0);
+                    }
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA -> value.append(reader.getText());
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        String element = path.pop();
+                        String content = value.toString().strip();
+                        if (!content.isEmpty()) {
+                            onValue(element, path.peek(), content);
+                        }
+                        value.setLength(0);
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+
+        private void onValue(String element, String parent, String content) {
+            if (text.length() < maxTextLength) {
+                text.append(content, 0, Math.min(content.length(), maxTextLength - text.length())).append(' ');
+            }
+            Party party = path.contains("CedentePrestatore") ? supplier
+                    : path.contains("CessionarioCommittente") ? customer
+                    : null;
+            if (party != null && path.contains("DatiAnagrafici")) {
+                party.onValue(element, parent, content);
+                return;
+            }
+            if (bodies != 1) {
+                return;
+            }
+            if ("DatiGeneraliDocumento".equals(parent)) {
+                switch (element) {
+                    case "Numero" -> documentNumber = content;
+                    case "Data" -> documentDate = parseDate(content);
+                    case "ImportoTotaleDocumento" -> totalAmount = parseAmount(content);
+                    default -> {
+                    }
+                }
+            } else if ("DatiRiepilogo".equals(parent) && ("ImponibileImporto".equals(element) || "Imposta".equals(element))) {
+                BigDecimal amount = parseAmount(content);
+                if (amount != null) {
+                    summaryAmount = summaryAmount == null ? amount : summaryAmount.add(amount);
+                }
+            }
+        }
+
+        FatturaPaFields fields() {
+            String supplierVat = supplier.vat();
+            String customerVat = customer.vat();
+            // Nel corpo paese e codice sono elementi separati: la partita IVA intera va aggiunta al testo
+            for (String vat : new String[]{supplierVat, customerVat}) {
+                if (vat != null) {
+                    text.append(vat).append(' ');
+                }
+            }
+            return new FatturaPaFields(
+                    supplierVat,
+                    supplier.name(),
+                    customerVat,
+                    customer.taxCode == null ? null : customer.taxCode.toUpperCase(),
+                    customer.name(),
+                    documentNumber,
+                    documentDate,
+                    totalAmount != null ? totalAmount : summaryAmount,
+                    text.toString().strip());
+        }
+    }
+
+    /**
+     * Dati anagrafici di cedente o cessionario.
+     */
+    private static final class Party {
+
+        private String country;
+        private String code;
+        private String taxCode;
+        private String denomination;
+        private String firstName;
+        private String lastName;
+
+        void onValue(String element, String parent, String content) {
+            if ("IdFiscaleIVA".equals(parent)) {
+                if ("IdPaese".equals(element)) {
+                    country = content;
+                } else if ("IdCodice".equals(element)) {
+                    code = content;
+                }
+            } else if ("CodiceFiscale".equals(element)) {
+                taxCode = content;
+            } else if ("Anagrafica".equals(parent)) {
+                switch (element) {
+                    case "Denominazione" -> denomination = content;
+                    case "Nome" -> firstName = content;
+                    case "Cognome" -> lastName = content;
+                    default -> {
+                    }
+                }
+            }
+        }
+
+        String vat() {
+            return code == null ? null : normalizeVat((country == null ? "" : country) + code);
+        }
+
+        String name() {
+            if (denomination != null) {
+                return denomination;
+            }
+            if (firstName == null && lastName == null) {
+                return null;
+            }
+            return ((firstName == null ? "" : firstName) + " " + (lastName == null ? "" : lastName)).strip();
+        }
+    }
+
+    /**
+     * Partita IVA normalizzata come nelle ricerche: codice paese e codice, maiuscoli e senza spazi.
+     */
+    public static String normalizeVat(String vat) {
+        if (vat == null || vat.isBlank()) {
+            return null;
+        }
+        String normalized = vat.replaceAll("\\s", "").toUpperCase();
+        // Senza codice paese si intende una partita IVA italiana
+        return Character.isDigit(normalized.charAt(0)) ? "IT" + normalized : normalized;
+    }
+
+    private static LocalDate parseDate(String content) {
+        try {
+            return LocalDate.parse(content);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static BigDecimal parseAmount(String content) {
+        try {
+            return new BigDecimal(content);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.experis.dbmanager.service.search;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Campi di ricerca estratti dal corpo FatturaPA. I dati del documento sono quelli del primo
+ * FatturaElettronicaBody; text contiene i valori di tutti gli elementi, per l'indice full-text.
+ */
+public record FatturaPaFields(String supplierVat,
+                              String supplierName,
+                              String customerVat,
+                              String customerTaxCode,
+                              String customerName,
+                              String documentNumber,
+                              LocalDate documentDate,
+                              BigDecimal totalAmount,
+                              String text) {
+
+    static final FatturaPaFields EMPTY = new FatturaPaFields(null, null, null, null, null, null, null, null, "");
+}
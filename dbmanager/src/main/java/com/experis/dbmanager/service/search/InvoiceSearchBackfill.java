@@ -0,0 +1,98 @@
+package com.experis.dbmanager.service.search;
+
+import com.experis.dbmanager.entity.InvoiceBody;
+import com.experis.dbmanager.service.body.InvoiceBodyStore;
+import com.experis.dbmanager.shard.ShardRouter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Indicizzazione una tantum delle fatture salvate prima di invoice_search.
+ * Si attiva con {@code app.invoice-search.backfill.enabled=true}: le fatture senza riga in invoice_search sono lette
+ * a blocchi di {@code batch-size} per numero fattura crescente (corpo in chiaro o decompresso da invoice_body),
+ * ogni blocco in una propria transazione, quindi l'indicizzazione può essere interrotta e ripresa.
+ * Con lo sharding gli shard sono indicizzati uno dopo l'altro.
+ */
+@Component
+@ConditionalOnProperty(name = "app.invoice-search.backfill.enabled", havingValue = "true")
+@Slf4j
+public class InvoiceSearchBackfill implements ApplicationRunner {
+
+    private static final String SELECT_BATCH = "SELECT i.invoice_number, i.invoice, b.codec, b.original_length, b.body"
+            + " FROM invoice i LEFT JOIN invoice_body b ON b.invoice_number = i.invoice_number"
+            + " WHERE i.invoice_number > ? AND NOT EXISTS (SELECT 1 FROM invoice_search s WHERE s.invoice_number = i.invoice_number)"
+            + " ORDER BY i.invoice_number LIMIT ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final InvoiceBodyStore invoiceBodyStore;
+    private final InvoiceSearchIndexer invoiceSearchIndexer;
+    private final ShardRouter shardRouter;
+    private final int batchSize;
+
+    public InvoiceSearchBackfill(JdbcTemplate jdbcTemplate,
+                                 PlatformTransactionManager transactionManager,
+                                 InvoiceBodyStore invoiceBodyStore,
+                                 InvoiceSearchIndexer invoiceSearchIndexer,
+                                 ShardRouter shardRouter,
+                                 @Value("${app.invoice-search.backfill.batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.invoiceBodyStore = invoiceBodyStore;
+        this.invoiceSearchIndexer = invoiceSearchIndexer;
+        this.shardRouter = shardRouter;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        log.info("Indicizzazione per la ricerca delle fatture esistenti avviata (batch di {})", batchSize);
+        long start = System.nanoTime();
+        long[] total = new long[1];
+        shardRouter.forEachShard(shard -> {
+            long lastNumber = 0;
+            while (true) {
+                List<Long> numbers = new ArrayList<>(batchSize);
+                long afterNumber = lastNumber;
+                transactionTemplate.executeWithoutResult(tx -> indexBatch(afterNumber, numbers));
+                if (numbers.isEmpty()) {
+                    break;
+                }
+                total[0] += numbers.size();
+                lastNumber = numbers.get(numbers.size() - 1);
+                log.info("Indicizzate {} fatture, ultima {}", total[0], lastNumber);
+            }
+        });
+        log.info("Indicizzazione completata: {} fatture in {} ms", total[0], (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void indexBatch(long afterNumber, List<Long> numbers) {
+        List<String> bodies = new ArrayList<>(batchSize);
+        jdbcTemplate.query(SELECT_BATCH, rs -> {
+            long invoiceNumber = rs.getLong(1);
+            String body = rs.getString(2);
+            if (body == null && rs.getString(3) != null) {
+                InvoiceBody row = new InvoiceBody();
+                row.setInvoiceNumber(invoiceNumber);
+                row.setCodec(rs.getString(3));
+                row.setOriginalLength(rs.getInt(4));
+                row.setBody(rs.getBytes(5));
+                body = invoiceBodyStore.decompress(row);
+            }
+            numbers.add(invoiceNumber);
+            // Anche le fatture senza corpo ricevono una riga, così un nuovo avvio non le rilegge
+            bodies.add(body == null ? "" : body);
+        }, afterNumber, batchSize);
+        invoiceSearchIndexer.index(numbers, bodies);
+    }
+}
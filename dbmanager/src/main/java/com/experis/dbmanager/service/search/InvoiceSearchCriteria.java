@@ -0,0 +1,22 @@
+package com.experis.dbmanager.service.search;
+
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Filtri della ricerca fatture; quelli null non sono applicati. text è cercato come prefisso di ogni parola.
+ */
+public record InvoiceSearchCriteria(String text,
+                                    String supplierVat,
+                                    String customerVat,
+                                    String customerTaxCode,
+                                    String documentNumber,
+                                    LocalDate documentDateFrom,
+                                    LocalDate documentDateTo,
+                                    BigDecimal minAmount,
+                                    BigDecimal maxAmount,
+                                    Integer customerId,
+                                    InvoiceStatus status) {
+}
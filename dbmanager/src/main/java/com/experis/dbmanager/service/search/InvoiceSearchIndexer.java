@@ -0,0 +1,84 @@
+package com.experis.dbmanager.service.search;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Date;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scrive in invoice_search i campi estratti dal corpo XML e il tsvector per la ricerca full-text,
+ * nella transazione che salva la fattura (un batch JDBC per più fatture).
+ * Va chiamato con il corpo in chiaro, prima della compressione, quindi non serve rileggerlo dal DB.
+ */
+@Component
+@Slf4j
+public class InvoiceSearchIndexer {
+
+    private static final String UPSERT = "INSERT INTO invoice_search (invoice_number, supplier_vat, supplier_name,"
+            + " customer_vat, customer_tax_code, customer_name, document_number, document_date, total_amount, search_vector)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, to_tsvector('simple', ?))"
+            + " ON CONFLICT (invoice_number) DO UPDATE SET supplier_vat = EXCLUDED.supplier_vat,"
+            + " supplier_name = EXCLUDED.supplier_name, customer_vat = EXCLUDED.customer_vat,"
+            + " customer_tax_code = EXCLUDED.customer_tax_code, customer_name = EXCLUDED.customer_name,"
+            + " document_number = EXCLUDED.document_number, document_date = EXCLUDED.document_date,"
+            + " total_amount = EXCLUDED.total_amount, search_vector = EXCLUDED.search_vector";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FatturaPaFieldExtractor extractor;
+    private final boolean enabled;
+
+    public InvoiceSearchIndexer(JdbcTemplate jdbcTemplate,
+                                @Value("${app.invoice-search.enabled:true}") boolean enabled,
+                                @Value("${app.invoice-search.max-text-length:100000}") int maxTextLength) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.extractor = new FatturaPaFieldExtractor(maxTextLength);
+    }
+
+    /**
+     * Indicizza i corpi delle fatture; bodies è allineata a invoiceNumbers, i corpi null sono ignorati.
+     */
+    public void index(List<Long> invoiceNumbers, List<String> bodies) {
+        if (!enabled) {
+            return;
+        }
+        List<Row> rows = new ArrayList<>(invoiceNumbers.size());
+        for (int i = 0; i < invoiceNumbers.size(); i++) {
+            if (bodies.get(i) != null) {
+                rows.add(new Row(invoiceNumbers.get(i), extractor.extract(bodies.get(i))));
+            }
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(UPSERT, rows, rows.size(), (ps, row) -> {
+            FatturaPaFields fields = row.fields();
+            ps.setLong(1, row.invoiceNumber());
+            ps.setString(2, limit(fields.supplierVat(), 30));
+            ps.setString(3, limit(fields.supplierName(), 200));
+            ps.setString(4, limit(fields.customerVat(), 30));
+            ps.setString(5, limit(fields.customerTaxCode(), 30));
+            ps.setString(6, limit(fields.customerName(), 200));
+            ps.setString(7, limit(fields.documentNumber(), 50));
+            if (fields.documentDate() != null) {
+                ps.setDate(8, Date.valueOf(fields.documentDate()));
+            } else {
+                ps.setNull(8, Types.DATE);
+            }
+            ps.setBigDecimal(9, fields.totalAmount());
+            ps.setString(10, fields.text());
+        });
+    }
+
+    private static String limit(String value, int maxLength) {
+        return value == null || value.length() <= maxLength ? value : value.substring(0, maxLength);
+    }
+
+    private record Row(long invoiceNumber, FatturaPaFields fields) {
+    }
+}
@@ -0,0 +1,148 @@
+package com.experis.dbmanager.service.search;
+
+import com.experis.dbmanager.dto.InvoiceSearchResultDto;
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+import com.experis.dbmanager.shard.ShardRouter;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Ricerca delle fatture sui campi estratti in invoice_search (indici btree) e sul tsvector del corpo (indice GIN),
+ * in transazione read-only (repliche, se attive). Le pagine sono Slice: si legge una riga in più per sapere
+ * se esiste la pagina successiva, senza COUNT. Con lo sharding la ricerca di un cliente va solo sul suo shard,
+ * le altre su tutti gli shard in parallelo: ognuno restituisce le prime (pagina + 1) * size + 1 righe e si uniscono
+ * per numero fattura decrescente.
+ */
+@Service
+public class InvoiceSearchService {
+
+    private static final String SELECT = "SELECT i.invoice_number, i.invoice_status, i.customer_id, i.created_at,"
+            + " s.supplier_vat, s.supplier_name, s.customer_vat, s.customer_tax_code, s.customer_name,"
+            + " s.document_number, s.document_date, s.total_amount"
+            + " FROM invoice_search s JOIN invoice i ON i.invoice_number = s.invoice_number WHERE TRUE";
+    private static final int MAX_TERMS = 10;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ShardRouter shardRouter;
+
+    public InvoiceSearchService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager, ShardRouter shardRouter) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.shardRouter = shardRouter;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    public Slice<InvoiceSearchResultDto> search(InvoiceSearchCriteria criteria, int page, int size) {
+        List<Object> args = new ArrayList<>();
+        StringBuilder sql = new StringBuilder(SELECT);
+        String tsQuery = toTsQuery(criteria.text());
+        if (tsQuery != null) {
+            sql.append(" AND s.search_vector @@ to_tsquery('simple', ?)");
+            args.add(tsQuery);
+        }
+        equal(sql, args, "s.supplier_vat", FatturaPaFieldExtractor.normalizeVat(criteria.supplierVat()));
+        equal(sql, args, "s.customer_vat", FatturaPaFieldExtractor.normalizeVat(criteria.customerVat()));
+        equal(sql, args, "s.customer_tax_code", stripped(criteria.customerTaxCode(), true));
+        equal(sql, args, "s.document_number", stripped(criteria.documentNumber(), false));
+        equal(sql, args, "i.customer_id", criteria.customerId());
+        equal(sql, args, "i.invoice_status", criteria.status() == null ? null : criteria.status().name());
+        if (criteria.documentDateFrom() != null) {
+            sql.append(" AND s.document_date >= ?");
+            args.add(Date.valueOf(criteria.documentDateFrom()));
+        }
+        if (criteria.documentDateTo() != null) {
+            sql.append(" AND s.document_date <= ?");
+            args.add(Date.valueOf(criteria.documentDateTo()));
+        }
+        if (criteria.minAmount() != null) {
+            sql.append(" AND s.total_amount >= ?");
+            args.add(criteria.minAmount());
+        }
+        if (criteria.maxAmount() != null) {
+            sql.append(" AND s.total_amount <= ?");
+            args.add(criteria.maxAmount());
+        }
+        sql.append(" ORDER BY s.invoice_number DESC LIMIT ? OFFSET ?");
+
+        List<InvoiceSearchResultDto> rows;
+        if (!shardRouter.isSharded()) {
+            rows = query(sql.toString(), args, size + 1, (long) page * size);
+        } else if (criteria.customerId() != null) {
+            rows = shardRouter.call(shardRouter.shardOfCustomer(criteria.customerId()),
+                    () -> query(sql.toString(), args, size + 1, (long) page * size));
+        } else {
+            long offset = (long) page * size;
+            List<List<InvoiceSearchResultDto>> perShard = shardRouter.fanOut(shard -> query(sql.toString(), args, offset + size + 1, 0));
+            List<InvoiceSearchResultDto> merged = ShardRouter.mergeSorted(perShard,
+                    Comparator.comparingLong(InvoiceSearchResultDto::getInvoiceNumber).reversed(), (int) Math.min(Integer.MAX_VALUE, offset + size + 1));
+            rows = merged.size() > offset ? merged.subList((int) offset, merged.size()) : List.of();
+        }
+        boolean hasNext = rows.size() > size;
+        return new SliceImpl<>(hasNext ? rows.subList(0, size) : rows, PageRequest.of(page, size), hasNext);
+    }
+
+    private List<InvoiceSearchResultDto> query(String sql, List<Object> args, long limit, long offset) {
+        List<Object> params = new ArrayList<>(args);
+        params.add(limit);
+        params.add(offset);
+        return transactionTemplate.execute(tx -> jdbcTemplate.query(sql, (rs, rowNum) ->
+                new InvoiceSearchResultDto(
+                        rs.getLong(1),
+                        InvoiceStatus.valueOf(rs.getString(2)),
+                        rs.getInt(3),
+                        rs.getTimestamp(4).toLocalDateTime(),
+                        rs.getString(5),
+                        rs.getString(6),
+                        rs.getString(7),
+                        rs.getString(8),
+                        rs.getString(9),
+                        rs.getString(10),
+                        rs.getDate(11) == null ? null : rs.getDate(11).toLocalDate(),
+                        rs.getBigDecimal(12)),
+                params.toArray()));
+    }
+
+    /**
+     * Ogni parola del testo diventa un prefisso in AND ("rossi consul" -> "rossi:* & consul:*").
+     * Restano solo lettere e cifre, quindi l'input non può contenere operatori di tsquery.
+     */
+    static String toTsQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+        String query = Arrays.stream(text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+                .filter(term -> !term.isEmpty())
+                .limit(MAX_TERMS)
+                .map(term -> term + ":*")
+                .collect(Collectors.joining(" & "));
+        return query.isEmpty() ? null : query;
+    }
+
+    private static String stripped(String value, boolean upperCase) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        return upperCase ? value.strip().toUpperCase(Locale.ROOT) : value.strip();
+    }
+
+    private static void equal(StringBuilder sql, List<Object> args, String column, Object value) {
+        if (value != null) {
+            sql.append(" AND ").append(column).append(" = ?");
+            args.add(value);
+        }
+    }
+}
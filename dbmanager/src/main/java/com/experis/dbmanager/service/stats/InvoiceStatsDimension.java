@@ -0,0 +1,21 @@
+package com.experis.dbmanager.service.stats;
+
+/**
+ * Dimensioni per cui raggruppare le statistiche; quelle non richieste vengono sommate.
+ */
+public enum InvoiceStatsDimension {
+
+    DAY("stat_day"),
+    CUSTOMER("customer_id"),
+    STATUS("invoice_status");
+
+    private final String column;
+
+    InvoiceStatsDimension(String column) {
+        this.column = column;
+    }
+
+    String column() {
+        return column;
+    }
+}
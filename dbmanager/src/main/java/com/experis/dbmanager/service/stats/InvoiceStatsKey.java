@@ -0,0 +1,18 @@
+package com.experis.dbmanager.service.stats;
+
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+
+/**
+ * Chiave di un contatore: giorno di creazione, cliente e stato. Nei risultati raggruppati
+ * le dimensioni non richieste sono null.
+ */
+public record InvoiceStatsKey(LocalDate day, Integer customerId, InvoiceStatus status) {
+
+    static final Comparator<InvoiceStatsKey> ORDER = Comparator
+            .comparing(InvoiceStatsKey::day, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(InvoiceStatsKey::customerId, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(InvoiceStatsKey::status, Comparator.nullsFirst(Comparator.naturalOrder()));
+}
@@ -0,0 +1,184 @@
+package com.experis.dbmanager.service.stats;
+
+import com.experis.dbmanager.shard.ShardRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Manutenzione di invoice_stats, con un advisory lock di Postgres comune a tutte le repliche di dbmanager:
+ * <ul>
+ *   <li>fold: somma i delta di invoice_stats_delta nei contatori, a blocchi di {@code batch-size} righe;</li>
+ *   <li>riallineamento: per ognuno degli ultimi {@code days} giorni ricalcola i contatori da invoice con un solo
+ *   statement, che cancella i delta già visibili (contenuti nel ricalcolo) e lascia al fold quelli arrivati dopo.
+ *   La differenza trovata va nella metrica dbmanager.stats.drift.</li>
+ * </ul>
+ * Se invoice_stats è vuota all'avvio (primo rilascio) vengono ricostruiti tutti i giorni presenti in invoice.
+ * Con lo sharding ogni shard ha le proprie tabelle e il proprio advisory lock: la manutenzione le passa in sequenza.
+ */
+@Component
+@ConditionalOnProperty(name = "app.stats.maintenance.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class InvoiceStatsMaintenance {
+
+    // Chiave dell'advisory lock condivisa da fold e riallineamento
+    static final long LOCK_KEY = 7_021_001L;
+
+    private static final String FOLD = "WITH moved AS ("
+            + " DELETE FROM invoice_stats_delta WHERE id IN (SELECT id FROM invoice_stats_delta ORDER BY id LIMIT ?)"
+            + " RETURNING stat_day, customer_id, invoice_status, delta)"
+            + " INSERT INTO invoice_stats (stat_day, customer_id, invoice_status, invoice_count, updated_at)"
+            + " SELECT stat_day, customer_id, invoice_status, SUM(delta), now() FROM moved"
+            + " GROUP BY stat_day, customer_id, invoice_status"
+            + " ON CONFLICT (stat_day, customer_id, invoice_status) DO UPDATE"
+            + " SET invoice_count = invoice_stats.invoice_count + EXCLUDED.invoice_count, updated_at = EXCLUDED.updated_at";
+
+    private static final String RECONCILE_DAY = "WITH dropped AS ("
+            + " DELETE FROM invoice_stats_delta WHERE stat_day = ? RETURNING customer_id, invoice_status, delta)"
+            + ", counted AS (SELECT customer_id, invoice_status, SUM(invoice_count) AS invoice_count FROM ("
+            + " SELECT customer_id, invoice_status, invoice_count FROM invoice_stats WHERE stat_day = ?"
+            + " UNION ALL SELECT customer_id, invoice_status, delta FROM dropped) c GROUP BY customer_id, invoice_status)"
+            + ", truth AS (SELECT customer_id, invoice_status, count(*) AS invoice_count FROM invoice"
+            + " WHERE created_at = ? GROUP BY customer_id, invoice_status)"
+            + ", diff AS (SELECT COALESCE(t.customer_id, c.customer_id) AS customer_id,"
+            + " COALESCE(t.invoice_status, c.invoice_status) AS invoice_status,"
+            + " COALESCE(t.invoice_count, 0) AS invoice_count, COALESCE(c.invoice_count, 0) AS counted"
+            + " FROM truth t FULL JOIN counted c ON c.customer_id = t.customer_id AND c.invoice_status = t.invoice_status)"
+            + ", fixed AS (INSERT INTO invoice_stats (stat_day, customer_id, invoice_status, invoice_count, updated_at)"
+            + " SELECT ?, customer_id, invoice_status, invoice_count, now() FROM diff"
+            + " ON CONFLICT (stat_day, customer_id, invoice_status) DO UPDATE"
+            + " SET invoice_count = EXCLUDED.invoice_count, updated_at = EXCLUDED.updated_at"
+            + " WHERE invoice_stats.invoice_count <> EXCLUDED.invoice_count)"
+            + " SELECT COALESCE(SUM(ABS(invoice_count - counted)), 0) FROM diff";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ShardRouter shardRouter;
+    private final int foldBatchSize;
+    private final int foldMaxBatchesPerRun;
+    private final int reconcileDays;
+
+    private final Counter driftCounter;
+    private final Timer reconcileTimer;
+    // Fold e riallineamento partono solo dopo l'eventuale ricostruzione iniziale
+    private volatile boolean ready;
+
+    public InvoiceStatsMaintenance(JdbcTemplate jdbcTemplate,
+                                   TransactionTemplate transactionTemplate,
+                                   ShardRouter shardRouter,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${app.stats.fold.batch-size:5000}") int foldBatchSize,
+                                   @Value("${app.stats.fold.max-batches-per-run:20}") int foldMaxBatchesPerRun,
+                                   @Value("${app.stats.reconcile.days:3}") int reconcileDays) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.shardRouter = shardRouter;
+        this.foldBatchSize = foldBatchSize;
+        this.foldMaxBatchesPerRun = foldMaxBatchesPerRun;
+        this.reconcileDays = reconcileDays;
+        this.driftCounter = Counter.builder("dbmanager.stats.drift")
+                .description("Differenza tra statistiche incrementali e conteggio su invoice trovata dal riallineamento")
+                .register(meterRegistry);
+        this.reconcileTimer = Timer.builder("dbmanager.stats.reconcile")
+                .description("Durata del riallineamento di un giorno delle statistiche")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Un errore (tabelle non ancora create, lock) non deve impedire l'avvio: viene registrato e la ricostruzione
+     * dello shard è lasciata al riallineamento, che però copre solo gli ultimi {@code days} giorni.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildIfEmpty() {
+        try {
+            shardRouter.forEachShard(shard -> {
+                try {
+                    rebuildIfEmpty(shard);
+                } catch (DataAccessException e) {
+                    log.error("Ricostruzione delle statistiche sullo shard {} non riuscita all'avvio", shard, e);
+                }
+            });
+        } finally {
+            ready = true;
+        }
+    }
+
+    private void rebuildIfEmpty(int shard) {
+        Boolean empty = jdbcTemplate.queryForObject("SELECT NOT EXISTS (SELECT 1 FROM invoice_stats)", Boolean.class);
+        if (Boolean.TRUE.equals(empty)) {
+            List<LocalDate> allDays = jdbcTemplate.queryForList("SELECT DISTINCT created_at FROM invoice ORDER BY 1", Date.class)
+                    .stream().map(Date::toLocalDate).toList();
+            log.info("Statistiche delle fatture vuote sullo shard {}: ricostruzione di {} giorni da invoice", shard, allDays.size());
+            allDays.forEach(this::reconcile);
+            log.info("Ricostruzione delle statistiche completata");
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.stats.fold.interval-ms:1000}")
+    public void fold() {
+        if (!ready) {
+            return;
+        }
+        shardRouter.forEachShard(shard -> foldShard());
+    }
+
+    private void foldShard() {
+        for (int i = 0; i < foldMaxBatchesPerRun; i++) {
+            Integer groups = transactionTemplate.execute(tx -> lock(false) ? jdbcTemplate.update(FOLD, foldBatchSize) : 0);
+            if (groups == null || groups == 0) {
+                break;
+            }
+        }
+    }
+
+    @Scheduled(cron = "${app.stats.reconcile.cron:0 */15 * * * *}")
+    public void reconcileRecentDays() {
+        if (!ready) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        shardRouter.forEachShard(shard -> {
+            for (int i = 0; i < reconcileDays; i++) {
+                long drift = reconcile(today.minusDays(i));
+                driftCounter.increment(drift);
+                if (drift > 0) {
+                    log.warn("Statistiche del {} riallineate con invoice sullo shard {}: differenza di {} fatture", today.minusDays(i), shard, drift);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return somma delle differenze assolute corrette per il giorno
+     */
+    long reconcile(LocalDate day) {
+        Date statDay = Date.valueOf(day);
+        Long drift = reconcileTimer.record(() -> transactionTemplate.execute(tx -> {
+            lock(true);
+            return jdbcTemplate.queryForObject(RECONCILE_DAY, Long.class, statDay, statDay, statDay, statDay);
+        }));
+        return drift == null ? 0 : drift;
+    }
+
+    private boolean lock(boolean wait) {
+        if (wait) {
+            jdbcTemplate.queryForList("SELECT pg_advisory_xact_lock(?)", LOCK_KEY);
+            return true;
+        }
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT pg_try_advisory_xact_lock(?)", Boolean.class, LOCK_KEY));
+    }
+}
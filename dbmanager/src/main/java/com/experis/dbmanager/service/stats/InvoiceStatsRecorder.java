@@ -0,0 +1,91 @@
+package com.experis.dbmanager.service.stats;
+
+import com.experis.dbmanager.dto.InvoiceDto;
+import com.experis.dbmanager.entity.Invoice;
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registra le variazioni dei contatori come righe di invoice_stats_delta, nella transazione che modifica le fatture:
+ * solo insert, quindi nessun lock su righe contese dei contatori anche con molte scritture sullo stesso cliente e giorno.
+ * I delta sono sommati per chiave prima della scrittura (un batch di fatture produce una riga per cliente e stato).
+ */
+@Component
+public class InvoiceStatsRecorder {
+
+    private static final String INSERT = "INSERT INTO invoice_stats_delta (stat_day, customer_id, invoice_status, delta) VALUES (?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public InvoiceStatsRecorder(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void recordCreated(List<Invoice> invoices) {
+        Map<InvoiceStatsKey, Integer> deltas = new HashMap<>();
+        for (Invoice invoice : invoices) {
+            deltas.merge(keyOf(invoice, invoice.getInvoiceStatus()), 1, Integer::sum);
+        }
+        write(deltas);
+    }
+
+    public void recordStatusChange(Invoice invoice, InvoiceStatus previousStatus) {
+        if (previousStatus == invoice.getInvoiceStatus()) {
+            return;
+        }
+        Map<InvoiceStatsKey, Integer> deltas = new HashMap<>();
+        deltas.put(keyOf(invoice, previousStatus), -1);
+        deltas.put(keyOf(invoice, invoice.getInvoiceStatus()), 1);
+        write(deltas);
+    }
+
+    /**
+     * Fatture passate in blocco da previousStatus al proprio stato attuale (sweeper dei timeout).
+     */
+    public void recordStatusChanges(List<InvoiceDto> invoices, InvoiceStatus previousStatus) {
+        Map<InvoiceStatsKey, Integer> deltas = new HashMap<>();
+        for (InvoiceDto invoice : invoices) {
+            if (previousStatus == invoice.getInvoiceStatus()) {
+                continue;
+            }
+            LocalDate day = invoice.getCreatedAt().toLocalDate();
+            int customerId = invoice.getCustomer().getCustomerId();
+            deltas.merge(new InvoiceStatsKey(day, customerId, previousStatus), -1, Integer::sum);
+            deltas.merge(new InvoiceStatsKey(day, customerId, invoice.getInvoiceStatus()), 1, Integer::sum);
+        }
+        write(deltas);
+    }
+
+    public void recordDeleted(Invoice invoice) {
+        write(Map.of(keyOf(invoice, invoice.getInvoiceStatus()), -1));
+    }
+
+    private void write(Map<InvoiceStatsKey, Integer> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("I delta delle statistiche vanno scritti nella transazione delle fatture");
+        }
+        List<Map.Entry<InvoiceStatsKey, Integer>> rows = new ArrayList<>(deltas.entrySet());
+        jdbcTemplate.batchUpdate(INSERT, rows, rows.size(), (ps, row) -> {
+            ps.setDate(1, Date.valueOf(row.getKey().day()));
+            ps.setInt(2, row.getKey().customerId());
+            ps.setString(3, row.getKey().status().name());
+            ps.setInt(4, row.getValue());
+        });
+    }
+
+    private static InvoiceStatsKey keyOf(Invoice invoice, InvoiceStatus status) {
+        return new InvoiceStatsKey(invoice.getCreatedAt().toLocalDate(), invoice.getCustomerId(), status);
+    }
+}
@@ -0,0 +1,223 @@
+package com.experis.dbmanager.service.stats;
+
+import com.experis.dbmanager.dto.InvoiceStatsDto;
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+import com.experis.dbmanager.shard.ShardRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+/**
+ * Contatori delle fatture per giorno di creazione, cliente e stato, serviti da una copia in memoria di invoice_stats.
+ * La copia viene caricata al primo refresh e poi aggiornata leggendo solo le righe con updated_at recente
+ * (con {@code refresh-overlap-ms} di margine per le transazioni che fanno commit dopo il loro now()); in memoria
+ * restano gli ultimi {@code memory-days} giorni, le richieste più vecchie sono servite da invoice_stats.
+ * I contatori seguono le scritture con il ritardo del fold dei delta più quello del refresh (pochi secondi).
+ * Con lo sharding ogni shard ha la propria invoice_stats (i contatori di un cliente sono tutti nel suo shard):
+ * il refresh legge gli shard uno dopo l'altro, ognuno con il proprio watermark.
+ */
+@Service
+@Slf4j
+public class InvoiceStatsService {
+
+    private static final String LOAD = "SELECT stat_day, customer_id, invoice_status, invoice_count, updated_at"
+            + " FROM invoice_stats WHERE stat_day >= ? AND updated_at > ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ShardRouter shardRouter;
+    private final int memoryDays;
+    private final long refreshOverlapMs;
+
+    private final ConcurrentSkipListMap<LocalDate, Map<CustomerStatus, Long>> days = new ConcurrentSkipListMap<>();
+    // Massimo updated_at letto per shard (orologio del DB dello shard); null finché lo shard non è caricato
+    private final Timestamp[] watermarks;
+    private volatile boolean loaded;
+    private volatile LocalDate memoryFrom;
+    private volatile long lastRefreshMillis;
+
+    private final Counter memoryQueries;
+    private final Counter tableQueries;
+
+    public InvoiceStatsService(JdbcTemplate jdbcTemplate,
+                               ShardRouter shardRouter,
+                               MeterRegistry meterRegistry,
+                               @Value("${app.stats.memory-days:400}") int memoryDays,
+                               @Value("${app.stats.refresh-overlap-ms:10000}") long refreshOverlapMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.shardRouter = shardRouter;
+        this.watermarks = new Timestamp[shardRouter.shardCount()];
+        this.memoryDays = memoryDays;
+        this.refreshOverlapMs = refreshOverlapMs;
+        this.memoryQueries = queryCounter(meterRegistry, "memory");
+        this.tableQueries = queryCounter(meterRegistry, "table");
+        Gauge.builder("dbmanager.stats.refresh.age", this, service -> service.lastRefreshMillis == 0
+                        ? Double.NaN
+                        : (System.currentTimeMillis() - service.lastRefreshMillis) / 1000.0)
+                .description("Secondi dall'ultimo refresh della copia in memoria delle statistiche")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${app.stats.refresh-interval-ms:1000}")
+    public void refresh() {
+        LocalDate from = LocalDate.now().minusDays(memoryDays);
+        int[] rows = {0};
+        shardRouter.forEachShard(shard -> rows[0] += refresh(shard, from));
+        days.headMap(from).clear();
+        if (!loaded) {
+            log.info("Statistiche delle fatture caricate in memoria: {} contatori dal {}", rows[0], from);
+        }
+        memoryFrom = from;
+        loaded = true;
+        lastRefreshMillis = System.currentTimeMillis();
+    }
+
+    private int refresh(int shard, LocalDate from) {
+        Timestamp watermark = watermarks[shard];
+        Timestamp since = watermark == null
+                ? new Timestamp(0)
+                : new Timestamp(watermark.getTime() - refreshOverlapMs);
+        Timestamp[] newest = {watermark};
+        int[] rows = {0};
+        jdbcTemplate.query(LOAD, rs -> {
+            apply(rs.getDate(1).toLocalDate(), rs.getInt(2), InvoiceStatus.valueOf(rs.getString(3)), rs.getLong(4));
+            Timestamp updatedAt = rs.getTimestamp(5);
+            if (newest[0] == null || updatedAt.after(newest[0])) {
+                newest[0] = updatedAt;
+            }
+            rows[0]++;
+        }, Date.valueOf(from), since);
+        watermarks[shard] = newest[0] == null ? new Timestamp(0) : newest[0];
+        return rows[0];
+    }
+
+    void apply(LocalDate day, int customerId, InvoiceStatus status, long count) {
+        Map<CustomerStatus, Long> counters = days.computeIfAbsent(day, d -> new ConcurrentHashMap<>());
+        if (count == 0) {
+            counters.remove(new CustomerStatus(customerId, status));
+        } else {
+            counters.put(new CustomerStatus(customerId, status), count);
+        }
+    }
+
+    /**
+     * Conta le fatture create tra {@code from} e {@code to} (inclusi), raggruppate per le dimensioni richieste.
+     * I gruppi con zero fatture non sono restituiti.
+     */
+    public List<InvoiceStatsDto> findStats(LocalDate from, LocalDate to, Integer customerId, InvoiceStatus status,
+                                           Set<InvoiceStatsDimension> groupBy) {
+        if (from.isAfter(to)) {
+            return List.of();
+        }
+        LocalDate loadedFrom = memoryFrom;
+        if (!loaded || loadedFrom == null || from.isBefore(loadedFrom)) {
+            tableQueries.increment();
+            return findInTable(from, to, customerId, status, groupBy);
+        }
+        memoryQueries.increment();
+        Map<InvoiceStatsKey, Long> totals = new HashMap<>();
+        for (Map.Entry<LocalDate, Map<CustomerStatus, Long>> day : days.subMap(from, true, to, true).entrySet()) {
+            for (Map.Entry<CustomerStatus, Long> counter : day.getValue().entrySet()) {
+                CustomerStatus key = counter.getKey();
+                if ((customerId == null || key.customerId() == customerId) && (status == null || key.status() == status)) {
+                    totals.merge(groupKey(day.getKey(), key.customerId(), key.status(), groupBy), counter.getValue(), Long::sum);
+                }
+            }
+        }
+        return toDtos(totals);
+    }
+
+    private List<InvoiceStatsDto> findInTable(LocalDate from, LocalDate to, Integer customerId, InvoiceStatus status,
+                                              Set<InvoiceStatsDimension> groupBy) {
+        // Le colonne vengono dall'enum, non dalla richiesta
+        String columns = groupBy.stream().map(InvoiceStatsDimension::column).collect(Collectors.joining(", "));
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (!columns.isEmpty()) {
+            sql.append(columns).append(", ");
+        }
+        sql.append("SUM(invoice_count) AS invoice_count FROM invoice_stats WHERE stat_day BETWEEN ? AND ?");
+        List<Object> args = new ArrayList<>(List.of(Date.valueOf(from), Date.valueOf(to)));
+        if (customerId != null) {
+            sql.append(" AND customer_id = ?");
+            args.add(customerId);
+        }
+        if (status != null) {
+            sql.append(" AND invoice_status = ?");
+            args.add(status.name());
+        }
+        if (!columns.isEmpty()) {
+            sql.append(" GROUP BY ").append(columns);
+        }
+
+        // Lo stesso gruppo può avere righe in più shard (tranne che per cliente): i conteggi si sommano
+        Map<InvoiceStatsKey, Long> totals = new HashMap<>();
+        List<Map<InvoiceStatsKey, Long>> perShard = customerId != null
+                ? List.of(shardRouter.call(shardRouter.shardOfCustomer(customerId), () -> queryTable(sql.toString(), args, groupBy)))
+                : shardRouter.fanOut(shard -> queryTable(sql.toString(), args, groupBy));
+        perShard.forEach(shardTotals -> shardTotals.forEach((key, count) -> totals.merge(key, count, Long::sum)));
+        return toDtos(totals);
+    }
+
+    private Map<InvoiceStatsKey, Long> queryTable(String sql, List<Object> args, Set<InvoiceStatsDimension> groupBy) {
+        Map<InvoiceStatsKey, Long> totals = new HashMap<>();
+        jdbcTemplate.query(sql, rs -> {
+            LocalDate day = groupBy.contains(InvoiceStatsDimension.DAY) ? rs.getDate("stat_day").toLocalDate() : null;
+            Integer customer = groupBy.contains(InvoiceStatsDimension.CUSTOMER) ? rs.getInt("customer_id") : null;
+            InvoiceStatus invoiceStatus = groupBy.contains(InvoiceStatsDimension.STATUS)
+                    ? InvoiceStatus.valueOf(rs.getString("invoice_status"))
+                    : null;
+            totals.put(new InvoiceStatsKey(day, customer, invoiceStatus), rs.getLong("invoice_count"));
+        }, args.toArray());
+        return totals;
+    }
+
+    private static InvoiceStatsKey groupKey(LocalDate day, int customerId, InvoiceStatus status, Set<InvoiceStatsDimension> groupBy) {
+        return new InvoiceStatsKey(
+                groupBy.contains(InvoiceStatsDimension.DAY) ? day : null,
+                groupBy.contains(InvoiceStatsDimension.CUSTOMER) ? customerId : null,
+                groupBy.contains(InvoiceStatsDimension.STATUS) ? status : null);
+    }
+
+    private static List<InvoiceStatsDto> toDtos(Map<InvoiceStatsKey, Long> totals) {
+        return totals.entrySet().stream()
+                .filter(total -> total.getValue() != 0)
+                .sorted(Map.Entry.comparingByKey(InvoiceStatsKey.ORDER))
+                .map(total -> new InvoiceStatsDto(total.getKey().day(), total.getKey().customerId(),
+                        total.getKey().status(), total.getValue()))
+                .toList();
+    }
+
+    public static Set<InvoiceStatsDimension> dimensions(List<InvoiceStatsDimension> groupBy) {
+        return groupBy == null || groupBy.isEmpty()
+                ? EnumSet.noneOf(InvoiceStatsDimension.class)
+                : EnumSet.copyOf(groupBy);
+    }
+
+    private static Counter queryCounter(MeterRegistry meterRegistry, String source) {
+        return Counter.builder("dbmanager.stats.query")
+                .description("Richieste di statistiche per sorgente dei dati")
+                .tag("source", source)
+                .register(meterRegistry);
+    }
+
+    private record CustomerStatus(int customerId, InvoiceStatus status) {
+    }
+}
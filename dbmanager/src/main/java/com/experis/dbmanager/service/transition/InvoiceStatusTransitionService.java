@@ -0,0 +1,106 @@
+package com.experis.dbmanager.service.transition;
+
+import com.experis.dbmanager.dto.InvoiceDto;
+import com.experis.dbmanager.entity.Customer;
+import com.experis.dbmanager.entity.Invoice;
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+import com.experis.dbmanager.exception.ResourceNotFoundException;
+import com.experis.dbmanager.mapper.ApplicationMapper;
+import com.experis.dbmanager.repository.InvoiceRepository;
+import com.experis.dbmanager.service.body.InvoiceBodyStore;
+import com.experis.dbmanager.service.cache.CustomerCache;
+import com.experis.dbmanager.service.stats.InvoiceStatsRecorder;
+import com.experis.dbmanager.shard.ShardRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Set;
+
+/**
+ * Applica le transizioni di {@link InvoiceStatusTransitions} con un UPDATE condizionato sullo stato attuale
+ * (UPDATE ... WHERE invoice_status IN (...) RETURNING), senza caricare la fattura prima della scrittura.
+ * Lo stato attuale è letto solo con lock sulla riga ({@code FOR UPDATE}): distingue il motivo di una transizione
+ * non applicata ed è lo stato di partenza dei delta delle statistiche, registrati da {@link InvoiceStatsRecorder}
+ * nella stessa transazione. Nessun messaggio concorrente può cambiare lo stato tra lettura e UPDATE.
+ * La transazione è aperta sullo shard della fattura (o vi partecipa, se il chiamante l'ha già aperta).
+ */
+@Service
+@Slf4j
+public class InvoiceStatusTransitionService {
+
+    private final InvoiceRepository invoiceRepository;
+    private final CustomerCache customerCache;
+    private final InvoiceBodyStore invoiceBodyStore;
+    private final InvoiceStatsRecorder invoiceStatsRecorder;
+    private final ApplicationMapper mapper;
+    private final ShardRouter shardRouter;
+    private final MeterRegistry meterRegistry;
+
+    public InvoiceStatusTransitionService(InvoiceRepository invoiceRepository,
+                                          CustomerCache customerCache,
+                                          InvoiceBodyStore invoiceBodyStore,
+                                          InvoiceStatsRecorder invoiceStatsRecorder,
+                                          ApplicationMapper mapper,
+                                          ShardRouter shardRouter,
+                                          MeterRegistry meterRegistry) {
+        this.invoiceRepository = invoiceRepository;
+        this.customerCache = customerCache;
+        this.invoiceBodyStore = invoiceBodyStore;
+        this.invoiceStatsRecorder = invoiceStatsRecorder;
+        this.mapper = mapper;
+        this.shardRouter = shardRouter;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @param withBody se true la fattura restituita contiene il corpo XML (es. per la callback al cliente)
+     */
+    public InvoiceTransitionResult transition(long invoiceNumber, InvoiceStatus target, boolean withBody) {
+        return shardRouter.inTransaction(shardRouter.shardOfInvoice(invoiceNumber), () -> apply(invoiceNumber, target, withBody));
+    }
+
+    private InvoiceTransitionResult apply(long invoiceNumber, InvoiceStatus target, boolean withBody) {
+        InvoiceTransitionResult result = invoiceRepository.lockStatusByInvoiceNumber(invoiceNumber)
+                .map(InvoiceStatus::valueOf)
+                .map(current -> applyFrom(invoiceNumber, current, target, withBody))
+                .orElseGet(() -> new InvoiceTransitionResult(InvoiceTransitionResult.Outcome.NOT_FOUND, null, null));
+        counter(target, result.outcome()).increment();
+        return result;
+    }
+
+    private InvoiceTransitionResult applyFrom(long invoiceNumber, InvoiceStatus current, InvoiceStatus target, boolean withBody) {
+        Set<InvoiceStatus> sources = InvoiceStatusTransitions.sourcesOf(target);
+        if (!sources.contains(current)) {
+            InvoiceTransitionResult.Outcome outcome = current == target
+                    ? InvoiceTransitionResult.Outcome.DUPLICATE
+                    : InvoiceTransitionResult.Outcome.REJECTED;
+            return new InvoiceTransitionResult(outcome, null, current);
+        }
+        Invoice updated = invoiceRepository.transitionStatus(invoiceNumber, target.name(),
+                        sources.stream().map(Enum::name).toList(), LocalDateTime.now())
+                .orElseThrow(() -> new IllegalStateException("Transizione della fattura " + invoiceNumber + " da " + current
+                        + " a " + target + " non applicata con la riga bloccata"));
+        invoiceStatsRecorder.recordStatusChange(updated, current);
+        return InvoiceTransitionResult.applied(toInvoiceDto(updated, withBody));
+    }
+
+    private InvoiceDto toInvoiceDto(Invoice invoice, boolean withBody) {
+        Customer customer = customerCache.get(invoice.getCustomerId()).orElseThrow(
+                () -> new ResourceNotFoundException("Customer", "customerId", " for invoice " + invoice.getInvoiceNumber())
+        );
+        InvoiceDto invoiceDto = mapper.toInvoiceDto(invoice, customer);
+        invoiceDto.setInvoice(withBody ? invoiceBodyStore.read(invoice) : null);
+        return invoiceDto;
+    }
+
+    private Counter counter(InvoiceStatus target, InvoiceTransitionResult.Outcome outcome) {
+        return Counter.builder("dbmanager.invoice.transition")
+                .description("Transizioni di stato delle fatture per esito")
+                .tag("target", target.name())
+                .tag("outcome", outcome.name().toLowerCase())
+                .register(meterRegistry);
+    }
+}
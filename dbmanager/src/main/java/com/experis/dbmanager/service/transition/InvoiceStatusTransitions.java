@@ -0,0 +1,47 @@
+package com.experis.dbmanager.service.transition;
+
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.experis.dbmanager.enumerations.InvoiceStatus.*;
+
+/**
+ * Transizioni di stato ammesse per le fatture interne nella saga di invio a SdI, indicizzate per stato di arrivo.
+ * Conferma di invio (sentInvoice) e notifiche SdI viaggiano su topic diversi e possono arrivare in ordine inverso:
+ * l'esito SdI è ammesso anche da INTERNAL_INVOICE_TOBE_SENT, mentre una conferma di invio arrivata dopo l'esito
+ * viene scartata perché lo stato è già finale.
+ */
+public final class InvoiceStatusTransitions {
+
+    private static final Map<InvoiceStatus, Set<InvoiceStatus>> SOURCES = new EnumMap<>(InvoiceStatus.class);
+
+    static {
+        SOURCES.put(INTERNAL_INVOICE_TOBE_SENT, EnumSet.of(INTERNAL_INVOICE_NEW));
+        SOURCES.put(INTERNAL_INVOICE_SENT, EnumSet.of(INTERNAL_INVOICE_TOBE_SENT));
+        SOURCES.put(INTERNAL_INVOICE_NOT_SENT, EnumSet.of(INTERNAL_INVOICE_TOBE_SENT));
+        SOURCES.put(INTERNAL_INVOICE_DELIVERED, EnumSet.of(INTERNAL_INVOICE_TOBE_SENT, INTERNAL_INVOICE_SENT));
+        SOURCES.put(INTERNAL_INVOICE_DISCARDED, EnumSet.of(INTERNAL_INVOICE_TOBE_SENT, INTERNAL_INVOICE_SENT));
+        SOURCES.put(INTERNAL_INVOICE_NOT_DELIVERED, EnumSet.of(INTERNAL_INVOICE_TOBE_SENT, INTERNAL_INVOICE_SENT));
+        // Timeout della saga: nessuna risposta dal sender
+        SOURCES.put(INVOICE_ERROR, EnumSet.of(INTERNAL_INVOICE_TOBE_SENT));
+    }
+
+    private InvoiceStatusTransitions() {
+    }
+
+    /**
+     * @return stati da cui si può passare a target, vuoto se target non è raggiungibile con una transizione
+     */
+    public static Set<InvoiceStatus> sourcesOf(InvoiceStatus target) {
+        return Collections.unmodifiableSet(SOURCES.getOrDefault(target, EnumSet.noneOf(InvoiceStatus.class)));
+    }
+
+    public static boolean isAllowed(InvoiceStatus from, InvoiceStatus to) {
+        return sourcesOf(to).contains(from);
+    }
+}
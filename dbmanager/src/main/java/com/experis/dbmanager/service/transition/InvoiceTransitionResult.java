@@ -0,0 +1,30 @@
+package com.experis.dbmanager.service.transition;
+
+import com.experis.dbmanager.dto.InvoiceDto;
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+
+/**
+ * Esito di una transizione di stato.
+ *
+ * @param invoice       fattura aggiornata, valorizzata solo se la transizione è stata applicata
+ * @param currentStatus stato della fattura dopo il tentativo, null se la fattura non esiste
+ */
+public record InvoiceTransitionResult(Outcome outcome, InvoiceDto invoice, InvoiceStatus currentStatus) {
+
+    public enum Outcome {
+        APPLIED,
+        // La fattura è già nello stato richiesto (messaggio duplicato)
+        DUPLICATE,
+        // Transizione non ammessa dallo stato attuale (messaggio fuori ordine o stantio)
+        REJECTED,
+        NOT_FOUND
+    }
+
+    public static InvoiceTransitionResult applied(InvoiceDto invoice) {
+        return new InvoiceTransitionResult(Outcome.APPLIED, invoice, invoice.getInvoiceStatus());
+    }
+
+    public boolean isApplied() {
+        return outcome == Outcome.APPLIED;
+    }
+}
@@ -0,0 +1,105 @@
+package com.experis.dbmanager.shard;
+
+import org.hibernate.HibernateException;
+import org.hibernate.boot.model.naming.Identifier;
+import org.hibernate.boot.model.relational.Database;
+import org.hibernate.boot.model.relational.Namespace;
+import org.hibernate.boot.model.relational.QualifiedSequenceName;
+import org.hibernate.boot.model.relational.Sequence;
+import org.hibernate.boot.model.relational.SqlStringGenerationContext;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.factory.spi.CustomIdGeneratorCreationContext;
+
+import java.lang.reflect.Member;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Numeri fattura assegnati prima dell'insert (gli insert restano in batch JDBC), a blocchi come l'optimizer
+ * pooled di Hibernate: il valore v della sequenza riserva il blocco [v - allocationSize + 1, v].
+ * La sequenza è letta sulla connessione della sessione, cioè sullo shard corrente, e ogni shard ha il proprio
+ * blocco in memoria: un progressivo di uno shard non finisce mai in una fattura di un altro.
+ * Come per {@code @SequenceGenerator} la sequenza è registrata nel modello relazionale di Hibernate, quindi
+ * {@code ddl-auto} la crea (database dei test) e lo statement di lettura è quello del dialetto.
+ */
+public class InvoiceNumberGenerator implements IdentifierGenerator {
+
+    private final String sequenceName;
+    private final int allocationSize;
+    private final Map<Integer, Block> blocks = new ConcurrentHashMap<>();
+    private QualifiedSequenceName physicalSequenceName;
+    private String nextValueSql;
+
+    public InvoiceNumberGenerator(ShardedInvoiceNumber config, Member member, CustomIdGeneratorCreationContext context) {
+        this.sequenceName = config.sequenceName();
+        this.allocationSize = config.allocationSize();
+    }
+
+    // Come SequenceStructure di Hibernate: la sequenza entra nello schema esportato (ddl-auto, schema validation)
+    @Override
+    public void registerExportables(Database database) {
+        Namespace namespace = database.getDefaultNamespace();
+        Identifier logicalName = database.toIdentifier(sequenceName);
+        Sequence sequence = namespace.locateSequence(logicalName);
+        if (sequence != null) {
+            sequence.validate(1, allocationSize);
+        } else {
+            sequence = namespace.createSequence(logicalName, physicalName -> new Sequence(
+                    null, namespace.getPhysicalName().getCatalog(), namespace.getPhysicalName().getSchema(),
+                    physicalName, 1, allocationSize));
+        }
+        this.physicalSequenceName = sequence.getName();
+    }
+
+    @Override
+    public void initialize(SqlStringGenerationContext context) {
+        this.nextValueSql = context.getDialect().getSequenceSupport()
+                .getSequenceNextValString(context.format(physicalSequenceName));
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object object) {
+        int shard = ShardContext.current();
+        Block block = blocks.computeIfAbsent(shard, s -> new Block());
+        long local;
+        synchronized (block) {
+            if (block.next > block.last) {
+                long value = nextValue(session);
+                block.next = Math.max(1, value - allocationSize + 1);
+                block.last = value;
+            }
+            local = block.next++;
+        }
+        return InvoiceNumbers.of(shard, local);
+    }
+
+    // Come SequenceStructure di Hibernate: statement sulla connessione della sessione, senza flush
+    private long nextValue(SharedSessionContractImplementor session) {
+        JdbcCoordinator jdbcCoordinator = session.getJdbcCoordinator();
+        PreparedStatement statement = jdbcCoordinator.getStatementPreparer().prepareStatement(nextValueSql);
+        try {
+            ResultSet resultSet = jdbcCoordinator.getResultSetReturn().extract(statement, nextValueSql);
+            try {
+                resultSet.next();
+                return resultSet.getLong(1);
+            } finally {
+                jdbcCoordinator.getLogicalConnection().getResourceRegistry().release(resultSet, statement);
+            }
+        } catch (SQLException e) {
+            throw new HibernateException("Lettura di " + nextValueSql + " fallita", e);
+        } finally {
+            jdbcCoordinator.getLogicalConnection().getResourceRegistry().release(statement);
+            jdbcCoordinator.afterStatementExecution();
+        }
+    }
+
+    private static final class Block {
+        private long next = 1;
+        private long last = 0;
+    }
+}
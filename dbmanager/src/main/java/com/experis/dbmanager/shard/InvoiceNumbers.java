@@ -0,0 +1,30 @@
+package com.experis.dbmanager.shard;
+
+/**
+ * Numeri fattura a 64 bit che contengono lo shard: {@code shard << 48 | progressivo dello shard}.
+ * Lo shard 0 ha i numeri di sempre (progressivo senza bit di shard), quindi le fatture già salvate restano valide.
+ * Con al più {@link #MAX_SHARDS} shard i numeri restano sotto 2^53 e sono esatti anche nei client JavaScript.
+ */
+public final class InvoiceNumbers {
+
+    public static final int MAX_SHARDS = 32;
+    static final int SHARD_SHIFT = 48;
+    static final long MAX_LOCAL = (1L << SHARD_SHIFT) - 1;
+
+    private InvoiceNumbers() {
+    }
+
+    public static long of(int shard, long local) {
+        if (shard < 0 || shard >= MAX_SHARDS) {
+            throw new IllegalArgumentException("Shard " + shard + " fuori dall'intervallo 0-" + (MAX_SHARDS - 1));
+        }
+        if (local < 1 || local > MAX_LOCAL) {
+            throw new IllegalStateException("Progressivo " + local + " dello shard " + shard + " fuori dall'intervallo ammesso");
+        }
+        return (long) shard << SHARD_SHIFT | local;
+    }
+
+    public static int shardOf(long invoiceNumber) {
+        return (int) (invoiceNumber >>> SHARD_SHIFT);
+    }
+}
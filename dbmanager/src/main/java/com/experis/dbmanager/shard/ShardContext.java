@@ -0,0 +1,38 @@
+package com.experis.dbmanager.shard;
+
+/**
+ * Shard del thread corrente, letto da {@link com.experis.dbmanager.config.ShardRoutingDataSource} quando la
+ * transazione prende la connessione. Va impostato prima di aprire la transazione, tramite {@link ShardRouter}.
+ * Senza shard impostato si usa lo shard globale (0), che contiene anche i clienti.
+ */
+public final class ShardContext {
+
+    public static final int GLOBAL = 0;
+
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    private ShardContext() {
+    }
+
+    public static int current() {
+        Integer shard = CURRENT.get();
+        return shard == null ? GLOBAL : shard;
+    }
+
+    /**
+     * @return shard impostato in precedenza, da ripristinare con {@link #restore}
+     */
+    static Integer set(int shard) {
+        Integer previous = CURRENT.get();
+        CURRENT.set(shard);
+        return previous;
+    }
+
+    static void restore(Integer previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.experis.dbmanager.shard;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Instradamento delle fatture sugli shard ({@code app.sharding}): il cliente determina lo shard delle sue fatture
+ * ({@code customerId mod shard}), il numero fattura contiene lo shard in cui è salvata ({@link InvoiceNumbers}).
+ * Il lavoro su uno shard va eseguito con {@link #call}/{@link #inTransaction}, che impostano {@link ShardContext}
+ * prima che la transazione prenda la connessione. Le liste sono lette da tutti gli shard in parallelo
+ * ({@link #fanOut}) e unite rispettando l'ordinamento; i job in background girano su ogni shard ({@link #forEachShard}).
+ * Con lo sharding disattivato c'è un solo shard e tutti i metodi eseguono direttamente il lavoro.
+ */
+@Component
+@Slf4j
+public class ShardRouter {
+
+    private final int shardCount;
+    private final TransactionTemplate readWrite;
+    private final TransactionTemplate readOnly;
+    private final TransactionTemplate globalRead;
+    private final ExecutorService fanOutExecutor;
+
+    public ShardRouter(PlatformTransactionManager transactionManager,
+                       @Value("${app.sharding.enabled:false}") boolean enabled,
+                       @Value("${app.sharding.shard-urls:}") List<String> shardUrls) {
+        this.shardCount = enabled ? 1 + shardUrls.size() : 1;
+        if (shardCount > InvoiceNumbers.MAX_SHARDS) {
+            throw new IllegalStateException("Al più " + InvoiceNumbers.MAX_SHARDS + " shard, configurati " + shardCount);
+        }
+        this.readWrite = new TransactionTemplate(transactionManager);
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.globalRead = new TransactionTemplate(transactionManager);
+        this.globalRead.setReadOnly(true);
+        this.globalRead.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.fanOutExecutor = shardCount > 1 ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        if (enabled) {
+            log.info("Fatture distribuite su {} shard", shardCount);
+        }
+    }
+
+    public int shardCount() {
+        return shardCount;
+    }
+
+    public boolean isSharded() {
+        return shardCount > 1;
+    }
+
+    public int shardOfCustomer(int customerId) {
+        return Math.floorMod(customerId, shardCount);
+    }
+
+    /**
+     * Shard in cui è salvata la fattura; per numeri di shard non configurati lo shard globale, dove non esistono.
+     */
+    public int shardOfInvoice(long invoiceNumber) {
+        int shard = InvoiceNumbers.shardOf(invoiceNumber);
+        return shard < shardCount ? shard : ShardContext.GLOBAL;
+    }
+
+    /**
+     * Esegue il lavoro sullo shard indicato. Dentro una transazione già aperta è ammesso solo lo stesso shard:
+     * la connessione della transazione è già presa.
+     */
+    public <T> T call(int shard, Supplier<T> work) {
+        if (shardCount == 1) {
+            return work.get();
+        }
+        int current = ShardContext.current();
+        if (shard == current) {
+            return work.get();
+        }
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Transazione aperta sullo shard " + current + ", richiesto lo shard " + shard);
+        }
+        Integer previous = ShardContext.set(shard);
+        try {
+            return work.get();
+        } finally {
+            ShardContext.restore(previous);
+        }
+    }
+
+    public void run(int shard, Runnable work) {
+        call(shard, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Transazione sullo shard; se è già aperta una transazione sullo stesso shard il lavoro vi partecipa.
+     */
+    public <T> T inTransaction(int shard, Supplier<T> work) {
+        return call(shard, () -> readWrite.execute(tx -> work.get()));
+    }
+
+    public <T> T inReadOnlyTransaction(int shard, Supplier<T> work) {
+        return call(shard, () -> readOnly.execute(tx -> work.get()));
+    }
+
+    /**
+     * Letture dei dati globali (clienti) dallo shard 0, anche da una transazione aperta su un altro shard:
+     * in quel caso la lettura avviene in una transazione read-only separata.
+     */
+    public <T> T readGlobal(Supplier<T> work) {
+        if (shardCount == 1 || ShardContext.current() == ShardContext.GLOBAL) {
+            return work.get();
+        }
+        Integer previous = ShardContext.set(ShardContext.GLOBAL);
+        try {
+            return globalRead.execute(tx -> work.get());
+        } finally {
+            ShardContext.restore(previous);
+        }
+    }
+
+    /**
+     * Esegue il lavoro su ogni shard, uno dopo l'altro (sweeper, relay, manutenzione).
+     */
+    public void forEachShard(IntConsumer work) {
+        for (int shard = 0; shard < shardCount; shard++) {
+            int target = shard;
+            run(target, () -> work.accept(target));
+        }
+    }
+
+    /**
+     * Esegue la lettura su tutti gli shard in parallelo (virtual thread); i risultati sono nell'ordine degli shard.
+     */
+    public <T> List<T> fanOut(IntFunction<T> work) {
+        if (shardCount == 1) {
+            return List.of(work.apply(ShardContext.GLOBAL));
+        }
+        List<Future<T>> futures = new ArrayList<>(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            int target = shard;
+            futures.add(fanOutExecutor.submit(() -> call(target, () -> work.apply(target))));
+        }
+        List<T> results = new ArrayList<>(shardCount);
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                futures.forEach(f -> f.cancel(true));
+                if (e.getCause() instanceof RuntimeException runtime) {
+                    throw runtime;
+                }
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                futures.forEach(f -> f.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Lettura dagli shard interrotta", e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Pagina a offset su tutti gli shard: ogni shard restituisce le prime (pagina + 1) * size righe nello stesso
+     * ordinamento, le righe sono unite e si tiene la finestra richiesta. Il costo cresce con il numero di pagina:
+     * per scorrere molte pagine c'è la paginazione a cursore.
+     */
+    public <T> Page<T> mergePages(Pageable pageable, Comparator<? super T> order, BiFunction<Integer, Pageable, Page<T>> query) {
+        if (shardCount == 1) {
+            return query.apply(ShardContext.GLOBAL, pageable);
+        }
+        Pageable head = pageable.isPaged()
+                ? PageRequest.of(0, (int) Math.min(Integer.MAX_VALUE, pageable.getOffset() + pageable.getPageSize()), pageable.getSort())
+                : pageable;
+        List<Page<T>> pages = fanOut(shard -> query.apply(shard, head));
+        List<List<T>> rows = new ArrayList<>(pages.size());
+        long total = 0;
+        for (Page<T> page : pages) {
+            rows.add(page.getContent());
+            total += page.getTotalElements();
+        }
+        List<T> merged = mergeSorted(rows, order, Integer.MAX_VALUE);
+        if (pageable.isUnpaged()) {
+            return new PageImpl<>(merged, pageable, total);
+        }
+        int from = (int) Math.min(pageable.getOffset(), merged.size());
+        int to = Math.min(from + pageable.getPageSize(), merged.size());
+        return new PageImpl<>(new ArrayList<>(merged.subList(from, to)), pageable, total);
+    }
+
+    /**
+     * Unisce liste già ordinate (una per shard) mantenendo l'ordinamento; a parità di chiave vale l'ordine degli
+     * shard, quindi senza ordinamento le righe restano raggruppate per shard.
+     */
+    public static <T> List<T> mergeSorted(List<List<T>> sortedLists, Comparator<? super T> order, int limit) {
+        List<T> merged = new ArrayList<>();
+        sortedLists.forEach(merged::addAll);
+        // Ordinamento stabile: a parità di chiave resta l'ordine di shard e di riga
+        merged.sort(order);
+        return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+    }
+
+    /**
+     * Comparatore equivalente al Sort di una Pageable sulle proprietà delle righe (entity o DTO);
+     * senza ordinamento tutte le righe sono uguali e l'unione le lascia raggruppate per shard.
+     */
+    public static <T> Comparator<T> comparator(Sort sort) {
+        Comparator<T> comparator = (a, b) -> 0;
+        for (Sort.Order order : sort) {
+            Comparator<Comparable<Object>> values = order.getNullHandling() == Sort.NullHandling.NULLS_FIRST
+                    ? Comparator.nullsFirst(Comparator.naturalOrder())
+                    : Comparator.nullsLast(Comparator.naturalOrder());
+            Comparator<T> property = Comparator.comparing(row -> property(row, order.getProperty()), values);
+            comparator = comparator.thenComparing(order.isAscending() ? property : property.reversed());
+        }
+        return comparator;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Comparable<Object> property(Object row, String name) {
+        BeanWrapper wrapper = PropertyAccessorFactory.forBeanPropertyAccess(row);
+        return (Comparable<Object>) wrapper.getPropertyValue(name);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (fanOutExecutor != null) {
+            fanOutExecutor.shutdownNow();
+        }
+    }
+}
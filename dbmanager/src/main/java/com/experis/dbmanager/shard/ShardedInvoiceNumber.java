@@ -0,0 +1,25 @@
+package com.experis.dbmanager.shard;
+
+import org.hibernate.annotations.IdGeneratorType;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Id generato da {@link InvoiceNumberGenerator}: progressivo dalla sequenza dello shard corrente, a blocchi,
+ * con lo shard nei bit alti (vedi {@link InvoiceNumbers}).
+ */
+@IdGeneratorType(InvoiceNumberGenerator.class)
+@Retention(RUNTIME)
+@Target({FIELD, METHOD})
+public @interface ShardedInvoiceNumber {
+
+    String sequenceName() default "invoice_number_seq";
+
+    // Uguale all'INCREMENT BY della sequenza
+    int allocationSize() default 50;
+}
@@ -0,0 +1,8 @@
+-- Numeri fattura a 64 bit, con lo shard nei bit alti (app.sharding, InvoiceNumbers).
+-- Riscrive le tabelle: va eseguita in una finestra di manutenzione sui database con molte fatture
+ALTER TABLE invoice ALTER COLUMN invoice_number TYPE bigint;
+ALTER TABLE invoice_body ALTER COLUMN invoice_number TYPE bigint;
+ALTER TABLE invoice_search ALTER COLUMN invoice_number TYPE bigint;
+-- I 16 bit alti sono lo shard: la sequenza riparte dopo l'ultimo progressivo locale (48 bit bassi)
+SELECT setval('invoice_number_seq', GREATEST((SELECT COALESCE(MAX(invoice_number & 281474976710655), 1) FROM invoice),
+                                             (SELECT last_value FROM invoice_number_seq)));
@@ -0,0 +1,5 @@
+-- Bucket per chiave dell'evento (app.outbox.buckets): OutboxRelay pubblica un bucket da una sola istanza alla volta,
+-- così gli eventi di una chiave escono nell'ordine di scrittura anche con più repliche di dbmanager.
+-- Gli eventi scritti prima della migrazione restano nel bucket 0
+ALTER TABLE outbox_event ADD COLUMN IF NOT EXISTS bucket smallint NOT NULL DEFAULT 0;
+CREATE INDEX IF NOT EXISTS IDX_OUTBOX_EVENT_BUCKET_ID ON outbox_event (bucket, id);
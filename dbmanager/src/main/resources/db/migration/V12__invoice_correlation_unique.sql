@@ -0,0 +1,8 @@
+-- Una fattura per cliente e correlation id: la riconsegna di un poll Kafka non può salvarla due volte.
+-- I duplicati già presenti (riconsegne precedenti) tengono la fattura più vecchia; alle altre
+-- il correlation id viene reso univoco con il numero fattura
+UPDATE invoice i SET correlation_id = LEFT(i.correlation_id, 75) || '#dup-' || i.invoice_number
+WHERE EXISTS (SELECT 1 FROM invoice o
+              WHERE o.customer_id = i.customer_id AND o.correlation_id = i.correlation_id
+                AND o.invoice_number < i.invoice_number);
+ALTER TABLE invoice ADD CONSTRAINT UQ_INVOICE_CUSTOMER_CORRELATION UNIQUE (customer_id, correlation_id);
@@ -1,3 +1,5 @@
+-- Schema iniziale (docker-entrypoint-initdb.d/init.sql prima delle migrazioni Flyway).
+-- I database già esistenti partono da questa versione (spring.flyway.baseline-on-migrate) e ricevono solo le successive.
 CREATE TABLE IF NOT EXISTS customer (
   customer_id int GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
   username varchar(100) NOT NULL,
@@ -28,7 +30,7 @@ CREATE TABLE IF NOT EXISTS invoice (
   updated_by varchar(20) DEFAULT NULL,
   status_last_updated_at date DEFAULT NULL,
   callback varchar(256) DEFAULT NULL,
-  correlation_id varchar(100) NOT NULL,
+  correlation_id varchar(100) NOT NULL
 );
 
 -- Indexes for invoice table
@@ -0,0 +1,3 @@
+-- Claim check: il corpo XML può essere nel blob store, con il solo riferimento in invoice_ref
+ALTER TABLE invoice ADD COLUMN IF NOT EXISTS invoice_ref varchar(80) DEFAULT NULL;
+ALTER TABLE invoice ALTER COLUMN invoice DROP NOT NULL;
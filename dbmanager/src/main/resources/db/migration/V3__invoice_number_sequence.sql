@@ -0,0 +1,7 @@
+-- Da IDENTITY alla sequenza con incremento pari all'allocationSize dell'entity Invoice (id assegnati a blocchi)
+CREATE SEQUENCE IF NOT EXISTS invoice_number_seq INCREMENT BY 50;
+ALTER TABLE invoice ALTER COLUMN invoice_number DROP IDENTITY IF EXISTS;
+ALTER TABLE invoice ALTER COLUMN invoice_number SET DEFAULT nextval('invoice_number_seq');
+-- La sequenza riparte dopo l'ultimo numero assegnato
+SELECT setval('invoice_number_seq', GREATEST((SELECT COALESCE(MAX(invoice_number), 1) FROM invoice),
+                                             (SELECT last_value FROM invoice_number_seq)));
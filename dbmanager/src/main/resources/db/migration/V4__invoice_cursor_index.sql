@@ -0,0 +1,2 @@
+-- Seek della paginazione a cursore per data di creazione
+CREATE INDEX IF NOT EXISTS IDX_INVOICE_CREATED_AT_NUMBER ON invoice (created_at, invoice_number);
@@ -0,0 +1,15 @@
+-- Corpo XML compresso in tabella separata (app.invoice-body.storage=compressed)
+ALTER TABLE invoice ADD COLUMN IF NOT EXISTS body_codec varchar(32) DEFAULT NULL;
+
+-- Il corpo è nella colonna invoice, nel blob store (claim check) oppure compresso in invoice_body
+ALTER TABLE invoice DROP CONSTRAINT IF EXISTS CK_INVOICE_BODY;
+ALTER TABLE invoice ADD CONSTRAINT CK_INVOICE_BODY CHECK (invoice IS NOT NULL OR invoice_ref IS NOT NULL OR body_codec IS NOT NULL);
+
+CREATE TABLE IF NOT EXISTS invoice_body (
+  invoice_number int PRIMARY KEY REFERENCES invoice (invoice_number) ON DELETE CASCADE,
+  codec varchar(32) NOT NULL,
+  original_length int NOT NULL,
+  body bytea NOT NULL
+);
+-- Il corpo è già compresso: niente ricompressione pglz nel TOAST
+ALTER TABLE invoice_body ALTER COLUMN body SET STORAGE EXTERNAL;
@@ -0,0 +1,8 @@
+-- Transactional outbox: eventi Kafka scritti nella transazione della fattura, pubblicati e cancellati da OutboxRelay
+CREATE TABLE IF NOT EXISTS outbox_event (
+  id bigserial PRIMARY KEY,
+  destination varchar(255) NOT NULL,
+  message_key varchar(100) DEFAULT NULL,
+  payload TEXT NOT NULL,
+  created_at timestamp NOT NULL
+);
@@ -0,0 +1,4 @@
+-- Istante dell'ultimo cambio di stato (usato dallo sweeper dei timeout), valorizzato anche all'insert
+ALTER TABLE invoice ALTER COLUMN status_last_updated_at TYPE timestamp;
+ALTER TABLE invoice ALTER COLUMN status_last_updated_at SET DEFAULT now();
+UPDATE invoice SET status_last_updated_at = created_at WHERE invoice_status = 'INTERNAL_INVOICE_TOBE_SENT' AND status_last_updated_at IS NULL;
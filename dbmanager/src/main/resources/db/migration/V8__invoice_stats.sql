@@ -0,0 +1,21 @@
+-- Statistiche per giorno di creazione, cliente e stato. Chi scrive aggiunge solo delta (nessuna riga contesa);
+-- InvoiceStatsMaintenance li somma in invoice_stats e riallinea i giorni recenti con la tabella invoice
+CREATE TABLE IF NOT EXISTS invoice_stats_delta (
+  id bigserial PRIMARY KEY,
+  stat_day date NOT NULL,
+  customer_id int NOT NULL,
+  invoice_status varchar(50) NOT NULL,
+  delta int NOT NULL
+);
+CREATE INDEX IF NOT EXISTS IDX_INVOICE_STATS_DELTA_DAY ON invoice_stats_delta (stat_day);
+
+CREATE TABLE IF NOT EXISTS invoice_stats (
+  stat_day date NOT NULL,
+  customer_id int NOT NULL,
+  invoice_status varchar(50) NOT NULL,
+  invoice_count bigint NOT NULL,
+  updated_at timestamp NOT NULL,
+  PRIMARY KEY (stat_day, customer_id, invoice_status)
+);
+-- Refresh incrementale della copia in memoria
+CREATE INDEX IF NOT EXISTS IDX_INVOICE_STATS_UPDATED_AT ON invoice_stats (updated_at);
@@ -0,0 +1,20 @@
+-- Campi FatturaPA estratti dal corpo al salvataggio e tsvector dei valori del corpo, per GET /api/invoices/search.
+-- Le fatture già salvate sono indicizzate da InvoiceSearchBackfill (app.invoice-search.backfill.enabled)
+CREATE TABLE IF NOT EXISTS invoice_search (
+  invoice_number int PRIMARY KEY REFERENCES invoice (invoice_number) ON DELETE CASCADE,
+  supplier_vat varchar(30) DEFAULT NULL,
+  supplier_name varchar(200) DEFAULT NULL,
+  customer_vat varchar(30) DEFAULT NULL,
+  customer_tax_code varchar(30) DEFAULT NULL,
+  customer_name varchar(200) DEFAULT NULL,
+  document_number varchar(50) DEFAULT NULL,
+  document_date date DEFAULT NULL,
+  total_amount numeric(15, 2) DEFAULT NULL,
+  search_vector tsvector NOT NULL
+);
+CREATE INDEX IF NOT EXISTS IDX_INVOICE_SEARCH_SUPPLIER_VAT ON invoice_search (supplier_vat);
+CREATE INDEX IF NOT EXISTS IDX_INVOICE_SEARCH_CUSTOMER_VAT ON invoice_search (customer_vat);
+CREATE INDEX IF NOT EXISTS IDX_INVOICE_SEARCH_CUSTOMER_TAX_CODE ON invoice_search (customer_tax_code);
+CREATE INDEX IF NOT EXISTS IDX_INVOICE_SEARCH_DOCUMENT_NUMBER ON invoice_search (document_number);
+CREATE INDEX IF NOT EXISTS IDX_INVOICE_SEARCH_TOTAL_AMOUNT ON invoice_search (total_amount);
+CREATE INDEX IF NOT EXISTS IDX_INVOICE_SEARCH_VECTOR ON invoice_search USING GIN (search_vector);
@@ -0,0 +1,58 @@
+package com.experis.dbmanager.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class ReplicaRoutingDataSourceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void withoutLagMeasurements_shouldReadFromPrimary() {
+        ReplicaRoutingDataSource dataSource = routing();
+
+        assertEquals(ReplicaRoutingDataSource.PRIMARY, dataSource.determineCurrentLookupKey());
+    }
+
+    @Test
+    void shouldRotateAmongUsableReplicas() {
+        ReplicaRoutingDataSource dataSource = routing();
+        dataSource.updateReplica("replica-1", 10L);
+        dataSource.updateReplica("replica-2", 0L);
+
+        Object first = dataSource.determineCurrentLookupKey();
+        Object second = dataSource.determineCurrentLookupKey();
+
+        assertNotEquals(first, second);
+        assertTrue(first.toString().startsWith("replica-"));
+        assertTrue(second.toString().startsWith("replica-"));
+    }
+
+    @Test
+    void laggingOrUnreachableReplicas_shouldFallBackToPrimary() {
+        ReplicaRoutingDataSource dataSource = routing();
+        dataSource.updateReplica("replica-1", 60_000L);
+        dataSource.updateReplica("replica-2", 0L);
+        assertEquals("replica-2", dataSource.determineCurrentLookupKey());
+
+        dataSource.updateReplica("replica-2", null);
+
+        assertEquals(ReplicaRoutingDataSource.PRIMARY, dataSource.determineCurrentLookupKey());
+        assertEquals(1.0, meterRegistry.get("dbmanager.datasource.read.routed").tag("target", "primary").counter().count());
+        assertEquals(60.0, meterRegistry.get("dbmanager.datasource.replica.lag").tag("replica", "replica-1").gauge().value());
+    }
+
+    private ReplicaRoutingDataSource routing() {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        replicas.put("replica-1", mock(DataSource.class));
+        replicas.put("replica-2", mock(DataSource.class));
+        return new ReplicaRoutingDataSource(mock(DataSource.class), replicas, 5000, meterRegistry);
+    }
+}
@@ -0,0 +1,91 @@
+package com.experis.dbmanager.config;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.PoolStats;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RepositoryObservationInterceptorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    interface SampleRepository {
+        List<String> findAll(String name);
+
+        void fail();
+    }
+
+    @Test
+    void invoke_shouldRecordDurationRowsAndConnectionAcquire() {
+        IMetricsTracker tracker = new ConnectionAcquireTrackerFactory(meterRegistry).create("primary", new PoolStats(0) {
+            @Override
+            protected void update() {
+            }
+        });
+        SampleRepository repository = proxy(new SampleRepository() {
+            @Override
+            public List<String> findAll(String name) {
+                tracker.recordConnectionAcquiredNanos(TimeUnit.MILLISECONDS.toNanos(3));
+                return List.of("a", "b");
+            }
+
+            @Override
+            public void fail() {
+                throw new IllegalStateException("errore");
+            }
+        });
+
+        repository.findAll("x");
+        assertThrows(IllegalStateException.class, repository::fail);
+
+        assertEquals(1, meterRegistry.get("dbmanager.repository.invocations")
+                .tags("repository", "SampleRepository", "method", "findAll", "outcome", "success").timer().count());
+        assertEquals(1, meterRegistry.get("dbmanager.repository.invocations")
+                .tags("method", "fail", "outcome", "error").timer().count());
+        assertEquals(2.0, meterRegistry.get("dbmanager.repository.rows").tag("method", "findAll").summary().totalAmount());
+        assertEquals(3.0, meterRegistry.get("dbmanager.repository.connection.acquire").tag("method", "findAll")
+                .timer().totalTime(TimeUnit.MILLISECONDS), 0.001);
+        // Tutto oltre la soglia di 0 ms: query lente contate anche se il record è campionato
+        assertEquals(1.0, meterRegistry.get("dbmanager.repository.slow").tag("method", "findAll").counter().count());
+    }
+
+    @Test
+    void countRows_shouldHandleRepositoryResultTypes() {
+        assertEquals(3, RepositoryObservationInterceptor.countRows(List.of(1, 2, 3)));
+        assertEquals(2, RepositoryObservationInterceptor.countRows(new PageImpl<>(List.of(1, 2), PageRequest.of(0, 10), 50)));
+        assertEquals(0, RepositoryObservationInterceptor.countRows(Optional.empty()));
+        assertEquals(1, RepositoryObservationInterceptor.countRows(new Object()));
+        assertEquals(-1, RepositoryObservationInterceptor.countRows(5L));
+    }
+
+    @Test
+    void describeArgs_shouldSummarizeParameters() {
+        String longText = "x".repeat(RepositoryObservationInterceptor.MAX_ARG_LENGTH + 10);
+
+        String described = RepositoryObservationInterceptor.describeArgs(
+                new Object[]{42, null, LocalDate.of(2024, 5, 1), List.of(1, 2), PageRequest.of(1, 20), longText, new StringBuilder("ok")});
+
+        assertTrue(described.startsWith("[42, null, 2024-05-01, "));
+        assertTrue(described.contains("(2)"));
+        assertTrue(described.contains("page 1 size 20"));
+        assertTrue(described.contains("...(" + longText.length() + ")"));
+        assertFalse(described.contains(longText));
+    }
+
+    private SampleRepository proxy(SampleRepository target) {
+        ProxyFactory proxyFactory = new ProxyFactory(target);
+        proxyFactory.addInterface(SampleRepository.class);
+        proxyFactory.addAdvice(new RepositoryObservationInterceptor("SampleRepository", () -> meterRegistry, 0, 60_000));
+        return (SampleRepository) proxyFactory.getProxy();
+    }
+}
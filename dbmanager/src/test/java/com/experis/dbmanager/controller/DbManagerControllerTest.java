@@ -187,7 +187,7 @@ class DbManagerControllerTest {
                 InvoiceDto.class,
                 savedCustomer.getCustomerId()
         );
-        int newInvoiceNumber = createResponse.getBody().getInvoiceNumber();
+        long newInvoiceNumber = createResponse.getBody().getInvoiceNumber();
 
         // Ora cercala
         ResponseEntity<InvoiceDto> findResponse = restTemplate.getForEntity(
@@ -0,0 +1,27 @@
+package com.experis.dbmanager.service;
+
+import com.experis.dbmanager.exception.InvalidCursorException;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvoiceCursorTest {
+
+    @Test
+    void encode_shouldRoundTrip() {
+        InvoiceCursor byDate = new InvoiceCursor(LocalDateTime.of(2024, 5, 1, 10, 30), 42);
+        InvoiceCursor byNumber = new InvoiceCursor(null, 7);
+
+        assertEquals(byDate, InvoiceCursor.decode(byDate.encode()));
+        assertEquals(byNumber, InvoiceCursor.decode(byNumber.encode()));
+    }
+
+    @Test
+    void decode_shouldRejectTamperedCursor() {
+        assertThrows(InvalidCursorException.class, () -> InvoiceCursor.decode("not a cursor!"));
+        assertThrows(InvalidCursorException.class, () -> InvoiceCursor.decode("bm9zZXBhcmF0b3I"));
+        assertThrows(InvalidCursorException.class, () -> InvoiceCursor.decode(new InvoiceCursor(null, 1).encode() + "!"));
+    }
+}
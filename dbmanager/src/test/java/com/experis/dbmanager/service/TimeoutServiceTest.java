@@ -0,0 +1,91 @@
+package com.experis.dbmanager.service;
+
+import com.experis.dbmanager.dto.InvoiceDto;
+import com.experis.dbmanager.entity.InvoiceBody;
+import com.experis.dbmanager.service.body.InvoiceBodyStore;
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+import com.experis.dbmanager.service.outbox.OutboxPublisher;
+import com.experis.dbmanager.service.stats.InvoiceStatsRecorder;
+import com.experis.dbmanager.shard.ShardRouter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class TimeoutServiceTest {
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final OutboxPublisher outboxPublisher = mock(OutboxPublisher.class);
+    private final TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+    private final ShardRouter shardRouter = new ShardRouter(mock(PlatformTransactionManager.class), false, List.of());
+    private final InvoiceBodyStore invoiceBodyStore = mock(InvoiceBodyStore.class);
+    private final InvoiceStatsRecorder invoiceStatsRecorder = mock(InvoiceStatsRecorder.class);
+
+    @Test
+    void constructor_shouldRejectStatusesThatCannotTimeOut() {
+        assertThrows(IllegalStateException.class, () -> service(Map.of("INTERNAL_INVOICE_DELIVERED", 5L), 10));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void checkForTimedOutInvoices_shouldClaimBatchesUntilOneIsNotFull() {
+        List<InvoiceDto> fullBatch = Collections.nCopies(2, new InvoiceDto());
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(Object[].class)))
+                .thenReturn(fullBatch, fullBatch, List.of(new InvoiceDto()));
+
+        service(Map.of("INTERNAL_INVOICE_TOBE_SENT", 5L), 2).checkForTimedOutInvoices();
+
+        verify(jdbcTemplate, times(3)).query(anyString(), any(RowMapper.class), any(Object[].class));
+        verify(outboxPublisher, times(3)).publish(anyList());
+        verify(invoiceStatsRecorder, times(3)).recordStatusChanges(anyList(), eq(InvoiceStatus.INTERNAL_INVOICE_TOBE_SENT));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void checkForTimedOutInvoices_shouldSendBodyToBusinessDlt() throws Exception {
+        ArgumentCaptor<RowMapper<InvoiceDto>> mapper = ArgumentCaptor.forClass(RowMapper.class);
+        when(jdbcTemplate.query(anyString(), mapper.capture(), any(Object[].class))).thenReturn(List.of());
+        service(Map.of("INTERNAL_INVOICE_TOBE_SENT", 5L), 2).checkForTimedOutInvoices();
+
+        ResultSet text = row(7L, "<FatturaElettronica/>", null);
+        assertEquals("<FatturaElettronica/>", mapper.getValue().mapRow(text, 0).getInvoice());
+
+        byte[] compressed = {1, 2, 3};
+        when(invoiceBodyStore.decompress(any(InvoiceBody.class))).thenReturn("<FatturaElettronica/>");
+        ResultSet stored = row(8L, null, compressed);
+        assertEquals("<FatturaElettronica/>", mapper.getValue().mapRow(stored, 0).getInvoice());
+        verify(invoiceBodyStore).decompress(argThat(body -> body.getInvoiceNumber() == 8L && body.getBody() == compressed));
+    }
+
+    private static ResultSet row(long invoiceNumber, String invoice, byte[] compressedBody) throws SQLException {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getLong(1)).thenReturn(invoiceNumber);
+        when(rs.getTimestamp(6)).thenReturn(Timestamp.valueOf(LocalDateTime.now()));
+        when(rs.getString(7)).thenReturn(invoice);
+        when(rs.getBytes(10)).thenReturn(compressedBody);
+        return rs;
+    }
+
+    private TimeoutService service(Map<String, Long> minutesByStatus, int batchSize) {
+        return new TimeoutService(jdbcTemplate, transactionTemplate, outboxPublisher, invoiceBodyStore, invoiceStatsRecorder, shardRouter, new SimpleMeterRegistry(),
+                minutesByStatus, batchSize, 100);
+    }
+}
@@ -0,0 +1,75 @@
+package com.experis.dbmanager.service.body;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.core.io.ClassPathResource;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Spazio risparmiato e costo di scrittura/lettura del corpo compresso, con e senza dizionario FatturaPA,
+ * per documenti da 1KB a 1MB.
+ * Eseguire con: mvn -pl dbmanager test -Dtest=InvoiceBodyCodecBenchmark -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class InvoiceBodyCodecBenchmark {
+
+    private static final int[] SIZES = {1024, 10 * 1024, 100 * 1024, 1024 * 1024};
+    private static final long RUN_NANOS = 2_000_000_000L;
+
+    @Test
+    void ratioAndThroughput() throws Exception {
+        String sample = new ClassPathResource("fatturapa/IT01234567890_FPR01.xml").getContentAsString(StandardCharsets.UTF_8);
+        InvoiceBodyCodec[] codecs = {
+                new InvoiceBodyCodec("deflate", null, 6),
+                InvoiceBodyCodec.fatturaPa(1),
+                InvoiceBodyCodec.fatturaPa(6)
+        };
+        String[] names = {"deflate-6 senza dizionario", "deflate-fpa-1", "deflate-fpa-6"};
+        for (int size : SIZES) {
+            byte[] raw = withLines(sample, size).getBytes(StandardCharsets.UTF_8);
+            for (int c = 0; c < codecs.length; c++) {
+                InvoiceBodyCodec codec = codecs[c];
+                byte[] compressed = codec.compress(raw);
+                assertEquals(raw.length, codec.decompress(compressed, raw.length).getBytes(StandardCharsets.UTF_8).length);
+
+                double compressMbs = throughput(raw.length, () -> codec.compress(raw));
+                double decompressMbs = throughput(raw.length, () -> codec.decompress(compressed, raw.length));
+                System.out.printf("%8d KB %-28s %6.1f%% dello spazio, scrittura %8.1f MB/s, lettura %8.1f MB/s%n",
+                        raw.length / 1024, names[c], compressed.length * 100.0 / raw.length, compressMbs, decompressMbs);
+            }
+        }
+    }
+
+    private static double throughput(int bytes, Runnable operation) {
+        // Riscaldamento
+        long deadline = System.nanoTime() + RUN_NANOS / 4;
+        while (System.nanoTime() < deadline) {
+            operation.run();
+        }
+        long start = System.nanoTime();
+        long count = 0;
+        while (System.nanoTime() - start < RUN_NANOS) {
+            operation.run();
+            count++;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return count * (double) bytes / (1024 * 1024) / seconds;
+    }
+
+    // Replica le linee di dettaglio fino a raggiungere la dimensione richiesta
+    private static String withLines(String sample, int targetSize) {
+        String marker = "<DatiRiepilogo>";
+        int insertAt = sample.indexOf(marker);
+        StringBuilder document = new StringBuilder(targetSize + 1024).append(sample, 0, insertAt);
+        for (int line = 2; document.length() < targetSize; line++) {
+            document.append("<DettaglioLinee><NumeroLinea>").append(line)
+                    .append("</NumeroLinea><Descrizione>Servizio di consulenza ").append(line)
+                    .append("</Descrizione><Quantita>1.00</Quantita><PrezzoUnitario>100.00</PrezzoUnitario>")
+                    .append("<PrezzoTotale>100.00</PrezzoTotale><AliquotaIVA>22.00</AliquotaIVA></DettaglioLinee>\n      ");
+        }
+        return document.append(sample, insertAt, sample.length()).toString();
+    }
+}
@@ -0,0 +1,53 @@
+package com.experis.dbmanager.service.body;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvoiceBodyCodecTest {
+
+    private final InvoiceBodyCodec codec = InvoiceBodyCodec.fatturaPa(6);
+
+    @Test
+    void compress_shouldRoundTripFatturaPa() throws IOException {
+        String xml = sample();
+        byte[] compressed = codec.compress(xml);
+
+        assertEquals(xml, codec.decompress(compressed, xml.getBytes(StandardCharsets.UTF_8).length));
+    }
+
+    @Test
+    void decompress_shouldGrowBufferWhenOriginalLengthIsWrong() throws IOException {
+        String xml = sample();
+
+        assertEquals(xml, codec.decompress(codec.compress(xml), 1));
+    }
+
+    @Test
+    void compress_withDictionary_shouldBeSmallerThanPlainDeflate() throws IOException {
+        byte[] raw = sample().getBytes(StandardCharsets.UTF_8);
+        InvoiceBodyCodec plain = new InvoiceBodyCodec("deflate", null, 6);
+
+        int withDictionary = codec.compress(raw).length;
+        int withoutDictionary = plain.compress(raw).length;
+
+        assertTrue(withDictionary < withoutDictionary, withDictionary + " >= " + withoutDictionary);
+    }
+
+    @Test
+    void decompress_shouldRejectCorruptedBody() throws IOException {
+        byte[] compressed = codec.compress(sample());
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+
+        assertThrows(IllegalStateException.class, () -> codec.decompress(truncated, 0));
+    }
+
+    private static String sample() throws IOException {
+        return new ClassPathResource("fatturapa/IT01234567890_FPR01.xml").getContentAsString(StandardCharsets.UTF_8);
+    }
+}
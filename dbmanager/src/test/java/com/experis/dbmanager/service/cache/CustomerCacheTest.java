@@ -0,0 +1,100 @@
+package com.experis.dbmanager.service.cache;
+
+import com.experis.dbmanager.entity.Customer;
+import com.experis.dbmanager.repository.CustomerRepository;
+import com.experis.dbmanager.shard.ShardRouter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+class CustomerCacheTest {
+
+    private final CustomerRepository customerRepository = mock(CustomerRepository.class);
+    private final StreamBridge streamBridge = mock(StreamBridge.class);
+    private final ShardRouter shardRouter = new ShardRouter(mock(PlatformTransactionManager.class), false, List.of());
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void get_shouldHitDatabaseOnlyOnFirstRead() {
+        CustomerCache cache = new CustomerCache(customerRepository, streamBridge, shardRouter, true, 10, 60_000, false, meterRegistry);
+        when(customerRepository.findById(1)).thenReturn(Optional.of(customer(1)));
+
+        assertTrue(cache.get(1).isPresent());
+        assertTrue(cache.get(1).isPresent());
+
+        verify(customerRepository, times(1)).findById(1);
+        assertEquals(1, meterRegistry.counter("dbmanager.customer.cache.hits").count());
+        assertEquals(1, meterRegistry.counter("dbmanager.customer.cache.misses").count());
+    }
+
+    @Test
+    void get_shouldNotCacheMissingCustomers() {
+        CustomerCache cache = new CustomerCache(customerRepository, streamBridge, shardRouter, true, 10, 60_000, false, meterRegistry);
+        when(customerRepository.findById(anyInt())).thenReturn(Optional.empty());
+
+        assertTrue(cache.get(7).isEmpty());
+        assertTrue(cache.get(7).isEmpty());
+
+        verify(customerRepository, times(2)).findById(7);
+    }
+
+    @Test
+    void invalidate_shouldReloadAndBroadcast() {
+        CustomerCache cache = new CustomerCache(customerRepository, streamBridge, shardRouter, true, 10, 60_000, true, meterRegistry);
+        when(customerRepository.findById(1)).thenReturn(Optional.of(customer(1)));
+
+        cache.get(1);
+        cache.invalidate(1);
+        cache.get(1);
+
+        verify(customerRepository, times(2)).findById(1);
+        verify(streamBridge).send("customerInvalidation-out-0", 1);
+        assertEquals(1, meterRegistry.counter("dbmanager.customer.cache.evictions", "cause", "invalidated").count());
+    }
+
+    @Test
+    void get_shouldExpireAndEvictBySize() throws InterruptedException {
+        CustomerCache cache = new CustomerCache(customerRepository, streamBridge, shardRouter, true, 2, 1, false, meterRegistry);
+        when(customerRepository.findById(anyInt())).thenAnswer(invocation -> Optional.of(customer(invocation.getArgument(0))));
+
+        cache.get(1);
+        Thread.sleep(5);
+        cache.get(1);
+        assertEquals(1, meterRegistry.counter("dbmanager.customer.cache.evictions", "cause", "expired").count());
+
+        cache.get(2);
+        cache.get(3);
+        assertEquals(2, cache.size());
+        assertEquals(1, meterRegistry.counter("dbmanager.customer.cache.evictions", "cause", "size").count());
+    }
+
+    @Test
+    void getAll_shouldLoadOnlyMissingCustomersWithOneQuery() {
+        CustomerCache cache = new CustomerCache(customerRepository, streamBridge, shardRouter, true, 10, 60_000, false, meterRegistry);
+        when(customerRepository.findById(1)).thenReturn(Optional.of(customer(1)));
+        when(customerRepository.findAllById(List.of(2, 3))).thenReturn(List.of(customer(2)));
+
+        cache.get(1);
+        Map<Integer, Customer> customers = cache.getAll(List.of(1, 2, 3));
+
+        assertEquals(2, customers.size());
+        assertFalse(customers.containsKey(3));
+        verify(customerRepository, times(1)).findAllById(List.of(2, 3));
+    }
+
+    private static Customer customer(int customerId) {
+        Customer customer = new Customer();
+        customer.setCustomerId(customerId);
+        customer.setUsername("user" + customerId);
+        return customer;
+    }
+}
@@ -0,0 +1,242 @@
+package com.experis.dbmanager.service.consumer;
+
+import com.experis.dbmanager.dto.CustomerDto;
+import com.experis.dbmanager.dto.InvoiceDto;
+import com.experis.dbmanager.dto.SdiNotificationDto;
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+import com.experis.dbmanager.service.IDbManagerService;
+import com.experis.dbmanager.service.outbox.OutboxEvent;
+import com.experis.dbmanager.service.outbox.OutboxPublisher;
+import com.experis.dbmanager.service.transition.InvoiceStatusTransitionService;
+import com.experis.dbmanager.service.transition.InvoiceTransitionResult;
+import com.experis.dbmanager.shard.ShardRouter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.invocation.Invocation;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class KafkaConsumerServiceTest {
+
+    @Mock
+    private IDbManagerService dbManagerService;
+
+    @Mock
+    private StreamBridge streamBridge;
+
+    @Mock
+    private OutboxPublisher outboxPublisher;
+
+    @Spy
+    private TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+
+    @Mock
+    private InvoiceStatusTransitionService transitionService;
+
+    @Spy
+    private ShardRouter shardRouter = new ShardRouter(mock(PlatformTransactionManager.class), false, List.of());
+
+    @InjectMocks
+    private KafkaConsumerService kafkaConsumerService;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(dbManagerService.findUnsavedInvoices(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @Test
+    void processIncomingInvoices_shouldSaveWholeBatchOnceAndRouteByStatus() {
+        InvoiceDto internal = invoice(1, "corr-1", InvoiceStatus.INTERNAL_INVOICE_NEW);
+        InvoiceDto external = invoice(1, "corr-2", InvoiceStatus.EXTERNAL_INVOICE);
+        InvoiceDto unknownCustomer = invoice(99, "corr-3", InvoiceStatus.INTERNAL_INVOICE_NEW);
+        InvoiceDto missingCustomer = invoice(1, "corr-4", InvoiceStatus.INTERNAL_INVOICE_NEW);
+        missingCustomer.setCustomer(null);
+
+        when(dbManagerService.createInvoices(anyList())).thenAnswer(invocation -> {
+            List<InvoiceDto> batch = invocation.getArgument(0);
+            assertEquals(3, batch.size());
+            assertEquals(InvoiceStatus.INTERNAL_INVOICE_TOBE_SENT, batch.get(0).getInvoiceStatus());
+            assertEquals(InvoiceStatus.EXTERNAL_INVOICE, batch.get(1).getInvoiceStatus());
+            return List.of(
+                    invoice(1, "corr-1", InvoiceStatus.INTERNAL_INVOICE_TOBE_SENT),
+                    invoice(1, "corr-2", InvoiceStatus.EXTERNAL_INVOICE),
+                    invoice(99, "corr-3", InvoiceStatus.INTERNAL_INVOICE_INVALID));
+        });
+
+        kafkaConsumerService.processIncomingInvoices(List.of(internal, external, unknownCustomer, missingCustomer));
+
+        verify(dbManagerService, times(1)).createInvoices(anyList());
+        verify(outboxPublisher, times(1)).publish(anyList());
+        assertEquals(2, published("publishSavedInvoice-out-0"));
+        assertEquals(1, published("publishOutgoingInvoice-out-0"));
+        verify(streamBridge, never()).send(eq("publishIncomingInvoiceDlt-out-0"), any(InvoiceDto.class));
+    }
+
+    @Test
+    void processIncomingInvoices_whenBatchFails_shouldRetryOneByOneAndSendFailuresToDlt() {
+        InvoiceDto first = invoice(1, "corr-1", InvoiceStatus.INTERNAL_INVOICE_NEW);
+        InvoiceDto second = invoice(1, "corr-2", InvoiceStatus.INTERNAL_INVOICE_NEW);
+
+        when(dbManagerService.createInvoices(anyList())).thenAnswer(invocation -> {
+            List<InvoiceDto> batch = invocation.getArgument(0);
+            if (batch.size() > 1 || "corr-2".equals(batch.get(0).getCorrelationId())) {
+                throw new IllegalStateException("constraint violation");
+            }
+            return List.of(invoice(1, "corr-1", InvoiceStatus.INTERNAL_INVOICE_TOBE_SENT));
+        });
+        when(streamBridge.send("publishIncomingInvoiceDlt-out-0", second)).thenReturn(true);
+
+        kafkaConsumerService.processIncomingInvoices(List.of(first, second));
+
+        verify(dbManagerService, times(3)).createInvoices(anyList());
+        verify(streamBridge).send("publishIncomingInvoiceDlt-out-0", second);
+        assertEquals(1, published("publishOutgoingInvoice-out-0"));
+        assertEquals(1, published("publishSavedInvoice-out-0"));
+    }
+
+    @Test
+    void processIncomingInvoices_whenDatabaseUnavailable_shouldRethrowWithoutDlt() {
+        InvoiceDto first = invoice(1, "corr-1", InvoiceStatus.INTERNAL_INVOICE_NEW);
+        InvoiceDto second = invoice(1, "corr-2", InvoiceStatus.INTERNAL_INVOICE_NEW);
+        when(dbManagerService.createInvoices(anyList()))
+                .thenThrow(new CannotCreateTransactionException("connessione non disponibile"));
+
+        assertThrows(CannotCreateTransactionException.class,
+                () -> kafkaConsumerService.processIncomingInvoices(List.of(first, second)));
+
+        verify(dbManagerService, times(1)).createInvoices(anyList());
+        verify(streamBridge, never()).send(eq("publishIncomingInvoiceDlt-out-0"), any(InvoiceDto.class));
+    }
+
+    @Test
+    void processIncomingInvoices_whenDltRejectsInvoice_shouldFailThePoll() {
+        InvoiceDto invoice = invoice(1, "corr-1", InvoiceStatus.INTERNAL_INVOICE_NEW);
+        when(dbManagerService.createInvoices(anyList())).thenThrow(new IllegalStateException("constraint violation"));
+
+        assertThrows(IllegalStateException.class, () -> kafkaConsumerService.processIncomingInvoices(List.of(invoice)));
+
+        verify(streamBridge).send("publishIncomingInvoiceDlt-out-0", invoice);
+    }
+
+    @Test
+    void processIncomingInvoices_whenPollRedelivered_shouldSkipInvoicesAlreadySaved() {
+        InvoiceDto saved = invoice(1, "corr-1", InvoiceStatus.INTERNAL_INVOICE_NEW);
+        InvoiceDto unsaved = invoice(1, "corr-2", InvoiceStatus.INTERNAL_INVOICE_NEW);
+        when(dbManagerService.findUnsavedInvoices(anyList())).thenReturn(List.of(unsaved));
+        when(dbManagerService.createInvoices(List.of(unsaved)))
+                .thenReturn(List.of(invoice(1, "corr-2", InvoiceStatus.INTERNAL_INVOICE_TOBE_SENT)));
+
+        kafkaConsumerService.processIncomingInvoices(List.of(saved, unsaved));
+
+        verify(dbManagerService, times(1)).createInvoices(List.of(unsaved));
+        assertEquals(1, published("publishSavedInvoice-out-0"));
+        assertEquals(1, published("publishOutgoingInvoice-out-0"));
+    }
+
+    @Test
+    void processIncomingInvoices_whenWholePollAlreadySaved_shouldNotSaveOrPublish() {
+        when(dbManagerService.findUnsavedInvoices(anyList())).thenReturn(List.of());
+
+        kafkaConsumerService.processIncomingInvoices(List.of(invoice(1, "corr-1", InvoiceStatus.INTERNAL_INVOICE_NEW)));
+
+        verify(dbManagerService, never()).createInvoices(anyList());
+        verifyNoInteractions(outboxPublisher);
+    }
+
+    @Test
+    void processSdiNotification_whenTransitionApplied_shouldPublishUpdatedInvoice() {
+        InvoiceDto delivered = invoice(1, "corr-1", InvoiceStatus.INTERNAL_INVOICE_DELIVERED);
+        delivered.setInvoiceNumber(7);
+        when(transitionService.transition(7, InvoiceStatus.INTERNAL_INVOICE_DELIVERED, true))
+                .thenReturn(InvoiceTransitionResult.applied(delivered));
+
+        kafkaConsumerService.processSdiNotification(notification(7, InvoiceStatus.INTERNAL_INVOICE_DELIVERED));
+
+        verify(outboxPublisher).publish(new OutboxEvent("publishSavedInvoice-out-0", "reply-topic", "7", delivered));
+        assertEquals("reply-topic", delivered.getReplyTo());
+        verifyNoInteractions(dbManagerService);
+    }
+
+    @Test
+    void processSdiNotification_whenTransitionRejected_shouldNotPublish() {
+        when(transitionService.transition(7, InvoiceStatus.INTERNAL_INVOICE_DELIVERED, true))
+                .thenReturn(new InvoiceTransitionResult(InvoiceTransitionResult.Outcome.REJECTED, null, InvoiceStatus.INTERNAL_INVOICE_DISCARDED));
+
+        kafkaConsumerService.processSdiNotification(notification(7, InvoiceStatus.INTERNAL_INVOICE_DELIVERED));
+
+        verifyNoInteractions(outboxPublisher);
+    }
+
+    @Test
+    void processSdiNotification_whenInvoiceMissing_shouldPublishInvalidInvoice() {
+        when(transitionService.transition(7, InvoiceStatus.INTERNAL_INVOICE_DELIVERED, true))
+                .thenReturn(new InvoiceTransitionResult(InvoiceTransitionResult.Outcome.NOT_FOUND, null, null));
+
+        kafkaConsumerService.processSdiNotification(notification(7, InvoiceStatus.INTERNAL_INVOICE_DELIVERED));
+
+        verify(outboxPublisher).publish(argThat((OutboxEvent event) -> "reply-topic".equals(event.replyTo())
+                && ((InvoiceDto) event.payload()).getInvoiceStatus() == InvoiceStatus.INTERNAL_INVOICE_INVALID));
+    }
+
+    @Test
+    void processSentInvoice_shouldApplyTransitionWithoutBody() {
+        InvoiceDto sent = invoice(1, "corr-1", InvoiceStatus.INTERNAL_INVOICE_SENT);
+        sent.setInvoiceNumber(7);
+        when(transitionService.transition(7, InvoiceStatus.INTERNAL_INVOICE_SENT, false))
+                .thenReturn(InvoiceTransitionResult.applied(sent));
+
+        kafkaConsumerService.processSentInvoice(sent);
+
+        verify(transitionService).transition(7, InvoiceStatus.INTERNAL_INVOICE_SENT, false);
+        verifyNoInteractions(dbManagerService, outboxPublisher);
+    }
+
+    // Eventi scritti in outbox, sia singoli che a lista, per binding di destinazione
+    private long published(String bindingName) {
+        List<OutboxEvent> events = new ArrayList<>();
+        for (Invocation invocation : mockingDetails(outboxPublisher).getInvocations()) {
+            if (invocation.getArgument(0) instanceof List<?> list) {
+                list.forEach(event -> events.add((OutboxEvent) event));
+            } else {
+                events.add(invocation.getArgument(0));
+            }
+        }
+        return events.stream().filter(event -> bindingName.equals(event.bindingName())).count();
+    }
+
+    private static SdiNotificationDto notification(long invoiceNumber, InvoiceStatus status) {
+        SdiNotificationDto notification = new SdiNotificationDto();
+        notification.setInvoiceNumber(invoiceNumber);
+        notification.setStatus(status);
+        notification.setReplyTo("reply-topic");
+        return notification;
+    }
+
+    private static InvoiceDto invoice(int customerId, String correlationId, InvoiceStatus status) {
+        CustomerDto customer = new CustomerDto();
+        customer.setCustomerId(customerId);
+        InvoiceDto invoice = new InvoiceDto();
+        invoice.setCustomer(customer);
+        invoice.setCorrelationId(correlationId);
+        invoice.setInvoiceStatus(status);
+        return invoice;
+    }
+}
@@ -0,0 +1,132 @@
+package com.experis.dbmanager.service.consumer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class KeyOrderedProcessorTest {
+
+    private final StreamBridge streamBridge = mock(StreamBridge.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final KeyOrderedProcessor processor = new KeyOrderedProcessor(streamBridge, meterRegistry, 4, 2, 1, 1, 2.0);
+
+    @AfterEach
+    void tearDown() {
+        processor.shutdown();
+    }
+
+    @Test
+    void process_shouldKeepOrderWithinKeyAndRunKeysInParallel() {
+        // "a" e "b" si aspettano a vicenda: passano solo se elaborate in parallelo
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        Map<String, List<String>> processed = new ConcurrentHashMap<>();
+        Message<List<String>> poll = poll(List.of("a1", "b1", "a2", "b2", "a3"), Arrays.asList("a", "b", "a", "b", "a"));
+
+        processor.process("test", poll, record -> record.substring(0, 1), record -> {
+            if (record.endsWith("1")) {
+                bothStarted.countDown();
+                await(bothStarted);
+            }
+            processed.computeIfAbsent(record.substring(0, 1), k -> Collections.synchronizedList(new ArrayList<>())).add(record);
+        }, "test.DLT");
+
+        assertEquals(List.of("a1", "a2", "a3"), processed.get("a"));
+        assertEquals(List.of("b1", "b2"), processed.get("b"));
+        assertEquals(5.0, meterRegistry.get("dbmanager.consumer.keyed.records").tag("outcome", "success").counter().count());
+        assertEquals(0.0, meterRegistry.get("dbmanager.consumer.keyed.backlog.records").gauge().value());
+        assertEquals(3.0, meterRegistry.get("dbmanager.consumer.keyed.backlog.max-key-records").gauge().value());
+    }
+
+    @Test
+    void process_shouldRetryThenSendToDlqAndContinueWithTheKey() {
+        List<String> attempts = Collections.synchronizedList(new ArrayList<>());
+        when(streamBridge.send(eq("test.DLT"), any(Message.class))).thenReturn(true);
+
+        processor.process("test", poll(List.of("bad", "good"), List.of("k", "k")), record -> "k", record -> {
+            attempts.add(record);
+            if (record.equals("bad")) {
+                throw new IllegalStateException("errore");
+            }
+        }, "test.DLT");
+
+        assertEquals(List.of("bad", "bad", "good"), attempts);
+        verify(streamBridge).send(eq("test.DLT"), argThat((Message<?> message) ->
+                "bad".equals(message.getPayload()) && "k".equals(message.getHeaders().get(KafkaHeaders.KEY))));
+        assertEquals(1.0, meterRegistry.get("dbmanager.consumer.keyed.records").tag("outcome", "dlq").counter().count());
+    }
+
+    @Test
+    void process_whenDlqSendFails_shouldFailThePoll() {
+        List<String> attempts = Collections.synchronizedList(new ArrayList<>());
+        when(streamBridge.send(eq("test.DLT"), any(Message.class))).thenReturn(false);
+
+        assertThrows(IllegalStateException.class, () -> processor.process("test", poll(List.of("bad", "next"), List.of("k", "k")),
+                record -> "k", record -> {
+                    attempts.add(record);
+                    if (record.equals("bad")) {
+                        throw new IllegalStateException("errore");
+                    }
+                }, "test.DLT"));
+
+        // Il record successivo della chiave non è elaborato: sarà riconsegnato con il poll
+        assertEquals(List.of("bad", "bad"), attempts);
+        assertEquals(0.0, meterRegistry.get("dbmanager.consumer.keyed.records").tag("outcome", "dlq").counter().count());
+    }
+
+    @Test
+    void processGroups_shouldFailThePollAfterTheOtherKeys() {
+        List<List<String>> groups = Collections.synchronizedList(new ArrayList<>());
+
+        assertThrows(IllegalStateException.class, () -> processor.processGroups("test",
+                poll(List.of("x1", "y1", "x2"), List.of()), record -> record.substring(0, 1), group -> {
+                    groups.add(group);
+                    if (group.get(0).startsWith("x")) {
+                        throw new IllegalStateException("errore");
+                    }
+                }));
+
+        assertEquals(2, groups.size());
+        assertTrue(groups.contains(List.of("x1", "x2")));
+        assertEquals(0.0, meterRegistry.get("dbmanager.consumer.keyed.backlog.keys").gauge().value());
+    }
+
+    @Test
+    void groupByKey_shouldPreferReceivedKeysAndIsolateRecordsWithoutKey() {
+        Map<String, List<String>> byKey = KeyOrderedProcessor.groupByKey(List.of("r1", "r2", "r3", "r4"),
+                Arrays.asList("7".getBytes(), null, "7", null), record -> record.equals("r2") ? "7" : null);
+
+        assertEquals(List.of(List.of("r1", "r2", "r3"), List.of("r4")), new ArrayList<>(byKey.values()));
+    }
+
+    private static Message<List<String>> poll(List<String> records, List<?> keys) {
+        return MessageBuilder.withPayload(records).setHeader(KafkaHeaders.RECEIVED_KEY, keys).build();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
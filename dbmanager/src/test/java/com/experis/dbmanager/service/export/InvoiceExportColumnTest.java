@@ -0,0 +1,31 @@
+package com.experis.dbmanager.service.export;
+
+import com.experis.dbmanager.exception.InvalidExportColumnException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvoiceExportColumnTest {
+
+    @Test
+    void resolve_withoutSelection_shouldExcludeInvoiceBody() {
+        List<InvoiceExportColumn> columns = InvoiceExportColumn.resolve(null);
+
+        assertTrue(columns.contains(InvoiceExportColumn.INVOICE_NUMBER));
+        assertFalse(columns.contains(InvoiceExportColumn.INVOICE));
+    }
+
+    @Test
+    void resolve_shouldKeepRequestedOrderWithoutDuplicates() {
+        List<InvoiceExportColumn> columns = InvoiceExportColumn.resolve(List.of("invoiceStatus", " invoiceNumber", "INVOICESTATUS", "invoice"));
+
+        assertEquals(List.of(InvoiceExportColumn.INVOICE_STATUS, InvoiceExportColumn.INVOICE_NUMBER, InvoiceExportColumn.INVOICE), columns);
+    }
+
+    @Test
+    void resolve_shouldRejectUnknownColumns() {
+        assertThrows(InvalidExportColumnException.class, () -> InvoiceExportColumn.resolve(List.of("invoice_number; DROP TABLE invoice")));
+    }
+}
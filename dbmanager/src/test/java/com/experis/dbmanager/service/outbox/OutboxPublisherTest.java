@@ -0,0 +1,74 @@
+package com.experis.dbmanager.service.outbox;
+
+import com.experis.dbmanager.service.ReplyRouter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class OutboxPublisherTest {
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final ReplyRouter replyRouter = mock(ReplyRouter.class);
+
+    @AfterEach
+    void clearTransaction() {
+        TransactionSynchronizationManager.setActualTransactionActive(false);
+    }
+
+    @Test
+    void publish_whenEnabled_shouldWriteAllEventsInOneBatch() {
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        OutboxPublisher publisher = new OutboxPublisher(jdbcTemplate, replyRouter, new ObjectMapper(), true, 16);
+        List<OutboxEvent> events = List.of(
+                new OutboxEvent("publishSavedInvoice-out-0", "receiver-1", "7", Map.of("invoiceNumber", 7)),
+                new OutboxEvent("publishOutgoingInvoice-out-0", null, "7", Map.of("invoiceNumber", 7)));
+
+        publisher.publish(events);
+
+        verify(jdbcTemplate).batchUpdate(anyString(), eq(events), eq(2), any(ParameterizedPreparedStatementSetter.class));
+        verifyNoInteractions(replyRouter);
+    }
+
+    @Test
+    void publish_whenEnabled_shouldRequireTransaction() {
+        OutboxPublisher publisher = new OutboxPublisher(jdbcTemplate, replyRouter, new ObjectMapper(), true, 16);
+
+        assertThrows(IllegalStateException.class,
+                () -> publisher.publish(new OutboxEvent("publishSavedInvoice-out-0", null, "7", Map.of())));
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void publish_whenDisabled_shouldSendImmediately() {
+        OutboxPublisher publisher = new OutboxPublisher(jdbcTemplate, replyRouter, new ObjectMapper(), false, 16);
+        Map<String, Integer> payload = Map.of("invoiceNumber", 7);
+
+        publisher.publish(new OutboxEvent("publishSavedInvoice-out-0", "receiver-1", "7", payload));
+
+        verify(replyRouter).send("publishSavedInvoice-out-0", "receiver-1", payload);
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList(), anyInt(), any(ParameterizedPreparedStatementSetter.class));
+    }
+
+    @Test
+    void bucketOf_shouldKeepEventsOfAKeyInTheSameBucket() {
+        assertEquals(OutboxPublisher.bucketOf("7", 16), OutboxPublisher.bucketOf("7", 16));
+        for (int i = 0; i < 100; i++) {
+            int bucket = OutboxPublisher.bucketOf(i % 2 == 0 ? "fattura-" + i : null, 16);
+            assertTrue(bucket >= 0 && bucket < 16);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.experis.dbmanager.service.search;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FatturaPaFieldExtractorTest {
+
+    private final FatturaPaFieldExtractor extractor = new FatturaPaFieldExtractor(100000);
+
+    @Test
+    void extract_shouldReadHeaderAndDocumentFields() throws IOException {
+        FatturaPaFields fields = extractor.extract(sample());
+
+        assertEquals("IT01234567890", fields.supplierVat());
+        assertNull(fields.customerVat());
+        assertEquals("RSSMRA80A01H501U", fields.customerTaxCode());
+        assertEquals("1", fields.documentNumber());
+        assertEquals(LocalDate.of(2024, 5, 1), fields.documentDate());
+        // Senza ImportoTotaleDocumento: somma dei riepiloghi
+        assertEquals(new BigDecimal("100.00"), fields.totalAmount());
+        assertTrue(fields.text().contains("Consulenza"));
+    }
+
+    @Test
+    void extract_shouldPreferDenominationAndTotalAmount() {
+        String xml = """
+                <FatturaElettronica>
+                  <FatturaElettronicaHeader>
+                    <CedentePrestatore><DatiAnagrafici>
+                      <IdFiscaleIVA><IdPaese>IT</IdPaese><IdCodice>09876543210</IdCodice></IdFiscaleIVA>
+                      <Anagrafica><Denominazione>Fornitore Srl</Denominazione></Anagrafica>
+                    </DatiAnagrafici></CedentePrestatore>
+                    <CessionarioCommittente><DatiAnagrafici>
+                      <Anagrafica><Nome>Mario</Nome><Cognome>Rossi</Cognome></Anagrafica>
+                    </DatiAnagrafici></CessionarioCommittente>
+                  </FatturaElettronicaHeader>
+                  <FatturaElettronicaBody><DatiGenerali><DatiGeneraliDocumento>
+                    <Numero>A/7</Numero><ImportoTotaleDocumento>122.00</ImportoTotaleDocumento>
+                  </DatiGeneraliDocumento></DatiGenerali></FatturaElettronicaBody>
+                  <FatturaElettronicaBody><DatiGenerali><DatiGeneraliDocumento>
+                    <Numero>A/8</Numero>
+                  </DatiGeneraliDocumento></DatiGenerali></FatturaElettronicaBody>
+                </FatturaElettronica>
+                """;
+
+        FatturaPaFields fields = extractor.extract(xml);
+
+        assertEquals("Fornitore Srl", fields.supplierName());
+        assertEquals("Mario Rossi", fields.customerName());
+        assertEquals("A/7", fields.documentNumber());
+        assertEquals(new BigDecimal("122.00"), fields.totalAmount());
+    }
+
+    @Test
+    void extract_shouldNotFailOnInvalidXml() {
+        FatturaPaFields fields = extractor.extract("<FatturaElettronica><Numero>1");
+
+        assertNull(fields.documentNumber());
+    }
+
+    @Test
+    void extract_shouldNotResolveExternalEntities() {
+        String xml = "<?xml version=\"1.0\"?><!DOCTYPE x [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><x>&e;</x>";
+
+        assertFalse(extractor.extract(xml).text().contains("root"));
+    }
+
+    @Test
+    void normalizeVat_shouldAddItalianCountryCode() {
+        assertEquals("IT01234567890", FatturaPaFieldExtractor.normalizeVat(" 0123 4567890"));
+        assertEquals("DE123456789", FatturaPaFieldExtractor.normalizeVat("de123456789"));
+    }
+
+    @Test
+    void toTsQuery_shouldKeepOnlyWordsAsPrefixes() {
+        assertEquals("rossi:* & consul:*", InvoiceSearchService.toTsQuery("Rossi, consul'!"));
+        assertNull(InvoiceSearchService.toTsQuery(" & | ! "));
+    }
+
+    private static String sample() throws IOException {
+        return new ClassPathResource("fatturapa/IT01234567890_FPR01.xml").getContentAsString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,73 @@
+package com.experis.dbmanager.service.stats;
+
+import com.experis.dbmanager.dto.InvoiceStatsDto;
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+import com.experis.dbmanager.shard.ShardRouter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.*;
+
+class InvoiceStatsServiceTest {
+
+    private static final LocalDate TODAY = LocalDate.now();
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private InvoiceStatsService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new InvoiceStatsService(jdbcTemplate, new ShardRouter(mock(PlatformTransactionManager.class), false, List.of()),
+                new SimpleMeterRegistry(), 30, 10000);
+        service.refresh();
+        service.apply(TODAY, 1, InvoiceStatus.INTERNAL_INVOICE_SENT, 3);
+        service.apply(TODAY, 2, InvoiceStatus.INTERNAL_INVOICE_SENT, 4);
+        service.apply(TODAY, 2, InvoiceStatus.INTERNAL_INVOICE_TOBE_SENT, 1);
+        service.apply(TODAY.minusDays(1), 1, InvoiceStatus.INTERNAL_INVOICE_SENT, 5);
+    }
+
+    @Test
+    void findStats_shouldSumDimensionsThatAreNotGrouped() {
+        List<InvoiceStatsDto> stats = service.findStats(TODAY.minusDays(1), TODAY, null, null,
+                InvoiceStatsService.dimensions(List.of(InvoiceStatsDimension.STATUS)));
+
+        assertEquals(List.of(
+                new InvoiceStatsDto(null, null, InvoiceStatus.INTERNAL_INVOICE_TOBE_SENT, 1),
+                new InvoiceStatsDto(null, null, InvoiceStatus.INTERNAL_INVOICE_SENT, 12)), stats);
+    }
+
+    @Test
+    void findStats_shouldApplyFiltersAndDayRange() {
+        List<InvoiceStatsDto> stats = service.findStats(TODAY, TODAY, 2, InvoiceStatus.INTERNAL_INVOICE_SENT,
+                InvoiceStatsService.dimensions(List.of(InvoiceStatsDimension.DAY, InvoiceStatsDimension.CUSTOMER)));
+
+        assertEquals(List.of(new InvoiceStatsDto(TODAY, 2, null, 4)), stats);
+    }
+
+    @Test
+    void findStats_shouldDropCountersBackToZero() {
+        service.apply(TODAY, 2, InvoiceStatus.INTERNAL_INVOICE_TOBE_SENT, 0);
+
+        List<InvoiceStatsDto> stats = service.findStats(TODAY, TODAY, null, InvoiceStatus.INTERNAL_INVOICE_TOBE_SENT,
+                InvoiceStatsService.dimensions(List.of()));
+
+        assertTrue(stats.isEmpty());
+    }
+
+    @Test
+    void findStats_shouldReadTheTableBeforeTheDaysKeptInMemory() {
+        service.findStats(TODAY.minusDays(60), TODAY, null, null, InvoiceStatsService.dimensions(List.of(InvoiceStatsDimension.DAY)));
+
+        verify(jdbcTemplate).query(contains("GROUP BY stat_day"), any(RowCallbackHandler.class), any(Object[].class));
+    }
+}
@@ -0,0 +1,35 @@
+package com.experis.dbmanager.service.transition;
+
+import org.junit.jupiter.api.Test;
+
+import static com.experis.dbmanager.enumerations.InvoiceStatus.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvoiceStatusTransitionsTest {
+
+    @Test
+    void sdiOutcome_shouldBeAllowedBeforeAndAfterSentConfirmation() {
+        assertTrue(InvoiceStatusTransitions.isAllowed(INTERNAL_INVOICE_TOBE_SENT, INTERNAL_INVOICE_DELIVERED));
+        assertTrue(InvoiceStatusTransitions.isAllowed(INTERNAL_INVOICE_SENT, INTERNAL_INVOICE_DELIVERED));
+        assertTrue(InvoiceStatusTransitions.isAllowed(INTERNAL_INVOICE_SENT, INTERNAL_INVOICE_DISCARDED));
+    }
+
+    @Test
+    void lateSentConfirmation_shouldNotOverwriteFinalStatus() {
+        assertFalse(InvoiceStatusTransitions.isAllowed(INTERNAL_INVOICE_DELIVERED, INTERNAL_INVOICE_SENT));
+        assertFalse(InvoiceStatusTransitions.isAllowed(INTERNAL_INVOICE_DISCARDED, INTERNAL_INVOICE_NOT_SENT));
+    }
+
+    @Test
+    void timeout_shouldOnlyApplyToInvoicesWaitingForSender() {
+        assertTrue(InvoiceStatusTransitions.isAllowed(INTERNAL_INVOICE_TOBE_SENT, INVOICE_ERROR));
+        assertFalse(InvoiceStatusTransitions.isAllowed(INTERNAL_INVOICE_SENT, INVOICE_ERROR));
+    }
+
+    @Test
+    void unreachableTargets_shouldHaveNoSources() {
+        assertTrue(InvoiceStatusTransitions.sourcesOf(EXTERNAL_INVOICE).isEmpty());
+        assertTrue(InvoiceStatusTransitions.sourcesOf(INTERNAL_INVOICE_INVALID).isEmpty());
+        assertThrows(UnsupportedOperationException.class, () -> InvoiceStatusTransitions.sourcesOf(INTERNAL_INVOICE_SENT).clear());
+    }
+}
@@ -0,0 +1,98 @@
+package com.experis.dbmanager.shard;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class ShardRouterTest {
+
+    public record Row(long invoiceNumber, String name) {
+        public long getInvoiceNumber() {
+            return invoiceNumber;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final ShardRouter router = new ShardRouter(mock(PlatformTransactionManager.class), true,
+            List.of("jdbc:postgresql://shard-1/invoice", "jdbc:postgresql://shard-2/invoice"));
+
+    @AfterEach
+    void tearDown() {
+        router.shutdown();
+    }
+
+    @Test
+    void invoiceNumbers_shouldKeepShardZeroNumbersAndEncodeTheOthers() {
+        assertEquals(42, InvoiceNumbers.of(0, 42));
+        assertEquals(2, InvoiceNumbers.shardOf(InvoiceNumbers.of(2, 42)));
+        assertEquals(42, InvoiceNumbers.of(2, 42) & InvoiceNumbers.MAX_LOCAL);
+        assertTrue(InvoiceNumbers.of(InvoiceNumbers.MAX_SHARDS - 1, InvoiceNumbers.MAX_LOCAL) < 1L << 53);
+        assertThrows(IllegalArgumentException.class, () -> InvoiceNumbers.of(InvoiceNumbers.MAX_SHARDS, 1));
+    }
+
+    @Test
+    void shardOf_shouldRouteCustomersByModuloAndInvoicesByTheirNumber() {
+        assertEquals(3, router.shardCount());
+        assertEquals(1, router.shardOfCustomer(7));
+        assertEquals(2, router.shardOfInvoice(InvoiceNumbers.of(2, 10)));
+        // Numero di uno shard non configurato: cercato (e non trovato) nello shard globale
+        assertEquals(ShardContext.GLOBAL, router.shardOfInvoice(InvoiceNumbers.of(5, 10)));
+    }
+
+    @Test
+    void fanOut_shouldRunEachShardWithItsContext() {
+        assertEquals(List.of(0, 1, 2), router.fanOut(shard -> ShardContext.current()));
+        assertEquals(ShardContext.GLOBAL, ShardContext.current());
+    }
+
+    @Test
+    void mergePages_shouldReturnTheRequestedWindowOfTheMergedOrder() {
+        Map<Integer, List<Row>> shards = Map.of(
+                0, List.of(row(0, 1, "a"), row(0, 4, "d")),
+                1, List.of(row(1, 2, "b"), row(1, 5, "e")),
+                2, List.of(row(2, 3, "c")));
+        Pageable pageable = PageRequest.of(1, 2, Sort.by("name"));
+
+        Page<Row> page = router.mergePages(pageable, ShardRouter.comparator(pageable.getSort()),
+                (shard, shardPageable) -> page(shards.get(shard), shardPageable));
+
+        assertEquals(List.of("c", "d"), page.getContent().stream().map(Row::name).toList());
+        assertEquals(5, page.getTotalElements());
+    }
+
+    @Test
+    void mergeSorted_shouldApplyDescendingOrderAndLimit() {
+        List<Row> merged = ShardRouter.mergeSorted(List.of(
+                        List.of(row(0, 9, "x"), row(0, 1, "y")),
+                        List.of(row(1, 5, "z"))),
+                Comparator.comparing(Row::name).reversed(), 2);
+
+        assertEquals(List.of("z", "y"), merged.stream().map(Row::name).toList());
+    }
+
+    private static Row row(int shard, long local, String name) {
+        return new Row(InvoiceNumbers.of(shard, local), name);
+    }
+
+    // Pagina di uno shard: come il repository, righe già ordinate secondo il Sort richiesto
+    private static Page<Row> page(List<Row> rows, Pageable pageable) {
+        List<Row> sorted = rows.stream().sorted(ShardRouter.comparator(pageable.getSort())).toList();
+        int to = (int) Math.min(sorted.size(), pageable.getOffset() + pageable.getPageSize());
+        return new PageImpl<>(sorted.subList((int) pageable.getOffset(), to), pageable, rows.size());
+    }
+}
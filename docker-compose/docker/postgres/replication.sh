@@ -0,0 +1,3 @@
+#!/bin/sh
+# Consente le connessioni di replica (pg_basebackup / streaming) dalla rete docker, usate da postgres-replica
+echo "host replication all all scram-sha-256" >> "$PGDATA/pg_hba.conf"
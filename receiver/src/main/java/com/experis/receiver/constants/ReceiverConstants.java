@@ -8,6 +8,11 @@ public final class ReceiverConstants {
     public static final String  STATUS_200 = "200";
     public static final String  MESSAGE_200 = "Invoice received successfully";
     public static final String  MESSAGE_202 = "Richiesta accettata e in elaborazione";
+    public static final String  MESSAGE_400_INVALID_XML = "Fattura XML non valida";
+    public static final String  MESSAGE_409_PENDING_DUPLICATE = "Richiesta con lo stesso correlationId già in attesa di elaborazione";
     public static final String  MESSAGE_417_UPDATE= "Update operation failed. Please try again or contact Dev team";
+    public static final String  MESSAGE_429 = "Sistema sotto carico, riprovare dopo il tempo indicato in Retry-After";
+    public static final String  MESSAGE_503_BACKPRESSURE = "Coda di invio piena, riprovare più tardi";
+    public static final String  MESSAGE_503_PENDING_FULL = "Troppe richieste in attesa di elaborazione, riprovare più tardi";
 
 }
\ No newline at end of file
@@ -1,23 +1,38 @@
 package com.experis.receiver.controller;
 
+import com.experis.dbmanager.constants.Constants;
 import com.experis.dbmanager.dto.InvoiceDto;
 import com.experis.dbmanager.dto.ResponseDto;
 import com.experis.dbmanager.dto.SdiNotificationDto;
 import com.experis.dbmanager.dto.ErrorResponseDto;
+import com.experis.receiver.dto.BulkItemResultDto;
+import com.experis.receiver.dto.InvoiceTrackingDto;
 import com.experis.receiver.service.IReceiverService;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Tag(
         name = "REST API per Ricezione Fatture",
@@ -31,15 +46,21 @@ import org.springframework.web.bind.annotation.*;
 public class ReceiverController {
 
     private final IReceiverService iReceiverService;
+    private final ObjectMapper objectMapper;
 
     @Operation(
             summary = "Salva Fattura Interna",
-            description = "Riceve una fattura interna, la imposta su INTERNAL_INVOICE_NEW e la invia a Kafka. Risponde immediatamente."
+            description = "Riceve una fattura interna, la imposta su INTERNAL_INVOICE_NEW e la invia a Kafka. Risponde all'ack del broker."
     )
     @ApiResponses({
             @ApiResponse(
                     responseCode = "202",
-                    description = "HTTP Status Accepted (Richiesta accettata, elaborazione in corso)",
+                    description = "HTTP Status Accepted (Richiesta accettata, elaborazione in corso; header Location con lo stato della richiesta)",
+                    content = @Content(schema = @Schema(implementation = ResponseDto.class))
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "HTTP Status Bad Request (XML della fattura non ben formato o non conforme allo schema FatturaPA)",
                     content = @Content(schema = @Schema(implementation = ResponseDto.class))
             ),
             @ApiResponse(
@@ -47,6 +68,16 @@ public class ReceiverController {
                     description = "HTTP Status Expectation Failed (Invio a Kafka fallito)",
                     content = @Content(schema = @Schema(implementation = ResponseDto.class))
             ),
+            @ApiResponse(
+                    responseCode = "429",
+                    description = "HTTP Status Too Many Requests (Controllo di ammissione, vedi header Retry-After)",
+                    content = @Content(schema = @Schema(implementation = ResponseDto.class))
+            ),
+            @ApiResponse(
+                    responseCode = "503",
+                    description = "HTTP Status Service Unavailable (Backpressure del producer Kafka)",
+                    content = @Content(schema = @Schema(implementation = ResponseDto.class))
+            ),
             @ApiResponse(
                     responseCode = "500",
                     description = "HTTP Status Internal Server Error",
@@ -54,20 +85,28 @@ public class ReceiverController {
             )
     })
     @PostMapping("/salvaFatturaInterna")
-    public ResponseEntity<ResponseDto> salvaFatturaInterna(@Valid @RequestBody InvoiceDto invoiceDto) {
+    public CompletableFuture<ResponseEntity<ResponseDto>> salvaFatturaInterna(@Valid @RequestBody InvoiceDto invoiceDto,
+            @Parameter(description = "Chiave di idempotenza usata se la fattura non ha un correlationId")
+            @RequestHeader(value = Constants.CORRELATION_ID_HEADER, required = false) String correlationId) {
         log.debug("Ricevuta richiesta salvaFatturaInterna");
-        // Ora restituisce direttamente la risposta (es. 202 o errore)
+        // Il thread HTTP viene rilasciato: la risposta arriva all'ack del broker (202) o in errore
+        applyCorrelationId(invoiceDto, correlationId);
         return iReceiverService.saveInternalInvoice(invoiceDto);
     }
 
     @Operation(
             summary = "Salva Fattura Esterna",
-            description = "Riceve una fattura esterna, la imposta su EXTERNAL_INVOICE e la invia a Kafka. Risponde immediatamente."
+            description = "Riceve una fattura esterna, la imposta su EXTERNAL_INVOICE e la invia a Kafka. Risponde all'ack del broker."
     )
     @ApiResponses({
             @ApiResponse(
                     responseCode = "202",
-                    description = "HTTP Status Accepted (Richiesta accettata, elaborazione in corso)",
+                    description = "HTTP Status Accepted (Richiesta accettata, elaborazione in corso; header Location con lo stato della richiesta)",
+                    content = @Content(schema = @Schema(implementation = ResponseDto.class))
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "HTTP Status Bad Request (XML della fattura non ben formato o non conforme allo schema FatturaPA)",
                     content = @Content(schema = @Schema(implementation = ResponseDto.class))
             ),
             @ApiResponse(
@@ -75,6 +114,16 @@ public class ReceiverController {
                     description = "HTTP Status Expectation Failed (Invio a Kafka fallito)",
                     content = @Content(schema = @Schema(implementation = ResponseDto.class))
             ),
+            @ApiResponse(
+                    responseCode = "429",
+                    description = "HTTP Status Too Many Requests (Controllo di ammissione, vedi header Retry-After)",
+                    content = @Content(schema = @Schema(implementation = ResponseDto.class))
+            ),
+            @ApiResponse(
+                    responseCode = "503",
+                    description = "HTTP Status Service Unavailable (Backpressure del producer Kafka)",
+                    content = @Content(schema = @Schema(implementation = ResponseDto.class))
+            ),
             @ApiResponse(
                     responseCode = "500",
                     description = "HTTP Status Internal Server Error",
@@ -82,19 +131,52 @@ public class ReceiverController {
             )
     })
     @PostMapping("/salvaFatturaEsterna")
-    public ResponseEntity<ResponseDto> salvaFatturaEsterna(@Valid @RequestBody InvoiceDto invoiceDto) {
+    public CompletableFuture<ResponseEntity<ResponseDto>> salvaFatturaEsterna(@Valid @RequestBody InvoiceDto invoiceDto,
+            @Parameter(description = "Chiave di idempotenza usata se la fattura non ha un correlationId")
+            @RequestHeader(value = Constants.CORRELATION_ID_HEADER, required = false) String correlationId) {
         log.debug("Ricevuta richiesta salvaFatturaEsterna");
+        applyCorrelationId(invoiceDto, correlationId);
         return iReceiverService.saveExternalInvoice(invoiceDto);
     }
 
+    @Operation(
+            summary = "Salva Fatture (invio massivo)",
+            description = "Riceve un flusso NDJSON (una fattura per riga) o un array JSON di fatture, letto in streaming. " +
+                    "Ogni fattura segue il flusso di salvaFatturaInterna/salvaFatturaEsterna; la risposta riporta l'esito di ciascuna."
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "HTTP Status OK (esito per fattura nel corpo della risposta)",
+                    content = @Content(array = @ArraySchema(schema = @Schema(implementation = BulkItemResultDto.class)))
+            ),
+            @ApiResponse(
+                    responseCode = "500",
+                    description = "HTTP Status Internal Server Error",
+                    content = @Content(schema = @Schema(implementation = ErrorResponseDto.class))
+            )
+    })
+    @PostMapping(path = "/salvaFatture", consumes = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<List<BulkItemResultDto>> salvaFatture(
+            @Parameter(description = "true per fatture esterne, false per fatture interne") @RequestParam(defaultValue = "false") boolean esterne,
+            HttpServletRequest request) throws IOException {
+        log.debug("Ricevuta richiesta salvaFatture (esterne: {})", esterne);
+        // Le fatture vengono deserializzate una alla volta senza bufferizzare l'intero corpo
+        try (MappingIterator<InvoiceDto> invoices = objectMapper.readerFor(InvoiceDto.class).readValues(request.getInputStream())) {
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.SET_COOKIE, iReceiverService.statusRoutingCookie().toString())
+                    .body(iReceiverService.saveInvoices(invoices, esterne));
+        }
+    }
+
     @Operation(
             summary = "Notifica da SdI",
-            description = "Riceve una notifica (esito) da SdI e la inoltra a Kafka sul topic dsiNotification. Risponde immediatamente."
+            description = "Riceve una notifica (esito) da SdI e la inoltra a Kafka sul topic dsiNotification. Risponde all'ack del broker."
     )
     @ApiResponses({
             @ApiResponse(
                     responseCode = "202",
-                    description = "HTTP Status Accepted (Richiesta accettata, elaborazione in corso)",
+                    description = "HTTP Status Accepted (Richiesta accettata, elaborazione in corso; header Location con lo stato della richiesta)",
                     content = @Content(schema = @Schema(implementation = ResponseDto.class))
             ),
             @ApiResponse(
@@ -102,6 +184,16 @@ public class ReceiverController {
                     description = "HTTP Status Expectation Failed (Invio a Kafka fallito)",
                     content = @Content(schema = @Schema(implementation = ResponseDto.class))
             ),
+            @ApiResponse(
+                    responseCode = "429",
+                    description = "HTTP Status Too Many Requests (Controllo di ammissione, vedi header Retry-After)",
+                    content = @Content(schema = @Schema(implementation = ResponseDto.class))
+            ),
+            @ApiResponse(
+                    responseCode = "503",
+                    description = "HTTP Status Service Unavailable (Backpressure del producer Kafka)",
+                    content = @Content(schema = @Schema(implementation = ResponseDto.class))
+            ),
             @ApiResponse(
                     responseCode = "500",
                     description = "HTTP Status Internal Server Error",
@@ -109,8 +201,60 @@ public class ReceiverController {
             )
     })
     @PostMapping("/notificaSdI")
-    public ResponseEntity<ResponseDto> notificaSdI(@Valid @RequestBody SdiNotificationDto notificationDto) {
+    public CompletableFuture<ResponseEntity<ResponseDto>> notificaSdI(@Valid @RequestBody SdiNotificationDto notificationDto) {
         log.debug("Ricevuta richiesta notificaSdI");
         return iReceiverService.handleSdiNotification(notificationDto);
     }
-}
\ No newline at end of file
+
+    @Operation(
+            summary = "Stato Fattura",
+            description = "Stato di una richiesta di salvataggio o notifica SdI inviata a questa istanza, senza accesso al database. " +
+                    "Va chiamato all'indirizzo dell'header Location del 202 con il cookie ricevuto, che instrada la richiesta " +
+                    "all'istanza che l'ha accettata. Con attesaMs > 0 la risposta arriva al primo cambio di stato (long-poll)."
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "HTTP Status OK",
+                    content = @Content(schema = @Schema(implementation = InvoiceTrackingDto.class))
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "HTTP Status Not Found (Richiesta non seguita da questa istanza: cookie di instradamento assente, istanza riavviata o richiesta non più in memoria)"
+            )
+    })
+    @GetMapping("/statoFattura/{customerId}/{correlationId}")
+    public DeferredResult<ResponseEntity<InvoiceTrackingDto>> statoFattura(
+            @PathVariable Integer customerId,
+            @PathVariable String correlationId,
+            @Parameter(description = "Attesa massima in millisecondi di un cambio di stato (0 = risposta immediata)")
+            @RequestParam(defaultValue = "0") long attesaMs) {
+        return iReceiverService.awaitInvoiceStatus(customerId, correlationId, attesaMs);
+    }
+
+    @Operation(
+            summary = "Eventi Stato Fattura",
+            description = "Server-sent events con lo stato corrente della richiesta e i cambi successivi, fino allo stato finale."
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "HTTP Status OK",
+                    content = @Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE, schema = @Schema(implementation = InvoiceTrackingDto.class))
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "HTTP Status Not Found (Richiesta non seguita da questa istanza: cookie di instradamento assente, istanza riavviata o richiesta non più in memoria)"
+            )
+    })
+    @GetMapping(path = "/statoFattura/{customerId}/{correlationId}/eventi", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> eventiStatoFattura(@PathVariable Integer customerId, @PathVariable String correlationId) {
+        return iReceiverService.streamInvoiceStatus(customerId, correlationId);
+    }
+
+    private static void applyCorrelationId(InvoiceDto invoiceDto, String correlationId) {
+        if ((invoiceDto.getCorrelationId() == null || invoiceDto.getCorrelationId().isBlank()) && correlationId != null) {
+            invoiceDto.setCorrelationId(correlationId);
+        }
+    }
+}
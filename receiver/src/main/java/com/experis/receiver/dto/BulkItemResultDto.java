@@ -0,0 +1,28 @@
+package com.experis.receiver.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Schema(
+        name = "BulkItemResult",
+        description = "Esito della singola fattura di un invio massivo"
+)
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BulkItemResultDto {
+
+    @Schema(description = "Posizione della fattura nel corpo della richiesta (da 0)")
+    private int index;
+
+    @Schema(description = "Correlation ID della fattura (generato se assente)")
+    private String correlationId;
+
+    @Schema(description = "Codice di stato dell'elaborazione della singola fattura")
+    private String statusCode;
+
+    @Schema(description = "Messaggio di esito")
+    private String statusMsg;
+}
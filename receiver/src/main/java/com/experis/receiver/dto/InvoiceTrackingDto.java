@@ -0,0 +1,45 @@
+package com.experis.receiver.dto;
+
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Schema(
+        name = "InvoiceTracking",
+        description = "Stato di una richiesta di salvataggio o di una notifica SdI seguita dal receiver"
+)
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class InvoiceTrackingDto {
+
+    public enum State {
+        PENDING, SAVED, UPDATED, TIMEOUT, FAILED;
+
+        public boolean isFinal() {
+            return this != PENDING;
+        }
+    }
+
+    @Schema(description = "Id del cliente")
+    private Integer customerId;
+
+    @Schema(description = "Correlation ID della richiesta")
+    private String correlationId;
+
+    @Schema(description = "Stato della richiesta: PENDING finché la SAGA non risponde")
+    private State state;
+
+    @Schema(description = "Numero fattura assegnato da dbmanager (se disponibile)")
+    private Long invoiceNumber;
+
+    @Schema(description = "Stato della fattura (se disponibile)")
+    private InvoiceStatus invoiceStatus;
+
+    @Schema(description = "Istante dell'ultimo cambio di stato")
+    private LocalDateTime updatedAt;
+}
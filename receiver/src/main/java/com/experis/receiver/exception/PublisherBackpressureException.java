@@ -0,0 +1,16 @@
+package com.experis.receiver.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class PublisherBackpressureException extends RuntimeException {
+
+    public PublisherBackpressureException(String message) {
+        super(message);
+    }
+
+    public PublisherBackpressureException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -3,38 +3,84 @@ package com.experis.receiver.service;
 import com.experis.dbmanager.dto.InvoiceDto;
 import com.experis.dbmanager.dto.ResponseDto;
 import com.experis.dbmanager.dto.SdiNotificationDto;
+import com.experis.receiver.dto.BulkItemResultDto;
+import com.experis.receiver.dto.InvoiceTrackingDto;
+import org.springframework.http.ResponseCookie;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface IReceiverService {
 
     /**
      * Gestisce la ricezione di una fattura interna.
      * La imposta come INTERNAL_INVOICE_NEW e la invia a Kafka.
-     * Restituisce una risposta immediata (es. 202 Accepted).
+     * La risposta (es. 202 Accepted) è completata all'ack del broker.
      *
      * @param invoice - InvoiceDto Object
-     * @return una ResponseEntity immediata.
+     * @return future della ResponseEntity.
      */
-    ResponseEntity<ResponseDto> saveInternalInvoice(InvoiceDto invoice);
+    CompletableFuture<ResponseEntity<ResponseDto>> saveInternalInvoice(InvoiceDto invoice);
 
     /**
      * Gestisce la ricezione di una fattura esterna.
      * La imposta come EXTERNAL_INVOICE e la invia a Kafka.
-     * Restituisce una risposta immediata (es. 202 Accepted).
+     * La risposta (es. 202 Accepted) è completata all'ack del broker.
      *
      * @param invoice - InvoiceDto Object
-     * @return una ResponseEntity immediata.
+     * @return future della ResponseEntity.
+     */
+    CompletableFuture<ResponseEntity<ResponseDto>> saveExternalInvoice(InvoiceDto invoice);
+
+    /**
+     * Gestisce un invio massivo di fatture interne o esterne.
+     * Le fatture vengono consumate dall'iteratore una alla volta e pubblicate a Kafka
+     * mantenendo al massimo {@code app.bulk.window} invii in attesa di ack.
+     *
+     * @param invoices - fatture lette in streaming dal corpo della richiesta
+     * @param external - true per EXTERNAL_INVOICE, false per INTERNAL_INVOICE_NEW
+     * @return l'esito di ogni fattura, nell'ordine di arrivo.
      */
-    ResponseEntity<ResponseDto> saveExternalInvoice(InvoiceDto invoice);
+    List<BulkItemResultDto> saveInvoices(Iterator<InvoiceDto> invoices, boolean external);
 
     /**
      * Riceve una notifica da SdI (tramite endpoint HTTP).
      * La inoltra al topic Kafka dsiNotification.
      *
      * @param notification - SdiNotificationDto Object
-     * @return una ResponseEntity immediata.
+     * @return future della ResponseEntity, completato all'ack del broker.
+     */
+    CompletableFuture<ResponseEntity<ResponseDto>> handleSdiNotification(SdiNotificationDto notification);
+
+    /**
+     * Cookie che instrada verso questa istanza le richieste di stato (sessione sticky del load balancer del gateway):
+     * lo stato delle richieste è solo nella memoria dell'istanza che le ha accettate.
+     */
+    ResponseCookie statusRoutingCookie();
+
+    /**
+     * Stato di una richiesta seguita da questa istanza (long-poll).
+     * Risponde subito se lo stato è finale o {@code waitMs} è 0, altrimenti al primo cambio di stato
+     * o allo scadere dell'attesa con lo stato corrente. 404 se la richiesta non è seguita.
+     *
+     * @param customerId - id del cliente
+     * @param correlationId - correlation ID della richiesta
+     * @param waitMs - attesa massima in millisecondi (limitata da app.status.max-wait-ms)
+     */
+    DeferredResult<ResponseEntity<InvoiceTrackingDto>> awaitInvoiceStatus(Integer customerId, String correlationId, long waitMs);
+
+    /**
+     * Stato di una richiesta seguita da questa istanza come server-sent events:
+     * lo stato corrente e ogni cambio successivo, fino allo stato finale. 404 se la richiesta non è seguita.
+     *
+     * @param customerId - id del cliente
+     * @param correlationId - correlation ID della richiesta
      */
-    ResponseEntity<ResponseDto> handleSdiNotification(SdiNotificationDto notification);
+    ResponseEntity<SseEmitter> streamInvoiceStatus(Integer customerId, String correlationId);
 
     void handleSavedInvoice(InvoiceDto savedInvoice);
     void handleUpdatedInvoice(SdiNotificationDto sdiNotificationDto);
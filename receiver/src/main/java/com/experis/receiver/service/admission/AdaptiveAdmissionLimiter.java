@@ -0,0 +1,151 @@
+package com.experis.receiver.service.admission;
+
+import com.experis.receiver.service.pending.PendingRequestStore;
+import com.experis.receiver.service.publisher.KafkaInvoicePublisher;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controllo di ammissione adattivo: limita il numero di richieste in attesa della SAGA.
+ * <p>
+ * Ogni {@code update-ms} il limite viene ricalcolato con un algoritmo a gradiente:
+ * si confronta la latenza end-to-end recente con una latenza di riferimento (minimo che risale lentamente);
+ * se la latenza cresce oltre {@code latency-tolerance} volte il riferimento il limite scende,
+ * altrimenti cresce di sqrt(limite) finché la coda è effettivamente usata.
+ * Buffer del producer Kafka quasi pieno, troppi invii non confermati o richieste scadute causano
+ * una riduzione moltiplicativa immediata.
+ * <p>
+ * La verifica sul percorso della richiesta è una lettura del limite corrente: oltre il limite si risponde 429
+ * con Retry-After stimato dalla latenza osservata, prima che dbmanager accumuli ritardo e le richieste scadano.
+ */
+@Component
+@Slf4j
+public class AdaptiveAdmissionLimiter {
+
+    private final PendingRequestStore pendingRequestStore;
+    private final KafkaInvoicePublisher kafkaInvoicePublisher;
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final double pressureWatermark;
+    private final long maxRetryAfterSeconds;
+    private final Counter rejectedCounter;
+    private final ScheduledExecutorService updater;
+
+    private volatile int limit;
+    private volatile double latencyMs;
+    private double baselineLatencyMs;
+    private long lastExpiredCount;
+
+    public AdaptiveAdmissionLimiter(PendingRequestStore pendingRequestStore,
+                                    KafkaInvoicePublisher kafkaInvoicePublisher,
+                                    @Value("${app.admission.enabled:true}") boolean enabled,
+                                    @Value("${app.admission.initial-limit:10000}") int initialLimit,
+                                    @Value("${app.admission.min-limit:100}") int minLimit,
+                                    @Value("${app.admission.max-limit:${app.pending.capacity:262144}}") int maxLimit,
+                                    @Value("${app.admission.latency-tolerance:2.0}") double latencyTolerance,
+                                    @Value("${app.admission.pressure-watermark:0.8}") double pressureWatermark,
+                                    @Value("${app.admission.max-retry-after-seconds:30}") long maxRetryAfterSeconds,
+                                    @Value("${app.admission.update-ms:200}") long updateMs,
+                                    MeterRegistry meterRegistry) {
+        this.pendingRequestStore = pendingRequestStore;
+        this.kafkaInvoicePublisher = kafkaInvoicePublisher;
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance;
+        this.pressureWatermark = pressureWatermark;
+        this.maxRetryAfterSeconds = maxRetryAfterSeconds;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+
+        Gauge.builder("receiver.admission.limit", this, AdaptiveAdmissionLimiter::limit)
+                .description("Limite corrente di richieste in attesa della SAGA")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("receiver.admission.rejected")
+                .description("Richieste rifiutate con 429 dal controllo di ammissione")
+                .register(meterRegistry);
+
+        this.updater = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("admission-limiter").daemon().factory());
+        if (enabled) {
+            this.updater.scheduleAtFixedRate(this::update, updateMs, updateMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return true se la richiesta può essere accettata
+     */
+    public boolean tryAdmit() {
+        if (!enabled || pendingRequestStore.size() < limit) {
+            return true;
+        }
+        rejectedCounter.increment();
+        return false;
+    }
+
+    /**
+     * Secondi suggeriti al client prima di ritentare: circa il tempo per smaltire le richieste in attesa.
+     */
+    public long retryAfterSeconds() {
+        return Math.max(1, Math.min(maxRetryAfterSeconds, (long) Math.ceil(latencyMs / 1000.0)));
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    void update() {
+        try {
+            int current = limit;
+            double newLimit = current;
+
+            double observed = pendingRequestStore.completionLatencyMs();
+            if (observed > 0) {
+                latencyMs = observed;
+                // Il riferimento segue subito i minimi e risale lentamente (cambi di carico di dbmanager/Postgres)
+                baselineLatencyMs = baselineLatencyMs == 0 ? observed
+                        : Math.min(observed, baselineLatencyMs + (observed - baselineLatencyMs) * 0.01);
+                double gradient = Math.max(0.5, Math.min(1.0, latencyTolerance * baselineLatencyMs / observed));
+                // Si cresce solo se la coda è realmente usata, altrimenti il limite salirebbe senza misure
+                double headroom = pendingRequestStore.size() * 2 >= current ? Math.sqrt(current) : 0;
+                newLimit = current * gradient + headroom;
+            }
+
+            long expired = pendingRequestStore.expiredCount();
+            boolean timeouts = expired > lastExpiredCount;
+            lastExpiredCount = expired;
+            double inFlightRatio = (double) kafkaInvoicePublisher.inFlightCount() / kafkaInvoicePublisher.maxInFlight();
+            boolean pressure = timeouts
+                    || inFlightRatio >= pressureWatermark
+                    || kafkaInvoicePublisher.bufferUsage() >= pressureWatermark;
+            if (pressure) {
+                newLimit = Math.min(newLimit, current * 0.8);
+            }
+
+            // Smorzamento per evitare oscillazioni
+            int updated = (int) Math.max(minLimit, Math.min(maxLimit, current * 0.8 + newLimit * 0.2));
+            if (updated != current) {
+                log.debug("Limite di ammissione {} -> {} (latenza {} ms, riferimento {} ms, pressione {})",
+                        current, updated, Math.round(latencyMs), Math.round(baselineLatencyMs), pressure);
+            }
+            limit = updated;
+        } catch (Exception e) {
+            log.error("Errore durante l'aggiornamento del limite di ammissione", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        updater.shutdownNow();
+    }
+}
@@ -0,0 +1,260 @@
+package com.experis.receiver.service.callback;
+
+import com.experis.dbmanager.blob.FileSystemBlobStore;
+import com.experis.dbmanager.constants.Constants;
+import com.experis.dbmanager.dto.InvoiceDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Consegna delle callback ai clienti fuori dal thread del consumer Kafka.
+ * Ogni callback gira su un virtual thread, con un limite di chiamate contemporanee per host di destinazione,
+ * retry con backoff esponenziale e, esauriti i tentativi, invio in DLT.
+ * Le callback accodate sono limitate da {@code queue-capacity}: oltre il limite vanno direttamente in DLT.
+ * <p>
+ * Gli host arrivano dagli URL di callback dei clienti, quindi non sono un insieme chiuso: lo stato per host è rimosso
+ * dopo {@code host-idle-ms} senza callback, e le metriche hanno il tag {@code host} solo per gli host in
+ * {@code metric-hosts}, tutti gli altri sono aggregati sotto {@code other}.
+ */
+@Component
+@Slf4j
+public class CallbackDispatcher {
+
+    private final RestTemplate restTemplate;
+    private final StreamBridge streamBridge;
+    private final MeterRegistry meterRegistry;
+    private final FileSystemBlobStore invoiceBlobStore;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService evictor;
+    private final ConcurrentMap<String, HostState> hosts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> activeByTag = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final int maxPerHost;
+    private final int queueCapacity;
+    private final int maxAttempts;
+    private final long backoffInitialMs;
+    private final double backoffMultiplier;
+    private final long hostIdleNanos;
+    private final Set<String> metricHosts;
+
+    /**
+     * Limite di chiamate verso un host. {@code users} e {@code idleSince} sono letti e scritti solo dentro
+     * {@code compute} sulla mappa degli host, così la rimozione non può scartare uno stato appena preso.
+     */
+    private static final class HostState {
+        private final Semaphore permits;
+        private int users;
+        private long idleSince;
+
+        private HostState(int permits) {
+            this.permits = new Semaphore(permits);
+        }
+    }
+
+    public CallbackDispatcher(RestTemplate restTemplate,
+                              StreamBridge streamBridge,
+                              MeterRegistry meterRegistry,
+                              FileSystemBlobStore invoiceBlobStore,
+                              @Value("${app.callback.dispatcher.max-per-host:20}") int maxPerHost,
+                              @Value("${app.callback.dispatcher.queue-capacity:50000}") int queueCapacity,
+                              @Value("${app.callback.dispatcher.max-attempts:3}") int maxAttempts,
+                              @Value("${app.callback.dispatcher.backoff-initial-ms:500}") long backoffInitialMs,
+                              @Value("${app.callback.dispatcher.backoff-multiplier:2.0}") double backoffMultiplier,
+                              @Value("${app.callback.dispatcher.host-idle-ms:300000}") long hostIdleMs,
+                              @Value("${app.callback.dispatcher.metric-hosts:}") List<String> metricHosts) {
+        this.restTemplate = restTemplate;
+        this.streamBridge = streamBridge;
+        this.meterRegistry = meterRegistry;
+        this.invoiceBlobStore = invoiceBlobStore;
+        this.maxPerHost = maxPerHost;
+        this.queueCapacity = queueCapacity;
+        this.maxAttempts = maxAttempts;
+        this.backoffInitialMs = backoffInitialMs;
+        this.backoffMultiplier = backoffMultiplier;
+        this.hostIdleNanos = TimeUnit.MILLISECONDS.toNanos(hostIdleMs);
+        this.metricHosts = Set.copyOf(metricHosts);
+
+        Gauge.builder("receiver.callback.queued", queued, AtomicInteger::get)
+                .description("Callback accodate o in consegna")
+                .register(meterRegistry);
+        Gauge.builder("receiver.callback.hosts", hosts, ConcurrentMap::size)
+                .description("Host di callback con limite di chiamate attivo")
+                .register(meterRegistry);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("callback-host-evictor").daemon().factory());
+        this.evictor.scheduleAtFixedRate(this::evictIdleHosts, hostIdleMs, hostIdleMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Accoda la callback della fattura e ritorna subito.
+     */
+    public void dispatch(InvoiceDto invoice) {
+        String host = hostOf(invoice.getCallback());
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            log.warn("Coda callback piena, fattura {} inviata in DLT.", invoice.getCorrelationId());
+            counter("receiver.callback.rejected", tagOf(host)).increment();
+            streamBridge.send("business-dlt-out-0", invoice);
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                HostState state = acquireHost(host);
+                try {
+                    deliver(invoice, state.permits, tagOf(host));
+                } finally {
+                    releaseHost(host);
+                }
+            } finally {
+                queued.decrementAndGet();
+            }
+        });
+    }
+
+    private void deliver(InvoiceDto invoice, Semaphore permits, String tag) {
+        AtomicInteger active = activeByTag.computeIfAbsent(tag, this::registerActive);
+        // Il cliente riceve sempre il corpo XML, anche se è transitato in claim check
+        if (invoice.getInvoice() == null && invoice.getInvoiceRef() != null) {
+            try {
+                invoice.setInvoice(invoiceBlobStore.read(invoice.getInvoiceRef()));
+            } catch (IOException e) {
+                log.warn("Corpo della fattura {} non leggibile dal blob store: {}", invoice.getCorrelationId(), e.getMessage());
+            }
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("X-ARUBA-API-KEY","aruba4hookdeck-secret");
+        headers.set(Constants.CORRELATION_ID_HEADER, invoice.getCorrelationId());
+        HttpEntity<Object> requestEntity = new HttpEntity<>(invoice, headers);
+
+        long backoffMs = backoffInitialMs;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            try {
+                permits.acquire();
+                active.incrementAndGet();
+                Timer.Sample sample = Timer.start(meterRegistry);
+                try {
+                    log.info("Esecuzione callback per {} a {} (tentativo {}/{})", invoice.getCorrelationId(), invoice.getCallback(), attempt, maxAttempts);
+                    restTemplate.postForEntity(invoice.getCallback(), requestEntity, String.class);
+                    sample.stop(timer(tag, "success"));
+                    return;
+                } catch (Exception e) {
+                    sample.stop(timer(tag, "error"));
+                    log.warn("Errore callback per {} a {} (tentativo {}/{}): {}", invoice.getCorrelationId(), invoice.getCallback(), attempt, maxAttempts, e.getMessage());
+                } finally {
+                    active.decrementAndGet();
+                    permits.release();
+                }
+                if (attempt < maxAttempts) {
+                    Thread.sleep(backoffMs);
+                    backoffMs = (long) (backoffMs * backoffMultiplier);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        log.error("Callback per {} a {} non consegnata. Spostamento in DLT.", invoice.getCorrelationId(), invoice.getCallback());
+        counter("receiver.callback.dlt", tag).increment();
+        streamBridge.send("business-dlt-out-0", invoice);
+    }
+
+    private HostState acquireHost(String host) {
+        return hosts.compute(host, (h, state) -> {
+            HostState current = state != null ? state : new HostState(maxPerHost);
+            current.users++;
+            return current;
+        });
+    }
+
+    private void releaseHost(String host) {
+        hosts.computeIfPresent(host, (h, state) -> {
+            if (--state.users == 0) {
+                state.idleSince = System.nanoTime();
+            }
+            return state;
+        });
+    }
+
+    /**
+     * Rimuove gli host senza callback in corso o in attesa di retry da almeno {@code host-idle-ms}.
+     */
+    void evictIdleHosts() {
+        evictIdleHosts(System.nanoTime());
+    }
+
+    void evictIdleHosts(long now) {
+        for (String host : hosts.keySet()) {
+            hosts.computeIfPresent(host, (h, state) ->
+                    state.users == 0 && now - state.idleSince >= hostIdleNanos ? null : state);
+        }
+    }
+
+    int trackedHosts() {
+        return hosts.size();
+    }
+
+    private String tagOf(String host) {
+        return metricHosts.contains(host) ? host : "other";
+    }
+
+    private AtomicInteger registerActive(String tag) {
+        AtomicInteger active = new AtomicInteger();
+        Gauge.builder("receiver.callback.active", active, AtomicInteger::get)
+                .description("Callback in corso verso l'host")
+                .tag("host", tag)
+                .register(meterRegistry);
+        return active;
+    }
+
+    private Timer timer(String tag, String outcome) {
+        return Timer.builder("receiver.callback.latency")
+                .description("Durata delle chiamate di callback")
+                .tag("host", tag)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private Counter counter(String name, String tag) {
+        return Counter.builder(name).tag("host", tag).register(meterRegistry);
+    }
+
+    private static String hostOf(String callback) {
+        try {
+            String host = URI.create(callback).getHost();
+            return host != null ? host : "unknown";
+        } catch (IllegalArgumentException e) {
+            return "unknown";
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        evictor.shutdownNow();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,40 @@
+package com.experis.receiver.service.idempotency;
+
+/**
+ * Bloom filter su chiavi a 64 bit già mescolate (vedi PendingRequestStore.keyOf).
+ * Le k posizioni sono ricavate per double hashing dalle due metà della chiave. Non thread-safe.
+ */
+public final class BloomFilter {
+
+    private final long[] bits;
+    private final long numBits;
+    private final int numHashes;
+
+    public BloomFilter(int expectedInsertions, double falsePositiveRate) {
+        long m = (long) Math.ceil(-Math.max(1, expectedInsertions) * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.numBits = Math.max(64, (m + 63) / 64 * 64);
+        this.bits = new long[(int) (numBits / 64)];
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / Math.max(1, expectedInsertions) * Math.log(2)));
+    }
+
+    public void put(long key) {
+        int h1 = (int) key;
+        int h2 = (int) (key >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long index = Integer.toUnsignedLong(h1 + i * h2) % numBits;
+            bits[(int) (index >>> 6)] |= 1L << index;
+        }
+    }
+
+    public boolean mightContain(long key) {
+        int h1 = (int) key;
+        int h2 = (int) (key >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long index = Integer.toUnsignedLong(h1 + i * h2) % numBits;
+            if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
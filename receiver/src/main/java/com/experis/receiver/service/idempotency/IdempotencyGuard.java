@@ -0,0 +1,113 @@
+package com.experis.receiver.service.idempotency;
+
+import com.experis.dbmanager.dto.ResponseDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Deduplica le richieste di salvataggio ripetute dai client (retry su timeout) per chiave di idempotenza.
+ * Una LRU locale limitata contiene le richieste in corso e le risposte recenti: i duplicati concorrenti
+ * attendono la stessa risposta dell'originale. In caso di miss locale si consulta l'{@link IdempotencyStore}
+ * condiviso, interrogato solo se il suo filtro probabilistico indica che la chiave potrebbe esistere.
+ * Vengono memorizzate solo le risposte 2xx, con le intestazioni Location e Set-Cookie (vedi {@link StoredResponse}):
+ * dopo un errore il client può ritentare.
+ */
+@Component
+@Slf4j
+public class IdempotencyGuard {
+
+    private final IdempotencyStore store;
+    private final boolean enabled;
+    private final Map<Long, CompletableFuture<ResponseEntity<ResponseDto>>> recent;
+    private final Counter localHits;
+    private final Counter storeHits;
+    private final Counter misses;
+
+    public IdempotencyGuard(IdempotencyStore store,
+                            @Value("${app.idempotency.enabled:true}") boolean enabled,
+                            @Value("${app.idempotency.lru-size:100000}") int lruSize,
+                            MeterRegistry meterRegistry) {
+        this.store = store;
+        this.enabled = enabled;
+        this.recent = new LinkedHashMap<>(Math.min(lruSize, 1 << 16), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CompletableFuture<ResponseEntity<ResponseDto>>> eldest) {
+                return size() > lruSize;
+            }
+        };
+        this.localHits = Counter.builder("receiver.idempotency.hits").tag("source", "local")
+                .description("Richieste duplicate risolte con la risposta originale")
+                .register(meterRegistry);
+        this.storeHits = Counter.builder("receiver.idempotency.hits").tag("source", "store")
+                .description("Richieste duplicate risolte con la risposta originale")
+                .register(meterRegistry);
+        this.misses = Counter.builder("receiver.idempotency.misses")
+                .description("Richieste nuove")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Esegue l'azione solo se la chiave non è già stata vista, altrimenti restituisce la risposta originale.
+     */
+    public CompletableFuture<ResponseEntity<ResponseDto>> execute(long key, Supplier<CompletableFuture<ResponseEntity<ResponseDto>>> action) {
+        if (!enabled) {
+            return action.get();
+        }
+        CompletableFuture<ResponseEntity<ResponseDto>> own = new CompletableFuture<>();
+        synchronized (recent) {
+            CompletableFuture<ResponseEntity<ResponseDto>> existing = recent.get(key);
+            if (existing != null) {
+                localHits.increment();
+                return existing;
+            }
+            recent.put(key, own);
+        }
+
+        if (store.mightContain(key)) {
+            StoredResponse stored = store.find(key);
+            if (stored != null) {
+                storeHits.increment();
+                own.complete(stored.toResponseEntity());
+                return own;
+            }
+        }
+        misses.increment();
+
+        CompletableFuture<ResponseEntity<ResponseDto>> result;
+        try {
+            result = action.get();
+        } catch (RuntimeException e) {
+            forget(key, own);
+            own.completeExceptionally(e);
+            throw e;
+        }
+        result.whenComplete((response, throwable) -> {
+            if (throwable == null && response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
+                store.save(key, StoredResponse.of(response));
+            } else {
+                forget(key, own);
+            }
+            if (throwable != null) {
+                own.completeExceptionally(throwable);
+            } else {
+                own.complete(response);
+            }
+        });
+        return own;
+    }
+
+    private void forget(long key, CompletableFuture<ResponseEntity<ResponseDto>> own) {
+        synchronized (recent) {
+            recent.remove(key, own);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.experis.receiver.service.idempotency;
+
+/**
+ * Archivio condiviso delle risposte già date alle richieste di salvataggio, per chiave di idempotenza.
+ */
+public interface IdempotencyStore {
+
+    /**
+     * Controllo probabilistico: false garantisce che la chiave non è mai stata registrata,
+     * true richiede una {@link #find(long)} per conferma.
+     */
+    boolean mightContain(long key);
+
+    /**
+     * @return la risposta registrata per la chiave (corpo e intestazioni), oppure null se assente o scaduta
+     */
+    StoredResponse find(long key);
+
+    void save(long key, StoredResponse response);
+}
@@ -0,0 +1,88 @@
+package com.experis.receiver.service.idempotency;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implementazione in memoria dell'archivio di idempotenza, in attesa di uno store condiviso (es. Redis).
+ * Le chiavi sono divise in due generazioni (filtro + mappa) ruotate ogni {@code ttl-ms}:
+ * una risposta resta disponibile tra ttl e 2 x ttl e la memoria non cresce oltre due generazioni.
+ */
+@Component
+@Slf4j
+public class InMemoryIdempotencyStore implements IdempotencyStore {
+
+    private final int expectedInsertions;
+    private final double falsePositiveRate;
+    private final long ttlNanos;
+
+    private Generation current;
+    private Generation previous;
+    private long rotateAtNanos;
+
+    public InMemoryIdempotencyStore(@Value("${app.idempotency.expected-insertions:1000000}") int expectedInsertions,
+                                    @Value("${app.idempotency.false-positive-rate:0.01}") double falsePositiveRate,
+                                    @Value("${app.idempotency.ttl-ms:600000}") long ttlMs) {
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.current = new Generation(expectedInsertions, falsePositiveRate);
+        this.previous = new Generation(expectedInsertions, falsePositiveRate);
+        this.rotateAtNanos = System.nanoTime() + ttlNanos;
+    }
+
+    @Override
+    public synchronized boolean mightContain(long key) {
+        rotateIfNeeded();
+        return current.filter.mightContain(key) || previous.filter.mightContain(key);
+    }
+
+    @Override
+    public StoredResponse find(long key) {
+        Generation cur;
+        Generation prev;
+        synchronized (this) {
+            rotateIfNeeded();
+            cur = current;
+            prev = previous;
+        }
+        StoredResponse response = cur.responses.get(key);
+        return response != null ? response : prev.responses.get(key);
+    }
+
+    @Override
+    public void save(long key, StoredResponse response) {
+        Generation cur;
+        synchronized (this) {
+            rotateIfNeeded();
+            current.filter.put(key);
+            cur = current;
+        }
+        cur.responses.put(key, response);
+    }
+
+    private void rotateIfNeeded() {
+        long now = System.nanoTime();
+        if (now - rotateAtNanos >= 0) {
+            log.debug("Rotazione archivio idempotenza: {} chiavi scartate", previous.responses.size());
+            // Se è trascorsa più di una generazione senza traffico anche la precedente è scaduta
+            previous = now - rotateAtNanos >= ttlNanos ? new Generation(expectedInsertions, falsePositiveRate) : current;
+            current = new Generation(expectedInsertions, falsePositiveRate);
+            rotateAtNanos = now + ttlNanos;
+        }
+    }
+
+    private static final class Generation {
+        private final BloomFilter filter;
+        private final Map<Long, StoredResponse> responses = new ConcurrentHashMap<>();
+
+        private Generation(int expectedInsertions, double falsePositiveRate) {
+            this.filter = new BloomFilter(expectedInsertions, falsePositiveRate);
+        }
+    }
+}
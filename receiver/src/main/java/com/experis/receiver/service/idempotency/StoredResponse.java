@@ -0,0 +1,37 @@
+package com.experis.receiver.service.idempotency;
+
+import com.experis.dbmanager.dto.ResponseDto;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Risposta registrata per una chiave di idempotenza: il corpo e le intestazioni da restituire ai duplicati,
+ * cioè il riferimento allo stato (Location) e il cookie che instrada le richieste di stato verso l'istanza
+ * che ha accettato la richiesta originale (che può non essere quella che risponde al duplicato).
+ */
+public record StoredResponse(ResponseDto body, Map<String, List<String>> headers) {
+
+    private static final List<String> REPLAYED_HEADERS = List.of(HttpHeaders.LOCATION, HttpHeaders.SET_COOKIE);
+
+    public static StoredResponse of(ResponseEntity<ResponseDto> response) {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (String name : REPLAYED_HEADERS) {
+            List<String> values = response.getHeaders().get(name);
+            if (values != null && !values.isEmpty()) {
+                headers.put(name, List.copyOf(values));
+            }
+        }
+        return new StoredResponse(response.getBody(), Map.copyOf(headers));
+    }
+
+    public ResponseEntity<ResponseDto> toResponseEntity() {
+        HttpHeaders replayed = new HttpHeaders();
+        headers.forEach(replayed::addAll);
+        return ResponseEntity.status(HttpStatus.valueOf(Integer.parseInt(body.getStatusCode()))).headers(replayed).body(body);
+    }
+}
@@ -1,25 +1,49 @@
 package com.experis.receiver.service.impl;
 
-import com.experis.dbmanager.constants.Constants;
+import com.experis.dbmanager.blob.FileSystemBlobStore;
 import com.experis.dbmanager.dto.InvoiceDto;
 import com.experis.dbmanager.dto.ResponseDto;
 import com.experis.dbmanager.dto.SdiNotificationDto;
 import com.experis.dbmanager.enumerations.InvoiceStatus;
 import com.experis.receiver.constants.ReceiverConstants;
+import com.experis.receiver.dto.BulkItemResultDto;
+import com.experis.receiver.dto.InvoiceTrackingDto;
+import com.experis.receiver.exception.PublisherBackpressureException;
 import com.experis.receiver.service.IReceiverService;
+import com.experis.receiver.service.admission.AdaptiveAdmissionLimiter;
+import com.experis.receiver.service.callback.CallbackDispatcher;
+import com.experis.receiver.service.idempotency.IdempotencyGuard;
+import com.experis.receiver.service.pending.PendingRequestStore;
+import com.experis.receiver.service.publisher.KafkaInvoicePublisher;
+import com.experis.receiver.service.status.InvoiceStatusTracker;
+import com.experis.receiver.service.validation.InvoiceValidationResult;
+import com.experis.receiver.service.validation.InvoiceXmlValidator;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.stream.function.StreamBridge;
-import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseCookie;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.IOException;
+import java.net.URI;
 import java.time.LocalDateTime;
-import java.util.concurrent.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 @Service
 @Slf4j
@@ -27,117 +51,256 @@ import java.util.concurrent.*;
 public class ReceiverServiceImpl implements IReceiverService {
 
     private final StreamBridge streamBridge;
-    private final RestTemplate restTemplate;
+    private final CallbackDispatcher callbackDispatcher;
+    private final IdempotencyGuard idempotencyGuard;
+    private final AdaptiveAdmissionLimiter admissionLimiter;
+    private final InvoiceStatusTracker statusTracker;
+    private final InvoiceXmlValidator invoiceXmlValidator;
+    private final FileSystemBlobStore invoiceBlobStore;
+    private final PendingRequestStore pendingRequestStore;
+    private final KafkaInvoicePublisher kafkaInvoicePublisher;
 
     @Value("${app.callback.timeout-ms:30000}")
     private long callbackTimeoutMs;
 
-    private static final ConcurrentMap<String, CompletableFuture<ResponseEntity<ResponseDto>>> asyncResponseCache = new ConcurrentHashMap<>();
+    // Numero massimo di fatture di un invio massivo in attesa di ack del broker
+    @Value("${app.bulk.window:1000}")
+    private int bulkWindow;
+
+    // Se abilitato, dbmanager risponde sul topic dedicato a questa istanza (es. invoice-saved.<instanceId>)
+    @Value("${app.reply-routing.enabled:false}")
+    private boolean replyRoutingEnabled;
+
+    @Value("${app.reply-routing.instance-id:${spring.application.name}}")
+    private String replyInstanceId;
+
+    // Corpi XML più lunghi della soglia (caratteri) passano dal blob store invece che dai topic Kafka
+    @Value("${app.claim-check.enabled:false}")
+    private boolean claimCheckEnabled;
+
+    @Value("${app.claim-check.threshold-chars:262144}")
+    private int claimCheckThresholdChars;
+
+    // Attesa massima del long-poll sullo stato e durata massima di uno stream SSE
+    @Value("${app.status.max-wait-ms:30000}")
+    private long statusMaxWaitMs;
+
+    @Value("${app.status.sse-timeout-ms:60000}")
+    private long statusSseTimeoutMs;
+
+    // Lo stato è solo nella memoria di questa istanza: il 202 porta il cookie di sessione sticky del load balancer
+    // del gateway (valore = instance-id Eureka) così le richieste di stato successive arrivano qui
+    @Value("${app.status.sticky-cookie:sc-lb-instance-id}")
+    private String stickyCookieName;
+
+    @PostConstruct
+    void registerTimeoutHandler() {
+        // Le richieste non completate entro il timeout finiscono in DLT
+        pendingRequestStore.onExpire(payload -> {
+            String correlationId = payload instanceof InvoiceDto invoice ? invoice.getCorrelationId()
+                    : payload instanceof SdiNotificationDto notification ? notification.getCorrelationId() : null;
+            Integer customerId = payload instanceof InvoiceDto invoice && invoice.getCustomer() != null ? invoice.getCustomer().getCustomerId()
+                    : payload instanceof SdiNotificationDto notification ? notification.getCustomerId() : null;
+            log.warn("Timeout per {} {}. Spostamento in DLT.", payload.getClass().getSimpleName(), correlationId);
+            statusTracker.update(PendingRequestStore.keyOf(customerId, correlationId), InvoiceTrackingDto.State.TIMEOUT, null, null);
+            streamBridge.send("business-dlt-out-0", payload);
+        });
+    }
 
     @Override
-    public ResponseEntity<ResponseDto> saveInternalInvoice(InvoiceDto invoice) {
+    public CompletableFuture<ResponseEntity<ResponseDto>> saveInternalInvoice(InvoiceDto invoice) {
         return processInvoice(invoice, InvoiceStatus.INTERNAL_INVOICE_NEW);
     }
 
     @Override
-    public ResponseEntity<ResponseDto> saveExternalInvoice(InvoiceDto invoice) {
+    public CompletableFuture<ResponseEntity<ResponseDto>> saveExternalInvoice(InvoiceDto invoice) {
         return processInvoice(invoice, InvoiceStatus.EXTERNAL_INVOICE);
     }
 
     @Override
-    public ResponseEntity<ResponseDto> handleSdiNotification(SdiNotificationDto notification) {
-        String cacheKey = buildCacheKey(notification.getCustomerId(), notification.getCorrelationId());
-        log.info("Ricevuta notifica SdI per {}. In attesa di salvataggio DB.", cacheKey);
+    public List<BulkItemResultDto> saveInvoices(Iterator<InvoiceDto> invoices, boolean external) {
+        InvoiceStatus status = external ? InvoiceStatus.EXTERNAL_INVOICE : InvoiceStatus.INTERNAL_INVOICE_NEW;
+        List<BulkItemResultDto> results = new ArrayList<>();
+        Deque<CompletableFuture<Void>> window = new ArrayDeque<>();
+        int index = 0;
+        while (true) {
+            InvoiceDto invoice;
+            try {
+                if (!invoices.hasNext()) {
+                    break;
+                }
+                invoice = invoices.next();
+            } catch (RuntimeException e) {
+                // Il parser non può riallinearsi dopo un elemento malformato: ci fermiamo qui
+                log.warn("Invio massivo interrotto alla fattura {}: {}", index, e.getMessage());
+                results.add(new BulkItemResultDto(index, null, "400", "Fattura non leggibile: " + e.getMessage()));
+                break;
+            }
 
-        // Creiamo il future per la gestione asincrona (timeout/callback)
-        CompletableFuture<ResponseEntity<ResponseDto>> future = new CompletableFuture<>();
-        asyncResponseCache.put(cacheKey, future);
+            BulkItemResultDto result = new BulkItemResultDto(index++, null, null, null);
+            results.add(result);
+            if (invoice == null || invoice.getCustomer() == null) {
+                result.setStatusCode("400");
+                result.setStatusMsg("Customer mancante");
+                continue;
+            }
+            if (invoice.getCorrelationId() == null || invoice.getCorrelationId().isBlank()) {
+                invoice.setCorrelationId(UUID.randomUUID().toString());
+            }
+            result.setCorrelationId(invoice.getCorrelationId());
 
-        try {
-            boolean sent = streamBridge.send("publishSdiNotification-out-0", notification);
-            if (!sent) {
-                log.error("Errore nell'invio Kafka della notifica SdI per {}", cacheKey);
-                // Rimuoviamo il future dalla cache se l'invio fallisce subito
-                asyncResponseCache.remove(cacheKey);
-                // Restituiamo errore 417 immediato
-                return createErrorResponse(ReceiverConstants.MESSAGE_417_UPDATE, HttpStatus.EXPECTATION_FAILED);
-            } else {
-                log.info("Notifica SdI per {} inviata a dsiNotification.", cacheKey);
-                // Avviamo il timeout per il future in background
-                setupTimeout(cacheKey, future, "business-dlt-out-0", notification);
-                // Restituiamo 202 Accepted immediato
-                return createSuccessResponse(ReceiverConstants.MESSAGE_202, HttpStatus.ACCEPTED);
+            if (window.size() >= bulkWindow) {
+                window.poll().join();
             }
-        } catch (Exception e) {
-            log.error("Eccezione durante invio Kafka della notifica SdI per {}", cacheKey, e);
-            // Rimuoviamo il future dalla cache se l'invio fallisce subito
-            asyncResponseCache.remove(cacheKey);
-            // Restituiamo 500 immediato
-            return createErrorResponse(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            window.add(processInvoice(invoice, status).thenAccept(response -> {
+                result.setStatusCode(response.getBody().getStatusCode());
+                result.setStatusMsg(response.getBody().getStatusMsg());
+            }));
         }
+        CompletableFuture.allOf(window.toArray(CompletableFuture[]::new)).join();
+        log.info("Invio massivo completato: {} fatture elaborate", results.size());
+        return results;
     }
 
     @Override
-    public void handleSavedInvoice(InvoiceDto savedInvoice) {
-        String cacheKey = buildCacheKey(savedInvoice.getCustomer().getCustomerId(), savedInvoice.getCorrelationId());
+    public CompletableFuture<ResponseEntity<ResponseDto>> handleSdiNotification(SdiNotificationDto notification) {
+        Integer customerId = notification.getCustomerId();
+        String correlationId = notification.getCorrelationId();
+        long pendingKey = PendingRequestStore.keyOf(customerId, correlationId);
+        log.info("Ricevuta notifica SdI per {}-{}. In attesa di salvataggio DB.", customerId, correlationId);
+        if (replyRoutingEnabled) {
+            notification.setReplyTo(replyInstanceId);
+        }
 
-        CompletableFuture<ResponseEntity<ResponseDto>> future = asyncResponseCache.remove(cacheKey);
+        if (!admissionLimiter.tryAdmit()) {
+            log.warn("Controllo di ammissione: notifica SdI per {}-{} rifiutata", customerId, correlationId);
+            return CompletableFuture.completedFuture(createTooManyRequestsResponse());
+        }
 
-        if (future == null) {
-            log.warn("Ricevuta fattura salvata per {}, ma non c'è nessuna richiesta asincrona in attesa.", cacheKey);
-            return;
+        // Registriamo la richiesta in attesa (timeout gestito dalla timer wheel)
+        ResponseEntity<ResponseDto> rejected = register(pendingKey, notification, "notifica SdI per " + customerId + "-" + correlationId);
+        if (rejected != null) {
+            return CompletableFuture.completedFuture(rejected);
         }
+        statusTracker.track(pendingKey, customerId, correlationId);
 
-        if (future.isDone()) {
-            log.warn("Ricevuta fattura salvata per {}, ma la richiesta era già stata completata (probabilmente timeout).", cacheKey);
-            return;
+        // Chiave per fattura: le notifiche della stessa fattura restano in ordine sulla stessa partizione
+        String messageKey = notification.getInvoiceNumber() != null
+                ? String.valueOf(notification.getInvoiceNumber()) : String.valueOf(customerId);
+        return publish("publishSdiNotification-out-0", messageKey, notification, pendingKey, "notifica SdI " + customerId + "-" + correlationId,
+                statusLocation(customerId, correlationId));
+    }
+
+    @Override
+    public ResponseCookie statusRoutingCookie() {
+        return ResponseCookie.from(stickyCookieName, replyInstanceId).path("/").httpOnly(true).build();
+    }
+
+    @Override
+    public DeferredResult<ResponseEntity<InvoiceTrackingDto>> awaitInvoiceStatus(Integer customerId, String correlationId, long waitMs) {
+        long key = PendingRequestStore.keyOf(customerId, correlationId);
+        long timeout = Math.max(0, Math.min(waitMs, statusMaxWaitMs));
+        DeferredResult<ResponseEntity<InvoiceTrackingDto>> result = new DeferredResult<>(timeout > 0 ? timeout : null);
+        Consumer<InvoiceTrackingDto> listener = state -> result.setResult(ResponseEntity.ok(state));
+
+        InvoiceTrackingDto current = statusTracker.subscribe(key, listener);
+        if (current == null) {
+            result.setResult(ResponseEntity.notFound().build());
+        } else if (current.getState().isFinal() || timeout == 0) {
+            statusTracker.unsubscribe(key, listener);
+            result.setResult(ResponseEntity.ok(current));
+        } else {
+            result.onTimeout(() -> result.setResult(ResponseEntity.ok(statusTracker.current(key))));
+            result.onCompletion(() -> statusTracker.unsubscribe(key, listener));
         }
+        return result;
+    }
 
-        log.info("Ricevuta conferma salvataggio per {}. Stato: {}", cacheKey, savedInvoice.getInvoiceStatus());
+    @Override
+    public ResponseEntity<SseEmitter> streamInvoiceStatus(Integer customerId, String correlationId) {
+        long key = PendingRequestStore.keyOf(customerId, correlationId);
+        SseEmitter emitter = new SseEmitter(statusSseTimeoutMs);
+        Consumer<InvoiceTrackingDto> listener = state -> sendStatusEvent(emitter, state);
+
+        // Il lock sull'emitter garantisce che lo stato iniziale preceda gli aggiornamenti
+        synchronized (emitter) {
+            InvoiceTrackingDto current = statusTracker.subscribe(key, listener);
+            if (current == null) {
+                return ResponseEntity.notFound().build();
+            }
+            emitter.onCompletion(() -> statusTracker.unsubscribe(key, listener));
+            emitter.onTimeout(() -> statusTracker.unsubscribe(key, listener));
+            emitter.onError(throwable -> statusTracker.unsubscribe(key, listener));
+            sendStatusEvent(emitter, current);
+        }
+        return ResponseEntity.ok(emitter);
+    }
 
-        if (savedInvoice.getCallback() != null && !savedInvoice.getCallback().isBlank()) {
+    private void sendStatusEvent(SseEmitter emitter, InvoiceTrackingDto state) {
+        synchronized (emitter) {
             try {
-                log.info("Esecuzione callback per {} a {}", cacheKey, savedInvoice.getCallback());
-                HttpHeaders headers = new HttpHeaders();
-                headers.set("X-ARUBA-API-KEY","aruba4hookdeck-secret");
-                headers.set(Constants.CORRELATION_ID_HEADER, savedInvoice.getCorrelationId());
-                HttpEntity<Object> requestEntity = new HttpEntity<>(savedInvoice, headers);
-                restTemplate.postForEntity(savedInvoice.getCallback(), requestEntity, String.class);
-                future.complete(createSuccessResponse(ReceiverConstants.MESSAGE_200, HttpStatus.OK));
-            } catch (Exception e) {
-                log.error("Errore durante l'esecuzione della callback per {} a {}: {}", cacheKey, savedInvoice.getCallback(), e.getMessage());
-                streamBridge.send("business-dlt-out-0", savedInvoice);
-                future.complete(createErrorResponse("Errore Callback", HttpStatus.SERVICE_UNAVAILABLE));
+                emitter.send(SseEmitter.event().name("status").data(state));
+                if (state.getState().isFinal()) {
+                    emitter.complete();
+                }
+            } catch (IOException | IllegalStateException e) {
+                log.debug("Client SSE disconnesso per {}: {}", state.getCorrelationId(), e.getMessage());
+                emitter.completeWithError(e);
             }
-        } else {
-            future.complete(createSuccessResponse(ReceiverConstants.MESSAGE_200, HttpStatus.OK));
         }
     }
 
     @Override
-    public void handleUpdatedInvoice(SdiNotificationDto sdiNotificationDto) {
-
-        sdiNotificationDto.setUpdatedAt(LocalDateTime.now());
-        String cacheKey = buildCacheKey(sdiNotificationDto.getCustomerId(), sdiNotificationDto.getCorrelationId());
+    public void handleSavedInvoice(InvoiceDto savedInvoice) {
+        Integer customerId = savedInvoice.getCustomer().getCustomerId();
+        String correlationId = savedInvoice.getCorrelationId();
 
-        CompletableFuture<ResponseEntity<ResponseDto>> future = asyncResponseCache.remove(cacheKey);
+        long pendingKey = PendingRequestStore.keyOf(customerId, correlationId);
+        Object pending = pendingRequestStore.complete(pendingKey);
+        statusTracker.update(pendingKey, InvoiceTrackingDto.State.SAVED, savedInvoice.getInvoiceNumber(), savedInvoice.getInvoiceStatus());
 
-        if (future == null) {
-            log.warn("Ricevuta di update della fattura per notifica SdI {}, ma non c'è nessuna richiesta asincrona in attesa.", cacheKey);
+        if (pending == null) {
+            log.warn("Ricevuta fattura salvata per {}-{}, ma non c'è nessuna richiesta asincrona in attesa (mai registrata o scaduta).", customerId, correlationId);
             return;
         }
 
-        if (future.isDone()) {
-            log.warn("Ricevuta di update della fattura per notifica SdI {}, ma la richiesta era già stata completata (probabilmente timeout).", cacheKey);
+        log.info("Ricevuta conferma salvataggio per {}-{}. Stato: {}", customerId, correlationId, savedInvoice.getInvoiceStatus());
+
+        if (savedInvoice.getCallback() != null && !savedInvoice.getCallback().isBlank()) {
+            callbackDispatcher.dispatch(savedInvoice);
+        }
+    }
+
+    @Override
+    public void handleUpdatedInvoice(SdiNotificationDto sdiNotificationDto) {
+
+        sdiNotificationDto.setUpdatedAt(LocalDateTime.now());
+        Integer customerId = sdiNotificationDto.getCustomerId();
+        String correlationId = sdiNotificationDto.getCorrelationId();
+
+        long pendingKey = PendingRequestStore.keyOf(customerId, correlationId);
+        Object pending = pendingRequestStore.complete(pendingKey);
+        statusTracker.update(pendingKey, InvoiceTrackingDto.State.UPDATED, sdiNotificationDto.getInvoiceNumber(), sdiNotificationDto.getStatus());
+
+        if (pending == null) {
+            log.warn("Ricevuta di update della fattura per notifica SdI {}-{}, ma non c'è nessuna richiesta asincrona in attesa (mai registrata o scaduta).", customerId, correlationId);
             return;
         }
 
-        log.info("Ricevuta di update della fattura per notifica SdI {}. Stato: {}", cacheKey, sdiNotificationDto.getStatus());
+        log.info("Ricevuta di update della fattura per notifica SdI {}-{}. Stato: {}", customerId, correlationId, sdiNotificationDto.getStatus());
+    }
 
-        future.complete(createSuccessResponse(ReceiverConstants.MESSAGE_200, HttpStatus.OK));
+    private CompletableFuture<ResponseEntity<ResponseDto>> processInvoice(InvoiceDto invoice, InvoiceStatus status) {
+        String correlationId = invoice.getCorrelationId();
+        if (correlationId == null || correlationId.isBlank()) {
+            return doProcessInvoice(invoice, status);
+        }
+        // I retry del client con lo stesso correlationId ricevono la risposta originale senza un nuovo invio Kafka
+        long idempotencyKey = PendingRequestStore.keyOf(invoice.getCustomer().getCustomerId(), correlationId);
+        return idempotencyGuard.execute(idempotencyKey, () -> doProcessInvoice(invoice, status));
     }
 
-    private ResponseEntity<ResponseDto> processInvoice(InvoiceDto invoice, InvoiceStatus status) {
+    private CompletableFuture<ResponseEntity<ResponseDto>> doProcessInvoice(InvoiceDto invoice, InvoiceStatus status) {
         invoice.setInvoiceStatus(status);
         invoice.setStatusLastUpdatedAt(LocalDateTime.now());
         if(InvoiceStatus.EXTERNAL_INVOICE.equals(invoice.getInvoiceStatus())
@@ -147,39 +310,130 @@ public class ReceiverServiceImpl implements IReceiverService {
             invoice.setUpdatedAt(LocalDateTime.now());
         }
 
-        String cacheKey = buildCacheKey(invoice.getCustomer().getCustomerId(), invoice.getCorrelationId());
-        log.info("Processando fattura {}. Stato: {}. In attesa di salvataggio DB.", cacheKey, status);
+        Integer customerId = invoice.getCustomer().getCustomerId();
+        String correlationId = invoice.getCorrelationId();
+        long pendingKey = PendingRequestStore.keyOf(customerId, correlationId);
+        log.info("Processando fattura {}-{}. Stato: {}. In attesa di salvataggio DB.", customerId, correlationId, status);
+        if (replyRoutingEnabled) {
+            invoice.setReplyTo(replyInstanceId);
+        }
 
-        // Creiamo il future per la gestione asincrona (timeout/callback)
-        CompletableFuture<ResponseEntity<ResponseDto>> future = new CompletableFuture<>();
-        asyncResponseCache.put(cacheKey, future);
+        if (!admissionLimiter.tryAdmit()) {
+            log.warn("Controllo di ammissione: fattura per {}-{} rifiutata", customerId, correlationId);
+            return CompletableFuture.completedFuture(createTooManyRequestsResponse());
+        }
 
+        // Le fatture non valide vengono scartate qui, prima di qualsiasi invio verso dbmanager e SdI
+        CompletableFuture<InvoiceValidationResult> validation;
         try {
-            boolean sent = streamBridge.send("publishInvoice-out-0", invoice);
-            if (!sent) {
-                log.error("Errore nell'invio Kafka della fattura {}", cacheKey);
-                // Rimuoviamo il future dalla cache se l'invio fallisce subito
-                asyncResponseCache.remove(cacheKey);
-                // Restituiamo errore 417 immediato
-                return createErrorResponse(ReceiverConstants.MESSAGE_417_UPDATE, HttpStatus.EXPECTATION_FAILED);
-            } else {
-                log.info("Fattura {} inviata a incomingInvoice.", cacheKey);
-                // Avviamo il timeout per il future in background
-                setupTimeout(cacheKey, future, "business-dlt-out-0", invoice);
-                // Restituiamo 202 Accepted immediato
-                return createSuccessResponse(ReceiverConstants.MESSAGE_202, HttpStatus.ACCEPTED);
+            validation = invoiceXmlValidator.validateAsync(invoice.getInvoice());
+        } catch (RejectedExecutionException e) {
+            log.warn("Coda di validazione piena, fattura {}-{} rifiutata", customerId, correlationId);
+            return CompletableFuture.completedFuture(
+                    createErrorResponse(ReceiverConstants.MESSAGE_503_BACKPRESSURE, HttpStatus.SERVICE_UNAVAILABLE));
+        }
+        return validation.thenCompose(result -> {
+            if (!result.valid()) {
+                log.warn("Fattura {}-{} rifiutata dalla validazione XML: {}", customerId, correlationId, result.message());
+                return CompletableFuture.completedFuture(
+                        createErrorResponse(ReceiverConstants.MESSAGE_400_INVALID_XML + ": " + result.message(), HttpStatus.BAD_REQUEST));
             }
+            return registerAndPublish(invoice, pendingKey);
+        });
+    }
+
+    private CompletableFuture<ResponseEntity<ResponseDto>> registerAndPublish(InvoiceDto invoice, long pendingKey) {
+        Integer customerId = invoice.getCustomer().getCustomerId();
+        String correlationId = invoice.getCorrelationId();
+        // Registriamo la richiesta in attesa (timeout gestito dalla timer wheel)
+        ResponseEntity<ResponseDto> rejected = register(pendingKey, invoice, "fattura " + customerId + "-" + correlationId);
+        if (rejected != null) {
+            return CompletableFuture.completedFuture(rejected);
+        }
+        statusTracker.track(pendingKey, customerId, correlationId);
+
+        offloadInvoiceBody(invoice);
+        // Chiave per cliente: il numero fattura non esiste ancora, le fatture di un cliente restano in ordine
+        return publish("publishInvoice-out-0", String.valueOf(customerId), invoice, pendingKey, "fattura " + customerId + "-" + correlationId,
+                statusLocation(customerId, correlationId));
+    }
+
+    /**
+     * Claim check: oltre la soglia il corpo XML viene scritto nel blob store condiviso
+     * e sui topic viaggia solo il riferimento. Se la scrittura fallisce il corpo resta nel messaggio.
+     */
+    private void offloadInvoiceBody(InvoiceDto invoice) {
+        if (!claimCheckEnabled || invoice.getInvoice() == null || invoice.getInvoice().length() < claimCheckThresholdChars) {
+            return;
+        }
+        try {
+            invoice.setInvoiceRef(invoiceBlobStore.put(invoice.getInvoice()));
+            invoice.setInvoice(null);
+        } catch (IOException e) {
+            log.warn("Scrittura nel blob store fallita per la fattura {}, invio con corpo incluso: {}", invoice.getCorrelationId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Pubblica su Kafka senza bloccare il thread HTTP: la risposta 202 viene prodotta solo all'ack del broker,
+     * 503 in caso di backpressure del producer, 417 per gli altri errori di invio.
+     */
+    private CompletableFuture<ResponseEntity<ResponseDto>> publish(String bindingName, String messageKey, Object payload, long pendingKey,
+                                                                   String description, URI statusLocation) {
+        try {
+            return kafkaInvoicePublisher.publish(bindingName, messageKey, payload)
+                    .handle((result, throwable) -> {
+                        if (throwable == null) {
+                            log.info("{} confermata dal broker su {}.", description, result.getRecordMetadata().topic());
+                            return createAcceptedResponse(statusLocation);
+                        }
+                        // Rimuoviamo la richiesta dal registro se l'invio fallisce
+                        discardPending(pendingKey);
+                        if (throwable instanceof PublisherBackpressureException) {
+                            log.warn("Backpressure del producer Kafka, {} rifiutata", description);
+                            return createErrorResponse(ReceiverConstants.MESSAGE_503_BACKPRESSURE, HttpStatus.SERVICE_UNAVAILABLE);
+                        }
+                        log.error("Errore nell'invio Kafka di {}", description, throwable);
+                        return createErrorResponse(ReceiverConstants.MESSAGE_417_UPDATE, HttpStatus.EXPECTATION_FAILED);
+                    });
+        } catch (PublisherBackpressureException e) {
+            discardPending(pendingKey);
+            log.warn("Backpressure del producer Kafka, {} rifiutata: {}", description, e.getMessage());
+            return CompletableFuture.completedFuture(
+                    createErrorResponse(ReceiverConstants.MESSAGE_503_BACKPRESSURE, HttpStatus.SERVICE_UNAVAILABLE));
         } catch (Exception e) {
-            log.error("Eccezione durante invio Kafka della fattura {}", cacheKey, e);
-            // Rimuoviamo il future dalla cache se l'invio fallisce subito
-            asyncResponseCache.remove(cacheKey);
-            // Restituiamo 500 immediato
-            return createErrorResponse(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            log.error("Eccezione durante invio Kafka di {}", description, e);
+            discardPending(pendingKey);
+            return CompletableFuture.completedFuture(createErrorResponse(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR));
+        }
+    }
+
+    /**
+     * Registra la richiesta in attesa della risposta della SAGA.
+     * Con la stessa chiave già in attesa (stesso cliente e correlationId) la richiesta esistente mantiene
+     * la sua scadenza e la nuova è rifiutata con 409: il client può ritentare dopo l'esito della prima.
+     *
+     * @return la risposta di rifiuto, oppure null se la richiesta è stata registrata
+     */
+    private ResponseEntity<ResponseDto> register(long pendingKey, Object payload, String description) {
+        switch (pendingRequestStore.register(pendingKey, payload, callbackTimeoutMs)) {
+            case FULL -> {
+                log.error("Troppe richieste in attesa, {} rifiutata", description);
+                return createErrorResponse(ReceiverConstants.MESSAGE_503_PENDING_FULL, HttpStatus.SERVICE_UNAVAILABLE);
+            }
+            case DUPLICATE -> {
+                log.warn("Richiesta già in attesa con la stessa chiave, {} rifiutata", description);
+                return createErrorResponse(ReceiverConstants.MESSAGE_409_PENDING_DUPLICATE, HttpStatus.CONFLICT);
+            }
+            default -> {
+                return null;
+            }
         }
     }
 
-    public static String buildCacheKey(Integer customerId, String invoiceNumber) {
-        return (customerId != null ? customerId : "NA") + "-" + (invoiceNumber != null ? invoiceNumber : "NA");
+    private void discardPending(long pendingKey) {
+        pendingRequestStore.remove(pendingKey);
+        statusTracker.update(pendingKey, InvoiceTrackingDto.State.FAILED, null, null);
     }
 
     private ResponseEntity<ResponseDto> createErrorResponse(String sender, HttpStatus status) {
@@ -189,30 +443,32 @@ public class ReceiverServiceImpl implements IReceiverService {
                 .body(new ResponseDto(statusCode, sender));
     }
 
-    private ResponseEntity<ResponseDto> createSuccessResponse(String sender, HttpStatus status) {
-        String statusCode = (status != null) ? String.valueOf(status.value()) : "200";
+    private ResponseEntity<ResponseDto> createTooManyRequestsResponse() {
         return ResponseEntity
-                .status(status != null ? status : HttpStatus.OK)
-                .body(new ResponseDto(statusCode, sender));
+                .status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(admissionLimiter.retryAfterSeconds()))
+                .body(new ResponseDto(String.valueOf(HttpStatus.TOO_MANY_REQUESTS.value()), ReceiverConstants.MESSAGE_429));
     }
 
-    private void setupTimeout(String cacheKey, CompletableFuture<ResponseEntity<ResponseDto>> future, String dltout, Object obj) {
-        future.orTimeout(callbackTimeoutMs, TimeUnit.MILLISECONDS).whenComplete((response, throwable) -> {
-            if (throwable instanceof TimeoutException) {
-                log.warn("Timeout per {} {}. Spostamento in DLT.", dltout, cacheKey);
-                streamBridge.send(dltout, obj);
-                asyncResponseCache.remove(cacheKey); // Assicurati di rimuovere dalla cache anche in caso di timeout
-                future.complete(createErrorResponse("Richiesta asincrona non completata entro il timeout", HttpStatus.GATEWAY_TIMEOUT));
-            }
-            // Se non è un TimeoutException, il future è stato completato normalmente (da savedInvoice) o con un altro errore
-            // In ogni caso, la rimozione dalla cache avviene in savedInvoice o qui
-            else if (response != null) {
-                // Completato normalmente, la cache è già stata rimossa da savedInvoice
-            } else if (throwable != null) {
-                // Completato con un errore diverso dal timeout
-                log.error("Future completato con errore imprevisto per {}: {}", cacheKey, throwable.getMessage());
-                asyncResponseCache.remove(cacheKey); // Rimuovi in caso di errore
-            }
-        });
+    /**
+     * 202 con il riferimento allo stato della richiesta (relativo, valido anche attraverso il gateway)
+     * e il cookie che instrada le richieste di stato verso questa istanza.
+     */
+    private ResponseEntity<ResponseDto> createAcceptedResponse(URI statusLocation) {
+        ResponseEntity.BodyBuilder response = ResponseEntity
+                .status(HttpStatus.ACCEPTED)
+                .header(HttpHeaders.SET_COOKIE, statusRoutingCookie().toString());
+        if (statusLocation != null) {
+            response.location(statusLocation);
+        }
+        return response.body(new ResponseDto(String.valueOf(HttpStatus.ACCEPTED.value()), ReceiverConstants.MESSAGE_202));
+    }
+
+    private static URI statusLocation(Integer customerId, String correlationId) {
+        if (customerId == null || correlationId == null || correlationId.isBlank()) {
+            return null;
+        }
+        return UriComponentsBuilder.fromPath("statoFattura/{customerId}/{correlationId}")
+                .buildAndExpand(customerId, correlationId).encode().toUri();
     }
-}
\ No newline at end of file
+}
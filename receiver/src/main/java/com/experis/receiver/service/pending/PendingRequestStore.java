@@ -0,0 +1,226 @@
+package com.experis.receiver.service.pending;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Registro delle richieste in attesa di conferma dalla SAGA, con scadenza gestita da una hashed timer wheel.
+ * Sostituisce la mappa di CompletableFuture con orTimeout: nessun future né chiave String per richiesta
+ * e un solo thread che avanza la ruota ogni {@code tick-ms}.
+ */
+@Component
+@Slf4j
+public class PendingRequestStore {
+
+    private final PendingRequestTable table;
+    private final long tickNanos;
+    private final long startNanos;
+    private final ScheduledExecutorService ticker;
+    private final ExecutorService expiryExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Counter expiredCounter;
+    private final Counter rejectedCounter;
+    private final Counter duplicateCounter;
+    private final Timer completionTimer;
+
+    private long processedTick;
+    private volatile long lagMs;
+    // Media mobile esponenziale della latenza registrazione -> risposta della SAGA (guardata dal lock sulla tabella)
+    private double completionLatencyMs;
+    private volatile Consumer<Object> expiryListener = payload -> { };
+
+    public PendingRequestStore(@Value("${app.pending.capacity:262144}") int capacity,
+                               @Value("${app.pending.wheel-size:512}") int wheelSize,
+                               @Value("${app.pending.tick-ms:100}") long tickMs,
+                               MeterRegistry meterRegistry) {
+        this.table = new PendingRequestTable(capacity, wheelSize);
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.startNanos = System.nanoTime();
+
+        Gauge.builder("receiver.pending.requests", this, PendingRequestStore::size)
+                .description("Richieste in attesa di risposta dalla SAGA")
+                .register(meterRegistry);
+        Gauge.builder("receiver.pending.timer.lag", this, store -> store.lagMs)
+                .description("Ritardo della timer wheel rispetto al tempo reale")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        this.expiredCounter = Counter.builder("receiver.pending.expired")
+                .description("Richieste scadute e inviate in DLT")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("receiver.pending.rejected")
+                .description("Richieste rifiutate perché la tabella è piena")
+                .register(meterRegistry);
+        this.duplicateCounter = Counter.builder("receiver.pending.duplicates")
+                .description("Richieste rifiutate perché la chiave è già in attesa")
+                .register(meterRegistry);
+        this.completionTimer = Timer.builder("receiver.pending.completion.latency")
+                .description("Tempo tra la registrazione della richiesta e la risposta della SAGA")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        this.ticker = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("pending-timer-wheel").daemon().factory());
+        this.ticker.scheduleAtFixedRate(this::advance, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        log.info("Pending request store: capacità {}, ruota {} x {} ms", capacity, wheelSize, tickMs);
+    }
+
+    /**
+     * Chiave a 64 bit per la coppia customerId/correlationId.
+     * La probabilità di collisione con centinaia di migliaia di richieste attive è trascurabile (~1e-9).
+     */
+    public static long keyOf(Integer customerId, String correlationId) {
+        long h = 0x9E3779B97F4A7C15L ^ (customerId != null ? customerId : -1);
+        if (correlationId != null) {
+            for (int i = 0; i < correlationId.length(); i++) {
+                h = (h ^ correlationId.charAt(i)) * 0x100000001B3L;
+            }
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Listener invocato (su virtual thread) con il payload di ogni richiesta scaduta.
+     */
+    public void onExpire(Consumer<Object> listener) {
+        this.expiryListener = listener;
+    }
+
+    /**
+     * Una richiesta già in attesa con la stessa chiave non viene sostituita: resta registrata con la sua scadenza.
+     *
+     * @return {@link PendingRequestTable.PutResult#FULL} se la tabella è piena,
+     * {@link PendingRequestTable.PutResult#DUPLICATE} se la chiave è già in attesa
+     */
+    public PendingRequestTable.PutResult register(long key, Object payload, long timeoutMs) {
+        long deadlineTick = currentTick() + Math.max(1, (TimeUnit.MILLISECONDS.toNanos(timeoutMs) + tickNanos - 1) / tickNanos);
+        PendingRequestTable.PutResult result;
+        synchronized (table) {
+            result = table.put(key, payload, deadlineTick, System.nanoTime());
+        }
+        switch (result) {
+            case FULL -> rejectedCounter.increment();
+            case DUPLICATE -> duplicateCounter.increment();
+            default -> { }
+        }
+        return result;
+    }
+
+    /**
+     * @return il payload registrato, oppure null se la richiesta non è presente (mai registrata o già scaduta)
+     */
+    public Object remove(long key) {
+        synchronized (table) {
+            return table.remove(key);
+        }
+    }
+
+    /**
+     * Rimuove la richiesta a cui è arrivata la risposta della SAGA, registrandone la latenza end-to-end.
+     *
+     * @return il payload registrato, oppure null se la richiesta non è presente
+     */
+    public Object complete(long key) {
+        long now = System.nanoTime();
+        long start;
+        Object payload;
+        synchronized (table) {
+            start = table.startOf(key);
+            payload = table.remove(key);
+            if (payload != null) {
+                double latencyMs = (now - start) / 1_000_000.0;
+                completionLatencyMs = completionLatencyMs == 0 ? latencyMs : completionLatencyMs + (latencyMs - completionLatencyMs) * 0.1;
+            }
+        }
+        if (payload != null) {
+            completionTimer.record(now - start, TimeUnit.NANOSECONDS);
+        }
+        return payload;
+    }
+
+    /**
+     * @return media mobile della latenza end-to-end delle richieste completate, 0 se non ancora misurata
+     */
+    public double completionLatencyMs() {
+        synchronized (table) {
+            return completionLatencyMs;
+        }
+    }
+
+    /**
+     * @return numero totale di richieste scadute dall'avvio
+     */
+    public long expiredCount() {
+        return (long) expiredCounter.count();
+    }
+
+    public boolean contains(long key) {
+        synchronized (table) {
+            return table.contains(key);
+        }
+    }
+
+    public int size() {
+        synchronized (table) {
+            return table.size();
+        }
+    }
+
+    public int capacity() {
+        return table.capacity();
+    }
+
+    private long currentTick() {
+        return (System.nanoTime() - startNanos) / tickNanos;
+    }
+
+    // Avanza la ruota fino al tick corrente, recuperando gli eventuali tick persi
+    private void advance() {
+        try {
+            long now = System.nanoTime();
+            long target = (now - startNanos) / tickNanos;
+            // Ritardo misurato prima di recuperare: da quanto è scaduto il primo tick non ancora elaborato
+            // (processedTick è scritto solo da questo thread)
+            lagMs = Math.max(0, TimeUnit.NANOSECONDS.toMillis(now - startNanos - (processedTick + 1) * tickNanos));
+            List<Object> expired = new ArrayList<>();
+            synchronized (table) {
+                while (processedTick < target) {
+                    processedTick++;
+                    table.expire(processedTick, expired);
+                }
+            }
+            if (!expired.isEmpty()) {
+                expiredCounter.increment(expired.size());
+                Consumer<Object> listener = expiryListener;
+                for (Object payload : expired) {
+                    expiryExecutor.execute(() -> listener.accept(payload));
+                }
+            }
+        } catch (Exception e) {
+            log.error("Errore durante l'avanzamento della timer wheel", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+        expiryExecutor.shutdown();
+    }
+}
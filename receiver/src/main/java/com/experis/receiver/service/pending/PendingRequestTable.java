@@ -0,0 +1,229 @@
+package com.experis.receiver.service.pending;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tabella compatta delle richieste in attesa di risposta dalla SAGA.
+ * <p>
+ * Gli slot sono preallocati (nessuna allocazione per richiesta) e indicizzati da chiavi {@code long}
+ * tramite open addressing. Ogni slot è agganciato a un bucket di una hashed timer wheel:
+ * {@link #expire(long, List)} visita solo il bucket del tick corrente.
+ * <p>
+ * La classe non è thread-safe: la sincronizzazione è a carico di {@link PendingRequestStore}.
+ */
+public class PendingRequestTable {
+
+    public enum PutResult { ADDED, FULL, DUPLICATE }
+
+    private static final int NIL = -1;
+
+    // Indice chiave -> slot (linear probing, load factor massimo 0.5); ogni valore long è una chiave valida
+    private final long[] indexKeys;
+    private final boolean[] indexUsed;
+    private final int[] indexSlots;
+    private final int indexMask;
+
+    // Slot preallocati
+    private final long[] slotKeys;
+    private final long[] slotDeadlines;
+    private final long[] slotStarts;
+    private final Object[] slotPayloads;
+    private final int[] next;
+    private final int[] prev;
+    private int freeHead;
+    private int size;
+
+    // Timer wheel: teste delle liste doppiamente concatenate di slot
+    private final int[] buckets;
+    private final int wheelMask;
+
+    public PendingRequestTable(int capacity, int wheelSize) {
+        if (capacity <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("capacity e wheelSize devono essere positivi");
+        }
+        int indexCapacity = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+        this.indexKeys = new long[indexCapacity];
+        this.indexUsed = new boolean[indexCapacity];
+        this.indexSlots = new int[indexCapacity];
+        this.indexMask = indexCapacity - 1;
+
+        this.slotKeys = new long[capacity];
+        this.slotDeadlines = new long[capacity];
+        this.slotStarts = new long[capacity];
+        this.slotPayloads = new Object[capacity];
+        this.next = new int[capacity];
+        this.prev = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            next[i] = i + 1 < capacity ? i + 1 : NIL;
+        }
+        this.freeHead = 0;
+
+        int wheelCapacity = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.buckets = new int[wheelCapacity];
+        Arrays.fill(buckets, NIL);
+        this.wheelMask = wheelCapacity - 1;
+    }
+
+    /**
+     * Registra una richiesta. Se la chiave è già presente la richiesta esistente resta registrata (con la sua scadenza)
+     * e la nuova è rifiutata: il chiamante decide se attendere, completare o far scadere quella esistente.
+     *
+     * @return {@link PutResult#FULL} se la tabella è piena, {@link PutResult#DUPLICATE} se la chiave è già presente
+     */
+    public PutResult put(long key, Object payload, long deadlineTick) {
+        return put(key, payload, deadlineTick, 0L);
+    }
+
+    /**
+     * Come {@link #put(long, Object, long)}, memorizzando anche l'istante di registrazione (in nanosecondi).
+     */
+    public PutResult put(long key, Object payload, long deadlineTick, long startNanos) {
+        if (find(key) != NIL) {
+            return PutResult.DUPLICATE;
+        }
+        if (freeHead == NIL) {
+            return PutResult.FULL;
+        }
+        int slot = freeHead;
+        freeHead = next[slot];
+
+        slotKeys[slot] = key;
+        slotDeadlines[slot] = deadlineTick;
+        slotStarts[slot] = startNanos;
+        slotPayloads[slot] = payload;
+        link(slot);
+
+        int pos = home(key);
+        while (indexUsed[pos]) {
+            pos = (pos + 1) & indexMask;
+        }
+        indexKeys[pos] = key;
+        indexSlots[pos] = slot;
+        indexUsed[pos] = true;
+        size++;
+        return PutResult.ADDED;
+    }
+
+    /**
+     * Rimuove la richiesta associata alla chiave.
+     *
+     * @return il payload registrato oppure null se la chiave non è presente
+     */
+    public Object remove(long key) {
+        int pos = find(key);
+        if (pos == NIL) {
+            return null;
+        }
+        int slot = indexSlots[pos];
+        deleteIndexAt(pos);
+        return release(slot);
+    }
+
+    /**
+     * @return l'istante di registrazione della richiesta, oppure -1 se la chiave non è presente
+     */
+    public long startOf(long key) {
+        int pos = find(key);
+        return pos == NIL ? -1L : slotStarts[indexSlots[pos]];
+    }
+
+    public boolean contains(long key) {
+        return find(key) != NIL;
+    }
+
+    /**
+     * Rimuove le richieste scadute nel bucket del tick indicato, aggiungendone i payload a {@code expired}.
+     * Gli slot con deadline in un giro successivo della ruota restano al loro posto.
+     */
+    public void expire(long tick, List<Object> expired) {
+        int slot = buckets[(int) (tick & wheelMask)];
+        while (slot != NIL) {
+            int following = next[slot];
+            if (slotDeadlines[slot] <= tick) {
+                deleteIndexAt(find(slotKeys[slot]));
+                expired.add(release(slot));
+            }
+            slot = following;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return slotKeys.length;
+    }
+
+    private Object release(int slot) {
+        unlink(slot);
+        Object payload = slotPayloads[slot];
+        slotPayloads[slot] = null;
+        next[slot] = freeHead;
+        freeHead = slot;
+        size--;
+        return payload;
+    }
+
+    private void link(int slot) {
+        int bucket = (int) (slotDeadlines[slot] & wheelMask);
+        int head = buckets[bucket];
+        prev[slot] = NIL;
+        next[slot] = head;
+        if (head != NIL) {
+            prev[head] = slot;
+        }
+        buckets[bucket] = slot;
+    }
+
+    private void unlink(int slot) {
+        int p = prev[slot];
+        int n = next[slot];
+        if (p != NIL) {
+            next[p] = n;
+        } else {
+            buckets[(int) (slotDeadlines[slot] & wheelMask)] = n;
+        }
+        if (n != NIL) {
+            prev[n] = p;
+        }
+    }
+
+    private int find(long key) {
+        int pos = home(key);
+        while (indexUsed[pos]) {
+            if (indexKeys[pos] == key) {
+                return pos;
+            }
+            pos = (pos + 1) & indexMask;
+        }
+        return NIL;
+    }
+
+    // Cancellazione con backward shift: evita tombstone e mantiene corte le sequenze di probing
+    private void deleteIndexAt(int pos) {
+        int hole = pos;
+        int j = pos;
+        while (true) {
+            j = (j + 1) & indexMask;
+            if (!indexUsed[j]) {
+                break;
+            }
+            long key = indexKeys[j];
+            int home = home(key);
+            boolean inRange = hole <= j ? (hole < home && home <= j) : (hole < home || home <= j);
+            if (inRange) {
+                continue;
+            }
+            indexKeys[hole] = key;
+            indexSlots[hole] = indexSlots[j];
+            hole = j;
+        }
+        indexUsed[hole] = false;
+    }
+
+    private int home(long key) {
+        return (int) (key ^ (key >>> 32)) & indexMask;
+    }
+}
@@ -0,0 +1,143 @@
+package com.experis.receiver.service.publisher;
+
+import com.experis.receiver.exception.PublisherBackpressureException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.BufferExhaustedException;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.config.BindingServiceProperties;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pubblicazione asincrona su Kafka con conferma del broker.
+ * Il topic è quello configurato sul binding di Spring Cloud Stream, ma l'invio passa dal KafkaTemplate
+ * così da ottenere un future completato all'ack (batching/linger configurati in spring.kafka.producer).
+ * Oltre {@code max-in-flight} invii non confermati, o con buffer del producer pieno,
+ * viene sollevata una {@link PublisherBackpressureException}.
+ */
+@Component
+@Slf4j
+public class KafkaInvoicePublisher {
+
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final BindingServiceProperties bindingServiceProperties;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final Timer sendTimer;
+    private final Counter failedCounter;
+    private final Counter rejectedCounter;
+
+    public KafkaInvoicePublisher(KafkaTemplate<String, Object> kafkaTemplate,
+                                 BindingServiceProperties bindingServiceProperties,
+                                 @Value("${app.publisher.max-in-flight:10000}") int maxInFlight,
+                                 MeterRegistry meterRegistry) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.bindingServiceProperties = bindingServiceProperties;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+
+        this.sendTimer = Timer.builder("receiver.kafka.send.latency")
+                .description("Tempo tra invio e ack del broker")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("receiver.kafka.send.inflight", this, KafkaInvoicePublisher::inFlightCount)
+                .description("Invii Kafka in attesa di ack")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("receiver.kafka.send.failed")
+                .description("Invii Kafka terminati con errore")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("receiver.kafka.send.rejected")
+                .description("Invii rifiutati per backpressure")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Pubblica il payload sul topic del binding indicato.
+     *
+     * @return future completato all'ack del broker; in caso di buffer pieno fallisce con PublisherBackpressureException
+     * @throws PublisherBackpressureException se il numero di invii non confermati ha raggiunto il limite
+     */
+    public CompletableFuture<SendResult<String, Object>> publish(String bindingName, String key, Object payload) {
+        if (!inFlight.tryAcquire()) {
+            rejectedCounter.increment();
+            throw new PublisherBackpressureException("Troppi invii Kafka in attesa di conferma");
+        }
+        String topic = bindingServiceProperties.getBindingDestination(bindingName);
+        long start = System.nanoTime();
+        CompletableFuture<SendResult<String, Object>> future;
+        try {
+            future = kafkaTemplate.send(topic, key, payload);
+        } catch (RuntimeException e) {
+            inFlight.release();
+            failedCounter.increment();
+            throw e;
+        }
+        return future.whenComplete((result, throwable) -> {
+            inFlight.release();
+            sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (throwable != null) {
+                failedCounter.increment();
+            }
+        }).exceptionallyCompose(throwable -> {
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            if (isBufferExhausted(cause)) {
+                rejectedCounter.increment();
+                return CompletableFuture.failedFuture(new PublisherBackpressureException("Buffer del producer Kafka pieno", cause));
+            }
+            return CompletableFuture.failedFuture(cause);
+        });
+    }
+
+    public int inFlightCount() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    public int maxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return frazione (0-1) del buffer del producer Kafka occupata, 0 se le metriche non sono disponibili
+     */
+    public double bufferUsage() {
+        double available = -1;
+        double total = -1;
+        for (Map.Entry<MetricName, ? extends Metric> entry : kafkaTemplate.metrics().entrySet()) {
+            if (!"producer-metrics".equals(entry.getKey().group())) {
+                continue;
+            }
+            if ("buffer-available-bytes".equals(entry.getKey().name())) {
+                available = toDouble(entry.getValue().metricValue());
+            } else if ("buffer-total-bytes".equals(entry.getKey().name())) {
+                total = toDouble(entry.getValue().metricValue());
+            }
+        }
+        return available >= 0 && total > 0 ? 1 - available / total : 0;
+    }
+
+    private static double toDouble(Object value) {
+        return value instanceof Number number ? number.doubleValue() : -1;
+    }
+
+    private static boolean isBufferExhausted(Throwable throwable) {
+        for (Throwable t = throwable; t != null; t = t.getCause()) {
+            if (t instanceof BufferExhaustedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
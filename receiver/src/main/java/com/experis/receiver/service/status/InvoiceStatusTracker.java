@@ -0,0 +1,135 @@
+package com.experis.receiver.service.status;
+
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+import com.experis.receiver.dto.InvoiceTrackingDto;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Stato delle richieste seguite da questa istanza del receiver, per gli endpoint di long-poll e SSE.
+ * Le richieste vengono registrate all'invio su Kafka e completate dalle risposte della SAGA
+ * (handleSavedInvoice/handleUpdatedInvoice) o dal timeout: i client senza callback conoscono l'esito
+ * senza interrogare dbmanager. Gli stati finali restano disponibili fino a {@code app.status.capacity}
+ * richieste più recenti.
+ */
+@Component
+@Slf4j
+public class InvoiceStatusTracker {
+
+    private final Map<Long, Entry> entries;
+
+    public InvoiceStatusTracker(@Value("${app.status.capacity:100000}") int capacity, MeterRegistry meterRegistry) {
+        this.entries = new LinkedHashMap<>(Math.min(capacity, 1 << 16), 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+        Gauge.builder("receiver.status.tracked", this, InvoiceStatusTracker::size)
+                .description("Richieste di cui è disponibile lo stato")
+                .register(meterRegistry);
+    }
+
+    public void track(long key, Integer customerId, String correlationId) {
+        InvoiceTrackingDto state = new InvoiceTrackingDto(customerId, correlationId, InvoiceTrackingDto.State.PENDING,
+                null, null, LocalDateTime.now());
+        synchronized (entries) {
+            // Una nuova richiesta con la stessa chiave riparte da PENDING; gli eventuali listener restano agganciati
+            Entry entry = entries.remove(key);
+            if (entry == null) {
+                entry = new Entry();
+            }
+            entry.state = state;
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Aggiorna lo stato di una richiesta seguita e notifica i listener. Le chiavi non seguite sono ignorate.
+     */
+    public void update(long key, InvoiceTrackingDto.State newState, Long invoiceNumber, InvoiceStatus invoiceStatus) {
+        List<Consumer<InvoiceTrackingDto>> toNotify;
+        InvoiceTrackingDto state;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return;
+            }
+            InvoiceTrackingDto previous = entry.state;
+            state = new InvoiceTrackingDto(previous.getCustomerId(), previous.getCorrelationId(), newState,
+                    invoiceNumber != null ? invoiceNumber : previous.getInvoiceNumber(),
+                    invoiceStatus != null ? invoiceStatus : previous.getInvoiceStatus(),
+                    LocalDateTime.now());
+            entry.state = state;
+            toNotify = new ArrayList<>(entry.listeners);
+            if (newState.isFinal()) {
+                entry.listeners.clear();
+            }
+        }
+        for (Consumer<InvoiceTrackingDto> listener : toNotify) {
+            try {
+                listener.accept(state);
+            } catch (Exception e) {
+                log.warn("Errore nella notifica dello stato per {}: {}", state.getCorrelationId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return lo stato corrente, oppure null se la richiesta non è seguita da questa istanza
+     */
+    public InvoiceTrackingDto current(long key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            return entry != null ? entry.state : null;
+        }
+    }
+
+    /**
+     * Aggancia un listener ai cambi di stato successivi. Se lo stato è già finale il listener non viene registrato.
+     *
+     * @return lo stato corrente al momento della registrazione, oppure null se la richiesta non è seguita
+     */
+    public InvoiceTrackingDto subscribe(long key, Consumer<InvoiceTrackingDto> listener) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (!entry.state.getState().isFinal()) {
+                entry.listeners.add(listener);
+            }
+            return entry.state;
+        }
+    }
+
+    public void unsubscribe(long key, Consumer<InvoiceTrackingDto> listener) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                entry.listeners.remove(listener);
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static final class Entry {
+        private InvoiceTrackingDto state;
+        private final List<Consumer<InvoiceTrackingDto>> listeners = new ArrayList<>(1);
+    }
+}
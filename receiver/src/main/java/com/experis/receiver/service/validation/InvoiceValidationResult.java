@@ -0,0 +1,20 @@
+package com.experis.receiver.service.validation;
+
+/**
+ * Esito della validazione del corpo XML di una fattura.
+ *
+ * @param valid   true se il documento è ben formato e, per FatturaPA, conforme allo schema
+ * @param message primo errore rilevato (null se valido)
+ */
+public record InvoiceValidationResult(boolean valid, String message) {
+
+    private static final InvoiceValidationResult VALID = new InvoiceValidationResult(true, null);
+
+    public static InvoiceValidationResult ok() {
+        return VALID;
+    }
+
+    public static InvoiceValidationResult invalid(String message) {
+        return new InvoiceValidationResult(false, message);
+    }
+}
@@ -0,0 +1,212 @@
+package com.experis.receiver.service.validation;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validazione del corpo XML delle fatture prima dell'invio a Kafka.
+ * <p>
+ * Il documento viene letto in streaming con StAX: l'elemento radice decide lo schema (per namespace)
+ * e la validazione avviene con {@link StAXSource} su un {@link Schema} compilato una sola volta all'avvio.
+ * I documenti che non dichiarano un namespace FatturaPA sono solo verificati come XML ben formato,
+ * a meno di {@code app.validation.require-fatturapa}.
+ * <p>
+ * La validazione è CPU-bound e gira su un pool di thread dedicato (uno per core di default) con coda limitata:
+ * a coda piena il future fallisce con {@link java.util.concurrent.RejectedExecutionException}.
+ * DTD ed entità esterne sono disabilitate.
+ */
+@Component
+@Slf4j
+public class InvoiceXmlValidator {
+
+    public static final String FATTURAPA_V12_NAMESPACE = "http://ivaservizi.agenziaentrate.gov.it/docs/xsd/fatture/v1.2";
+
+    // Schemi per namespace della radice
+    private static final Map<String, String> SCHEMA_LOCATIONS = Map.of(
+            FATTURAPA_V12_NAMESPACE, "xsd/fatturapa-v1.2.xsd"
+    );
+
+    private final boolean enabled;
+    private final boolean requireFatturaPa;
+    private final Map<String, Schema> schemas = new HashMap<>();
+    private final ThreadPoolExecutor workers;
+    private final Timer validTimer;
+    private final Timer invalidTimer;
+
+    // XMLInputFactory e Validator non sono garantiti thread-safe: uno per thread del pool
+    private final ThreadLocal<XMLInputFactory> inputFactory = ThreadLocal.withInitial(InvoiceXmlValidator::newInputFactory);
+    private final ThreadLocal<Map<String, Validator>> validators = ThreadLocal.withInitial(HashMap::new);
+
+    public InvoiceXmlValidator(@Value("${app.validation.enabled:true}") boolean enabled,
+                               @Value("${app.validation.require-fatturapa:false}") boolean requireFatturaPa,
+                               @Value("${app.validation.workers:0}") int workers,
+                               @Value("${app.validation.queue-capacity:10000}") int queueCapacity,
+                               MeterRegistry meterRegistry) throws IOException, SAXException {
+        this.enabled = enabled;
+        this.requireFatturaPa = requireFatturaPa;
+
+        SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        schemaFactory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        // Gli schemi possono importare solo file locali (es. xmldsig-core-schema.xsd accanto allo schema ufficiale)
+        schemaFactory.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "file,jar:file");
+        for (Map.Entry<String, String> entry : SCHEMA_LOCATIONS.entrySet()) {
+            URL url = new ClassPathResource(entry.getValue()).getURL();
+            schemas.put(entry.getKey(), schemaFactory.newSchema(url));
+            log.info("Schema {} compilato per il namespace {}", entry.getValue(), entry.getKey());
+        }
+
+        int poolSize = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        this.workers = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("invoice-validator-", 0).daemon().factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        this.validTimer = Timer.builder("receiver.validation.duration").tag("outcome", "valid")
+                .description("Durata della validazione XML delle fatture")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.invalidTimer = Timer.builder("receiver.validation.duration").tag("outcome", "invalid")
+                .description("Durata della validazione XML delle fatture")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("receiver.validation.queue", this.workers, pool -> pool.getQueue().size())
+                .description("Fatture in attesa di validazione")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Valida il documento sul pool dedicato.
+     */
+    public CompletableFuture<InvoiceValidationResult> validateAsync(String xml) {
+        if (!enabled) {
+            return CompletableFuture.completedFuture(InvoiceValidationResult.ok());
+        }
+        return CompletableFuture.supplyAsync(() -> validate(xml), workers);
+    }
+
+    /**
+     * Valida il documento nel thread chiamante.
+     */
+    public InvoiceValidationResult validate(String xml) {
+        if (xml == null || xml.isBlank()) {
+            return InvoiceValidationResult.invalid("Corpo XML della fattura mancante");
+        }
+        long start = System.nanoTime();
+        InvoiceValidationResult result = doValidate(xml);
+        (result.valid() ? validTimer : invalidTimer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    private InvoiceValidationResult doValidate(String xml) {
+        XMLInputFactory factory = inputFactory.get();
+        XMLStreamReader reader = null;
+        try {
+            reader = factory.createXMLStreamReader(new StringReader(xml));
+            while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+                // prolog: commenti e processing instruction
+            }
+            if (!reader.isStartElement()) {
+                return InvoiceValidationResult.invalid("Documento XML senza elemento radice");
+            }
+            String namespace = reader.getNamespaceURI();
+            Schema schema = namespace != null ? schemas.get(namespace) : null;
+            if (schema == null) {
+                if (requireFatturaPa) {
+                    return InvoiceValidationResult.invalid("Elemento radice " + reader.getLocalName() + " non è una FatturaPA");
+                }
+                // Documento generico: basta che sia ben formato, lo verifichiamo nella stessa passata
+                while (reader.hasNext()) {
+                    reader.next();
+                }
+                return InvoiceValidationResult.ok();
+            }
+            reader.close();
+
+            // Nuova passata dall'inizio: il validatore deve vedere anche l'elemento radice
+            reader = factory.createXMLStreamReader(new StringReader(xml));
+            Validator validator = validators.get().computeIfAbsent(namespace, ns -> newValidator(schema));
+            validator.reset();
+            validator.validate(new StAXSource(reader));
+            return InvoiceValidationResult.ok();
+        } catch (XMLStreamException e) {
+            return InvoiceValidationResult.invalid("XML non ben formato: " + e.getMessage());
+        } catch (SAXException e) {
+            return InvoiceValidationResult.invalid("FatturaPA non valida: " + rootMessage(e));
+        } catch (IOException e) {
+            return InvoiceValidationResult.invalid("Errore di lettura XML: " + e.getMessage());
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    // Con StAXSource l'errore di validazione arriva annidato in TransformerException/XMLStreamException
+    private static String rootMessage(Throwable throwable) {
+        Throwable root = throwable;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        return root.getMessage();
+    }
+
+    private static Validator newValidator(Schema schema) {
+        Validator validator = schema.newValidator();
+        try {
+            validator.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            validator.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        } catch (SAXNotRecognizedException | SAXNotSupportedException e) {
+            log.warn("Proprietà di sicurezza non supportate dal validatore: {}", e.getMessage());
+        }
+        return validator;
+    }
+
+    private static XMLInputFactory newInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+
+    private static void closeQuietly(XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // niente da fare
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+    }
+}
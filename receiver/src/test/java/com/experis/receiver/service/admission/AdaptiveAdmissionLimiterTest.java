@@ -0,0 +1,58 @@
+package com.experis.receiver.service.admission;
+
+import com.experis.receiver.service.pending.PendingRequestStore;
+import com.experis.receiver.service.publisher.KafkaInvoicePublisher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AdaptiveAdmissionLimiterTest {
+
+    private PendingRequestStore store;
+    private KafkaInvoicePublisher publisher;
+    private AdaptiveAdmissionLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        store = new PendingRequestStore(1024, 64, 100, registry);
+        publisher = mock(KafkaInvoicePublisher.class);
+        when(publisher.maxInFlight()).thenReturn(100);
+        // update-ms molto alto: gli aggiornamenti sono invocati esplicitamente dal test
+        limiter = new AdaptiveAdmissionLimiter(store, publisher, true, 4, 2, 1000, 2.0, 0.8, 30, 3_600_000, registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        limiter.shutdown();
+        store.shutdown();
+    }
+
+    @Test
+    void tryAdmit_shouldRejectWhenPendingReachesLimit() {
+        for (long key = 1; key <= 4; key++) {
+            assertTrue(limiter.tryAdmit());
+            store.register(key, "fattura", 60000);
+        }
+        assertFalse(limiter.tryAdmit());
+        assertTrue(limiter.retryAfterSeconds() >= 1);
+    }
+
+    @Test
+    void update_underProducerPressure_shouldLowerLimit() {
+        when(publisher.inFlightCount()).thenReturn(90);
+        int before = limiter.limit();
+
+        for (int i = 0; i < 20; i++) {
+            limiter.update();
+        }
+
+        assertTrue(limiter.limit() < before);
+        assertEquals(2, limiter.limit());
+    }
+}
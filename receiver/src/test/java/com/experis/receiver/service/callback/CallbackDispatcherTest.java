@@ -0,0 +1,61 @@
+package com.experis.receiver.service.callback;
+
+import com.experis.dbmanager.blob.FileSystemBlobStore;
+import com.experis.dbmanager.dto.InvoiceDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class CallbackDispatcherTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    // host-idle-ms molto alto: la rimozione degli host è invocata esplicitamente dal test
+    private final CallbackDispatcher dispatcher = new CallbackDispatcher(mock(RestTemplate.class), mock(StreamBridge.class),
+            registry, mock(FileSystemBlobStore.class), 2, 100, 1, 1, 2.0, 3_600_000, List.of("partner.example.com"));
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void dispatch_shouldTagOnlyAllowedHostsAndEvictIdleOnes() throws InterruptedException {
+        dispatcher.dispatch(invoice("https://partner.example.com/hook"));
+        dispatcher.dispatch(invoice("https://a.customer.example.org/hook"));
+        dispatcher.dispatch(invoice("https://b.customer.example.org/hook"));
+        awaitDelivered();
+
+        assertEquals(1, registry.get("receiver.callback.latency").tag("host", "partner.example.com").timer().count());
+        assertEquals(2, registry.get("receiver.callback.latency").tag("host", "other").timer().count());
+        assertEquals(3, dispatcher.trackedHosts());
+
+        dispatcher.evictIdleHosts(System.nanoTime());
+        assertEquals(3, dispatcher.trackedHosts());
+        dispatcher.evictIdleHosts(System.nanoTime() + TimeUnit.HOURS.toNanos(2));
+        assertEquals(0, dispatcher.trackedHosts());
+    }
+
+    private void awaitDelivered() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (registry.get("receiver.callback.queued").gauge().value() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static InvoiceDto invoice(String callback) {
+        InvoiceDto invoice = new InvoiceDto();
+        invoice.setInvoice("<fattura/>");
+        invoice.setCallback(callback);
+        invoice.setCorrelationId(callback);
+        return invoice;
+    }
+}
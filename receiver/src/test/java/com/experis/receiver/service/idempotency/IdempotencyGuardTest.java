@@ -0,0 +1,91 @@
+package com.experis.receiver.service.idempotency;
+
+import com.experis.dbmanager.dto.ResponseDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyGuardTest {
+
+    private static ResponseEntity<ResponseDto> response(HttpStatus status) {
+        return ResponseEntity.status(status).body(new ResponseDto(String.valueOf(status.value()), "msg"));
+    }
+
+    @Test
+    void execute_withDuplicateInFlight_shouldRunActionOnce() {
+        IdempotencyGuard guard = new IdempotencyGuard(new InMemoryIdempotencyStore(1000, 0.01, 60000), true, 100, new SimpleMeterRegistry());
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<ResponseEntity<ResponseDto>> pending = new CompletableFuture<>();
+
+        CompletableFuture<ResponseEntity<ResponseDto>> first = guard.execute(1L, () -> { calls.incrementAndGet(); return pending; });
+        CompletableFuture<ResponseEntity<ResponseDto>> retry = guard.execute(1L, () -> { calls.incrementAndGet(); return pending; });
+        pending.complete(response(HttpStatus.ACCEPTED));
+
+        assertEquals(1, calls.get());
+        assertEquals(HttpStatus.ACCEPTED, first.join().getStatusCode());
+        assertEquals(HttpStatus.ACCEPTED, retry.join().getStatusCode());
+    }
+
+    @Test
+    void execute_afterErrorResponse_shouldAllowRetry() {
+        IdempotencyGuard guard = new IdempotencyGuard(new InMemoryIdempotencyStore(1000, 0.01, 60000), true, 100, new SimpleMeterRegistry());
+        AtomicInteger calls = new AtomicInteger();
+
+        guard.execute(2L, () -> { calls.incrementAndGet(); return CompletableFuture.completedFuture(response(HttpStatus.SERVICE_UNAVAILABLE)); }).join();
+        ResponseEntity<ResponseDto> retried = guard.execute(2L, () -> { calls.incrementAndGet(); return CompletableFuture.completedFuture(response(HttpStatus.ACCEPTED)); }).join();
+
+        assertEquals(2, calls.get());
+        assertEquals(HttpStatus.ACCEPTED, retried.getStatusCode());
+    }
+
+    @Test
+    void execute_afterLocalEviction_shouldAnswerFromStore() {
+        IdempotencyGuard guard = new IdempotencyGuard(new InMemoryIdempotencyStore(1000, 0.01, 60000), true, 1, new SimpleMeterRegistry());
+        AtomicInteger calls = new AtomicInteger();
+
+        guard.execute(3L, () -> { calls.incrementAndGet(); return CompletableFuture.completedFuture(response(HttpStatus.ACCEPTED)); }).join();
+        // La chiave 4 espelle la 3 dalla LRU locale
+        guard.execute(4L, () -> CompletableFuture.completedFuture(response(HttpStatus.ACCEPTED))).join();
+        ResponseEntity<ResponseDto> duplicate = guard.execute(3L, () -> { calls.incrementAndGet(); return CompletableFuture.completedFuture(response(HttpStatus.ACCEPTED)); }).join();
+
+        assertEquals(1, calls.get());
+        assertEquals(HttpStatus.ACCEPTED, duplicate.getStatusCode());
+        assertEquals("202", duplicate.getBody().getStatusCode());
+    }
+
+    @Test
+    void execute_whenAnsweredFromStore_shouldReplayLocationAndRoutingCookie() {
+        IdempotencyGuard guard = new IdempotencyGuard(new InMemoryIdempotencyStore(1000, 0.01, 60000), true, 1, new SimpleMeterRegistry());
+        ResponseEntity<ResponseDto> accepted = ResponseEntity.status(HttpStatus.ACCEPTED)
+                .location(URI.create("statoFattura/1/corr-1"))
+                .header(HttpHeaders.SET_COOKIE, "sc-lb-instance-id=receiver-1; Path=/; HttpOnly")
+                .body(new ResponseDto("202", "msg"));
+
+        guard.execute(5L, () -> CompletableFuture.completedFuture(accepted)).join();
+        guard.execute(6L, () -> CompletableFuture.completedFuture(response(HttpStatus.ACCEPTED))).join();
+        ResponseEntity<ResponseDto> duplicate = guard.execute(5L, () -> CompletableFuture.completedFuture(response(HttpStatus.ACCEPTED))).join();
+
+        assertEquals(URI.create("statoFattura/1/corr-1"), duplicate.getHeaders().getLocation());
+        assertEquals(List.of("sc-lb-instance-id=receiver-1; Path=/; HttpOnly"), duplicate.getHeaders().get(HttpHeaders.SET_COOKIE));
+    }
+
+    @Test
+    void bloomFilter_shouldNeverMissInsertedKeys() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (long key = 1; key <= 10000; key++) {
+            filter.put(key * 0x9E3779B97F4A7C15L);
+        }
+        for (long key = 1; key <= 10000; key++) {
+            assertTrue(filter.mightContain(key * 0x9E3779B97F4A7C15L));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.experis.receiver.service.pending;
+
+import com.experis.receiver.service.pending.PendingRequestTable.PutResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PendingRequestTableTest {
+
+    @Test
+    void putAndRemove_shouldReturnPayloadOnce() {
+        PendingRequestTable table = new PendingRequestTable(8, 4);
+
+        assertEquals(PutResult.ADDED, table.put(42L, "fattura", 3));
+        assertEquals(1, table.size());
+        assertEquals("fattura", table.remove(42L));
+        assertNull(table.remove(42L));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void put_whenFull_shouldReject() {
+        PendingRequestTable table = new PendingRequestTable(2, 4);
+
+        assertEquals(PutResult.ADDED, table.put(1L, "a", 1));
+        assertEquals(PutResult.ADDED, table.put(2L, "b", 1));
+        assertEquals(PutResult.FULL, table.put(3L, "c", 1));
+    }
+
+    @Test
+    void put_whenKeyPresent_shouldKeepExistingRequestAndItsDeadline() {
+        PendingRequestTable table = new PendingRequestTable(8, 4);
+
+        assertEquals(PutResult.ADDED, table.put(2L, "b", 1));
+        assertEquals(PutResult.DUPLICATE, table.put(2L, "b2", 3));
+        assertEquals(1, table.size());
+
+        List<Object> expired = new ArrayList<>();
+        table.expire(1, expired);
+        assertEquals(List.of("b"), expired);
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void put_shouldKeepZeroAndOneAsDistinctKeys() {
+        PendingRequestTable table = new PendingRequestTable(8, 4);
+
+        assertEquals(PutResult.ADDED, table.put(0L, "zero", 1));
+        assertEquals(PutResult.ADDED, table.put(1L, "uno", 1));
+        assertEquals("zero", table.remove(0L));
+        assertFalse(table.contains(0L));
+        assertEquals("uno", table.remove(1L));
+    }
+
+    @Test
+    void expire_shouldOnlyRemoveEntriesWhoseDeadlineIsReached() {
+        PendingRequestTable table = new PendingRequestTable(16, 4);
+        table.put(1L, "tick-2", 2);
+        // Stesso bucket (6 & 3 == 2) ma un giro di ruota dopo
+        table.put(2L, "tick-6", 6);
+
+        List<Object> expired = new ArrayList<>();
+        table.expire(2, expired);
+        assertEquals(List.of("tick-2"), expired);
+        assertTrue(table.contains(2L));
+
+        expired.clear();
+        table.expire(6, expired);
+        assertEquals(List.of("tick-6"), expired);
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void remove_shouldKeepCollidingKeysReachable() {
+        PendingRequestTable table = new PendingRequestTable(64, 8);
+        for (long key = 1; key <= 64; key++) {
+            assertEquals(PutResult.ADDED, table.put(key * 128, key, key));
+        }
+        for (long key = 1; key <= 64; key += 2) {
+            assertEquals(key, table.remove(key * 128));
+        }
+        for (long key = 2; key <= 64; key += 2) {
+            assertEquals(key, table.remove(key * 128));
+        }
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void keyOf_shouldDistinguishCustomerAndCorrelation() {
+        assertEquals(PendingRequestStore.keyOf(1, "abc"), PendingRequestStore.keyOf(1, "abc"));
+        assertNotEquals(PendingRequestStore.keyOf(1, "abc"), PendingRequestStore.keyOf(2, "abc"));
+        assertNotEquals(PendingRequestStore.keyOf(1, "abc"), PendingRequestStore.keyOf(1, "abd"));
+    }
+}
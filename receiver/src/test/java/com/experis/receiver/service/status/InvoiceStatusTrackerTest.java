@@ -0,0 +1,56 @@
+package com.experis.receiver.service.status;
+
+import com.experis.dbmanager.enumerations.InvoiceStatus;
+import com.experis.receiver.dto.InvoiceTrackingDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvoiceStatusTrackerTest {
+
+    @Test
+    void update_shouldNotifySubscribersUntilFinalState() {
+        InvoiceStatusTracker tracker = new InvoiceStatusTracker(10, new SimpleMeterRegistry());
+        List<InvoiceTrackingDto> received = new ArrayList<>();
+
+        tracker.track(1L, 7, "corr-1");
+        InvoiceTrackingDto initial = tracker.subscribe(1L, received::add);
+        tracker.update(1L, InvoiceTrackingDto.State.SAVED, 42L, InvoiceStatus.INTERNAL_INVOICE_NEW);
+        tracker.update(1L, InvoiceTrackingDto.State.UPDATED, null, InvoiceStatus.INTERNAL_INVOICE_DELIVERED);
+
+        assertEquals(InvoiceTrackingDto.State.PENDING, initial.getState());
+        assertEquals(1, received.size());
+        assertEquals(42, received.get(0).getInvoiceNumber());
+        InvoiceTrackingDto current = tracker.current(1L);
+        assertEquals(InvoiceTrackingDto.State.UPDATED, current.getState());
+        assertEquals(42, current.getInvoiceNumber());
+        assertEquals(InvoiceStatus.INTERNAL_INVOICE_DELIVERED, current.getInvoiceStatus());
+    }
+
+    @Test
+    void update_onUntrackedKey_shouldBeIgnored() {
+        InvoiceStatusTracker tracker = new InvoiceStatusTracker(10, new SimpleMeterRegistry());
+
+        tracker.update(99L, InvoiceTrackingDto.State.SAVED, 1L, InvoiceStatus.INTERNAL_INVOICE_NEW);
+
+        assertNull(tracker.current(99L));
+        assertNull(tracker.subscribe(99L, state -> fail("listener inatteso")));
+    }
+
+    @Test
+    void track_beyondCapacity_shouldEvictOldestRequests() {
+        InvoiceStatusTracker tracker = new InvoiceStatusTracker(2, new SimpleMeterRegistry());
+
+        tracker.track(1L, 1, "a");
+        tracker.track(2L, 1, "b");
+        tracker.track(3L, 1, "c");
+
+        assertNull(tracker.current(1L));
+        assertNotNull(tracker.current(3L));
+        assertEquals(2, tracker.size());
+    }
+}
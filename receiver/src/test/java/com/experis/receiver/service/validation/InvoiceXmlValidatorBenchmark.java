@@ -0,0 +1,77 @@
+package com.experis.receiver.service.validation;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.core.io.ClassPathResource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Throughput della validazione per documenti da 10KB a 5MB, sul pool dedicato.
+ * Eseguire con: mvn -pl receiver test -Dtest=InvoiceXmlValidatorBenchmark -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class InvoiceXmlValidatorBenchmark {
+
+    private static final int[] SIZES = {10 * 1024, 100 * 1024, 1024 * 1024, 5 * 1024 * 1024};
+    private static final long RUN_NANOS = 5_000_000_000L;
+
+    @Test
+    void throughput() throws Exception {
+        String sample = new ClassPathResource("fatturapa/IT01234567890_FPR01.xml").getContentAsString(StandardCharsets.UTF_8);
+        InvoiceXmlValidator validator = new InvoiceXmlValidator(true, false, 0, 10_000, new SimpleMeterRegistry());
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int size : SIZES) {
+                String document = withLines(sample, size);
+                assertTrue(validator.validate(document).valid());
+
+                // Riscaldamento
+                runFor(validator, document, parallelism, RUN_NANOS / 5);
+                long start = System.nanoTime();
+                long documents = runFor(validator, document, parallelism, RUN_NANOS);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%8d KB: %10.1f doc/s %8.1f MB/s%n", document.length() / 1024,
+                        documents / seconds, documents * (double) document.length() / (1024 * 1024) / seconds);
+            }
+        } finally {
+            validator.shutdown();
+        }
+    }
+
+    private static long runFor(InvoiceXmlValidator validator, String document, int parallelism, long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long count = 0;
+        while (System.nanoTime() < deadline) {
+            List<CompletableFuture<InvoiceValidationResult>> batch = new ArrayList<>(parallelism * 2);
+            for (int i = 0; i < parallelism * 2; i++) {
+                batch.add(validator.validateAsync(document));
+            }
+            for (CompletableFuture<InvoiceValidationResult> future : batch) {
+                future.join();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Replica le linee di dettaglio fino a raggiungere la dimensione richiesta
+    private static String withLines(String sample, int targetSize) {
+        String marker = "<DatiRiepilogo>";
+        int insertAt = sample.indexOf(marker);
+        StringBuilder document = new StringBuilder(targetSize + 1024).append(sample, 0, insertAt);
+        for (int line = 2; document.length() < targetSize; line++) {
+            document.append("<DettaglioLinee><NumeroLinea>").append(line)
+                    .append("</NumeroLinea><Descrizione>Servizio di consulenza ").append(line)
+                    .append("</Descrizione><Quantita>1.00</Quantita><PrezzoUnitario>100.00</PrezzoUnitario>")
+                    .append("<PrezzoTotale>100.00</PrezzoTotale><AliquotaIVA>22.00</AliquotaIVA></DettaglioLinee>\n      ");
+        }
+        return document.append(sample, insertAt, sample.length()).toString();
+    }
+}
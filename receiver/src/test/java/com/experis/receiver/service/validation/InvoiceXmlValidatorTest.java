@@ -0,0 +1,72 @@
+package com.experis.receiver.service.validation;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvoiceXmlValidatorTest {
+
+    private InvoiceXmlValidator validator;
+    private String sample;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        validator = new InvoiceXmlValidator(true, false, 2, 16, new SimpleMeterRegistry());
+        sample = new ClassPathResource("fatturapa/IT01234567890_FPR01.xml").getContentAsString(StandardCharsets.UTF_8);
+    }
+
+    @AfterEach
+    void tearDown() {
+        validator.shutdown();
+    }
+
+    @Test
+    void validate_shouldAcceptConformingFatturaPa() {
+        assertTrue(validator.validate(sample).valid());
+        assertTrue(validator.validateAsync(sample).join().valid());
+    }
+
+    @Test
+    void validate_shouldRejectFatturaPaNotConformingToSchema() {
+        InvoiceValidationResult result = validator.validate(sample.replace("<TipoDocumento>TD01", "<TipoDocumento>XX01"));
+
+        assertFalse(result.valid());
+        assertTrue(result.message().contains("XX01"));
+        // Il validatore riusato dal thread torna utilizzabile dopo un errore
+        assertTrue(validator.validate(sample).valid());
+    }
+
+    @Test
+    void validate_shouldRejectMalformedOrMissingXml() {
+        assertFalse(validator.validate("<xml><fattura></xml>").valid());
+        assertFalse(validator.validate("non è XML").valid());
+        assertFalse(validator.validate("").valid());
+        assertFalse(validator.validate(null).valid());
+    }
+
+    @Test
+    void validate_shouldNotResolveExternalEntities() {
+        String xxe = "<?xml version=\"1.0\"?><!DOCTYPE x [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><xml>&e;</xml>";
+
+        assertFalse(validator.validate(xxe).valid());
+    }
+
+    @Test
+    void validate_shouldOnlyCheckWellFormednessOfOtherDocuments() throws Exception {
+        assertTrue(validator.validate("<xml>fattura</xml>").valid());
+
+        InvoiceXmlValidator strict = new InvoiceXmlValidator(true, true, 1, 1, new SimpleMeterRegistry());
+        try {
+            assertFalse(strict.validate("<xml>fattura</xml>").valid());
+            assertTrue(strict.validate(sample).valid());
+        } finally {
+            strict.shutdown();
+        }
+    }
+}
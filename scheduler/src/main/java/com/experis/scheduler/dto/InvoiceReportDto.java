@@ -13,7 +13,7 @@ public class InvoiceReportDto {
     private String invoiceStatus;
 
     @CsvBindByName(column = "Numero_Fattura")
-    private int invoiceNumber;
+    private long invoiceNumber;
 
     // Assumiamo che il customer sia un oggetto nestato nel DTO di risposta da dbmanager
     @CsvBindByName(column = "Username_Customer")
@@ -46,6 +46,7 @@ public class DbManagerClient {
                 .uri(uriBuilder -> uriBuilder
                         .path("/invoices")
                         .queryParam("size", 1000) // Chiediamo una pagina grande
+                        .queryParam("view", "summary") // Solo intestazione: niente corpo XML né dati cliente completi
                         .build())
                 .retrieve()
                 .bodyToMono(pageTypeRef)
@@ -0,0 +1,19 @@
+package com.experis.scheduler.config;
+
+import com.experis.dbmanager.blob.FileSystemBlobStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+@Configuration
+public class BlobStoreConfig {
+
+    // Directory condivisa tra receiver, dbmanager e sender per i corpi XML in claim check
+    @Bean
+    public FileSystemBlobStore invoiceBlobStore(@Value("${app.blob-store.path:${java.io.tmpdir}/invoice-blobs}") String path) throws IOException {
+        return new FileSystemBlobStore(Path.of(path));
+    }
+}
@@ -1,5 +1,6 @@
 package com.experis.scheduler.functions;
 
+import com.experis.dbmanager.blob.FileSystemBlobStore;
 import com.experis.dbmanager.dto.InvoiceDto;
 import com.experis.dbmanager.enumerations.InvoiceStatus;
 import lombok.AllArgsConstructor;
@@ -7,9 +8,12 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.SimpleMailMessage;
+import org.springframework.messaging.support.MessageBuilder;
 
+import java.io.IOException;
 import java.util.function.Consumer;
 
 @Configuration
@@ -19,6 +23,7 @@ public class SenderFunctions {
 
     private final JavaMailSender mailSender;
     private final StreamBridge streamBridge;
+    private final FileSystemBlobStore invoiceBlobStore;
 
     /**
      * Consuma le fatture dal topic outgoingInvoice,
@@ -46,7 +51,10 @@ public class SenderFunctions {
 
             // Invia il risultato (successo o fallimento) al topic sentInvoice
             // Se questo invio fallisce, l'intera funzione consumer sarà ritentata dal binder Kafka.
-            boolean sent = streamBridge.send("publishSentInvoice-out-0", invoiceDto);
+            // Chiave per numero fattura: gli esiti della stessa fattura restano in ordine sulla stessa partizione
+            boolean sent = streamBridge.send("publishSentInvoice-out-0", MessageBuilder.withPayload(invoiceDto)
+                    .setHeader(KafkaHeaders.KEY, String.valueOf(invoiceDto.getInvoiceNumber()))
+                    .build());
 
             if (sent) {
                 log.info("Stato aggiornato {} inviato a sentInvoice per fattura {}.", invoiceDto.getInvoiceStatus(), invoiceDto.getInvoiceNumber());
@@ -61,7 +69,7 @@ public class SenderFunctions {
     /**
      * Metodo helper per comporre e inviare l'email di simulazione.
      */
-    private void sendEmailNotification(InvoiceDto invoiceDto) {
+    private void sendEmailNotification(InvoiceDto invoiceDto) throws IOException {
         SimpleMailMessage message = new SimpleMailMessage();
 
         // Cerca di usare l'email del cliente per il ReplyTo
@@ -82,9 +90,7 @@ public class SenderFunctions {
                 (invoiceDto.getCustomer() != null ? invoiceDto.getCustomer().getUsername() : "Sconosciuto"),
                 (invoiceDto.getCustomer() != null ? invoiceDto.getCustomer().getCustomerId() : 0),
                 invoiceDto.getInvoiceNumber(),
-                (invoiceDto.getInvoice() != null && invoiceDto.getInvoice().length() > 200) ?
-                        invoiceDto.getInvoice().substring(0, 200) + "..." :
-                        invoiceDto.getInvoice()
+                invoiceExtract(invoiceDto)
         );
 
         message.setText(text);
@@ -92,4 +98,16 @@ public class SenderFunctions {
         // Questo comando lancia l'eccezione se il mail server non risponde
         mailSender.send(message);
     }
+
+    /**
+     * Estratto di 200 caratteri del corpo XML. Se la fattura è in claim check
+     * vengono letti dal blob store solo i byte iniziali del file.
+     */
+    private String invoiceExtract(InvoiceDto invoiceDto) throws IOException {
+        String extract = invoiceDto.getInvoice();
+        if (extract == null && invoiceDto.getInvoiceRef() != null) {
+            extract = invoiceBlobStore.readPrefix(invoiceDto.getInvoiceRef(), 201);
+        }
+        return (extract != null && extract.length() > 200) ? extract.substring(0, 200) + "..." : extract;
+    }
 }
\ No newline at end of file